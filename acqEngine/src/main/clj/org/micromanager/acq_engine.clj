@@ -38,7 +38,7 @@
     [mmcorej.org.json JSONArray JSONObject]
     [org.micromanager.acquisition SequenceSettings]
     [org.micromanager.acquisition.internal AcquisitionSleepEvent]
-    [org.micromanager.acquisition.internal TaggedImageQueue]
+    [org.micromanager.acquisition.internal TaggedImageQueue TaggedImageRingBuffer]
     [org.micromanager.data Coords]
     [org.micromanager PositionList]
     [org.micromanager.internal MMStudio]
@@ -977,7 +977,7 @@
   (def last-acq this)
   (def last-state (.state this)) ; for debugging
     (reset! (.state this) {:stop false :pause false :finished false})
-    (let [out-queue (LinkedBlockingQueue. 10) ; Q: Why 10?
+    (let [out-queue (TaggedImageRingBuffer. 10) ; Q: Why 10? (rounded up to 16)
           acq-thread (Thread. #(binding [state (.state this)]
                                  (run-acquisition settings out-queue cleanup? position-list autofocus-device))
                               "AcquisitionEngine2010 Thread (Clojure)")]
@@ -43,6 +43,7 @@ import org.micromanager.AutofocusPlugin;
 import org.micromanager.Studio;
 import org.micromanager.autofocus.optimizers.BrentFocusOptimizer;
 import org.micromanager.autofocus.optimizers.FocusOptimizer;
+import org.micromanager.autofocus.optimizers.SequencedZStackFocusOptimizer;
 import org.micromanager.autofocus.optimizers.ZStackFocusOptimizer;
 import org.micromanager.imageprocessing.ImgSharpnessAnalysis;
 import org.micromanager.internal.utils.AutofocusBase;
@@ -64,7 +65,7 @@ public class OughtaFocus extends AutofocusBase implements AutofocusPlugin, SciJa
    private Studio studio_;
    private static final String AF_DEVICE_NAME = "OughtaFocus";
    private static final String OPTIMIZER_STRATEGY = "OptimizerStrategy";
-   private static final String[] OPTIMIZERS = {"Brent", "Z-Stack"};
+   private static final String[] OPTIMIZERS = {"Brent", "Z-Stack", "Sequenced Z-Stack"};
    private static final String FOCUSDRIVE = "FocusDrive";
    private static final String SEARCH_RANGE = "SearchRange_um";
    private static final String TOLERANCE = "Tolerance_um";
@@ -79,8 +80,11 @@ public class OughtaFocus extends AutofocusBase implements AutofocusPlugin, SciJa
    private static final String FFT_LOWER_CUTOFF = "FFTLowerCutoff(%)";
 
    private final ImgSharpnessAnalysis fcsAnalysis_ = new ImgSharpnessAnalysis();
+   // The sequenced optimizer scores several images at once, each on a single thread
+   private final ImgSharpnessAnalysis sequencedAnalysis_ = new ImgSharpnessAnalysis();
    private final BrentFocusOptimizer brentFocusOptimizer_;
    private final ZStackFocusOptimizer zStackFocusOptimizer_;
+   private final SequencedZStackFocusOptimizer sequencedZStackFocusOptimizer_;
    private FocusOptimizer focusOptimizer_;
 
    private String channel_ = "";
@@ -101,6 +105,9 @@ public class OughtaFocus extends AutofocusBase implements AutofocusPlugin, SciJa
    public OughtaFocus() {
       brentFocusOptimizer_ = new BrentFocusOptimizer(fcsAnalysis_::compute);
       zStackFocusOptimizer_  = new ZStackFocusOptimizer(fcsAnalysis_::compute);
+      sequencedAnalysis_.setMaxThreads(1);
+      sequencedZStackFocusOptimizer_ =
+              new SequencedZStackFocusOptimizer(sequencedAnalysis_::compute);
       focusOptimizer_ = brentFocusOptimizer_;
 
       super.createProperty(OPTIMIZER_STRATEGY, OPTIMIZERS[0], OPTIMIZERS);
@@ -132,8 +139,10 @@ public class OughtaFocus extends AutofocusBase implements AutofocusPlugin, SciJa
          optimizer_ = getPropertyValue(OPTIMIZER_STRATEGY);
          if (optimizer_.equals(OPTIMIZERS[0])) {
             focusOptimizer_ = brentFocusOptimizer_;
-         } else {
+         } else if (optimizer_.equals(OPTIMIZERS[1])) {
             focusOptimizer_ = zStackFocusOptimizer_;
+         } else {
+            focusOptimizer_ = sequencedZStackFocusOptimizer_;
          }
          focusOptimizer_.setContext(studio_);
          zDrive_ = getPropertyValue(FOCUSDRIVE);
@@ -155,13 +164,17 @@ public class OughtaFocus extends AutofocusBase implements AutofocusPlugin, SciJa
          double fftUpperCutoff =
                  NumberUtils.displayStringToDouble(getPropertyValue(FFT_UPPER_CUTOFF));
          fftUpperCutoff = clip(0.0, fftUpperCutoff, 100.0);
+         ImgSharpnessAnalysis.Method method =
+                 ImgSharpnessAnalysis.Method.valueOf(getPropertyValue(SCORING_METHOD));
          fcsAnalysis_.setFFTCutoff(fftLowerCutoff, fftUpperCutoff);
-         fcsAnalysis_.setComputationMethod(
-                 ImgSharpnessAnalysis.Method.valueOf(getPropertyValue(SCORING_METHOD)));
+         fcsAnalysis_.setComputationMethod(method);
+         sequencedAnalysis_.setFFTCutoff(fftLowerCutoff, fftUpperCutoff);
+         sequencedAnalysis_.setComputationMethod(method);
          displayImages_ = getPropertyValue(SHOW_IMAGES).contentEquals("Yes");
          displayGraph_ = getPropertyValue(SHOW_GRAPH).contentEquals("Yes");
-         // Only the zStack optimizer can display a graph
+         // Only the zStack optimizers can display a graph
          zStackFocusOptimizer_.setDisplayGraph(displayGraph_);
+         sequencedZStackFocusOptimizer_.setDisplayGraph(displayGraph_);
          focusOptimizer_.setDisplayImages(displayImages_);
       } catch (MMException | ParseException ex) {
          studio_.logs().logError(ex);
@@ -215,7 +228,7 @@ public class OughtaFocus extends AutofocusBase implements AutofocusPlugin, SciJa
 
    @Override
    public int getNumberOfImages() {
-      return brentFocusOptimizer_.getImageCount();
+      return focusOptimizer_.getImageCount();
    }
 
    @Override
@@ -0,0 +1,347 @@
+package org.micromanager.autofocus.optimizers;
+
+import ij.process.ImageProcessor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Function;
+import javax.swing.SwingUtilities;
+import mmcorej.CMMCore;
+import mmcorej.DoubleVector;
+import mmcorej.TaggedImage;
+import org.jfree.data.xy.XYSeries;
+import org.micromanager.Studio;
+import org.micromanager.data.Image;
+import org.micromanager.imageprocessing.curvefit.Fitter;
+import org.micromanager.imageprocessing.curvefit.PlotUtils;
+import org.micromanager.internal.utils.imageanalysis.ImageUtils;
+
+/**
+ * Z-stack autofocus that avoids a full snap round trip per test position.
+ *
+ * <p>When the Z drive is sequenceable, the whole test stack is acquired as a
+ * single hardware-triggered sequence acquisition.  Otherwise the stage is
+ * stepped and images are taken with back-to-back core snaps, bypassing the
+ * Studio live/snap machinery.  In both cases images are scored on a pool of
+ * worker threads while acquisition continues, and acquisition stops as soon
+ * as the focus peak is bracketed: once the best score so far has been
+ * followed by a number of positions whose score dropped by a set fraction.
+ * The best focus is then found by fitting a Gaussian to the scores.
+ */
+public class SequencedZStackFocusOptimizer implements FocusOptimizer {
+   // Time, on top of the exposure time, to wait for the next image of a sequence
+   private static final double IMAGE_TIMEOUT_MS = 5000.0;
+
+   private final Function<ImageProcessor, Double> imgScoringFunction_;
+   private Studio studio_;
+   private String zDrive_;
+   private boolean displayImages_ = false;
+   private boolean displayGraph_ = false;
+   private double searchRangeUm_ = 10.0;
+   private double absoluteToleranceUm_ = 1.0; // used as Z step size
+   private double peakDropFraction_ = 0.2;
+   private int pointsPastPeak_ = 3;
+   private int imageCount_ = 0;
+
+   /**
+    * The constructor takes a function that calculates a focus score.
+    *
+    * @param imgScoringFunction A function that takes an ImageJ `ImageProcessor`
+    *                           and returns a double indicating a measure of the
+    *                           image sharpness. A large value indicates a sharper
+    *                           image.  It will be called concurrently from several
+    *                           threads, each time with a different processor, so
+    *                           it should not use several threads itself.
+    */
+   public SequencedZStackFocusOptimizer(Function<ImageProcessor, Double> imgScoringFunction) {
+      imgScoringFunction_ = imgScoringFunction;
+   }
+
+   @Override
+   public void setContext(Studio studio) {
+      studio_ = studio;
+   }
+
+   @Override
+   public void setZDrive(String driveName) {
+      zDrive_ = driveName;
+   }
+
+   @Override
+   public void setDisplayImages(boolean display) {
+      displayImages_ = display;
+   }
+
+   @Override
+   public boolean getDisplayImages() {
+      return displayImages_;
+   }
+
+   @Override
+   public int getImageCount() {
+      return imageCount_;
+   }
+
+   @Override
+   public void setSearchRange(double searchRangeUm) {
+      searchRangeUm_ = searchRangeUm;
+   }
+
+   @Override
+   public double getSearchRange() {
+      return searchRangeUm_;
+   }
+
+   @Override
+   public void setAbsoluteTolerance(double tolerance) {
+      absoluteToleranceUm_ = tolerance;
+   }
+
+   @Override
+   public double getAbsoluteTolerance() {
+      return absoluteToleranceUm_;
+   }
+
+   public void setDisplayGraph(boolean display) {
+      displayGraph_ = display;
+   }
+
+   /**
+    * Sets the criterion used to decide that the focus peak has been passed.
+    *
+    * @param dropFraction   Fraction (0 - 1) by which the score has to drop below the
+    *                       best score so far.  Use 1.0 or larger to always acquire
+    *                       the full stack.
+    * @param pointsPastPeak Minimum number of positions acquired after the best
+    *                       position before acquisition is stopped.
+    */
+   public void setEarlyStop(double dropFraction, int pointsPastPeak) {
+      peakDropFraction_ = dropFraction;
+      pointsPastPeak_ = Math.max(1, pointsPastPeak);
+   }
+
+   /**
+    * Acquires a Z-stack, scoring images as they arrive, and returns the Z
+    * position with the best focus.
+    *
+    * @return Z position of best focus.
+    * @throws Exception A common exception is failure to set the Z position in the hardware
+    */
+   @Override
+   public double runAutofocusAlgorithm() throws Exception {
+      imageCount_ = 0;
+
+      CMMCore core = studio_.getCMMCore();
+      if (zDrive_ == null || zDrive_.isEmpty()) {
+         zDrive_ = core.getFocusDevice();
+      }
+      final double z = core.getPosition(zDrive_);
+      final double dz = searchRangeUm_ / 2;
+      final int nrZ = Math.max(1, (int) (searchRangeUm_ / absoluteToleranceUm_));
+      final double[] positions = new double[nrZ];
+      for (int i = 0; i < nrZ; i++) {
+         positions[i] = z - dz + i * absoluteToleranceUm_;
+      }
+
+      final Scores scores = new Scores(nrZ);
+      final int nrThreads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+      ExecutorService scorer = Executors.newFixedThreadPool(nrThreads, new ThreadFactory() {
+         @Override
+         public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "Autofocus scoring");
+            t.setDaemon(true);
+            return t;
+         }
+      });
+      List<Future<?>> futures = new ArrayList<>();
+      try {
+         if (core.isStageSequenceable(zDrive_)
+               && nrZ <= core.getStageSequenceMaxLength(zDrive_)) {
+            acquireSequence(core, positions, scores, scorer, futures);
+         } else {
+            acquireBurst(core, positions, scores, scorer, futures);
+         }
+         for (Future<?> f : futures) {
+            f.get();
+         }
+      } finally {
+         scorer.shutdownNow();
+      }
+
+      // Fit the scores of the positions we actually acquired.
+      XYSeries xySeries = new XYSeries("Focus Score");
+      double bestZ = z;
+      double bestScore = Double.NEGATIVE_INFINITY;
+      for (int i = 0; i < nrZ; i++) {
+         double score = scores.get(i);
+         if (!Double.isNaN(score)) {
+            xySeries.add(positions[i], score);
+            if (score > bestScore) {
+               bestScore = score;
+               bestZ = positions[i];
+            }
+         }
+      }
+      double newZ = bestZ;
+      double[] fit = null;
+      try {
+         fit = Fitter.fit(xySeries, Fitter.FunctionType.Gaussian, null);
+         double fitZ = Fitter.getXofMaxY(xySeries, Fitter.FunctionType.Gaussian, fit);
+         // Do not trust fits that end up outside the range we looked at.
+         if (fitZ >= positions[0] && fitZ <= positions[nrZ - 1]) {
+            newZ = fitZ;
+         }
+      } catch (RuntimeException ex) {
+         studio_.logs().logMessage("Autofocus: Gaussian fit failed, using best position. "
+               + ex.getMessage());
+      }
+      if (displayGraph_ && fit != null) {
+         XYSeries xySeriesFitted = Fitter.getFittedSeries(xySeries,
+               Fitter.FunctionType.Gaussian, fit);
+         XYSeries[] data = {xySeries, xySeriesFitted};
+         boolean[] shapes = {true, false};
+         PlotUtils pu = new PlotUtils(studio_);
+         pu.plotDataN("Focus Score", data, "z position", "Focus Score", shapes, "", newZ);
+      }
+      return newZ;
+   }
+
+   /**
+    * Acquires the stack as a single sequence acquisition, with the Z drive
+    * stepping through the positions on each camera trigger.
+    */
+   private void acquireSequence(CMMCore core, double[] positions, Scores scores,
+                                ExecutorService scorer, List<Future<?>> futures)
+         throws Exception {
+      DoubleVector sequence = new DoubleVector();
+      for (double p : positions) {
+         sequence.add(p);
+      }
+      core.setPosition(zDrive_, positions[0]);
+      core.waitForDevice(zDrive_);
+      core.loadStageSequence(zDrive_, sequence);
+      core.startStageSequence(zDrive_);
+      final long imageTimeoutNs = (long) ((core.getExposure() + IMAGE_TIMEOUT_MS) * 1.0e6);
+      try {
+         core.startSequenceAcquisition(positions.length, 0, true);
+         long deadlineNs = System.nanoTime() + imageTimeoutNs;
+         while (imageCount_ < positions.length
+               && (core.isSequenceRunning() || core.getRemainingImageCount() > 0)) {
+            if (core.getRemainingImageCount() == 0) {
+               if (System.nanoTime() > deadlineNs) {
+                  throw new Exception("Timed out waiting for image " + (imageCount_ + 1)
+                        + " of " + positions.length + " from the camera");
+               }
+               Thread.sleep(1);
+               continue;
+            }
+            TaggedImage tImg = core.popNextTaggedImage();
+            deadlineNs = System.nanoTime() + imageTimeoutNs;
+            futures.add(submit(scorer, tImg, imageCount_, scores));
+            imageCount_++;
+            if (scores.isPeakBracketed(peakDropFraction_, pointsPastPeak_)) {
+               break;
+            }
+         }
+      } finally {
+         if (core.isSequenceRunning()) {
+            core.stopSequenceAcquisition();
+         }
+         core.stopStageSequence(zDrive_);
+         if (imageCount_ < positions.length) {
+            core.clearCircularBuffer();
+         }
+      }
+   }
+
+   /**
+    * Steps the Z drive and snaps an image at each position, without going
+    * through the Studio snap/live machinery.
+    */
+   private void acquireBurst(CMMCore core, double[] positions, Scores scores,
+                             ExecutorService scorer, List<Future<?>> futures)
+         throws Exception {
+      for (int i = 0; i < positions.length; i++) {
+         core.setPosition(zDrive_, positions[i]);
+         core.waitForDevice(zDrive_);
+         core.snapImage();
+         TaggedImage tImg = core.getTaggedImage();
+         if (tImg == null) {
+            throw new Exception("Failed to acquire image.");
+         }
+         futures.add(submit(scorer, tImg, i, scores));
+         imageCount_++;
+         if (scores.isPeakBracketed(peakDropFraction_, pointsPastPeak_)) {
+            break;
+         }
+      }
+   }
+
+   private Future<?> submit(ExecutorService scorer, final TaggedImage tImg, final int index,
+                            final Scores scores) {
+      return scorer.submit(new Runnable() {
+         @Override
+         public void run() {
+            if (displayImages_) {
+               try {
+                  final Image img = studio_.data().convertTaggedImage(tImg);
+                  SwingUtilities.invokeLater(() -> studio_.live().displayImage(img));
+               } catch (Exception ex) {
+                  studio_.logs().logError(ex);
+               }
+            }
+            ImageProcessor proc = ImageUtils.makeProcessor(tImg);
+            scores.set(index, proc == null ? Double.NaN : imgScoringFunction_.apply(proc));
+         }
+      });
+   }
+
+   /**
+    * Focus scores by position index, filled in by the scoring threads in
+    * arbitrary order.
+    */
+   static final class Scores {
+      private final double[] scores_;
+      private int contiguous_ = 0;
+      private int bestIndex_ = -1;
+
+      Scores(int n) {
+         scores_ = new double[n];
+         Arrays.fill(scores_, Double.NaN);
+      }
+
+      synchronized void set(int index, double score) {
+         scores_[index] = score;
+         // Extend the run of scored positions starting at the first one.
+         while (contiguous_ < scores_.length && !Double.isNaN(scores_[contiguous_])) {
+            if (bestIndex_ < 0 || scores_[contiguous_] > scores_[bestIndex_]) {
+               bestIndex_ = contiguous_;
+            }
+            contiguous_++;
+         }
+      }
+
+      synchronized double get(int index) {
+         return scores_[index];
+      }
+
+      /**
+       * The peak is bracketed when the best score (in the scored run starting
+       * at the first position) is not at the start of the stack and has been
+       * followed by at least pointsPastPeak scored positions, the last of
+       * which is more than dropFraction below the best score.
+       */
+      synchronized boolean isPeakBracketed(double dropFraction, int pointsPastPeak) {
+         if (bestIndex_ < 1 || contiguous_ - 1 - bestIndex_ < pointsPastPeak) {
+            return false;
+         }
+         double best = scores_[bestIndex_];
+         double last = scores_[contiguous_ - 1];
+         return last < best - Math.abs(best) * dropFraction;
+      }
+   }
+}
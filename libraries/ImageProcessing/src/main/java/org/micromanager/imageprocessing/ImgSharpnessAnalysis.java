@@ -32,14 +32,22 @@
 package org.micromanager.imageprocessing;
 
 import ij.gui.OvalRoi;
+import ij.process.ByteProcessor;
 import ij.process.ImageProcessor;
 import ij.process.ImageStatistics;
+import ij.process.ShortProcessor;
+import java.awt.Rectangle;
 import java.util.Arrays;
 
 /**
  * Collection of Image Sharpness algorithms.  These are all static methods that take an
  * ImageProcessor.
  *
+ * <p>The `compute` methods evaluate 8 and 16 bit images directly on their pixel arrays,
+ * in parallel, and can restrict the calculation to a centered part of the image
+ * and/or to every n-th pixel (see `setCenteredRoiFraction` and `setSubsample`).
+ * Other pixel types use the ImageProcessor-based static methods.
+ *
  * @author Nick Anthony
  */
 public class ImgSharpnessAnalysis {
@@ -48,6 +56,9 @@ public class ImgSharpnessAnalysis {
    private double fftUpperCutoff_ = 14;
    private Method method_ = Method.Edges;
    private boolean allowInPlaceModification_ = false;
+   private double roiFraction_ = 1.0;
+   private int subsample_ = 1;
+   private int maxThreads_ = Runtime.getRuntime().availableProcessors();
 
    /**
     * Utility class making it easy to select a sharpness algorithm.
@@ -99,6 +110,50 @@ public class ImgSharpnessAnalysis {
       return method_;
    }
 
+   /**
+    * Only score the center of the image.
+    *
+    * @param fraction Width and height of the scored region as a fraction (0 - 1] of the
+    *                 image (or processor ROI) width and height.
+    */
+   public void setCenteredRoiFraction(double fraction) {
+      if (!(fraction > 0.0 && fraction <= 1.0)) {
+         throw new IllegalArgumentException("ROI fraction should be > 0 and <= 1");
+      }
+      roiFraction_ = fraction;
+   }
+
+   public double getCenteredRoiFraction() {
+      return roiFraction_;
+   }
+
+   /**
+    * Only score every n-th pixel in x and y.  Note that this changes the spatial
+    * frequencies seen by the edge and FFT based methods.
+    *
+    * @param step 1 scores all pixels, 2 every other pixel in both directions, etc.
+    */
+   public void setSubsample(int step) {
+      if (step < 1) {
+         throw new IllegalArgumentException("Subsampling step must be at least 1");
+      }
+      subsample_ = step;
+   }
+
+   public int getSubsample() {
+      return subsample_;
+   }
+
+   /**
+    * Sets the maximum number of threads used for a single image.  Use 1 when images are
+    * already scored in parallel.
+    *
+    * @param maxThreads Maximum number of threads; defaults to the number of processors.
+    */
+   public void setMaxThreads(int maxThreads) {
+      maxThreads_ = Math.max(1, maxThreads);
+   }
+
    /**
     * Compute the sharpness of `proc` using the current `Method` set with `setComputationMethod`.
     *
@@ -106,6 +161,9 @@ public class ImgSharpnessAnalysis {
     * @return The sharpness value.
     */
    public double compute(ImageProcessor proc) {
+      if (proc instanceof ByteProcessor || proc instanceof ShortProcessor) {
+         return compute(proc.getPixels(), proc.getWidth(), proc.getHeight(), proc.getRoi());
+      }
       switch (method_) {
          case Edges:
             return computeEdges(proc, allowInPlaceModification_);
@@ -134,6 +192,67 @@ public class ImgSharpnessAnalysis {
       }
    }
 
+   /**
+    * Compute the sharpness of 8 or 16 bit pixels using the current `Method`, without
+    * copying or modifying the pixels.
+    *
+    * @param pixels byte[] or short[] with the (unsigned) pixels.
+    * @param width  Image width.
+    * @param height Image height.
+    * @return The sharpness value.
+    */
+   public double compute(Object pixels, int width, int height) {
+      return compute(pixels, width, height, null);
+   }
+
+   /**
+    * Compute the sharpness of part of an 8 or 16 bit image using the current `Method`,
+    * without copying or modifying the pixels.  The centered ROI fraction (if any) is
+    * applied within the given region.
+    *
+    * @param pixels byte[] or short[] with the (unsigned) pixels.
+    * @param width  Image width.
+    * @param height Image height.
+    * @param roi    Region to score, or null for the whole image.
+    * @return The sharpness value.
+    */
+   public double compute(Object pixels, int width, int height, Rectangle roi) {
+      Rectangle r = roi == null ? new Rectangle(0, 0, width, height) : new Rectangle(roi);
+      if (roiFraction_ < 1.0) {
+         int w = Math.max(1, (int) (r.width * roiFraction_));
+         int h = Math.max(1, (int) (r.height * roiFraction_));
+         r = new Rectangle(r.x + (r.width - w) / 2, r.y + (r.height - h) / 2, w, h);
+      }
+      SharpnessKernels.View view = SharpnessKernels.View.create(pixels, width, height, r,
+            subsample_);
+      switch (method_) {
+         case Edges:
+            return SharpnessKernels.edges(view, maxThreads_);
+         case StdDev:
+            return SharpnessKernels.normalizedStdDev(view, maxThreads_);
+         case Mean:
+            return SharpnessKernels.mean(view, maxThreads_);
+         case NormalizedVariance:
+            return SharpnessKernels.normalizedVariance(view, maxThreads_);
+         case SharpEdges:
+            return SharpnessKernels.sharpEdges(view, maxThreads_);
+         case Redondo:
+            return SharpnessKernels.redondo(view, maxThreads_);
+         case Volath:
+            return SharpnessKernels.volath(view, maxThreads_);
+         case Volath5:
+            return SharpnessKernels.volath5(view, maxThreads_);
+         case MedianEdges:
+            return SharpnessKernels.medianEdges(view, maxThreads_);
+         case Tenengrad:
+            return SharpnessKernels.tenengrad(view, maxThreads_);
+         case FFTBandpass:
+            return SharpnessKernels.fftBandpass(view, fftLowerCutoff_, fftUpperCutoff_);
+         default:
+            throw new AssertionError(method_.name());
+      }
+   }
+
    /**
     * Uses the ImageJ code to find edges in the image.  The mean intensity of the edge map is
     * divided by the mean intensity of the original image.
@@ -0,0 +1,129 @@
+package org.micromanager.imageprocessing;
+
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import java.awt.Rectangle;
+import java.util.Random;
+
+/**
+ * Times the sharpness measures of ImgSharpnessAnalysis on a synthetic image.
+ *
+ * <p>For every method, the ImageProcessor-based implementation (which works
+ * on a copy of the image) is compared with the array-based implementation,
+ * on the full image and with a centered ROI and subsampling, both on a
+ * single thread and on all available processors.
+ *
+ * <p>Run with: java -cp ImageProcessing.jar:ij.jar
+ * org.micromanager.imageprocessing.SharpnessBenchmark [size] [iterations]
+ *
+ * <p>Output is one tab separated line per measurement: method, variant and
+ * milliseconds per image.
+ */
+public final class SharpnessBenchmark {
+   private static final int WARMUP_ITERATIONS = 5;
+
+   private SharpnessBenchmark() {
+   }
+
+   public static void main(String[] args) {
+      int size = args.length > 0 ? Integer.parseInt(args[0]) : 2048;
+      int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+      final ShortProcessor proc = createImage(size);
+      final short[] pixels = (short[]) proc.getPixels();
+      final int nrThreads = Runtime.getRuntime().availableProcessors();
+
+      System.out.println("# " + size + "x" + size + " 16-bit, " + iterations
+            + " iterations, " + nrThreads + " processors");
+      System.out.println("method\tvariant\tms/image");
+      final int[] threadCounts = nrThreads > 1 ? new int[] {1, nrThreads} : new int[] {1};
+      final ImgSharpnessAnalysis analysis = new ImgSharpnessAnalysis();
+      for (final ImgSharpnessAnalysis.Method method : ImgSharpnessAnalysis.Method.values()) {
+         analysis.setComputationMethod(method);
+         report(method, "ImageProcessor", time(iterations, new Runnable() {
+            @Override
+            public void run() {
+               computeWithProcessor(method, proc.duplicate());
+            }
+         }));
+
+         for (int threads : threadCounts) {
+            analysis.setMaxThreads(threads);
+            analysis.setCenteredRoiFraction(1.0);
+            analysis.setSubsample(1);
+            report(method, "array, " + threads + " thread(s)", time(iterations, new Runnable() {
+               @Override
+               public void run() {
+                  analysis.compute(pixels, size, size);
+               }
+            }));
+
+            analysis.setCenteredRoiFraction(0.5);
+            analysis.setSubsample(2);
+            report(method, "array, ROI 0.5, subsample 2, " + threads + " thread(s)",
+                  time(iterations, new Runnable() {
+                     @Override
+                     public void run() {
+                        analysis.compute(pixels, size, size, new Rectangle(0, 0, size, size));
+                     }
+                  }));
+         }
+      }
+   }
+
+   private static ShortProcessor createImage(int size) {
+      Random random = new Random(42);
+      ShortProcessor proc = new ShortProcessor(size, size);
+      for (int y = 0; y < size; y++) {
+         for (int x = 0; x < size; x++) {
+            double pattern = 0.5 + 0.4 * Math.sin(x / 7.0) * Math.cos(y / 11.0);
+            proc.set(x, y, (int) (30000 * pattern) + random.nextInt(3000));
+         }
+      }
+      return proc;
+   }
+
+   private static double computeWithProcessor(ImgSharpnessAnalysis.Method method,
+                                              ImageProcessor proc) {
+      switch (method) {
+         case Edges:
+            return ImgSharpnessAnalysis.computeEdges(proc, true);
+         case StdDev:
+            return ImgSharpnessAnalysis.computeNormalizedStdDev(proc);
+         case Mean:
+            return ImgSharpnessAnalysis.computeMean(proc);
+         case NormalizedVariance:
+            return ImgSharpnessAnalysis.computeNormalizedVariance(proc);
+         case SharpEdges:
+            return ImgSharpnessAnalysis.computeSharpEdges(proc, true);
+         case Redondo:
+            return ImgSharpnessAnalysis.computeRedondo(proc);
+         case Volath:
+            return ImgSharpnessAnalysis.computeVolath(proc);
+         case Volath5:
+            return ImgSharpnessAnalysis.computeVolath5(proc);
+         case MedianEdges:
+            return ImgSharpnessAnalysis.computeMedianEdges(proc, true);
+         case Tenengrad:
+            return ImgSharpnessAnalysis.computeTenengrad(proc, true);
+         case FFTBandpass:
+            return ImgSharpnessAnalysis.computeFFTBandpass(proc, 2.5, 14);
+         default:
+            throw new AssertionError(method.name());
+      }
+   }
+
+   private static double time(int iterations, Runnable task) {
+      for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+         task.run();
+      }
+      long start = System.nanoTime();
+      for (int i = 0; i < iterations; i++) {
+         task.run();
+      }
+      return (System.nanoTime() - start) / 1.0e6 / iterations;
+   }
+
+   private static void report(ImgSharpnessAnalysis.Method method, String variant, double ms) {
+      System.out.println(String.format("%s\t%s\t%.3f", method.name(), variant, ms));
+   }
+}
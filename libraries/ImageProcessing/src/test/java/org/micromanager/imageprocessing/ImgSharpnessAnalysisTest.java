@@ -0,0 +1,150 @@
+package org.micromanager.imageprocessing;
+
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks that the array-based sharpness measures agree with the
+ * ImageProcessor-based ones.
+ */
+public class ImgSharpnessAnalysisTest {
+   private static final int WIDTH = 301;
+   private static final int HEIGHT = 257;
+
+   private static ImageProcessor createImage(boolean sixteenBit) {
+      Random random = new Random(3);
+      int max = sixteenBit ? 30000 : 255;
+      ImageProcessor proc = sixteenBit ? new ShortProcessor(WIDTH, HEIGHT)
+            : new ByteProcessor(WIDTH, HEIGHT);
+      for (int y = 0; y < HEIGHT; y++) {
+         for (int x = 0; x < WIDTH; x++) {
+            double pattern = 0.5 + 0.4 * Math.sin(x / 7.0) * Math.cos(y / 5.0);
+            proc.set(x, y, (int) (max * pattern) + random.nextInt(max / 10));
+         }
+      }
+      return proc;
+   }
+
+   private static double computeWithProcessor(ImgSharpnessAnalysis.Method method,
+                                              ImageProcessor proc) {
+      switch (method) {
+         case Edges:
+            return ImgSharpnessAnalysis.computeEdges(proc, false);
+         case StdDev:
+            return ImgSharpnessAnalysis.computeNormalizedStdDev(proc);
+         case Mean:
+            return ImgSharpnessAnalysis.computeMean(proc);
+         case NormalizedVariance:
+            return ImgSharpnessAnalysis.computeNormalizedVariance(proc);
+         case SharpEdges:
+            return ImgSharpnessAnalysis.computeSharpEdges(proc, false);
+         case Redondo:
+            return ImgSharpnessAnalysis.computeRedondo(proc);
+         case Volath:
+            return ImgSharpnessAnalysis.computeVolath(proc);
+         case Volath5:
+            return ImgSharpnessAnalysis.computeVolath5(proc);
+         case MedianEdges:
+            return ImgSharpnessAnalysis.computeMedianEdges(proc, false);
+         case Tenengrad:
+            return ImgSharpnessAnalysis.computeTenengrad(proc, false);
+         case FFTBandpass:
+            return ImgSharpnessAnalysis.computeFFTBandpass(proc, 2.5, 14);
+         default:
+            throw new AssertionError(method.name());
+      }
+   }
+
+   private static void assertMatchesProcessor(boolean sixteenBit, int maxThreads) {
+      ImageProcessor proc = createImage(sixteenBit);
+      ImgSharpnessAnalysis analysis = new ImgSharpnessAnalysis();
+      analysis.setMaxThreads(maxThreads);
+      for (ImgSharpnessAnalysis.Method method : ImgSharpnessAnalysis.Method.values()) {
+         if (method == ImgSharpnessAnalysis.Method.MedianEdges) {
+            // Border handling of the median differs from ImageJ, see
+            // testMedianEdgesRanksLikeProcessor
+            continue;
+         }
+         analysis.setComputationMethod(method);
+         double expected = computeWithProcessor(method, proc.duplicate());
+         double actual = analysis.compute(proc.getPixels(), WIDTH, HEIGHT);
+         Assert.assertEquals(method.name(), expected, actual, Math.abs(expected) * 1e-9);
+      }
+   }
+
+   @Test
+   public void testByteMatchesProcessor() {
+      assertMatchesProcessor(false, 1);
+      assertMatchesProcessor(false, 4);
+   }
+
+   @Test
+   public void testShortMatchesProcessor() {
+      assertMatchesProcessor(true, 1);
+      assertMatchesProcessor(true, 4);
+   }
+
+   private static Integer[] rankBySharpness(double[] scores) {
+      Integer[] order = new Integer[scores.length];
+      for (int i = 0; i < order.length; i++) {
+         order[i] = i;
+      }
+      Arrays.sort(order, Comparator.comparingDouble(i -> -scores[i]));
+      return order;
+   }
+
+   private static void assertMedianEdgesRanksLikeProcessor(boolean sixteenBit) {
+      ImageProcessor sharp = createImage(sixteenBit);
+      double[] sigmas = {0.0, 0.7, 1.5, 2.5, 4.0};
+      double[] expected = new double[sigmas.length];
+      double[] actual = new double[sigmas.length];
+      ImgSharpnessAnalysis analysis = new ImgSharpnessAnalysis();
+      analysis.setComputationMethod(ImgSharpnessAnalysis.Method.MedianEdges);
+      for (int i = 0; i < sigmas.length; i++) {
+         ImageProcessor proc = sharp.duplicate();
+         if (sigmas[i] > 0) {
+            proc.blurGaussian(sigmas[i]);
+         }
+         expected[i] = ImgSharpnessAnalysis.computeMedianEdges(proc, false);
+         actual[i] = analysis.compute(proc.getPixels(), WIDTH, HEIGHT);
+      }
+      Assert.assertArrayEquals(rankBySharpness(expected), rankBySharpness(actual));
+      Assert.assertEquals(0, (int) rankBySharpness(actual)[0]);
+   }
+
+   @Test
+   public void testMedianEdgesRanksLikeProcessor() {
+      assertMedianEdgesRanksLikeProcessor(false);
+      assertMedianEdgesRanksLikeProcessor(true);
+   }
+
+   @Test
+   public void testRoiMatchesCrop() {
+      ImageProcessor proc = createImage(true);
+      Rectangle roi = new Rectangle(40, 30, 120, 90);
+      ImgSharpnessAnalysis analysis = new ImgSharpnessAnalysis();
+      analysis.setComputationMethod(ImgSharpnessAnalysis.Method.Redondo);
+      Assert.assertEquals(ImgSharpnessAnalysis.computeRedondo(cropAt(proc, roi)),
+            analysis.compute(proc.getPixels(), WIDTH, HEIGHT, roi), 1e-9);
+
+      // A centered fraction of the whole image is the same region
+      analysis.setCenteredRoiFraction(0.5);
+      Rectangle center = new Rectangle((WIDTH - WIDTH / 2) / 2, (HEIGHT - HEIGHT / 2) / 2,
+            WIDTH / 2, HEIGHT / 2);
+      Assert.assertEquals(ImgSharpnessAnalysis.computeRedondo(cropAt(proc, center)),
+            analysis.compute(proc.getPixels(), WIDTH, HEIGHT), 1e-9);
+   }
+
+   private static ImageProcessor cropAt(ImageProcessor proc, Rectangle r) {
+      ImageProcessor copy = proc.duplicate();
+      copy.setRoi(r);
+      return copy.crop();
+   }
+}
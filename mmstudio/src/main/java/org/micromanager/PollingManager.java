@@ -0,0 +1,166 @@
+package org.micromanager;
+
+/**
+ * Polls device properties and stage positions on behalf of any number of
+ * subscribers.  An instance of this interface is obtained through
+ * Studio.polling() or Studio.getPollingManager().
+ *
+ * <p>Plugins that need to follow values that the hardware does not report by
+ * itself (for instance the state of an autofocus device, or the position of a
+ * stage that is moved by hand) should subscribe here instead of polling the
+ * Core from their own threads and timers.  Reads of the same item are shared
+ * between all subscribers, at the highest rate any of them asked for, and
+ * items that are due at about the same time are read together.  Values that
+ * the Core reports through its notifications are used as well, so that such
+ * items are not read again until they go stale.</p>
+ *
+ * <p>Listeners are called when a value changes, on the polling thread or on
+ * the thread that posts Core notifications, and after every failed read, on
+ * the polling thread.  They should return quickly, and use
+ * SwingUtilities.invokeLater to update the GUI.</p>
+ */
+public interface PollingManager {
+
+   /**
+    * A value read from a device, or reported by it.
+    */
+   interface Value {
+      /**
+       * @return Label of the device
+       */
+      String getDevice();
+
+      /**
+       * @return Name of the property, or null for stage positions
+       */
+      String getProperty();
+
+      /**
+       * @return Value of the property, or null for stage positions
+       */
+      String getValue();
+
+      /**
+       * @return Position of a stage ({z}) or XY stage ({x, y}) in microns, or
+       *         null for properties
+       */
+      double[] getPosition();
+
+      /**
+       * @return Time, as in System.currentTimeMillis(), at which the value
+       *         was read
+       */
+      long getTimestampMs();
+   }
+
+   /**
+    * Receives values when they change.
+    */
+   interface Listener {
+      /**
+       * Called with the first value read after subscribing, and afterward
+       * every time the value changes.
+       *
+       * @param value The new value
+       */
+      void onValueChanged(Value value);
+
+      /**
+       * Called when reading the value from the device failed.  The read is
+       * tried again at the polling rate, and this is called again for every
+       * failure.  Failures are logged, whether or not this is overridden.
+       *
+       * @param device Label of the device
+       * @param error The error
+       */
+      default void onReadFailed(String device, Exception error) {
+      }
+   }
+
+   /**
+    * Handle returned when subscribing.
+    */
+   interface Subscription {
+      /**
+       * Stops delivering values to the listener.  The item is no longer
+       * polled once all its subscriptions are cancelled.
+       */
+      void cancel();
+
+      /**
+       * Reads the item now instead of at its next scheduled time, and waits
+       * for the read to finish.  Listeners are called as for any other read,
+       * before this returns, so that the caller sees an up to date value.
+       *
+       * @param timeoutMs Longest time to wait for the read, in milliseconds
+       * @return true if the item was read (or the read failed) within the
+       *         timeout; false on timeout, or if the subscription was cancelled
+       * @throws InterruptedException if interrupted while waiting
+       */
+      boolean readNow(long timeoutMs) throws InterruptedException;
+   }
+
+   /**
+    * Polls a device property.
+    *
+    * @param device Label of the device
+    * @param property Name of the property
+    * @param maxRateHz Highest rate at which the listener needs new values
+    * @param listener Receives the values
+    * @return Subscription, to be cancelled when values are no longer needed
+    * @throws IllegalArgumentException if maxRateHz is not positive
+    */
+   Subscription subscribeProperty(String device, String property, double maxRateHz,
+                                  Listener listener);
+
+   /**
+    * Polls the position of a (Z) stage.
+    *
+    * @param stage Label of the stage device
+    * @param maxRateHz Highest rate at which the listener needs new values
+    * @param listener Receives the values
+    * @return Subscription, to be cancelled when values are no longer needed
+    * @throws IllegalArgumentException if maxRateHz is not positive
+    */
+   Subscription subscribeStagePosition(String stage, double maxRateHz, Listener listener);
+
+   /**
+    * Polls the position of an XY stage.
+    *
+    * @param xyStage Label of the XY stage device
+    * @param maxRateHz Highest rate at which the listener needs new values
+    * @param listener Receives the values
+    * @return Subscription, to be cancelled when values are no longer needed
+    * @throws IllegalArgumentException if maxRateHz is not positive
+    */
+   Subscription subscribeXYStagePosition(String xyStage, double maxRateHz, Listener listener);
+
+   /**
+    * Returns the latest value of a property that is being polled, without
+    * accessing the device.
+    *
+    * @param device Label of the device
+    * @param property Name of the property
+    * @return Latest value, or null if the property is not polled or was not
+    *         read yet
+    */
+   Value getLatestProperty(String device, String property);
+
+   /**
+    * Returns the latest position of a stage that is being polled, without
+    * accessing the device.
+    *
+    * @param stage Label of the stage device
+    * @return Latest value, or null if the stage is not polled or was not read yet
+    */
+   Value getLatestStagePosition(String stage);
+
+   /**
+    * Returns the latest position of an XY stage that is being polled, without
+    * accessing the device.
+    *
+    * @param xyStage Label of the XY stage device
+    * @return Latest value, or null if the stage is not polled or was not read yet
+    */
+   Value getLatestXYStagePosition(String xyStage);
+}
@@ -334,4 +334,21 @@ public interface Studio {
     */
    PropertyManager getPropertyManager();
 
+   /**
+    * Provides access to the PollingManager, which polls device properties and
+    * stage positions on behalf of plugins.
+    *
+    * @return PollingManager instance
+    */
+   PollingManager polling();
+
+   /**
+    * Provides access to the PollingManager, which polls device properties and
+    * stage positions on behalf of plugins.  Identical to polling() except in
+    * name.
+    *
+    * @return PollingManager instance
+    */
+   PollingManager getPollingManager();
+
 }
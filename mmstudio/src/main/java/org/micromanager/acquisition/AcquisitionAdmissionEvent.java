@@ -0,0 +1,56 @@
+package org.micromanager.acquisition;
+
+import org.micromanager.MMEvent;
+
+/**
+ * Posted when the acquisition engine decides whether storage can keep up with
+ * an acquisition, before it starts and while it runs.
+ *
+ * <p>The default implementation of this event posts on the Studio event bus,
+ * so subscribe to this event using {@link org.micromanager.events.EventManager}.</p>
+ */
+public interface AcquisitionAdmissionEvent extends MMEvent {
+
+   /**
+    * What the acquisition engine decided.
+    */
+   enum Action {
+      /** The acquisition can start; storage is expected to keep up. */
+      ACCEPTED,
+      /** Storage is, or is expected to be, too slow, but nothing was changed. */
+      WARNING,
+      /** The acquisition was paused to let storage catch up. */
+      THROTTLED,
+      /** The acquisition was resumed after it was throttled. */
+      RESUMED,
+      /** A faster way of saving was chosen before the acquisition started. */
+      STORAGE_SWITCHED,
+      /** The acquisition was not started. */
+      REJECTED
+   }
+
+   /**
+    * @return What was decided
+    */
+   Action getAction();
+
+   /**
+    * @return Human readable explanation of the decision
+    */
+   String getMessage();
+
+   /**
+    * Rate at which the acquisition is estimated to produce image data.
+    *
+    * @return Required storage bandwidth in bytes per second
+    */
+   double getRequiredBytesPerSecond();
+
+   /**
+    * Rate at which storage was measured to write image data, either during
+    * this acquisition or, before it started, during an earlier one.
+    *
+    * @return Measured storage bandwidth in bytes per second, or NaN when unknown
+    */
+   double getMeasuredBytesPerSecond();
+}
@@ -258,4 +258,12 @@ public interface AcquisitionManager {
     *     code).
     */
    boolean isOurAcquisition(Object source);
+
+   /**
+    * Provides access to the timing of acquired images as they pass from the
+    * camera, through the pipeline, to storage and display.
+    *
+    * @return the application-wide AcquisitionTelemetry
+    */
+   AcquisitionTelemetry getTelemetry();
 }
@@ -0,0 +1,118 @@
+package org.micromanager.acquisition;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import org.micromanager.data.Coords;
+import org.micromanager.data.DataProvider;
+
+/**
+ * Records when acquired images pass the stages between the camera and the
+ * display, so that it can be seen where time is spent and where images pile
+ * up.  Access it using Studio.acquisitions().getTelemetry().
+ *
+ * <p>Each image is identified by its DataProvider and Coords.  Micro-Manager
+ * records the stages listed below; plugins can record their own stages.
+ * Only the most recent events are kept (in a fixed size ring buffer), and
+ * statistics are computed over these.  Recording is off until enabled, either
+ * with {@link #setEnabled(boolean)} or by setting the system property
+ * "org.micromanager.telemetry" to "true".
+ */
+public interface AcquisitionTelemetry {
+   /**
+    * Time at which the Core received the image from the camera.
+    */
+   String CAMERA = "camera";
+
+   /**
+    * Time at which the acquisition engine handed the image to Micro-Manager.
+    */
+   String SINK = "sink";
+
+   /**
+    * Prefix of the stages recorded when an image leaves a pipeline
+    * processor; followed by the simple class name of the processor.
+    */
+   String PROCESSOR_PREFIX = "processor:";
+
+   /**
+    * Time at which the image was handed to the storage of the Datastore.
+    */
+   String STORED = "stored";
+
+   /**
+    * Time at which the image was shown in a display.
+    */
+   String DISPLAYED = "displayed";
+
+   /**
+    * Turns recording on or off.  Events recorded earlier are kept.
+    *
+    * @param enabled true to record
+    */
+   void setEnabled(boolean enabled);
+
+   /**
+    * @return true when events are being recorded
+    */
+   boolean isEnabled();
+
+   /**
+    * Records that an image reached the given stage now.  Does nothing when
+    * not enabled.  Can be called from any thread, and does not block.
+    *
+    * @param stage Name of the stage
+    * @param provider DataProvider the image belongs to
+    * @param coords Coords of the image
+    */
+   void record(String stage, DataProvider provider, Coords coords);
+
+   /**
+    * Records that an image reached the given stage at the given time.
+    *
+    * @param stage Name of the stage
+    * @param provider DataProvider the image belongs to
+    * @param coords Coords of the image
+    * @param nanoTime Time, as given by System.nanoTime()
+    */
+   void record(String stage, DataProvider provider, Coords coords, long nanoTime);
+
+   /**
+    * @return names of the stages that have been recorded, in order of first use
+    */
+   List<String> getStages();
+
+   /**
+    * Latency of a stage, i.e., the time between the first recorded stage of
+    * an image (normally CAMERA or SINK) and the given stage.
+    *
+    * @param stage Name of the stage
+    * @param percentile Percentile, between 0 and 100
+    * @return latency in milliseconds, or NaN when the stage has no events
+    */
+   double getLatencyPercentileMs(String stage, double percentile);
+
+   /**
+    * Number of images that reached one stage, but not yet a later one.
+    *
+    * @param fromStage Name of the earlier stage
+    * @param toStage Name of the later stage
+    * @return number of images in between the two stages
+    */
+   int getBacklog(String fromStage, String toStage);
+
+   /**
+    * Forgets all recorded events.
+    */
+   void clear();
+
+   /**
+    * Writes the recorded events to a tab separated text file, one event per
+    * line with the time in nanoseconds, the stage and an image identifier,
+    * for offline analysis.
+    *
+    * @param file File to write to
+    * @throws IOException when writing fails
+    */
+   void writeTrace(File file) throws IOException;
+}
@@ -0,0 +1,48 @@
+package org.micromanager.acquisition.internal;
+
+import org.micromanager.acquisition.AcquisitionAdmissionEvent;
+
+/**
+ * This implementation of this event is posted on the Studio event bus,
+ * so subscribe to this event using {@link org.micromanager.events.EventManager}.
+ */
+public class DefaultAcquisitionAdmissionEvent implements AcquisitionAdmissionEvent {
+   private final Action action_;
+   private final String message_;
+   private final double requiredBytesPerSecond_;
+   private final double measuredBytesPerSecond_;
+
+   public DefaultAcquisitionAdmissionEvent(Action action, String message,
+                                           double requiredBytesPerSecond,
+                                           double measuredBytesPerSecond) {
+      action_ = action;
+      message_ = message;
+      requiredBytesPerSecond_ = requiredBytesPerSecond;
+      measuredBytesPerSecond_ = measuredBytesPerSecond;
+   }
+
+   @Override
+   public Action getAction() {
+      return action_;
+   }
+
+   @Override
+   public String getMessage() {
+      return message_;
+   }
+
+   @Override
+   public double getRequiredBytesPerSecond() {
+      return requiredBytesPerSecond_;
+   }
+
+   @Override
+   public double getMeasuredBytesPerSecond() {
+      return measuredBytesPerSecond_;
+   }
+
+   @Override
+   public String toString() {
+      return action_ + ": " + message_;
+   }
+}
@@ -39,6 +39,7 @@ import org.micromanager.PropertyMap;
 import org.micromanager.PropertyMaps;
 import org.micromanager.Studio;
 import org.micromanager.acquisition.AcquisitionManager;
+import org.micromanager.acquisition.AcquisitionTelemetry;
 import org.micromanager.acquisition.ChannelSpec;
 import org.micromanager.acquisition.SequenceSettings;
 import org.micromanager.data.Coords;
@@ -356,4 +357,9 @@ public final class DefaultAcquisitionManager implements AcquisitionManager {
    public boolean isOurAcquisition(Object source) {
       return source == getAcquisitionEngine();
    }
+
+   @Override
+   public AcquisitionTelemetry getTelemetry() {
+      return DefaultAcquisitionTelemetry.getInstance();
+   }
 }
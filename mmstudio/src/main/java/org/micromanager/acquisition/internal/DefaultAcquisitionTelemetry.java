@@ -0,0 +1,282 @@
+package org.micromanager.acquisition.internal;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import mmcorej.org.json.JSONObject;
+import org.micromanager.acquisition.AcquisitionTelemetry;
+import org.micromanager.data.Coords;
+import org.micromanager.data.DataProvider;
+
+/**
+ * Ring buffer based implementation of AcquisitionTelemetry.
+ *
+ * <p>Recording claims a slot with a single atomic increment and never
+ * blocks.  Each slot carries the sequence number of the event in it, which
+ * is cleared while the slot is being written, so that readers can skip
+ * slots that are being overwritten.  Statistics and traces are computed
+ * from a snapshot of the buffer, and are approximate when events are
+ * recorded faster than the buffer can hold them.
+ */
+public final class DefaultAcquisitionTelemetry implements AcquisitionTelemetry {
+   private static final int CAPACITY = 1 << 16;
+   public static final String CORE_TIME_KEY = "TimeReceivedByCore";
+   private static final DateTimeFormatter CORE_TIME_FORMAT =
+         DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSSSS");
+   private static final DefaultAcquisitionTelemetry INSTANCE =
+         new DefaultAcquisitionTelemetry(CAPACITY);
+
+   private volatile boolean enabled_ = Boolean.getBoolean("org.micromanager.telemetry");
+   private final int mask_;
+   private final AtomicLong next_ = new AtomicLong(0);
+   // Sequence number + 1 of the event in each slot; 0 while being written
+   private final AtomicLongArray sequence_;
+   private final AtomicLongArray times_;
+   private final AtomicLongArray images_;
+   private final AtomicIntegerArray stages_;
+   private final ConcurrentHashMap<String, Integer> stageIds_ = new ConcurrentHashMap<>();
+   private final List<String> stageNames_ = new CopyOnWriteArrayList<>();
+
+   /**
+    * Holds one event read from the ring buffer.
+    */
+   private static final class Event {
+      final long time;
+      final long image;
+      final int stage;
+
+      Event(long time, long image, int stage) {
+         this.time = time;
+         this.image = image;
+         this.stage = stage;
+      }
+   }
+
+   public static DefaultAcquisitionTelemetry getInstance() {
+      return INSTANCE;
+   }
+
+   DefaultAcquisitionTelemetry(int capacity) {
+      if (Integer.bitCount(capacity) != 1) {
+         throw new IllegalArgumentException("Capacity should be a power of 2");
+      }
+      mask_ = capacity - 1;
+      sequence_ = new AtomicLongArray(capacity);
+      times_ = new AtomicLongArray(capacity);
+      images_ = new AtomicLongArray(capacity);
+      stages_ = new AtomicIntegerArray(capacity);
+   }
+
+   @Override
+   public void setEnabled(boolean enabled) {
+      enabled_ = enabled;
+   }
+
+   @Override
+   public boolean isEnabled() {
+      return enabled_;
+   }
+
+   @Override
+   public void record(String stage, DataProvider provider, Coords coords) {
+      if (enabled_) {
+         record(stage, provider, coords, System.nanoTime());
+      }
+   }
+
+   @Override
+   public void record(String stage, DataProvider provider, Coords coords, long nanoTime) {
+      if (!enabled_) {
+         return;
+      }
+      int stageId = stageId(stage);
+      long image = imageId(provider, coords);
+      long seq = next_.getAndIncrement();
+      int slot = (int) (seq & mask_);
+      sequence_.set(slot, 0);
+      times_.lazySet(slot, nanoTime);
+      images_.lazySet(slot, image);
+      stages_.lazySet(slot, stageId);
+      sequence_.lazySet(slot, seq + 1);
+   }
+
+   /**
+    * Records the CAMERA stage from the time stamp that the Core adds to the
+    * image tags, if present.
+    *
+    * @param provider DataProvider the image belongs to
+    * @param coords Coords of the image
+    * @param tags Image tags, as found in the TaggedImage from the Core
+    */
+   public void recordCoreTime(DataProvider provider, Coords coords, JSONObject tags) {
+      if (!enabled_ || !tags.has(CORE_TIME_KEY)) {
+         return;
+      }
+      long ageNs = coreTimeAgeNs(tags.optString(CORE_TIME_KEY));
+      if (ageNs >= 0) {
+         record(CAMERA, provider, coords, System.nanoTime() - ageNs);
+      }
+   }
+
+   /**
+    * How long ago the Core received an image, from the time stamp that the
+    * Core adds to the image tags.
+    *
+    * @param coreTime Value of the TimeReceivedByCore tag
+    * @return Age in nanoseconds, or -1 when the time stamp can not be read
+    */
+   public static long coreTimeAgeNs(String coreTime) {
+      try {
+         LocalDateTime time = LocalDateTime.parse(coreTime, CORE_TIME_FORMAT);
+         long epochNs = time.atZone(ZoneId.systemDefault()).toEpochSecond()
+               * 1000000000L + time.getNano();
+         return Math.max(0L, System.currentTimeMillis() * 1000000L - epochNs);
+      } catch (DateTimeParseException e) {
+         // Not a format we know
+         return -1;
+      }
+   }
+
+   @Override
+   public List<String> getStages() {
+      return new ArrayList<>(stageNames_);
+   }
+
+   @Override
+   public double getLatencyPercentileMs(String stage, double percentile) {
+      Integer stageId = stageIds_.get(stage);
+      if (stageId == null) {
+         return Double.NaN;
+      }
+      Map<Long, Long> firstTimes = new HashMap<>();
+      Map<Long, Long> stageTimes = new HashMap<>();
+      for (Event e : snapshot()) {
+         firstTimes.merge(e.image, e.time, Math::min);
+         if (e.stage == stageId) {
+            stageTimes.merge(e.image, e.time, Math::min);
+         }
+      }
+      if (stageTimes.isEmpty()) {
+         return Double.NaN;
+      }
+      long[] latencies = new long[stageTimes.size()];
+      int i = 0;
+      for (Map.Entry<Long, Long> entry : stageTimes.entrySet()) {
+         latencies[i++] = entry.getValue() - firstTimes.get(entry.getKey());
+      }
+      Arrays.sort(latencies);
+      int index = (int) Math.ceil(percentile / 100.0 * latencies.length) - 1;
+      return latencies[Math.max(0, Math.min(latencies.length - 1, index))] / 1.0e6;
+   }
+
+   @Override
+   public int getBacklog(String fromStage, String toStage) {
+      Integer fromId = stageIds_.get(fromStage);
+      if (fromId == null) {
+         return 0;
+      }
+      Integer toId = stageIds_.get(toStage);
+      Set<Long> waiting = new HashSet<>();
+      Set<Long> done = new HashSet<>();
+      for (Event e : snapshot()) {
+         if (e.stage == fromId) {
+            waiting.add(e.image);
+         } else if (toId != null && e.stage == toId) {
+            done.add(e.image);
+         }
+      }
+      waiting.removeAll(done);
+      return waiting.size();
+   }
+
+   @Override
+   public void clear() {
+      // Invalidate all slots; events recorded concurrently may survive.
+      for (int slot = 0; slot <= mask_; slot++) {
+         sequence_.set(slot, 0);
+      }
+   }
+
+   @Override
+   public void writeTrace(File file) throws IOException {
+      List<Event> events = snapshot();
+      try (Writer writer = new FileWriter(file)) {
+         writer.write("timeNs\tstage\timage\n");
+         for (Event e : events) {
+            writer.write(e.time + "\t" + stageNames_.get(e.stage) + "\t"
+                  + Long.toHexString(e.image) + "\n");
+         }
+      }
+   }
+
+   private int stageId(String stage) {
+      Integer id = stageIds_.get(stage);
+      if (id != null) {
+         return id;
+      }
+      synchronized (stageNames_) {
+         return stageIds_.computeIfAbsent(stage, s -> {
+            stageNames_.add(s);
+            return stageNames_.size() - 1;
+         });
+      }
+   }
+
+   /**
+    * Identifies an image by its DataProvider and the non-zero axes of its
+    * Coords, independent of the order of the axes.
+    */
+   private static long imageId(DataProvider provider, Coords coords) {
+      long id = System.identityHashCode(provider);
+      for (String axis : coords.getAxes()) {
+         int index = coords.getIndex(axis);
+         if (index != 0) {
+            id += mix(axis.hashCode() * 0x9E3779B97F4A7C15L + index);
+         }
+      }
+      return id;
+   }
+
+   private static long mix(long z) {
+      z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+      z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+      return z ^ (z >>> 31);
+   }
+
+   /**
+    * Copies the events that are currently in the ring buffer, oldest first.
+    */
+   private List<Event> snapshot() {
+      long end = next_.get();
+      long start = Math.max(0, end - (mask_ + 1));
+      List<Event> events = new ArrayList<>((int) (end - start));
+      for (long seq = start; seq < end; seq++) {
+         int slot = (int) (seq & mask_);
+         if (sequence_.get(slot) != seq + 1) {
+            continue;
+         }
+         Event e = new Event(times_.get(slot), images_.get(slot), stages_.get(slot));
+         if (sequence_.get(slot) == seq + 1) {
+            events.add(e);
+         }
+      }
+      return events;
+   }
+}
@@ -1,5 +1,7 @@
 package org.micromanager.acquisition.internal;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
 import javax.swing.JOptionPane;
@@ -24,6 +26,9 @@ import org.micromanager.internal.utils.ReportingUtils;
  * @author arthur, modified by Chris Weisiger
  */
 public final class DefaultTaggedImageSink {
+   // Most images taken from the queue at once; kept small, since images
+   // taken from the queue no longer hold back the engine
+   private static final int BATCH_SIZE = 16;
 
    private final BlockingQueue<TaggedImage> imageProducingQueue_;
    private final Datastore store_;
@@ -56,13 +61,22 @@ public final class DefaultTaggedImageSink {
          public void run() {
             long t1 = System.currentTimeMillis();
             int imageCount = 0;
+            List<TaggedImage> batch = new ArrayList<>(BATCH_SIZE);
             try {
+               receive:
                while (true) {
-                  TaggedImage tagged = imageProducingQueue_.poll(1, TimeUnit.SECONDS);
-                  if (tagged != null) {
+                  // Take whatever is waiting at once; only wait when nothing is
+                  if (imageProducingQueue_.drainTo(batch, BATCH_SIZE) == 0) {
+                     TaggedImage tagged = imageProducingQueue_.poll(1, TimeUnit.SECONDS);
+                     if (tagged == null) {
+                        continue;
+                     }
+                     batch.add(tagged);
+                  }
+                  for (TaggedImage tagged : batch) {
                      if (TaggedImageQueue.isPoison(tagged)) {
-                        // Acquisition has ended. Clean up under "finally"                        
-                        break;
+                        // Acquisition has ended. Clean up under "finally"
+                        break receive;
                      }
                      try {
                         ++imageCount;
@@ -87,9 +101,10 @@ public final class DefaultTaggedImageSink {
                         }
                      } catch (OutOfMemoryError e) {
                         handleOutOfMemory(e, sinkFullCallback);
-                        break;
+                        break receive;
                      }
                   }
+                  batch.clear();
                }
             } catch (Exception ex2) {
                ReportingUtils.logError(ex2);
@@ -100,6 +115,9 @@ public final class DefaultTaggedImageSink {
             }
             long t2 = System.currentTimeMillis();
             ReportingUtils.logMessage(imageCount + " images stored in " + (t2 - t1) + " ms.");
+            if (imageProducingQueue_ instanceof TaggedImageRingBuffer) {
+               ReportingUtils.logMessage("Image hand-off: " + imageProducingQueue_);
+            }
          }
       };
       savingThread.start();
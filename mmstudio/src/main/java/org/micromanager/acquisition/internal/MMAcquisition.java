@@ -141,7 +141,8 @@ public final class MMAcquisition extends DataViewerListener {
                      acquisitionSettings.prefix());
             summaryMetadata =  summaryMetadata.copyBuilder().prefix(acqDirectory).build();
             String acqPath = acquisitionSettings.root() + File.separator + acqDirectory;
-            store_.setStorage(getAppropriateStorage(studio_, store_, acqPath, true));
+            store_.setStorage(getAppropriateStorage(studio_, store_, acqPath, true,
+                  acquisitionSettings.saveMode()));
          } catch (Exception e) {
             ReportingUtils.showError(e, "Unable to create directory for saving images.");
             callbacks_.stop(true);
@@ -514,8 +515,9 @@ public final class MMAcquisition extends DataViewerListener {
    private static Storage getAppropriateStorage(final Studio studio,
                                                 final DefaultDatastore store,
                                                 final String path,
-                                                final boolean isNew) throws IOException {
-      Datastore.SaveMode mode = DefaultDatastore.getPreferredSaveMode(studio);
+                                                final boolean isNew,
+                                                final Datastore.SaveMode mode)
+         throws IOException {
       if (null != mode) {
          switch (mode) {
             case SINGLEPLANE_TIFF_SERIES:
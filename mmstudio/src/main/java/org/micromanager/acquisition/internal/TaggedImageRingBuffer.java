@@ -0,0 +1,329 @@
+package org.micromanager.acquisition.internal;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import mmcorej.TaggedImage;
+
+/**
+ * Bounded queue that hands TaggedImages from the acquisition engine to the
+ * image sink without locks, and without allocating per image.
+ *
+ * <p>Images are stored in a preallocated ring of slots, each with a sequence
+ * number telling whether it is free or filled.  There must be a single
+ * producer; taking images is safe from any number of threads, so that the
+ * producer can clear the queue when an acquisition is aborted.  Threads that
+ * have to wait first spin, then yield, and only then park, for increasingly
+ * long times, so that the hand-off is fast when images arrive at high rates
+ * without burning a core when they do not.</p>
+ *
+ * <p>The capacity is rounded up to a power of two.  Iterators are weakly
+ * consistent snapshots, meant for debugging only.</p>
+ */
+public final class TaggedImageRingBuffer extends AbstractQueue<TaggedImage>
+      implements BlockingQueue<TaggedImage> {
+   private static final int SPINS = 200;
+   private static final int YIELDS = 20;
+   private static final long MIN_PARK_NS = 1000L;
+   private static final long MAX_PARK_NS = 1000000L;
+
+   private final TaggedImage[] slots_;
+   // For position p in slot p & mask_: p when free, p + 1 when filled
+   private final AtomicLongArray sequences_;
+   private final int mask_;
+   private final AtomicLong head_ = new AtomicLong();
+   // Only written by the producer
+   private volatile long tail_;
+   private volatile int peakSize_;
+   private volatile long fullCount_;
+   private volatile Thread waitingProducer_;
+   private volatile Thread waitingConsumer_;
+
+   /**
+    * Creates an empty queue.
+    *
+    * @param capacity Minimum number of images the queue can hold
+    */
+   public TaggedImageRingBuffer(int capacity) {
+      if (capacity < 1 || capacity > (1 << 30)) {
+         throw new IllegalArgumentException("Invalid capacity: " + capacity);
+      }
+      int size = Integer.highestOneBit(capacity);
+      if (size < capacity) {
+         size <<= 1;
+      }
+      slots_ = new TaggedImage[size];
+      sequences_ = new AtomicLongArray(size);
+      for (int i = 0; i < size; i++) {
+         sequences_.set(i, i);
+      }
+      mask_ = size - 1;
+   }
+
+   @Override
+   public boolean offer(TaggedImage image) {
+      if (image == null) {
+         throw new NullPointerException();
+      }
+      long tail = tail_;
+      int index = (int) tail & mask_;
+      if (sequences_.get(index) != tail) {
+         return false;
+      }
+      slots_[index] = image;
+      sequences_.set(index, tail + 1);
+      tail_ = tail + 1;
+      int size = (int) (tail + 1 - head_.get());
+      if (size > peakSize_) {
+         peakSize_ = size;
+      }
+      Thread consumer = waitingConsumer_;
+      if (consumer != null) {
+         LockSupport.unpark(consumer);
+      }
+      return true;
+   }
+
+   @Override
+   public boolean offer(TaggedImage image, long timeout, TimeUnit unit)
+         throws InterruptedException {
+      if (offer(image)) {
+         return true;
+      }
+      fullCount_ = fullCount_ + 1;
+      Backoff backoff = new Backoff(unit.toNanos(timeout));
+      while (backoff.pause(true)) {
+         if (offer(image)) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   @Override
+   public void put(TaggedImage image) throws InterruptedException {
+      if (offer(image)) {
+         return;
+      }
+      fullCount_ = fullCount_ + 1;
+      Backoff backoff = new Backoff(-1);
+      while (!offer(image)) {
+         backoff.pause(true);
+      }
+   }
+
+   @Override
+   public TaggedImage poll() {
+      while (true) {
+         long head = head_.get();
+         int index = (int) head & mask_;
+         long sequence = sequences_.get(index);
+         if (sequence != head + 1) {
+            if (sequence <= head) {
+               return null;
+            }
+            // Another thread took this image; try the next
+            continue;
+         }
+         if (head_.compareAndSet(head, head + 1)) {
+            TaggedImage image = slots_[index];
+            slots_[index] = null;
+            sequences_.set(index, head + slots_.length);
+            Thread producer = waitingProducer_;
+            if (producer != null) {
+               LockSupport.unpark(producer);
+            }
+            return image;
+         }
+      }
+   }
+
+   @Override
+   public TaggedImage poll(long timeout, TimeUnit unit) throws InterruptedException {
+      TaggedImage image = poll();
+      if (image != null) {
+         return image;
+      }
+      Backoff backoff = new Backoff(unit.toNanos(timeout));
+      while (backoff.pause(false)) {
+         image = poll();
+         if (image != null) {
+            return image;
+         }
+      }
+      return null;
+   }
+
+   @Override
+   public TaggedImage take() throws InterruptedException {
+      TaggedImage image = poll();
+      Backoff backoff = new Backoff(-1);
+      while (image == null) {
+         backoff.pause(false);
+         image = poll();
+      }
+      return image;
+   }
+
+   @Override
+   public TaggedImage peek() {
+      long head = head_.get();
+      int index = (int) head & mask_;
+      if (sequences_.get(index) != head + 1) {
+         return null;
+      }
+      return slots_[index];
+   }
+
+   @Override
+   public int drainTo(Collection<? super TaggedImage> c) {
+      return drainTo(c, Integer.MAX_VALUE);
+   }
+
+   /**
+    * Takes all available images, up to maxElements, without waiting.  Taking
+    * images in batches lets the consumer catch up after a hiccup without
+    * paying for a hand-off per image.
+    */
+   @Override
+   public int drainTo(Collection<? super TaggedImage> c, int maxElements) {
+      if (c == this) {
+         throw new IllegalArgumentException();
+      }
+      int n = 0;
+      while (n < maxElements) {
+         TaggedImage image = poll();
+         if (image == null) {
+            break;
+         }
+         c.add(image);
+         n++;
+      }
+      return n;
+   }
+
+   @Override
+   public int size() {
+      // Read head first; the tail is never behind it
+      long head = head_.get();
+      long size = tail_ - head;
+      return (int) Math.max(0, Math.min(size, slots_.length));
+   }
+
+   @Override
+   public int remainingCapacity() {
+      return slots_.length - size();
+   }
+
+   public int getCapacity() {
+      return slots_.length;
+   }
+
+   /**
+    * @return Fraction (0 - 1) of the capacity in use
+    */
+   public double getOccupancy() {
+      return size() / (double) slots_.length;
+   }
+
+   /**
+    * @return Highest number of images that were in the queue at once
+    */
+   public int getPeakSize() {
+      return peakSize_;
+   }
+
+   /**
+    * @return Number of times the producer found the queue full, and had to wait
+    */
+   public long getFullCount() {
+      return fullCount_;
+   }
+
+   /**
+    * @return Number of images that were put into the queue
+    */
+   public long getTransferredCount() {
+      return tail_;
+   }
+
+   @Override
+   public Iterator<TaggedImage> iterator() {
+      List<TaggedImage> snapshot = new ArrayList<>(size());
+      for (long p = head_.get(); p < tail_; p++) {
+         TaggedImage image = slots_[(int) p & mask_];
+         if (image != null) {
+            snapshot.add(image);
+         }
+      }
+      return Collections.unmodifiableList(snapshot).iterator();
+   }
+
+   @Override
+   public String toString() {
+      return String.format("%d of %d images queued, peak %d, %d transferred, full %d times",
+            size(), slots_.length, peakSize_, tail_, fullCount_);
+   }
+
+   /**
+    * Waits between attempts: spins, then yields, then parks for growing times.
+    */
+   private final class Backoff {
+      private final long deadline_;
+      private final boolean timed_;
+      private int attempts_;
+      private long parkNs_ = MIN_PARK_NS;
+
+      // timeoutNs < 0 waits forever
+      Backoff(long timeoutNs) {
+         timed_ = timeoutNs >= 0;
+         deadline_ = timed_ ? System.nanoTime() + timeoutNs : 0;
+      }
+
+      /**
+       * @return false when the time is up
+       */
+      boolean pause(boolean producer) throws InterruptedException {
+         if (Thread.interrupted()) {
+            throw new InterruptedException();
+         }
+         long remaining = timed_ ? deadline_ - System.nanoTime() : MAX_PARK_NS;
+         if (remaining <= 0) {
+            return false;
+         }
+         attempts_++;
+         if (attempts_ <= SPINS) {
+            return true;
+         }
+         if (attempts_ <= SPINS + YIELDS) {
+            Thread.yield();
+            return true;
+         }
+         Thread current = Thread.currentThread();
+         if (producer) {
+            waitingProducer_ = current;
+            // Check again, the consumer may have missed that we are waiting
+            if (remainingCapacity() == 0) {
+               LockSupport.parkNanos(this, Math.min(parkNs_, remaining));
+            }
+            waitingProducer_ = null;
+         } else {
+            waitingConsumer_ = current;
+            if (size() == 0) {
+               LockSupport.parkNanos(this, Math.min(parkNs_, remaining));
+            }
+            waitingConsumer_ = null;
+         }
+         parkNs_ = Math.min(parkNs_ * 2, MAX_PARK_NS);
+         return true;
+      }
+   }
+}
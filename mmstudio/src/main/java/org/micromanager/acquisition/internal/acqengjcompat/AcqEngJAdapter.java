@@ -28,16 +28,19 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.function.Function;
 import javax.swing.JOptionPane;
 import mmcorej.CMMCore;
 import mmcorej.Configuration;
 import mmcorej.PropertySetting;
 import mmcorej.StrVector;
+import mmcorej.TaggedImage;
 import mmcorej.org.json.JSONArray;
 import mmcorej.org.json.JSONException;
 import mmcorej.org.json.JSONObject;
@@ -52,20 +55,25 @@ import org.micromanager.acqj.main.AcqEngMetadata;
 import org.micromanager.acqj.main.Acquisition;
 import org.micromanager.acqj.main.AcquisitionEvent;
 import org.micromanager.acqj.util.AcquisitionEventIterator;
+import org.micromanager.acquisition.AcquisitionAdmissionEvent;
 import org.micromanager.acquisition.AcquisitionEndedEvent;
 import org.micromanager.acquisition.ChannelSpec;
 import org.micromanager.acquisition.SequenceSettings;
 import org.micromanager.acquisition.internal.AcquisitionEngine;
+import org.micromanager.acquisition.internal.DefaultAcquisitionAdmissionEvent;
 import org.micromanager.acquisition.internal.DefaultAcquisitionEndedEvent;
 import org.micromanager.acquisition.internal.DefaultAcquisitionSettingsChangedEvent;
 import org.micromanager.acquisition.internal.DefaultAcquisitionStartedEvent;
 import org.micromanager.acquisition.internal.MMAcquisition;
 import org.micromanager.acquisition.internal.MMAcquistionControlCallbacks;
+import org.micromanager.data.Coordinates;
+import org.micromanager.data.Coords;
 import org.micromanager.data.DataProvider;
 import org.micromanager.data.Datastore;
 import org.micromanager.data.Pipeline;
 import org.micromanager.data.SummaryMetadata;
 import org.micromanager.data.internal.DefaultDatastore;
+import org.micromanager.data.internal.DefaultImage;
 import org.micromanager.data.internal.DefaultSummaryMetadata;
 import org.micromanager.data.internal.PropertyKey;
 import org.micromanager.display.DisplayWindow;
@@ -107,6 +115,10 @@ public class AcqEngJAdapter implements AcquisitionEngine, MMAcquistionControlCal
    private Pipeline curPipeline_;
    private long nextWakeTime_ = -1;
    private ArrayList<RunnablePlusIndices> runnables_ = new ArrayList<>();
+   private boolean concurrentHooks_ = false;
+   private final List<DeviceAwareHookGroup> hookGroups_ = new ArrayList<>();
+   private AdmissionController.Policy admissionPolicy_ = AdmissionController.Policy.WARN;
+   private AdmissionController admission_;
 
    private class RunnablePlusIndices {
       int channel_;
@@ -160,6 +172,9 @@ public class AcqEngJAdapter implements AcquisitionEngine, MMAcquistionControlCal
                return null;
             }
          } else if (!this.enoughDiskSpace()) {
+            studio_.events().post(new DefaultAcquisitionAdmissionEvent(
+                  AcquisitionAdmissionEvent.Action.REJECTED, "Not enough space on disk",
+                  Double.NaN, Double.NaN));
             studio_.logs().showError(
                   "Not enough space on disk to save the requested image set; "
                         + "acquisition canceled.");
@@ -189,6 +204,25 @@ public class AcqEngJAdapter implements AcquisitionEngine, MMAcquistionControlCal
       posList_ = posListToUse;
       positionMap_ = new HashMap<>(posList_ == null ? 0 : posList_.getNumberOfPositions());
 
+      // Check whether storage is expected to keep up, possibly choosing a faster save mode
+      long bytesPerImage = core_.getImageWidth() * core_.getImageHeight()
+            * core_.getBytesPerPixel() * core_.getNumberOfCameraChannels();
+      double exposureMs = 0.0;
+      try {
+         exposureMs = core_.getExposure();
+      } catch (Exception ex) {
+         studio_.logs().logError(ex);
+      }
+      admission_ = new AdmissionController(admissionPolicy_, bytesPerImage,
+            AdmissionController.estimateBytesPerSecond(sequenceSettings,
+                  getNumSlices(sequenceSettings), getNumPositions(sequenceSettings, posList_),
+                  bytesPerImage, exposureMs),
+            studio_.events()::post, this::setAdmissionPause);
+      SequenceSettings admitted = admission_.admit(sequenceSettings);
+      // Only this run uses the storage chosen by admission control; the
+      // user's preferred save mode is left alone
+      sb.saveMode(admitted.saveMode());
+
       // The clojure acquisition engine always uses numFrames, and customIntervals
       // unless they are null.
       if (sequenceSettings.useCustomIntervals()) {
@@ -262,35 +296,56 @@ public class AcqEngJAdapter implements AcquisitionEngine, MMAcquistionControlCal
 
          zStage_ = core_.getFocusDevice();
 
+         admission_.start(acquisitionSettings.save()
+                     ? AdmissionController.storageKey(acquisitionSettings.saveMode(),
+                           acquisitionSettings.root()) : null,
+               curStore_::getNumImages, () -> AdmissionController.bufferFill(core_),
+               this::isPaused);
+
          studio_.events().registerForEvents(this);
          studio_.events().post(new DefaultAcquisitionStartedEvent(curStore_, this,
                acquisitionSettings));
 
+         // Our hooks are collected per hook point, so that hooks touching different
+         // devices can run concurrently, and so that the time spent in each is known.
+         hookGroups_.clear();
+         DeviceAwareHookGroup beforeHardwareHooks =
+               new DeviceAwareHookGroup("before hardware", concurrentHooks_);
+         DeviceAwareHookGroup beforeZDriveHooks =
+               new DeviceAwareHookGroup("before Z drive", concurrentHooks_);
+         DeviceAwareHookGroup afterHardwareHooks =
+               new DeviceAwareHookGroup("after hardware", concurrentHooks_);
+         DeviceAwareHookGroup afterExposureHooks =
+               new DeviceAwareHookGroup("after exposure", concurrentHooks_);
+
          if (sequenceSettings_.acqOrderMode() == AcqOrderMode.POS_TIME_CHANNEL_SLICE
                || sequenceSettings_.acqOrderMode() == AcqOrderMode.POS_TIME_SLICE_CHANNEL) {
             // Pos_time ordered acquisitions need their timelapse minimum start time to be
             // adjusted for each position.  The only place to do that seems to be a hardware hook.
-            currentAcquisition_.addHook(timeLapseHook(acquisitionSettings),
-                  AcquisitionAPI.BEFORE_HARDWARE_HOOK);
+            beforeHardwareHooks.addExclusive("time lapse", timeLapseHook(acquisitionSettings));
          }
 
          // Hook to move back the ZStage to its original position after a Z stack
          if (sequenceSettings.useSlices()) {
-            currentAcquisition_.addHook(zPositionHook(acquisitionSettings,
-                  Acquisition.BEFORE_HARDWARE_HOOK, null),
-                  AcquisitionAPI.BEFORE_HARDWARE_HOOK);
-            currentAcquisition_.addHook(zPositionHook(acquisitionSettings,
-                        Acquisition.AFTER_EXPOSURE_HOOK, null),
-                  AcquisitionAPI.AFTER_EXPOSURE_HOOK);
+            List<String> focus = Arrays.asList(core_.getFocusDevice());
+            beforeHardwareHooks.add("Z position", zPositionHook(acquisitionSettings,
+                  Acquisition.BEFORE_HARDWARE_HOOK, null), focus);
+            afterExposureHooks.add("Z position", zPositionHook(acquisitionSettings,
+                  Acquisition.AFTER_EXPOSURE_HOOK, null), focus);
          }
 
          // These hooks make sure that continuous-focus is off when running a Z stack.
+         // Continuous focus moves the focus drive, so these do not run at the same
+         // time as the Z position hooks.
          if (studio_.core().isContinuousFocusEnabled()
                  && ((MMStudio) studio_).settings().getUnlockAutofocusDuringZStack()) {
-            currentAcquisition_.addHook(continuousFocusHookBefore(acquisitionSettings),
-                  AcquisitionAPI.BEFORE_HARDWARE_HOOK);
-            currentAcquisition_.addHook(continuousFocusHookAfter(acquisitionSettings),
-                  AcquisitionAPI.AFTER_EXPOSURE_HOOK);
+            beforeHardwareHooks.add("continuous focus",
+                  continuousFocusHookBefore(acquisitionSettings),
+                  Arrays.asList(core_.getXYStageDevice(), core_.getAutoFocusDevice(),
+                        core_.getFocusDevice()));
+            afterExposureHooks.add("continuous focus",
+                  continuousFocusHookAfter(acquisitionSettings),
+                  Arrays.asList(core_.getAutoFocusDevice(), core_.getFocusDevice()));
          }
 
          // These hooks implement Autofocus.
@@ -299,28 +354,33 @@ public class AcqEngJAdapter implements AcquisitionEngine, MMAcquistionControlCal
          // AcqEngJ does not have hooks for this, so move the XY stage and other stages in the
          // positionlist ourselves inside the autofocusHookBefore function.
          if (sequenceSettings_.useAutofocus()) {
-            currentAcquisition_.addHook(autofocusHook(sequenceSettings_.skipAutofocusCount()),
-                  AcquisitionAPI.BEFORE_Z_DRIVE_HOOK);
+            beforeZDriveHooks.addExclusive("autofocus",
+                  autofocusHook(sequenceSettings_.skipAutofocusCount()));
             // add a hook to update the Z drive positions based on the position found in the i
             // previous round after autofocussing.
-            currentAcquisition_.addHook(adjustZDrivesHook(), AcquisitionAPI.BEFORE_HARDWARE_HOOK);
+            beforeHardwareHooks.addExclusive("adjust Z drives", adjustZDrivesHook());
          }
 
          // Hooks to keep shutter open between channel and/or slices if desired
          if (((sequenceSettings.useChannels() && sequenceSettings.keepShutterOpenChannels())
                || (sequenceSettings.useSlices() && sequenceSettings.keepShutterOpenSlices()))
                && core_.getAutoShutter()) {
-            currentAcquisition_.addHook(shutterHookBefore(acquisitionSettings),
-                  AcquisitionAPI.AFTER_HARDWARE_HOOK);
-            currentAcquisition_.addHook(shutterHookAfter(acquisitionSettings),
-                  AcquisitionAPI.AFTER_EXPOSURE_HOOK);
+            List<String> shutter = Arrays.asList(core_.getShutterDevice());
+            afterHardwareHooks.add("shutter", shutterHookBefore(acquisitionSettings), shutter);
+            afterExposureHooks.add("shutter", shutterHookAfter(acquisitionSettings), shutter);
          }
 
          if (sequenceSettings.useChannels()) {
             String channelGroup = core_.getChannelGroup();
             String channel = core_.getCurrentConfig(channelGroup);
-            currentAcquisition_.addHook(restoreChannelHook(channelGroup, channel),
-                  AcquisitionAPI.AFTER_EXPOSURE_HOOK);
+            List<String> channelDevices = configDevices(channelGroup, channel);
+            if (channelDevices != null) {
+               afterExposureHooks.add("restore channel",
+                     restoreChannelHook(channelGroup, channel), channelDevices);
+            } else {
+               afterExposureHooks.addExclusive("restore channel",
+                     restoreChannelHook(channelGroup, channel));
+            }
          }
 
          // Return all stages used to their current positions
@@ -353,16 +413,24 @@ public class AcqEngJAdapter implements AcquisitionEngine, MMAcquistionControlCal
                   }
                }
             }
-            currentAcquisition_.addHook(restorePositionHook(msp),
-                    AcquisitionAPI.AFTER_EXPOSURE_HOOK);
+            List<String> stages = new ArrayList<>();
+            for (int i = 0; i < msp.size(); i++) {
+               stages.add(msp.get(i).getStageDeviceLabel());
+            }
+            afterExposureHooks.add("restore position", restorePositionHook(msp), stages);
          }
 
          // This hook is used to update the time of the next wake up call
          if (sequenceSettings.useFrames()) {
-            currentAcquisition_.addHook(updateNextWakeHook(acquisitionSettings),
-                  AcquisitionAPI.AFTER_HARDWARE_HOOK);
+            afterHardwareHooks.add("next wake time", updateNextWakeHook(acquisitionSettings),
+                  new ArrayList<>());
          }
 
+         addHookGroup(beforeHardwareHooks, AcquisitionAPI.BEFORE_HARDWARE_HOOK);
+         addHookGroup(beforeZDriveHooks, AcquisitionAPI.BEFORE_Z_DRIVE_HOOK);
+         addHookGroup(afterHardwareHooks, AcquisitionAPI.AFTER_HARDWARE_HOOK);
+         addHookGroup(afterExposureHooks, AcquisitionAPI.AFTER_EXPOSURE_HOOK);
+
          // Read for events
          currentAcquisition_.start();
 
@@ -374,6 +442,7 @@ public class AcqEngJAdapter implements AcquisitionEngine, MMAcquistionControlCal
 
       } catch (Throwable ex) {
          studio_.logs().showError((Exception) ex);
+         admission_.stop();
          if (currentAcquisition_ != null && currentAcquisition_.areEventsFinished()) {
             studio_.events().post(new DefaultAcquisitionEndedEvent(curStore_, this));
          }
@@ -381,6 +450,76 @@ public class AcqEngJAdapter implements AcquisitionEngine, MMAcquistionControlCal
       }
    }
 
+   private void addHookGroup(DeviceAwareHookGroup group, int when) {
+      if (!group.isEmpty()) {
+         currentAcquisition_.addHook(group, when);
+         hookGroups_.add(group);
+      }
+   }
+
+   /**
+    * Labels of the devices used in a configuration preset.
+    *
+    * @return device labels, or null when the preset can not be found
+    */
+   private List<String> configDevices(String group, String config) {
+      List<String> devices = new ArrayList<>();
+      try {
+         Configuration presetData = core_.getConfigData(group, config);
+         for (int i = 0; i < presetData.size(); i++) {
+            devices.add(presetData.getSetting(i).getDeviceLabel());
+         }
+      } catch (Exception ex) {
+         return null;
+      }
+      return devices;
+   }
+
+   /**
+    * When true, hooks that touch different devices are run concurrently
+    * (starting with the next acquisition), which can shorten the time between
+    * images when multiple devices need to move.  Off by default.
+    *
+    * @param concurrent true to run hooks concurrently
+    */
+   public void setConcurrentHooks(boolean concurrent) {
+      concurrentHooks_ = concurrent;
+   }
+
+   public boolean isConcurrentHooks() {
+      return concurrentHooks_;
+   }
+
+   /**
+    * What to do, starting with the next acquisition, when storage can not keep
+    * up with the acquisition.  Decisions are posted as AcquisitionAdmissionEvents.
+    * Only warns by default.
+    *
+    * @param policy What to do when storage can not keep up
+    */
+   public void setAdmissionPolicy(AdmissionController.Policy policy) {
+      admissionPolicy_ = policy;
+   }
+
+   public AdmissionController.Policy getAdmissionPolicy() {
+      return admissionPolicy_;
+   }
+
+   /**
+    * Time spent in each of the hooks Micro-Manager installed in the current
+    * or last acquisition, per hook point.  Hooks run between images, so these
+    * show which device movements dominate the time between images.
+    *
+    * @return timings per hook; each hook point ends with its total
+    */
+   public List<DeviceAwareHookGroup.HookTiming> getHookTimings() {
+      List<DeviceAwareHookGroup.HookTiming> timings = new ArrayList<>();
+      for (DeviceAwareHookGroup group : hookGroups_) {
+         timings.addAll(group.getTimings());
+      }
+      return timings;
+   }
+
    /**
     * Higher level stuff in MM may depend on many hidden, poorly documented
     * ways on summary metadata generated by the acquisition engine.
@@ -447,24 +586,46 @@ public class AcqEngJAdapter implements AcquisitionEngine, MMAcquistionControlCal
     * AcqEnJ's metadata to include this here
     */
    public static void addMMImageMetadata(JSONObject imageMD) {
+      addMMImageMetadata(imageMD, AcqEngMetadata.getAxes(imageMD));
+   }
+
+   /**
+    * Converts an image produced by AcqEngJ into an Image for the pipeline.
+    *
+    * <p>The axes are read from the tags once, and are used both for the
+    * MM metadata tags and for the Coords, which include any non-standard
+    * axes.  The tags are parsed once, and the Image is created once, using
+    * the pixels of the TaggedImage without copying them.
+    *
+    * @param tagged Image from AcqEngJ.  Its tags are amended with the MM metadata.
+    * @return Image with Coords for all AcqEngJ axes
+    */
+   public static DefaultImage toMMImage(TaggedImage tagged) {
+      HashMap<String, Object> axes = AcqEngMetadata.getAxes(tagged.tags);
+      addMMImageMetadata(tagged.tags, axes);
+      Coords.Builder cb = Coordinates.builder();
+      for (Map.Entry<String, Object> axis : axes.entrySet()) {
+         // Standard axes (ptzc) have the same names in AcqEngJ and in Coords
+         cb.index(axis.getKey(), (Integer) axis.getValue());
+      }
+      return new DefaultImage(tagged, cb.build(), null);
+   }
+
+   private static void addMMImageMetadata(JSONObject imageMD, Map<String, Object> axes) {
       try {
-         if (AcqEngMetadata.hasAxis(imageMD, AcqEngMetadata.TIME_AXIS)) {
-            imageMD.put(PropertyKey.FRAME_INDEX.key(),
-                  AcqEngMetadata.getAxisPosition(imageMD, AcqEngMetadata.TIME_AXIS));
-         }
-         if (AcqEngMetadata.hasAxis(imageMD, AcqEngMetadata.Z_AXIS)) {
-            imageMD.put(PropertyKey.SLICE_INDEX.key(),
-                  AcqEngMetadata.getAxisPosition(imageMD, AcqEngMetadata.Z_AXIS));
-         }
-         if (AcqEngMetadata.hasAxis(imageMD, AcqEngMetadata.CHANNEL_AXIS)) {
-            imageMD.put(PropertyKey.CHANNEL_INDEX.key(),
-                  AcqEngMetadata.getAxisPosition(imageMD, AcqEngMetadata.CHANNEL_AXIS));
-            String channelName = "" + AcqEngMetadata.getAxes(imageMD)
-                  .get(AcqEngMetadata.CHANNEL_AXIS);
-            imageMD.put(PropertyKey.CHANNEL_NAME.key(), channelName);
-         }
-         if (AcqEngMetadata.hasAxis(imageMD, "position")) {
-            int index = (Integer) AcqEngMetadata.getAxisPosition(imageMD, "position");
+         if (axes.containsKey(AcqEngMetadata.TIME_AXIS)) {
+            imageMD.put(PropertyKey.FRAME_INDEX.key(), axes.get(AcqEngMetadata.TIME_AXIS));
+         }
+         if (axes.containsKey(AcqEngMetadata.Z_AXIS)) {
+            imageMD.put(PropertyKey.SLICE_INDEX.key(), axes.get(AcqEngMetadata.Z_AXIS));
+         }
+         if (axes.containsKey(AcqEngMetadata.CHANNEL_AXIS)) {
+            Object channel = axes.get(AcqEngMetadata.CHANNEL_AXIS);
+            imageMD.put(PropertyKey.CHANNEL_INDEX.key(), channel);
+            imageMD.put(PropertyKey.CHANNEL_NAME.key(), "" + channel);
+         }
+         if (axes.containsKey("position")) {
+            int index = (Integer) axes.get("position");
             imageMD.put(PropertyKey.POSITION_INDEX.key(), index);
             if (imageMD.has(AcqEngMetadata.TAGS)) {
                JSONObject tags = imageMD.getJSONObject(AcqEngMetadata.TAGS);
@@ -1395,6 +1556,15 @@ public class AcqEngJAdapter implements AcquisitionEngine, MMAcquistionControlCal
 
    @Override
    public void setPause(boolean state) {
+      AdmissionController admission = admission_;
+      if (admission != null) {
+         // A pause requested here is not undone by admission control
+         admission.pauseChanged();
+      }
+      setAdmissionPause(state);
+   }
+
+   private void setAdmissionPause(boolean state) {
       if (currentAcquisition_ != null) {
          currentAcquisition_.setPaused(state);
       }
@@ -1780,6 +1950,18 @@ public class AcqEngJAdapter implements AcquisitionEngine, MMAcquistionControlCal
       if (event.getStore().equals(curStore_)) {
          curStore_ = null;
          curPipeline_ = null;
+         if (core_.debugLogEnabled()) {
+            for (DeviceAwareHookGroup group : hookGroups_) {
+               studio_.logs().logDebugMessage(group.toString());
+            }
+         }
+         if (admission_ != null) {
+            admission_.stop();
+            studio_.logs().logMessage(String.format(
+                  "Storage wrote %.1f MB/s, acquisition needed up to %.1f MB/s",
+                  admission_.getMeasuredBytesPerSecond() / 1.0e6,
+                  admission_.getRequiredBytesPerSecond() / 1.0e6));
+         }
          if (currentAcquisition_ != null) {
             try {
                currentAcquisition_.checkForExceptions();
@@ -1,22 +1,16 @@
 package org.micromanager.acquisition.internal.acqengjcompat;
 
-import clojure.lang.Obj;
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.List;
-import java.util.function.Predicate;
-import java.util.stream.Collectors;
 import javax.swing.JOptionPane;
 import javax.swing.SwingUtilities;
 import mmcorej.TaggedImage;
 import mmcorej.org.json.JSONObject;
 import org.micromanager.acqj.api.AcqEngJDataSink;
 import org.micromanager.acqj.internal.Engine;
-import org.micromanager.acqj.main.AcqEngMetadata;
 import org.micromanager.acqj.main.Acquisition;
+import org.micromanager.acquisition.AcquisitionTelemetry;
 import org.micromanager.acquisition.internal.DefaultAcquisitionEndedEvent;
-import org.micromanager.data.Coords;
+import org.micromanager.acquisition.internal.DefaultAcquisitionTelemetry;
 import org.micromanager.data.Datastore;
 import org.micromanager.data.Pipeline;
 import org.micromanager.data.PipelineErrorException;
@@ -96,26 +90,13 @@ public final class AcqEngJMDADataSink implements AcqEngJDataSink {
          return null;
       }
       try {
-         AcqEngJAdapter.addMMImageMetadata(tagged.tags);
-         DefaultImage image = new DefaultImage(tagged);
-
-         HashMap<String, Object> axisNames = AcqEngMetadata.getAxes(tagged.tags);
-         // Add any non-standard (ptzc) coords
-         List<String> nonStandardAxisNames = axisNames.keySet()
-                  .stream().filter(new Predicate<String>() {
-                     @Override
-                     public boolean test(String s) {
-                        String[] standardAxes = new String[]{AcqEngMetadata.TIME_AXIS,
-                              AcqEngMetadata.Z_AXIS, AcqEngMetadata.CHANNEL_AXIS, "position"};
-                        return !Arrays.asList(standardAxes).contains(s);
-                     }
-                  }).collect(Collectors.toList());
-
-         Coords.CoordsBuilder cb = image.getCoords().copyBuilder();
-         for (String axisName : nonStandardAxisNames) {
-            cb.index(axisName, (Integer) AcqEngMetadata.getAxes(tagged.tags).get(axisName));
+         long dequeued = System.nanoTime();
+         DefaultImage image = AcqEngJAdapter.toMMImage(tagged);
+         DefaultAcquisitionTelemetry telemetry = DefaultAcquisitionTelemetry.getInstance();
+         if (telemetry.isEnabled()) {
+            telemetry.recordCoreTime(store_, image.getCoords(), tagged.tags);
+            telemetry.record(AcquisitionTelemetry.SINK, store_, image.getCoords(), dequeued);
          }
-         image = (DefaultImage) image.copyAtCoords(cb.build());
 
          try {
             pipeline_.insertImage(image);
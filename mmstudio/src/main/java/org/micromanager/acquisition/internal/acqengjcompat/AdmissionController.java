@@ -0,0 +1,401 @@
+package org.micromanager.acquisition.internal.acqengjcompat;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.DoubleSupplier;
+import java.util.function.IntSupplier;
+import mmcorej.CMMCore;
+import org.micromanager.acquisition.AcquisitionAdmissionEvent;
+import org.micromanager.acquisition.AcquisitionAdmissionEvent.Action;
+import org.micromanager.acquisition.ChannelSpec;
+import org.micromanager.acquisition.SequenceSettings;
+import org.micromanager.acquisition.internal.DefaultAcquisitionAdmissionEvent;
+import org.micromanager.data.Datastore;
+
+/**
+ * Decides whether storage can keep up with an acquisition.
+ *
+ * <p>Before the acquisition starts, the bandwidth it needs is estimated from
+ * its SequenceSettings, and compared with the write rate measured for the same
+ * save mode on the same disk during earlier acquisitions.  While the
+ * acquisition runs, the write rate is measured again, and the backlog of
+ * images that were acquired but not stored yet is watched.  Depending on the
+ * policy, the controller only warns, pauses the acquisition until storage
+ * catches up, or, before the start, switches to a save mode that was measured
+ * to be fast enough.  All decisions are posted as AcquisitionAdmissionEvents.
+ * A pause made by the controller is undone by it; a pause made by anyone else
+ * is left alone.</p>
+ */
+public final class AdmissionController {
+
+   /**
+    * What to do when storage can not keep up.
+    */
+   public enum Policy {
+      /** Only post warnings. */
+      WARN,
+      /** Pause the acquisition when the backlog grows, resume when it drained. */
+      THROTTLE,
+      /** Like THROTTLE, and switch to a faster save mode before the start. */
+      SWITCH_STORAGE
+   }
+
+   // Fill levels of the buffer at which the acquisition is paused and resumed
+   static final double HIGH_WATER = 0.8;
+   static final double LOW_WATER = 0.4;
+   // The acquisition is resumed after this long, even when the backlog did not drain
+   static final long MAX_THROTTLE_NS = 60L * 1000000000L;
+   // Storage is considered too slow when it writes less than this fraction
+   // of the required rate for RATE_SAMPLES consecutive samples
+   static final double RATE_MARGIN = 0.9;
+   static final int RATE_SAMPLES = 5;
+   private static final long SAMPLE_INTERVAL_MS = 1000;
+   private static final double SMOOTHING = 0.3;
+
+   // Write rates in bytes per second, per save mode and disk, measured in this session
+   private static final Map<String, Double> MEASURED_RATES = new ConcurrentHashMap<>();
+
+   private final Policy policy_;
+   private final long bytesPerImage_;
+   private final double requiredBytesPerSecond_;
+   private final Consumer<AcquisitionAdmissionEvent> poster_;
+   private final Consumer<Boolean> pauser_;
+
+   private ScheduledExecutorService monitor_;
+   private String storageKey_;
+   private long lastNs_ = -1;
+   private int lastStored_;
+   private double measured_ = Double.NaN;
+   private boolean saturated_;
+   private int slowSamples_;
+   private boolean warnedRate_;
+   private boolean warnedPressure_;
+   // Whether the acquisition is paused by this controller
+   private boolean throttled_;
+   private long throttledNs_;
+
+   /**
+    * Constructor.
+    *
+    * @param policy What to do when storage can not keep up
+    * @param bytesPerImage Size of a single image (of all cameras together)
+    * @param requiredBytesPerSecond Bandwidth the acquisition needs, see
+    *                               {@link #estimateBytesPerSecond}
+    * @param poster Receives the decisions, normally posts them on the Studio event bus
+    * @param pauser Pauses (true) or resumes (false) the acquisition
+    */
+   public AdmissionController(Policy policy, long bytesPerImage, double requiredBytesPerSecond,
+                              Consumer<AcquisitionAdmissionEvent> poster,
+                              Consumer<Boolean> pauser) {
+      policy_ = policy;
+      bytesPerImage_ = bytesPerImage;
+      requiredBytesPerSecond_ = requiredBytesPerSecond;
+      poster_ = poster;
+      pauser_ = pauser;
+   }
+
+   /**
+    * Estimates the rate at which an acquisition produces image data.  The
+    * acquisition is assumed to run as fast as its exposure times allow,
+    * unless a time interval slows it down, so this is an upper bound when
+    * stages or other devices take time to move.
+    *
+    * @param settings The acquisition settings
+    * @param numSlices Number of slices in a Z stack
+    * @param numPositions Number of stage positions
+    * @param bytesPerImage Size of a single image (of all cameras together)
+    * @param exposureMs Exposure time used when no channels are used
+    * @return Estimated bandwidth in bytes per second
+    */
+   public static double estimateBytesPerSecond(SequenceSettings settings, int numSlices,
+                                               int numPositions, long bytesPerImage,
+                                               double exposureMs) {
+      int slices = settings.useSlices() ? Math.max(1, numSlices) : 1;
+      int positions = settings.usePositionList() ? Math.max(1, numPositions) : 1;
+      double images = 0;
+      double durationMs = 0.0;
+      if (settings.useChannels() && settings.channels() != null) {
+         for (ChannelSpec channel : settings.channels()) {
+            if (channel != null && channel.useChannel()) {
+               int channelSlices = channel.doZStack() ? slices : 1;
+               images += channelSlices * positions;
+               durationMs += channel.exposure() * channelSlices * positions;
+            }
+         }
+      }
+      if (images == 0) {
+         images = slices * positions;
+         durationMs = exposureMs * images;
+      }
+      if (settings.useFrames() && settings.numFrames() > 1 && !settings.useCustomIntervals()) {
+         durationMs = Math.max(durationMs, settings.intervalMs());
+      }
+      // Cameras can not go faster than about a kHz; avoid dividing by zero
+      durationMs = Math.max(durationMs, images * 1.0);
+      return images * (double) bytesPerImage * 1000.0 / durationMs;
+   }
+
+   /**
+    * Fill level of the circular buffer of the core, which holds the images
+    * that were acquired but not taken up for storage yet.  AcqEngJ hands
+    * images to storage through a small, bounded queue, so when storage falls
+    * behind, the backlog builds up here.  Unlike heap usage, this drops as
+    * soon as storage catches up.
+    *
+    * @param core The core
+    * @return fill level between 0 and 1
+    */
+   public static double bufferFill(CMMCore core) {
+      long total = core.getBufferTotalCapacity();
+      if (total <= 0) {
+         return 0.0;
+      }
+      return 1.0 - core.getBufferFreeCapacity() / (double) total;
+   }
+
+   /**
+    * Identifies where and how data are saved, so that write rates measured in
+    * one acquisition can be used to judge the next.
+    *
+    * @param saveMode How data are saved
+    * @param root Directory data are saved in
+    * @return key identifying save mode and disk
+    */
+   public static String storageKey(Datastore.SaveMode saveMode, String root) {
+      String disk = root;
+      try {
+         Path path = Paths.get(root).toAbsolutePath();
+         while (path != null && !Files.exists(path)) {
+            path = path.getParent();
+         }
+         if (path != null) {
+            FileStore store = Files.getFileStore(path);
+            disk = store.name() + " (" + store.type() + ")";
+         }
+      } catch (IOException | RuntimeException ex) {
+         // Fall back to the directory itself
+      }
+      return saveMode + " on " + disk;
+   }
+
+   /**
+    * @param storageKey see {@link #storageKey}
+    * @return Write rate measured earlier in this session in bytes per second,
+    *         or NaN when not known
+    */
+   public static double getMeasuredRate(String storageKey) {
+      Double rate = MEASURED_RATES.get(storageKey);
+      return rate == null ? Double.NaN : rate;
+   }
+
+   /**
+    * Decides, before the acquisition starts, whether storage is expected to
+    * keep up.  With the SWITCH_STORAGE policy, another save mode that was
+    * measured to be fast enough on the same disk is chosen when the current
+    * one is known to be too slow.
+    *
+    * @param settings The acquisition settings
+    * @return The settings to use, with a different save mode if storage was switched
+    */
+   public SequenceSettings admit(SequenceSettings settings) {
+      if (!settings.save()) {
+         post(Action.ACCEPTED, "Data are not saved", Double.NaN);
+         return settings;
+      }
+      double known = getMeasuredRate(storageKey(settings.saveMode(), settings.root()));
+      if (Double.isNaN(known) || known >= requiredBytesPerSecond_) {
+         post(Action.ACCEPTED, "Storage is expected to keep up", known);
+         return settings;
+      }
+      if (policy_ == Policy.SWITCH_STORAGE) {
+         Datastore.SaveMode fastest = null;
+         double fastestRate = known;
+         for (Datastore.SaveMode mode : Datastore.SaveMode.values()) {
+            double rate = getMeasuredRate(storageKey(mode, settings.root()));
+            if (!Double.isNaN(rate) && rate > fastestRate) {
+               fastest = mode;
+               fastestRate = rate;
+            }
+         }
+         if (fastest != null && fastestRate >= requiredBytesPerSecond_) {
+            post(Action.STORAGE_SWITCHED, "Saving as " + fastest + " instead of "
+                  + settings.saveMode() + ", which was measured to be too slow", fastestRate);
+            return settings.copyBuilder().saveMode(fastest).build();
+         }
+      }
+      post(Action.WARNING, "Saving as " + settings.saveMode()
+            + " was measured to be too slow for this acquisition", known);
+      return settings;
+   }
+
+   /**
+    * Starts measuring the write rate and watching the backlog, once a second.
+    *
+    * @param storageKey see {@link #storageKey}, or null when data are not saved
+    * @param storedImages Number of images stored so far
+    * @param bufferFill Fill level (0 - 1) of the buffer holding images that
+    *                   are not stored yet, see {@link #bufferFill}
+    * @param paused Whether the acquisition is paused
+    */
+   public synchronized void start(String storageKey, IntSupplier storedImages,
+                                  DoubleSupplier bufferFill, BooleanSupplier paused) {
+      stop();
+      storageKey_ = storageKey;
+      throttled_ = false;
+      monitor_ = Executors.newSingleThreadScheduledExecutor(r -> {
+         Thread thread = new Thread(r, "Acquisition admission monitor");
+         thread.setDaemon(true);
+         return thread;
+      });
+      monitor_.scheduleWithFixedDelay(() -> {
+         try {
+            update(System.nanoTime(), storedImages.getAsInt(), bufferFill.getAsDouble(),
+                  paused.getAsBoolean());
+         } catch (RuntimeException ex) {
+            // Keep monitoring; the acquisition itself reports its errors
+         }
+      }, SAMPLE_INTERVAL_MS, SAMPLE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+   }
+
+   /**
+    * Stops monitoring, resumes the acquisition when this controller paused
+    * it, and remembers the measured write rate for the next acquisition.
+    */
+   public synchronized void stop() {
+      if (monitor_ == null) {
+         return;
+      }
+      monitor_.shutdownNow();
+      monitor_ = null;
+      if (throttled_) {
+         throttled_ = false;
+         pauser_.accept(false);
+      }
+      if (storageKey_ != null && !Double.isNaN(measured_)) {
+         Double previous = MEASURED_RATES.get(storageKey_);
+         // Unless storage was the bottleneck, it can write at least as fast as measured
+         if (saturated_ || previous == null || previous < measured_) {
+            MEASURED_RATES.put(storageKey_, measured_);
+         }
+      }
+   }
+
+   /**
+    * Tells the controller that someone else paused or resumed the acquisition.
+    * A pause made by the controller then no longer is its own, so it will not
+    * resume the acquisition.
+    */
+   public synchronized void pauseChanged() {
+      throttled_ = false;
+   }
+
+   /**
+    * Takes one sample, and acts on it.
+    *
+    * @param nowNs Time of the sample
+    * @param storedImages Number of images stored so far
+    * @param bufferFill Fill level (0 - 1) of the buffer holding images that
+    *                   are not stored yet
+    * @param paused Whether the acquisition is paused
+    * @return The action taken, or null when nothing was done
+    */
+   synchronized Action update(long nowNs, int storedImages, double bufferFill,
+                              boolean paused) {
+      if (lastNs_ < 0) {
+         lastNs_ = nowNs;
+         lastStored_ = storedImages;
+         return null;
+      }
+      double seconds = (nowNs - lastNs_) / 1.0e9;
+      double rate = (storedImages - lastStored_) * (double) bytesPerImage_ / seconds;
+      lastNs_ = nowNs;
+      lastStored_ = storedImages;
+
+      if (throttled_) {
+         // Rates measured while throttled are not used.  Resume once the backlog
+         // drained, or after a while, so that a buffer that does not drain
+         // can not stall the acquisition forever.
+         if (bufferFill <= LOW_WATER || nowNs - throttledNs_ >= MAX_THROTTLE_NS) {
+            throttled_ = false;
+            pauser_.accept(false);
+            post(Action.RESUMED, String.format(
+                  "Resumed acquisition, buffers are %.0f%% full", bufferFill * 100), measured_);
+            return Action.RESUMED;
+         }
+         return null;
+      }
+
+      // While images are waiting, storage is the bottleneck and the rate is its capacity
+      boolean backlog = bufferFill > LOW_WATER / 2;
+      if (backlog || !paused) {
+         if (backlog && !saturated_) {
+            saturated_ = true;
+            measured_ = rate;
+         } else if (backlog || !saturated_) {
+            measured_ = Double.isNaN(measured_) ? rate
+                  : SMOOTHING * rate + (1 - SMOOTHING) * measured_;
+         }
+      }
+
+      if (bufferFill >= HIGH_WATER) {
+         if (policy_ != Policy.WARN && !paused) {
+            throttled_ = true;
+            throttledNs_ = nowNs;
+            pauser_.accept(true);
+            post(Action.THROTTLED, String.format("Paused acquisition until storage catches up, "
+                  + "buffers are %.0f%% full", bufferFill * 100), measured_);
+            return Action.THROTTLED;
+         }
+         if (!warnedPressure_) {
+            warnedPressure_ = true;
+            post(Action.WARNING, String.format("Storage falls behind, buffers are %.0f%% full",
+                  bufferFill * 100), measured_);
+            return Action.WARNING;
+         }
+      } else if (bufferFill <= LOW_WATER) {
+         warnedPressure_ = false;
+      }
+
+      // A falling write rate only matters when images are waiting to be written
+      if (backlog && !paused && measured_ < RATE_MARGIN * requiredBytesPerSecond_) {
+         slowSamples_++;
+      } else {
+         slowSamples_ = 0;
+      }
+      if (slowSamples_ >= RATE_SAMPLES && !warnedRate_) {
+         warnedRate_ = true;
+         post(Action.WARNING, String.format(
+               "Storage writes %.1f MB/s, the acquisition needs %.1f MB/s",
+               measured_ / 1.0e6, requiredBytesPerSecond_ / 1.0e6), measured_);
+         return Action.WARNING;
+      }
+      return null;
+   }
+
+   /**
+    * @return Write rate measured during this acquisition in bytes per second,
+    *         or NaN when not measured yet
+    */
+   public synchronized double getMeasuredBytesPerSecond() {
+      return measured_;
+   }
+
+   public double getRequiredBytesPerSecond() {
+      return requiredBytesPerSecond_;
+   }
+
+   private void post(Action action, String message, double measured) {
+      poster_.accept(new DefaultAcquisitionAdmissionEvent(action, message,
+            requiredBytesPerSecond_, measured));
+   }
+}
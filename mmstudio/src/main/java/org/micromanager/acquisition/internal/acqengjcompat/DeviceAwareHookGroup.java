@@ -0,0 +1,236 @@
+package org.micromanager.acquisition.internal.acqengjcompat;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.micromanager.acqj.api.AcquisitionHook;
+import org.micromanager.acqj.main.AcquisitionEvent;
+
+/**
+ * Runs the hooks of one hook point of an acquisition, in the order in which
+ * they were added, and keeps track of the time spent in each of them.
+ *
+ * <p>Hooks declare the devices they touch.  When running concurrently,
+ * consecutive hooks that touch different devices are started together and
+ * waited on together, so that for instance a stage move and a filter wheel
+ * change overlap.  Hooks that change the AcquisitionEvent, or whose devices
+ * are not known, are added with {@link #addExclusive} and always run on
+ * their own.  Hooks that run concurrently should only read the event, and
+ * return it (or null to skip the event).
+ */
+public final class DeviceAwareHookGroup implements AcquisitionHook {
+   private final String name_;
+   private final boolean concurrent_;
+   private final List<Entry> entries_ = new ArrayList<>();
+   private final HookTiming total_;
+   private ExecutorService executor_;
+
+   /**
+    * Time spent in a hook.
+    */
+   public static final class HookTiming {
+      private final String name_;
+      private long count_;
+      private long totalNs_;
+      private long maxNs_;
+
+      private HookTiming(String name) {
+         name_ = name;
+      }
+
+      private synchronized void record(long ns) {
+         count_++;
+         totalNs_ += ns;
+         maxNs_ = Math.max(maxNs_, ns);
+      }
+
+      public String getName() {
+         return name_;
+      }
+
+      public synchronized long getCount() {
+         return count_;
+      }
+
+      public synchronized double getTotalMs() {
+         return totalNs_ / 1.0e6;
+      }
+
+      public synchronized double getMeanMs() {
+         return count_ == 0 ? 0.0 : totalNs_ / 1.0e6 / count_;
+      }
+
+      public synchronized double getMaxMs() {
+         return maxNs_ / 1.0e6;
+      }
+
+      @Override
+      public synchronized String toString() {
+         return String.format("%s: %d calls, total %.1f ms, mean %.2f ms, max %.2f ms",
+               name_, count_, getTotalMs(), getMeanMs(), getMaxMs());
+      }
+   }
+
+   private static final class Entry {
+      final AcquisitionHook hook;
+      // null when the hook has to run on its own
+      final Set<String> devices;
+      final HookTiming timing;
+
+      Entry(String name, AcquisitionHook hook, Set<String> devices) {
+         this.hook = hook;
+         this.devices = devices;
+         this.timing = new HookTiming(name);
+      }
+   }
+
+   /**
+    * Creates an empty group.
+    *
+    * @param name Name of the hook point, used in the timings
+    * @param concurrent true to run hooks that touch different devices concurrently
+    */
+   public DeviceAwareHookGroup(String name, boolean concurrent) {
+      name_ = name;
+      concurrent_ = concurrent;
+      total_ = new HookTiming(name + " (all hooks)");
+   }
+
+   /**
+    * Adds a hook that only touches the given devices, and does not change the
+    * event.
+    *
+    * @param name Name of the hook, used in the timings
+    * @param hook The hook
+    * @param devices Labels of the devices the hook reads or changes; may be
+    *                empty when it does not touch any device
+    */
+   public void add(String name, AcquisitionHook hook, Collection<String> devices) {
+      Set<String> labels = new HashSet<>();
+      for (String device : devices) {
+         if (device != null && !device.isEmpty()) {
+            labels.add(device);
+         }
+      }
+      entries_.add(new Entry(name, hook, labels));
+   }
+
+   /**
+    * Adds a hook that always runs on its own.
+    *
+    * @param name Name of the hook, used in the timings
+    * @param hook The hook
+    */
+   public void addExclusive(String name, AcquisitionHook hook) {
+      entries_.add(new Entry(name, hook, null));
+   }
+
+   public boolean isEmpty() {
+      return entries_.isEmpty();
+   }
+
+   /**
+    * @return time spent in each hook, followed by the time spent in the whole group
+    */
+   public List<HookTiming> getTimings() {
+      List<HookTiming> timings = new ArrayList<>();
+      for (Entry entry : entries_) {
+         timings.add(entry.timing);
+      }
+      timings.add(total_);
+      return timings;
+   }
+
+   @Override
+   public AcquisitionEvent run(AcquisitionEvent event) {
+      long start = System.nanoTime();
+      int i = 0;
+      while (i < entries_.size() && event != null) {
+         int end = i + 1;
+         if (concurrent_ && entries_.get(i).devices != null) {
+            // Take along the following hooks, as long as they touch other devices
+            Set<String> busy = new HashSet<>(entries_.get(i).devices);
+            while (end < entries_.size() && entries_.get(end).devices != null
+                  && Collections.disjoint(busy, entries_.get(end).devices)) {
+               busy.addAll(entries_.get(end).devices);
+               end++;
+            }
+         }
+         if (end == i + 1) {
+            event = runTimed(entries_.get(i), event);
+         } else {
+            event = runConcurrently(i, end, event);
+         }
+         i = end;
+      }
+      total_.record(System.nanoTime() - start);
+      return event;
+   }
+
+   private AcquisitionEvent runConcurrently(int from, int to, AcquisitionEvent event) {
+      if (executor_ == null) {
+         executor_ = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "Acquisition hook thread");
+            thread.setDaemon(true);
+            return thread;
+         });
+      }
+      List<Future<AcquisitionEvent>> futures = new ArrayList<>();
+      for (int i = from + 1; i < to; i++) {
+         final Entry entry = entries_.get(i);
+         futures.add(executor_.submit(() -> runTimed(entry, event)));
+      }
+      // Run the first hook on this thread, then wait for the others
+      boolean skip = runTimed(entries_.get(from), event) == null;
+      for (Future<AcquisitionEvent> future : futures) {
+         try {
+            skip |= future.get() == null;
+         } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ie);
+         } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof RuntimeException) {
+               throw (RuntimeException) ee.getCause();
+            }
+            throw new RuntimeException(ee.getCause());
+         }
+      }
+      return skip ? null : event;
+   }
+
+   private static AcquisitionEvent runTimed(Entry entry, AcquisitionEvent event) {
+      long start = System.nanoTime();
+      try {
+         return entry.hook.run(event);
+      } finally {
+         entry.timing.record(System.nanoTime() - start);
+      }
+   }
+
+   @Override
+   public void close() {
+      for (Entry entry : entries_) {
+         entry.hook.close();
+      }
+      if (executor_ != null) {
+         executor_.shutdown();
+      }
+   }
+
+   @Override
+   public String toString() {
+      StringBuilder sb = new StringBuilder("Hook timings for " + name_
+            + (concurrent_ ? " (concurrent)" : "") + ":");
+      for (HookTiming timing : getTimings()) {
+         sb.append("\n   ").append(timing);
+      }
+      return sb.toString();
+   }
+}
@@ -0,0 +1,106 @@
+package org.micromanager.acquisition.internal.acqengjcompat.speedtest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import mmcorej.TaggedImage;
+import mmcorej.org.json.JSONException;
+import org.micromanager.acqj.main.AcqEngMetadata;
+import org.micromanager.acquisition.internal.acqengjcompat.AcqEngJAdapter;
+import org.micromanager.data.Coords;
+import org.micromanager.data.internal.DefaultImage;
+
+/**
+ * Times the conversion of AcqEngJ TaggedImages into Images, as done by
+ * AcqEngJMDADataSink for every frame, without hardware or a running Studio.
+ *
+ * <p>Synthetic TaggedImages carry the tags that the test acquisition
+ * produces (time, z, channel and position axes, one extra axis, stage
+ * positions and a position name).  The previous conversion (MM tags,
+ * parse, then a copy with the non-standard axes) is compared with
+ * AcqEngJAdapter.toMMImage.
+ *
+ * <p>Run with mmstudio and its dependencies on the classpath:
+ * java org.micromanager.acquisition.internal.acqengjcompat.speedtest.ImageConversionBenchmark
+ * [number of images] [repeats]
+ *
+ * <p>Output is one tab separated line per conversion: variant, microseconds
+ * per image and images per second.
+ */
+public final class ImageConversionBenchmark {
+   private static final int WIDTH = 512;
+   private static final int HEIGHT = 512;
+
+   private ImageConversionBenchmark() {
+   }
+
+   public static void main(String[] args) throws JSONException {
+      int nrImages = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+      int repeats = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+      short[] pixels = new short[WIDTH * HEIGHT];
+
+      System.out.println("# " + nrImages + " images of " + WIDTH + "x" + HEIGHT
+            + ", best of " + repeats);
+      System.out.println("variant\tus/image\timages/s");
+      // The first round is warm-up, and is not reported
+      for (int round = 0; round < 2; round++) {
+         long legacy = Long.MAX_VALUE;
+         long onePass = Long.MAX_VALUE;
+         for (int r = 0; r < repeats; r++) {
+            List<TaggedImage> images = createImages(pixels, nrImages);
+            long start = System.nanoTime();
+            for (TaggedImage tagged : images) {
+               convertLegacy(tagged);
+            }
+            legacy = Math.min(legacy, System.nanoTime() - start);
+
+            images = createImages(pixels, nrImages);
+            start = System.nanoTime();
+            for (TaggedImage tagged : images) {
+               AcqEngJAdapter.toMMImage(tagged);
+            }
+            onePass = Math.min(onePass, System.nanoTime() - start);
+         }
+         if (round > 0) {
+            report("legacy", legacy, nrImages);
+            report("toMMImage", onePass, nrImages);
+         }
+      }
+   }
+
+   /**
+    * The conversion that AcqEngJMDADataSink used before toMMImage.
+    */
+   private static DefaultImage convertLegacy(TaggedImage tagged) {
+      AcqEngJAdapter.addMMImageMetadata(tagged.tags);
+      DefaultImage image = new DefaultImage(tagged);
+      Coords.CoordsBuilder cb = image.getCoords().copyBuilder();
+      for (Map.Entry<String, Object> axis : AcqEngMetadata.getAxes(tagged.tags).entrySet()) {
+         if (!image.getCoords().hasAxis(axis.getKey())) {
+            cb.index(axis.getKey(), (Integer) axis.getValue());
+         }
+      }
+      return (DefaultImage) image.copyAtCoords(cb.build());
+   }
+
+   private static List<TaggedImage> createImages(short[] pixels, int nrImages)
+         throws JSONException {
+      List<TaggedImage> images = new ArrayList<>(nrImages);
+      for (int i = 0; i < nrImages; i++) {
+         Map<String, Integer> axes = new HashMap<>();
+         axes.put(AcqEngMetadata.TIME_AXIS, i / 120);
+         axes.put(AcqEngMetadata.Z_AXIS, (i / 3) % 10);
+         axes.put(AcqEngMetadata.CHANNEL_AXIS, i % 3);
+         axes.put("position", (i / 30) % 4);
+         axes.put("view", i % 2);
+         images.add(SyntheticTaggedImages.create(pixels, WIDTH, HEIGHT, axes));
+      }
+      return images;
+   }
+
+   private static void report(String variant, long nanos, int nrImages) {
+      System.out.println(String.format("%s\t%.2f\t%.0f", variant,
+            nanos / 1000.0 / nrImages, nrImages * 1.0e9 / nanos));
+   }
+}
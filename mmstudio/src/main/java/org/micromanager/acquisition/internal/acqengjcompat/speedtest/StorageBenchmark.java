@@ -0,0 +1,312 @@
+package org.micromanager.acquisition.internal.acqengjcompat.speedtest;
+
+import com.google.gson.JsonObject;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntSupplier;
+import org.micromanager.Studio;
+import org.micromanager.data.Coordinates;
+import org.micromanager.data.Coords;
+import org.micromanager.data.Datastore;
+import org.micromanager.data.Image;
+import org.micromanager.data.Pipeline;
+import org.micromanager.data.PipelineErrorException;
+import org.micromanager.data.ProcessorFactory;
+import org.micromanager.data.Storage;
+import org.micromanager.data.internal.DefaultDatastore;
+import org.micromanager.data.internal.DefaultImage;
+import org.micromanager.data.internal.DefaultMetadata;
+import org.micromanager.data.internal.StorageRAM;
+import org.micromanager.data.internal.StorageSinglePlaneTiffSeries;
+import org.micromanager.data.internal.chunked.StorageChunked;
+import org.micromanager.data.internal.multipagetiff.StorageMultipageTiff;
+import org.micromanager.data.internal.ndtiff.NDTiffAdapter;
+
+/**
+ * Measures how fast each Storage implementation takes images, without camera,
+ * Core or acquisition engine.
+ *
+ * <p>The same synthetic image stream is put, as fast as possible, into a
+ * Datastore backed by StorageRAM, StorageMultipageTiff (with and without
+ * compression), StorageSinglePlaneTiffSeries, NDTiffAdapter and
+ * StorageChunked, for every requested frame size, optionally through a
+ * synchronous Pipeline with the given processors.
+ * Pixels are generated from a fixed seed, so that runs on different machines
+ * or builds store identical data.  Images are created before timing starts.
+ *
+ * <p>For every run this reports the sustained rate in MB/s (including the time
+ * needed to freeze the Datastore, i.e., to finish writing), the rate at which
+ * putImage() returned, put latency percentiles, and the peak length of the
+ * writer queue, sampled after every put.  Results are returned as a table,
+ * and written as one JSON object per line to an optional file.
+ *
+ * <p>Meant to be run from the Script Panel, for instance:
+ * <pre>
+ * import org.micromanager.acquisition.internal.acqengjcompat.speedtest.StorageBenchmark;
+ * int[][] sizes = {{512, 512}, {2048, 2048}};
+ * print(StorageBenchmark.run(mm, "/tmp/bench", sizes, 2, 500, null, "/tmp/bench/storage.json"));
+ * </pre>
+ */
+public final class StorageBenchmark {
+   private static final String RAM = "RAM";
+   private static final String CHUNKED = "CHUNKED";
+   private static final String COMPRESSED_TIFF = "MULTIPAGE_TIFF_COMPRESSED";
+   private static final long SEED = 20240229L;
+   // Distinct pixel planes per run, so that storage can not benefit from
+   // seeing the same array every time
+   private static final int NR_PLANES = 8;
+   private static final int NR_CHANNELS = 2;
+   private static final int NR_SLICES = 10;
+   private static final int WARMUP_IMAGES = 20;
+
+   private StorageBenchmark() {
+   }
+
+   /**
+    * Runs the benchmark for all storage types and frame sizes.
+    *
+    * @param studio Studio, used for Pipelines and summary metadata; the Core is
+    *               not used
+    * @param dir Directory in which the on-disk datasets are created
+    * @param frameSizes Frame sizes as {width, height} pairs
+    * @param bytesPerPixel 1 or 2
+    * @param nrImages Number of images per run
+    * @param processors Processors images go through before being stored, or
+    *                   null or empty to put images directly into the Datastore
+    * @param resultFile File to which result lines are appended, or null
+    * @return Summary table
+    * @throws IOException when a Datastore can not be created or written
+    */
+   public static String run(Studio studio, String dir, int[][] frameSizes,
+                            int bytesPerPixel, int nrImages,
+                            List<ProcessorFactory> processors,
+                            String resultFile) throws IOException {
+      if (bytesPerPixel != 1 && bytesPerPixel != 2) {
+         throw new IllegalArgumentException("bytesPerPixel should be 1 or 2");
+      }
+      List<ProcessorFactory> factories = processors == null
+            ? new ArrayList<>() : processors;
+      List<JsonObject> results = new ArrayList<>();
+      for (int[] size : frameSizes) {
+         List<Image> images = createImages(size[0], size[1], bytesPerPixel,
+               nrImages + WARMUP_IMAGES);
+         for (String storage : Arrays.asList(RAM, Datastore.SaveMode.MULTIPAGE_TIFF.name(),
+               COMPRESSED_TIFF, Datastore.SaveMode.SINGLEPLANE_TIFF_SERIES.name(),
+               Datastore.SaveMode.ND_TIFF.name(), CHUNKED)) {
+            String location = new File(dir, storage + "_" + size[0] + "x" + size[1]
+                  + "_" + System.currentTimeMillis()).getPath();
+            JsonObject result = runOnce(studio, storage, location, images, factories);
+            studio.logs().logMessage("StorageBenchmark: " + result);
+            results.add(result);
+         }
+      }
+      if (resultFile != null) {
+         try (Writer writer = new FileWriter(resultFile, true)) {
+            for (JsonObject result : results) {
+               writer.write(result.toString());
+               writer.write(System.lineSeparator());
+            }
+         }
+      }
+      return summarize(results, nrImages, factories);
+   }
+
+   private static JsonObject runOnce(Studio studio, String storageName, String location,
+                                     List<Image> images, List<ProcessorFactory> factories)
+         throws IOException {
+      Image first = images.get(0);
+      DefaultDatastore store = new DefaultDatastore(studio);
+      Storage storage;
+      IntSupplier queueSize;
+      if (storageName.equals(RAM)) {
+         storage = new StorageRAM(store);
+         queueSize = () -> 0;
+      } else if (storageName.equals(CHUNKED)) {
+         StorageChunked chunked = new StorageChunked(store, location, true);
+         storage = chunked;
+         queueSize = chunked::getWritingQueueSize;
+      } else if (storageName.equals(COMPRESSED_TIFF)) {
+         StorageMultipageTiff tiff = new StorageMultipageTiff(null, store, location,
+               true, false, false);
+         tiff.setCompression(true);
+         storage = tiff;
+         queueSize = tiff::getWritingQueueSize;
+      } else {
+         switch (Datastore.SaveMode.valueOf(storageName)) {
+            case MULTIPAGE_TIFF:
+               StorageMultipageTiff tiff = new StorageMultipageTiff(null, store, location,
+                     true, false, false);
+               storage = tiff;
+               queueSize = tiff::getWritingQueueSize;
+               break;
+            case SINGLEPLANE_TIFF_SERIES:
+               StorageSinglePlaneTiffSeries series = new StorageSinglePlaneTiffSeries(store,
+                     location, true);
+               storage = series;
+               queueSize = series::getWritingQueueSize;
+               break;
+            case ND_TIFF:
+               NDTiffAdapter ndTiff = new NDTiffAdapter(store, location, true);
+               storage = ndTiff;
+               queueSize = ndTiff::getWritingQueueSize;
+               break;
+            default:
+               throw new IllegalArgumentException("Unknown storage " + storageName);
+         }
+      }
+      store.setStorage(storage);
+      int nrFrames = (images.size() + NR_CHANNELS * NR_SLICES - 1) / (NR_CHANNELS * NR_SLICES);
+      store.setSummaryMetadata(studio.data().summaryMetadataBuilder()
+            .prefix("StorageBenchmark")
+            .channelGroup("Channel")
+            .channelNames("Ch0", "Ch1")
+            .axisOrder(Coords.TIME_POINT, Coords.Z_SLICE, Coords.CHANNEL)
+            .intendedDimensions(Coordinates.builder().time(nrFrames).z(NR_SLICES)
+                  .channel(NR_CHANNELS).build())
+            .imageWidth(first.getWidth())
+            .imageHeight(first.getHeight())
+            .build());
+      Pipeline pipeline = factories.isEmpty() ? null
+            : studio.data().createPipeline(factories, store, true);
+
+      for (int i = 0; i < WARMUP_IMAGES; i++) {
+         put(store, pipeline, images.get(i));
+      }
+
+      int nrImages = images.size() - WARMUP_IMAGES;
+      long[] latencies = new long[nrImages];
+      int queuePeak = 0;
+      long gcCount = ThroughputBenchmark.totalGcCount();
+      long gcTimeMs = ThroughputBenchmark.totalGcTimeMs();
+      long start = System.nanoTime();
+      for (int i = 0; i < nrImages; i++) {
+         long before = System.nanoTime();
+         put(store, pipeline, images.get(i + WARMUP_IMAGES));
+         latencies[i] = System.nanoTime() - before;
+         queuePeak = Math.max(queuePeak, queueSize.getAsInt());
+      }
+      long inserted = System.nanoTime();
+      if (pipeline != null) {
+         pipeline.halt();
+      }
+      store.freeze();
+      long finished = System.nanoTime();
+
+      double megabytes = (double) nrImages * first.getWidth() * first.getHeight()
+            * first.getBytesPerPixel() / (1024.0 * 1024.0);
+      JsonObject result = new JsonObject();
+      result.addProperty("storage", storageName);
+      result.addProperty("width", first.getWidth());
+      result.addProperty("height", first.getHeight());
+      result.addProperty("bytesPerPixel", first.getBytesPerPixel());
+      result.addProperty("processors", factories.size());
+      result.addProperty("images", nrImages);
+      result.addProperty("imagesStored", store.getNumImages() - WARMUP_IMAGES);
+      result.addProperty("putMBps", megabytes * 1.0e9 / (inserted - start));
+      result.addProperty("sustainedMBps", megabytes * 1.0e9 / (finished - start));
+      result.addProperty("sustainedFps", nrImages * 1.0e9 / (finished - start));
+      result.addProperty("freezeMs", (finished - inserted) / 1.0e6);
+      Arrays.sort(latencies);
+      result.addProperty("putP50Ms", ThroughputBenchmark.percentile(latencies, 0.5) / 1.0e6);
+      result.addProperty("putP99Ms", ThroughputBenchmark.percentile(latencies, 0.99) / 1.0e6);
+      result.addProperty("putMaxMs", latencies[latencies.length - 1] / 1.0e6);
+      result.addProperty("writerQueuePeak", queuePeak);
+      result.addProperty("gcCount", ThroughputBenchmark.totalGcCount() - gcCount);
+      result.addProperty("gcTimeMs", ThroughputBenchmark.totalGcTimeMs() - gcTimeMs);
+
+      store.close();
+      return result;
+   }
+
+   private static void put(Datastore store, Pipeline pipeline, Image image)
+         throws IOException {
+      if (pipeline == null) {
+         store.putImage(image);
+      } else {
+         try {
+            pipeline.insertImage(image);
+         } catch (PipelineErrorException e) {
+            throw new IOException(e);
+         }
+      }
+   }
+
+   /**
+    * Creates images in time, slice, channel order, cycling through a few pixel
+    * planes of smooth gradients plus seeded noise, which is roughly how
+    * compressible real images are.
+    */
+   private static List<Image> createImages(int width, int height, int bytesPerPixel,
+                                           int nrImages) {
+      Random random = new Random(SEED);
+      int max = bytesPerPixel == 1 ? 255 : 4095;
+      Object[] planes = new Object[NR_PLANES];
+      for (int p = 0; p < NR_PLANES; p++) {
+         int n = width * height;
+         int[] values = new int[n];
+         for (int i = 0; i < n; i++) {
+            int x = i % width;
+            int y = i / width;
+            values[i] = Math.min(max, (max / 4) * (x + y + p) / (width + height)
+                  + random.nextInt(max / 16 + 1));
+         }
+         if (bytesPerPixel == 1) {
+            byte[] pixels = new byte[n];
+            for (int i = 0; i < n; i++) {
+               pixels[i] = (byte) values[i];
+            }
+            planes[p] = pixels;
+         } else {
+            short[] pixels = new short[n];
+            for (int i = 0; i < n; i++) {
+               pixels[i] = (short) values[i];
+            }
+            planes[p] = pixels;
+         }
+      }
+      List<Image> images = new ArrayList<>(nrImages);
+      for (int i = 0; i < nrImages; i++) {
+         Coords coords = Coordinates.builder().channel(i % NR_CHANNELS)
+               .z((i / NR_CHANNELS) % NR_SLICES).time(i / (NR_CHANNELS * NR_SLICES))
+               .build();
+         DefaultMetadata metadata = new DefaultMetadata.Builder().generateUUID()
+               .elapsedTimeMs(10.0 * i).exposureMs(10.0).bitDepth(8 * bytesPerPixel)
+               .positionName("Pos0").build();
+         images.add(new DefaultImage(planes[i % NR_PLANES], width, height, bytesPerPixel, 1,
+               coords, metadata));
+      }
+      return images;
+   }
+
+   private static String summarize(List<JsonObject> results, int nrImages,
+                                   List<ProcessorFactory> factories) {
+      StringBuilder sb = new StringBuilder();
+      Runtime runtime = Runtime.getRuntime();
+      sb.append(String.format("StorageBenchmark: %d images per run, %d processor(s), "
+                  + "Java %s, %s, %d CPUs, %d MB max heap%n",
+            nrImages, factories.size(), System.getProperty("java.version"),
+            System.getProperty("os.name"), runtime.availableProcessors(),
+            runtime.maxMemory() / (1024 * 1024)));
+      sb.append(String.format("%-24s %11s %8s %8s %8s %8s %8s %6s%n",
+            "Storage", "Frame", "MB/s", "put MB/s", "p50 ms", "p99 ms", "max ms", "queue"));
+      for (JsonObject r : results) {
+         sb.append(String.format("%-24s %11s %8.1f %8.1f %8.3f %8.3f %8.3f %6d%n",
+               r.get("storage").getAsString(),
+               r.get("width").getAsInt() + "x" + r.get("height").getAsInt()
+                     + "x" + r.get("bytesPerPixel").getAsInt(),
+               r.get("sustainedMBps").getAsDouble(),
+               r.get("putMBps").getAsDouble(),
+               r.get("putP50Ms").getAsDouble(),
+               r.get("putP99Ms").getAsDouble(),
+               r.get("putMaxMs").getAsDouble(),
+               r.get("writerQueuePeak").getAsInt()));
+      }
+      return sb.toString();
+   }
+}
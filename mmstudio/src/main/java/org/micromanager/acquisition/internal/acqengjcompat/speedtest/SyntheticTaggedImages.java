@@ -0,0 +1,58 @@
+package org.micromanager.acquisition.internal.acqengjcompat.speedtest;
+
+import java.util.Map;
+import mmcorej.TaggedImage;
+import mmcorej.org.json.JSONException;
+import mmcorej.org.json.JSONObject;
+import org.micromanager.acqj.main.AcqEngMetadata;
+import org.micromanager.data.internal.PropertyKey;
+
+/**
+ * Creates TaggedImages with the tags that AcqEngJ adds during a multi-dimensional
+ * acquisition, so that the code downstream of the engine can be timed without
+ * hardware.
+ */
+final class SyntheticTaggedImages {
+
+   private SyntheticTaggedImages() {
+   }
+
+   /**
+    * Creates a TaggedImage at the given axes positions.
+    *
+    * @param pixels byte[] or short[], shared between images (not copied)
+    * @param width Image width
+    * @param height Image height
+    * @param axes AcqEngJ axes; "position" and "z" also set the stage positions
+    * @return new TaggedImage
+    * @throws JSONException never, in practice
+    */
+   static TaggedImage create(Object pixels, int width, int height,
+                             Map<String, Integer> axes) throws JSONException {
+      JSONObject axesJSON = new JSONObject();
+      for (Map.Entry<String, Integer> axis : axes.entrySet()) {
+         axesJSON.put(axis.getKey(), axis.getValue().intValue());
+      }
+      int position = axes.getOrDefault("position", 0);
+      int slice = axes.getOrDefault(AcqEngMetadata.Z_AXIS, 0);
+      JSONObject userTags = new JSONObject();
+      userTags.put(AcqEngMetadata.POS_NAME, "Pos" + position);
+      boolean isByte = pixels instanceof byte[];
+
+      JSONObject tags = new JSONObject();
+      // Keys as written by AcqEngJ
+      tags.put("Axes", axesJSON);
+      tags.put(AcqEngMetadata.TAGS, userTags);
+      tags.put("XPosition_um_Intended", 100.0 * position);
+      tags.put("YPosition_um_Intended", -50.0 * position);
+      tags.put("ZPosition_um_Intended", 0.5 * slice);
+      tags.put("ElapsedTime-ms", (double) System.currentTimeMillis());
+      tags.put("Camera", "Camera");
+      tags.put("Exposure", 10.0);
+      tags.put(PropertyKey.WIDTH.key(), width);
+      tags.put(PropertyKey.HEIGHT.key(), height);
+      tags.put(PropertyKey.PIXEL_TYPE.key(), isByte ? "GRAY8" : "GRAY16");
+      tags.put(PropertyKey.BIT_DEPTH.key(), isByte ? 8 : 16);
+      return new TaggedImage(pixels, tags);
+   }
+}
@@ -0,0 +1,233 @@
+package org.micromanager.acquisition.internal.acqengjcompat.speedtest;
+
+import com.google.gson.JsonObject;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+import mmcorej.TaggedImage;
+import mmcorej.org.json.JSONException;
+import org.micromanager.Studio;
+import org.micromanager.acqj.main.AcqEngMetadata;
+import org.micromanager.acquisition.internal.acqengjcompat.AcqEngJMDADataSink;
+import org.micromanager.data.Coords;
+import org.micromanager.data.Datastore;
+import org.micromanager.data.Pipeline;
+import org.micromanager.data.ProcessorFactory;
+
+/**
+ * Measures how fast acquired images get from the acquisition engine into a
+ * Datastore, without camera or other hardware.
+ *
+ * <p>Synthetic TaggedImages, shaped like the output of AcqEngJ, are offered
+ * at a configurable rate to an AcqEngJMDADataSink, which converts them and
+ * inserts them into an empty synchronous Pipeline, which puts them in the
+ * Datastore.  This is repeated for every storage type: RAM, multipage TIFF,
+ * single-plane TIFF series and NDTiff.
+ *
+ * <p>For every storage type, one JSON object is written per line, with the
+ * sustained frame rate (including the time needed to freeze the Datastore,
+ * i.e., to finish writing), insert latency percentiles measured from the
+ * time each image was due (so that a stalled sink is not under-reported),
+ * and garbage collector activity.
+ *
+ * <p>Meant to be run from the Script Panel, for instance:
+ * <pre>
+ * import org.micromanager.acquisition.internal.acqengjcompat.speedtest.ThroughputBenchmark;
+ * ThroughputBenchmark.run(mm, "/tmp/bench", 2048, 2048, 2, 500, 0, "/tmp/bench/results.json");
+ * </pre>
+ */
+public final class ThroughputBenchmark {
+   private static final int NR_CHANNELS = 2;
+   private static final int NR_SLICES = 5;
+   private static final int NR_POSITIONS = 2;
+   private static final int WARMUP_IMAGES = 20;
+
+   private ThroughputBenchmark() {
+   }
+
+   /**
+    * Runs the benchmark for all storage types.
+    *
+    * @param studio Studio used to create Datastores and Pipelines
+    * @param dir Directory in which the on-disk datasets are created
+    * @param width Image width in pixels
+    * @param height Image height in pixels
+    * @param bytesPerPixel 1 or 2
+    * @param nrImages Number of images per storage type
+    * @param targetFps Rate at which images are offered; 0 or less for as fast as possible
+    * @param resultFile File to which result lines are appended, or null
+    * @return Results, one JSON object per line
+    * @throws IOException when a Datastore can not be created or written
+    */
+   public static String run(Studio studio, String dir, int width, int height,
+                            int bytesPerPixel, int nrImages, double targetFps,
+                            String resultFile) throws IOException {
+      if (bytesPerPixel != 1 && bytesPerPixel != 2) {
+         throw new IllegalArgumentException("bytesPerPixel should be 1 or 2");
+      }
+      Object pixels = bytesPerPixel == 1 ? new byte[width * height]
+            : new short[width * height];
+      StringBuilder results = new StringBuilder();
+      for (String storage : Arrays.asList("RAM", Datastore.SaveMode.MULTIPAGE_TIFF.name(),
+            Datastore.SaveMode.SINGLEPLANE_TIFF_SERIES.name(),
+            Datastore.SaveMode.ND_TIFF.name())) {
+         String location = new File(dir, storage + "_" + System.currentTimeMillis()).getPath();
+         JsonObject result = runOnce(studio, storage, location, pixels, width, height,
+               nrImages, targetFps);
+         studio.logs().logMessage("ThroughputBenchmark: " + result);
+         results.append(result.toString()).append(System.lineSeparator());
+      }
+      if (resultFile != null) {
+         try (Writer writer = new FileWriter(resultFile, true)) {
+            writer.write(results.toString());
+         }
+      }
+      return results.toString();
+   }
+
+   private static JsonObject runOnce(Studio studio, String storage, String location,
+                                     Object pixels, int width, int height,
+                                     int nrImages, double targetFps) throws IOException {
+      Datastore store = createDatastore(studio, storage, location);
+      int nrFrames = (nrImages + WARMUP_IMAGES + NR_CHANNELS * NR_SLICES * NR_POSITIONS - 1)
+            / (NR_CHANNELS * NR_SLICES * NR_POSITIONS);
+      Coords intended = studio.data().coordsBuilder().time(nrFrames)
+            .stagePosition(NR_POSITIONS).z(NR_SLICES).channel(NR_CHANNELS).build();
+      store.setSummaryMetadata(studio.data().summaryMetadataBuilder()
+            .prefix("ThroughputBenchmark")
+            .channelGroup("Channel")
+            .channelNames("Ch0", "Ch1")
+            .axisOrder(Coords.TIME_POINT, Coords.STAGE_POSITION, Coords.Z_SLICE, Coords.CHANNEL)
+            .intendedDimensions(intended)
+            .imageWidth(width)
+            .imageHeight(height)
+            .build());
+      Pipeline pipeline = studio.data().createPipeline(new ArrayList<ProcessorFactory>(),
+            store, true);
+      // finish() is not called: it would announce the end of an acquisition to the application.
+      AcqEngJMDADataSink sink = new AcqEngJMDADataSink(studio.events(), null);
+      sink.setDatastore(store);
+      sink.setPipeline(pipeline);
+
+      // Images are created up front so that creating them is not timed.
+      List<TaggedImage> images = new ArrayList<>(nrImages + WARMUP_IMAGES);
+      try {
+         for (int i = 0; i < nrImages + WARMUP_IMAGES; i++) {
+            images.add(SyntheticTaggedImages.create(pixels, width, height, axesFor(i)));
+         }
+      } catch (JSONException e) {
+         throw new IOException(e);
+      }
+      for (int i = 0; i < WARMUP_IMAGES; i++) {
+         sink.putImage(images.get(i));
+      }
+
+      long[] latencies = new long[nrImages];
+      long periodNs = targetFps > 0 ? (long) (1.0e9 / targetFps) : 0;
+      long gcCount = totalGcCount();
+      long gcTimeMs = totalGcTimeMs();
+      long start = System.nanoTime();
+      for (int i = 0; i < nrImages; i++) {
+         long due = start + i * periodNs;
+         long now = System.nanoTime();
+         if (periodNs == 0) {
+            due = now;
+         } else if (due > now) {
+            LockSupport.parkNanos(due - now);
+         }
+         sink.putImage(images.get(i + WARMUP_IMAGES));
+         latencies[i] = System.nanoTime() - due;
+      }
+      long inserted = System.nanoTime();
+      pipeline.halt();
+      store.freeze();
+      long finished = System.nanoTime();
+      MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+
+      JsonObject result = new JsonObject();
+      result.addProperty("storage", storage);
+      result.addProperty("width", width);
+      result.addProperty("height", height);
+      result.addProperty("bytesPerPixel", pixels instanceof byte[] ? 1 : 2);
+      result.addProperty("images", nrImages);
+      result.addProperty("imagesStored", store.getNumImages() - WARMUP_IMAGES);
+      result.addProperty("targetFps", targetFps);
+      result.addProperty("insertFps", nrImages * 1.0e9 / (inserted - start));
+      result.addProperty("sustainedFps", nrImages * 1.0e9 / (finished - start));
+      result.addProperty("freezeMs", (finished - inserted) / 1.0e6);
+      Arrays.sort(latencies);
+      result.addProperty("latencyP50Ms", percentile(latencies, 0.5) / 1.0e6);
+      result.addProperty("latencyP90Ms", percentile(latencies, 0.9) / 1.0e6);
+      result.addProperty("latencyP99Ms", percentile(latencies, 0.99) / 1.0e6);
+      result.addProperty("latencyP999Ms", percentile(latencies, 0.999) / 1.0e6);
+      result.addProperty("latencyMaxMs", latencies[latencies.length - 1] / 1.0e6);
+      result.addProperty("gcCount", totalGcCount() - gcCount);
+      result.addProperty("gcTimeMs", totalGcTimeMs() - gcTimeMs);
+      result.addProperty("heapUsedMB", heap.getUsed() / (1024.0 * 1024.0));
+      result.addProperty("heapMaxMB", heap.getMax() / (1024.0 * 1024.0));
+
+      store.close();
+      return result;
+   }
+
+   private static Datastore createDatastore(Studio studio, String storage, String location)
+         throws IOException {
+      if (storage.equals("RAM")) {
+         return studio.data().createRAMDatastore();
+      }
+      switch (Datastore.SaveMode.valueOf(storage)) {
+         case MULTIPAGE_TIFF:
+            return studio.data().createMultipageTIFFDatastore(location, false, false);
+         case SINGLEPLANE_TIFF_SERIES:
+            return studio.data().createSinglePlaneTIFFSeriesDatastore(location);
+         case ND_TIFF:
+            return studio.data().createNDTIFFDatastore(location);
+         default:
+            throw new IllegalArgumentException("Unknown storage " + storage);
+      }
+   }
+
+   /**
+    * Axes of the i-th image, in the order of a time, position, slice, channel
+    * acquisition.
+    */
+   private static Map<String, Integer> axesFor(int i) {
+      Map<String, Integer> axes = new HashMap<>();
+      axes.put(AcqEngMetadata.CHANNEL_AXIS, i % NR_CHANNELS);
+      axes.put(AcqEngMetadata.Z_AXIS, (i / NR_CHANNELS) % NR_SLICES);
+      axes.put("position", (i / (NR_CHANNELS * NR_SLICES)) % NR_POSITIONS);
+      axes.put(AcqEngMetadata.TIME_AXIS, i / (NR_CHANNELS * NR_SLICES * NR_POSITIONS));
+      return axes;
+   }
+
+   static long percentile(long[] sorted, double fraction) {
+      int index = (int) Math.ceil(fraction * sorted.length) - 1;
+      return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+   }
+
+   static long totalGcCount() {
+      long count = 0;
+      for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+         count += Math.max(0, gc.getCollectionCount());
+      }
+      return count;
+   }
+
+   static long totalGcTimeMs() {
+      long time = 0;
+      for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+         time += Math.max(0, gc.getCollectionTime());
+      }
+      return time;
+   }
+}
@@ -158,6 +158,25 @@ public interface DataManager {
                                           String directory, boolean shouldGenerateSeparateMetadata,
                                           boolean shouldSplitPositions) throws IOException;
 
+   /**
+    * Generate a new, "blank" Datastore with compressed, chunked Storage and
+    * return it. Image planes are compressed losslessly (LZ4) on background
+    * threads and stored in a single data file with an index, together with
+    * downsampled copies at lower resolutions. Images may have any axes. This
+    * Datastore will not be managed by Micro-Manager by default (see the
+    * org.micromanager.api.display.DisplayManager.manage() method for more
+    * information). Be certain to call the freeze() method of the Datastore
+    * when you have finished adding data to it, as the Storage must finish
+    * writing before the dataset is complete.
+    *
+    * <p>Datasets written this way are opened by loadData().
+    *
+    * @param directory Location on disk to store the files.
+    * @return an empty Datastore backed by compressed storage on disk.
+    * @throws IOException If the directory already exists or can not be created.
+    */
+   Datastore createChunkedDatastore(String directory) throws IOException;
+
    /**
     * Generate a new, "blank" Datastore whose Storage is a series of
     * single-plane TIFF files. This Datastore will not be managed by
@@ -156,5 +156,30 @@ public interface DataProvider extends Closeable {
 
    void registerForEvents(Object obj);
 
+   /**
+    * Registers an object for events, where the object does not need to see
+    * every new image.  Use this for code that only shows or analyzes the most
+    * recent image(s), so that it does not fall behind (and hold up other
+    * subscribers) when images arrive faster than it can handle them.
+    *
+    * <p>Of the DataProviderHasNewImageEvents that arrive while the object is
+    * busy, only the latest one for each combination of the distinctAxes is
+    * delivered, and at most maxPending of those are queued.  All other events
+    * are delivered as with {@link #registerForEvents(Object)}.  Unregister
+    * with {@link #unregisterForEvents(Object)}.
+    *
+    * <p>DataProviders that do not support this deliver all events.
+    *
+    * @param obj Object to be registered
+    * @param maxPending Maximum number of new image events queued for the object
+    * @param distinctAxes Axes for which the latest image of each index is
+    *                     delivered, for instance Coords.CHANNEL.  When empty,
+    *                     only the very latest image is delivered.
+    */
+   default void registerForCoalescedImageEvents(Object obj, int maxPending,
+                                                String... distinctAxes) {
+      registerForEvents(obj);
+   }
+
    void unregisterForEvents(Object obj);
 }
\ No newline at end of file
@@ -0,0 +1,184 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     Data API implementation
+//-----------------------------------------------------------------------------
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.data.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import org.micromanager.data.Coords;
+
+/**
+ * Index of the Coords of the images in a Storage, answering the queries of
+ * getImagesIgnoringAxes() and getImagesMatching() with hash lookups instead of
+ * a scan over all images.
+ *
+ * <p>For every set of ignored axes that is asked for, the index builds a
+ * projection: a map from Coords without those axes to the Coords of the
+ * images that have them.  A projection is built by a single scan the first
+ * time its axes are asked for, and is kept up to date by add() and remove()
+ * after that, so that a viewer or plugin asking for all channels (or all
+ * slices) of one position over and over pays for the scan only once.  Only
+ * the most recently used projections are kept.</p>
+ *
+ * <p>All methods are thread safe; lists returned are copies.</p>
+ */
+public final class CoordsIndex {
+   private static final int MAX_PROJECTIONS = 8;
+
+   private final Set<Coords> coords_ = new LinkedHashSet<>();
+   private final Set<String> axesInUse_ = new TreeSet<>();
+   // Keyed by the (in use) ignored axes, in access order
+   private final Map<Set<String>, Map<Coords, List<Coords>>> projections_ =
+         new LinkedHashMap<Set<String>, Map<Coords, List<Coords>>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                  Map.Entry<Set<String>, Map<Coords, List<Coords>>> eldest) {
+               return size() > MAX_PROJECTIONS;
+            }
+         };
+
+   /**
+    * Adds the Coords of an image.
+    *
+    * @param coords Coords of the image
+    * @return false if the index already had these Coords
+    */
+   public synchronized boolean add(Coords coords) {
+      if (!coords_.add(coords)) {
+         return false;
+      }
+      axesInUse_.addAll(coords.getAxes());
+      for (Map.Entry<Set<String>, Map<Coords, List<Coords>>> entry
+            : projections_.entrySet()) {
+         project(entry.getValue(), entry.getKey(), coords);
+      }
+      return true;
+   }
+
+   /**
+    * Removes the Coords of an image, for instance after it was deleted from
+    * a RewritableStorage.
+    *
+    * @param coords Coords of the image
+    * @return false if the index did not have these Coords
+    */
+   public synchronized boolean remove(Coords coords) {
+      if (!coords_.remove(coords)) {
+         return false;
+      }
+      for (Map.Entry<Set<String>, Map<Coords, List<Coords>>> entry
+            : projections_.entrySet()) {
+         Coords key = coords.copyRemovingAxes(toArray(entry.getKey()));
+         List<Coords> matches = entry.getValue().get(key);
+         if (matches != null) {
+            matches.remove(coords);
+            if (matches.isEmpty()) {
+               entry.getValue().remove(key);
+            }
+         }
+      }
+      return true;
+   }
+
+   public synchronized boolean contains(Coords coords) {
+      return coords_.contains(coords);
+   }
+
+   public synchronized int size() {
+      return coords_.size();
+   }
+
+   /**
+    * Axes used by any of the Coords in the index.
+    *
+    * @return copy of the set of axes
+    */
+   public synchronized Set<String> getAxesInUse() {
+      return new TreeSet<>(axesInUse_);
+   }
+
+   /**
+    * Finds the Coords that are equal to the given Coords once the given axes
+    * are removed from them, as getImagesIgnoringAxes() does.
+    *
+    * @param coords          Coords without the ignored axes
+    * @param ignoreTheseAxes axes to ignore
+    * @return matching Coords, in the order in which they were added
+    */
+   public synchronized List<Coords> getMatching(Coords coords, String... ignoreTheseAxes) {
+      Set<String> ignored = new TreeSet<>();
+      for (String axis : ignoreTheseAxes) {
+         if (axesInUse_.contains(axis)) {
+            ignored.add(axis);
+         }
+      }
+      if (ignored.isEmpty()) {
+         // Removing axes that no image has changes nothing
+         return coords_.contains(coords)
+               ? Collections.singletonList(coords) : Collections.emptyList();
+      }
+      Map<Coords, List<Coords>> projection = projections_.get(ignored);
+      if (projection == null) {
+         projection = new HashMap<>();
+         for (Coords candidate : coords_) {
+            project(projection, ignored, candidate);
+         }
+         projections_.put(ignored, projection);
+      }
+      List<Coords> matches = projection.get(coords);
+      return matches == null ? Collections.emptyList() : new ArrayList<>(matches);
+   }
+
+   /**
+    * Finds the Coords that match the given Coords on all of its axes, ignoring
+    * the axes in use that it does not have, as getImagesMatching() does.
+    *
+    * @param coords Coords to match
+    * @return matching Coords, in the order in which they were added
+    */
+   public synchronized List<Coords> getMatching(Coords coords) {
+      List<String> ignored = new ArrayList<>();
+      for (String axis : axesInUse_) {
+         if (!coords.hasAxis(axis)) {
+            ignored.add(axis);
+         }
+      }
+      return getMatching(coords, ignored.toArray(new String[0]));
+   }
+
+   public synchronized void clear() {
+      coords_.clear();
+      axesInUse_.clear();
+      projections_.clear();
+   }
+
+   private static void project(Map<Coords, List<Coords>> projection, Set<String> ignored,
+                               Coords coords) {
+      projection.computeIfAbsent(coords.copyRemovingAxes(toArray(ignored)),
+            k -> new ArrayList<>(4)).add(coords);
+   }
+
+   private static String[] toArray(Set<String> axes) {
+      return axes.toArray(new String[0]);
+   }
+}
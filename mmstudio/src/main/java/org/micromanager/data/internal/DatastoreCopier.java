@@ -0,0 +1,330 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     Data API implementation
+//-----------------------------------------------------------------------------
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.data.internal;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.micromanager.data.Coords;
+import org.micromanager.data.DataProvider;
+import org.micromanager.data.Datastore;
+import org.micromanager.data.Image;
+import org.micromanager.internal.UserCancelledException;
+
+/**
+ * Copies images from a DataProvider into a Datastore, reading with several
+ * threads at once.
+ *
+ * <p>The images to copy are cut into chunks of consecutive Coords, and a pool
+ * of reader threads reads one chunk each.  The thread that calls copy() puts
+ * the images into the destination, so that the destination Storage sees a
+ * single producer and can use its own writing threads.  When the order of the
+ * Coords matters (file formats that expect time points in sequence), chunks
+ * are put in the order in which they were given; otherwise in the order in
+ * which they finish reading.  Only a few chunks per reader are read ahead, so
+ * memory use does not depend on the size of the dataset.</p>
+ *
+ * <p>By default every image is put in the destination, replacing any image it
+ * already has at the same Coords.  With setSkipExisting(true), images that the
+ * destination already has are skipped instead, so that a copy that was
+ * cancelled or failed can be resumed by copying into the same destination
+ * again.</p>
+ */
+public final class DatastoreCopier {
+   private static final int DEFAULT_CHUNK_SIZE = 16;
+   private static final int CHUNKS_PER_READER = 2;
+
+   /**
+    * Receives progress reports, on the thread that calls copy().
+    */
+   public interface ProgressListener {
+      /**
+       * Called after each image that was put in the destination.
+       *
+       * @param copier the copier, for its progress and throughput getters
+       */
+      void onProgress(DatastoreCopier copier);
+   }
+
+   private final DataProvider source_;
+   private final Datastore destination_;
+   private final List<Coords> coords_;
+   private final boolean ordered_;
+   private int numReaders_ = Math.max(1, Math.min(4,
+         Runtime.getRuntime().availableProcessors()));
+   private int chunkSize_ = DEFAULT_CHUNK_SIZE;
+   private ProgressListener listener_;
+   private boolean skipExisting_ = false;
+   private volatile boolean cancelled_ = false;
+   private int numSkipped_ = 0;
+   private int numCopied_ = 0;
+   private long bytesCopied_ = 0;
+   private long startNs_ = 0;
+   private long endNs_ = 0;
+
+   /**
+    * Prepares a copy.
+    *
+    * @param source      DataProvider to read from
+    * @param destination Datastore to put the images in
+    * @param coords      Coords of the images to copy
+    * @param ordered     whether images must be put in the order of coords
+    */
+   public DatastoreCopier(DataProvider source, Datastore destination,
+                          List<Coords> coords, boolean ordered) {
+      source_ = source;
+      destination_ = destination;
+      coords_ = new ArrayList<>(coords);
+      ordered_ = ordered;
+   }
+
+   /**
+    * Sets the number of threads reading from the source.
+    *
+    * @param numReaders number of reader threads, at least 1
+    */
+   public void setNumReaders(int numReaders) {
+      if (numReaders < 1) {
+         throw new IllegalArgumentException("Need at least one reader");
+      }
+      numReaders_ = numReaders;
+   }
+
+   /**
+    * Sets the number of images each reader reads in one go.
+    *
+    * @param chunkSize number of images per chunk, at least 1
+    */
+   public void setChunkSize(int chunkSize) {
+      if (chunkSize < 1) {
+         throw new IllegalArgumentException("Chunk size must be at least 1");
+      }
+      chunkSize_ = chunkSize;
+   }
+
+   /**
+    * Sets whether images that the destination already has are skipped, for
+    * resuming an earlier copy.  Off by default, in which case they are
+    * overwritten.
+    *
+    * @param skipExisting true to skip images the destination already has
+    */
+   public void setSkipExisting(boolean skipExisting) {
+      skipExisting_ = skipExisting;
+   }
+
+   public void setProgressListener(ProgressListener listener) {
+      listener_ = listener;
+   }
+
+   /**
+    * Asks copy() to stop.  Can be called from any thread, including from the
+    * ProgressListener.
+    */
+   public void cancel() {
+      cancelled_ = true;
+   }
+
+   /**
+    * Copies all images, or only those that the destination does not have yet
+    * when setSkipExisting(true) was called.
+    *
+    * @throws IOException            if an image could not be read or stored
+    * @throws UserCancelledException if cancel() was called before the copy
+    *                                finished
+    */
+   public void copy() throws IOException, UserCancelledException {
+      List<List<Coords>> chunks = new ArrayList<>();
+      List<Coords> chunk = new ArrayList<>(chunkSize_);
+      numSkipped_ = 0;
+      for (Coords coords : coords_) {
+         if (skipExisting_ && destination_.hasImage(coords)) {
+            numSkipped_++;
+            continue;
+         }
+         chunk.add(coords);
+         if (chunk.size() == chunkSize_) {
+            chunks.add(chunk);
+            chunk = new ArrayList<>(chunkSize_);
+         }
+      }
+      if (!chunk.isEmpty()) {
+         chunks.add(chunk);
+      }
+      numCopied_ = 0;
+      bytesCopied_ = 0;
+      startNs_ = System.nanoTime();
+      endNs_ = 0;
+
+      ExecutorService readers = Executors.newFixedThreadPool(numReaders_,
+            r -> new Thread(r, "Datastore copy reader"));
+      CompletionService<List<Image>> completion = new ExecutorCompletionService<>(readers);
+      ArrayDeque<Future<List<Image>>> inFlight = new ArrayDeque<>();
+      int maxInFlight = numReaders_ * CHUNKS_PER_READER;
+      int nextChunk = 0;
+      // Tells readers to stop once copy() is done; they are not interrupted, as
+      // an interrupt closes the FileChannel of a MultipageTiffReader of the source
+      final AtomicBoolean stopReading = new AtomicBoolean(false);
+      try {
+         while (nextChunk < chunks.size() || !inFlight.isEmpty()) {
+            if (cancelled_) {
+               throw new UserCancelledException();
+            }
+            while (nextChunk < chunks.size() && inFlight.size() < maxInFlight) {
+               final List<Coords> toRead = chunks.get(nextChunk++);
+               // Futures of ordered copies are taken from inFlight, and should not pile
+               // up in the completion queue
+               inFlight.add(ordered_ ? readers.submit(() -> readChunk(toRead, stopReading))
+                     : completion.submit(() -> readChunk(toRead, stopReading)));
+            }
+            Future<List<Image>> done;
+            if (ordered_) {
+               done = inFlight.poll();
+            } else {
+               done = completion.take();
+               inFlight.remove(done);
+            }
+            for (Image image : getChunk(done)) {
+               destination_.putImage(image);
+               numCopied_++;
+               bytesCopied_ += (long) image.getWidth() * image.getHeight()
+                     * image.getBytesPerPixel();
+               if (listener_ != null) {
+                  listener_.onProgress(this);
+               }
+            }
+         }
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new IOException("Interrupted while copying images", e);
+      } finally {
+         endNs_ = System.nanoTime();
+         stopReading.set(true);
+         for (Future<List<Image>> future : inFlight) {
+            future.cancel(false);
+         }
+         readers.shutdown();
+      }
+   }
+
+   private List<Image> readChunk(List<Coords> chunk, AtomicBoolean stopReading)
+         throws IOException {
+      List<Image> images = new ArrayList<>(chunk.size());
+      for (Coords coords : chunk) {
+         if (cancelled_ || stopReading.get()) {
+            // The chunk is dropped by copy()
+            break;
+         }
+         Image image = source_.getImage(coords);
+         if (image == null) {
+            throw new IOException("Unable to read image at " + coords);
+         }
+         images.add(image);
+      }
+      return images;
+   }
+
+   private static List<Image> getChunk(Future<List<Image>> future)
+         throws IOException, InterruptedException {
+      try {
+         return future.get();
+      } catch (ExecutionException e) {
+         Throwable cause = e.getCause();
+         if (cause instanceof IOException) {
+            throw (IOException) cause;
+         } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+         } else if (cause instanceof Error) {
+            throw (Error) cause;
+         }
+         throw new IOException(cause);
+      }
+   }
+
+   /**
+    * Number of images handled so far, including the ones that the
+    * destination already had.
+    *
+    * @return number of images done
+    */
+   public int getNumDone() {
+      return numSkipped_ + numCopied_;
+   }
+
+   /**
+    * Number of images to handle, including the ones that the destination
+    * already had.
+    *
+    * @return number of images
+    */
+   public int getNumTotal() {
+      return coords_.size();
+   }
+
+   /**
+    * Number of images that were already in the destination when copy() was
+    * called, and were skipped because of setSkipExisting(true).
+    *
+    * @return number of skipped images
+    */
+   public int getNumSkipped() {
+      return numSkipped_;
+   }
+
+   public int getNumCopied() {
+      return numCopied_;
+   }
+
+   /**
+    * Time spent in the last call to copy(), or so far if it is running.
+    *
+    * @return elapsed time in milliseconds
+    */
+   public double getElapsedMs() {
+      if (startNs_ == 0) {
+         return 0.0;
+      }
+      long end = endNs_ == 0 ? System.nanoTime() : endNs_;
+      return (end - startNs_) / 1e6;
+   }
+
+   public double getImagesPerSecond() {
+      double elapsedMs = getElapsedMs();
+      return elapsedMs <= 0.0 ? 0.0 : numCopied_ * 1000.0 / elapsedMs;
+   }
+
+   public double getMegabytesPerSecond() {
+      double elapsedMs = getElapsedMs();
+      return elapsedMs <= 0.0 ? 0.0 : bytesCopied_ / 1e6 * 1000.0 / elapsedMs;
+   }
+
+   @Override
+   public String toString() {
+      return String.format("%d of %d images copied (%d already present) in %.1f s"
+                  + ", %.1f images/s, %.1f MB/s, %d readers",
+            numCopied_, coords_.size() - numSkipped_, numSkipped_, getElapsedMs() / 1000.0,
+            getImagesPerSecond(), getMegabytesPerSecond(), numReaders_);
+   }
+}
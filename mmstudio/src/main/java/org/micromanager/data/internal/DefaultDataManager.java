@@ -45,6 +45,7 @@ import org.micromanager.data.ProcessorFactory;
 import org.micromanager.data.ProcessorPlugin;
 import org.micromanager.data.RewritableDatastore;
 import org.micromanager.data.SummaryMetadata;
+import org.micromanager.data.internal.chunked.StorageChunked;
 import org.micromanager.data.internal.multipagetiff.MultipageTiffReader;
 import org.micromanager.data.internal.multipagetiff.StorageMultipageTiff;
 import org.micromanager.data.internal.ndtiff.NDTiffAdapter;
@@ -147,6 +148,13 @@ public final class DefaultDataManager implements DataManager {
       throw new UnsupportedOperationException();
    }
 
+   @Override
+   public Datastore createChunkedDatastore(String directory) throws IOException {
+      DefaultDatastore result = new DefaultDatastore(studio_);
+      result.setStorage(new StorageChunked(result, directory, true));
+      return result;
+   }
+
    @Override
    public Datastore createSinglePlaneTIFFSeriesDatastore(String directory) throws IOException {
       DefaultDatastore result = new DefaultDatastore(studio_);
@@ -226,7 +234,9 @@ public final class DefaultDataManager implements DataManager {
       if (isNDTiff && isMultipageTiff) {
          throw new RuntimeException("Cannot be both NDTiff and MultipageTiff");
       }
-      if (isNDTiff) {
+      if (StorageChunked.isChunkedDataSet(directory)) {
+         result.setStorage(new StorageChunked(result, directory, false));
+      } else if (isNDTiff) {
          result.setStorage(new NDTiffAdapter(result, directory, false));
       } else if (isMultipageTiff) {
          result.setStorage(new StorageMultipageTiff(parent, result, directory, false));
@@ -15,6 +15,7 @@ import org.micromanager.data.Storage;
 import org.micromanager.data.SummaryMetadata;
 import org.micromanager.data.internal.multipagetiff.StorageMultipageTiff;
 import org.micromanager.data.internal.ndtiff.NDTiffAdapter;
+import org.micromanager.internal.UserCancelledException;
 
 /**
  * TODO: Not sure if Swingworker is the best implementation.
@@ -54,6 +55,8 @@ public class DefaultDataSaver extends SwingWorker<Void, Void> {
                duplicate_,
                path_, true, true,
                StorageMultipageTiff.getShouldSplitPositions());
+         ((StorageMultipageTiff) saver_).setCompression(
+               StorageMultipageTiff.getShouldCompress());
       } else if (mode == Datastore.SaveMode.ND_TIFF) {
          saver_ = new NDTiffAdapter(duplicate_, path_, true);
          ((NDTiffAdapter) saver_).setSummaryMetadata(store.getSummaryMetadata());
@@ -151,7 +154,6 @@ public class DefaultDataSaver extends SwingWorker<Void, Void> {
          }
          return 1;
       });
-      int counter = 0;
       double multiplier = 100.0 / tmp.size();
       // Before we can put images into the new storage, we have to be sure that the SummaryMeta-
       // data are there.  We set it before, but that function is asynchronous internally.
@@ -175,11 +177,17 @@ public class DefaultDataSaver extends SwingWorker<Void, Void> {
          studio.logs().showError("Failed to save data");
          return null;
       }
-      for (Coords coords : tmp) {
-         duplicate_.putImage(store_.getImage(coords));
-         counter++;
-         setProgress((int) (counter * multiplier));
+      // Reading is done in parallel; images are put in the sorted order.
+      DatastoreCopier copier = new DatastoreCopier(store_, duplicate_, tmp, true);
+      copier.setProgressListener((DatastoreCopier c) ->
+            setProgress((int) (c.getNumDone() * multiplier)));
+      try {
+         copier.copy();
+      } catch (UserCancelledException e) {
+         // Nobody can cancel the copier here
+         throw new IOException(e);
       }
+      studio.logs().logMessage("Saved " + path_ + ": " + copier);
 
       // We set the save path and freeze *both* datastores; our own because
       // we should not be modified post-saving, and the other because it
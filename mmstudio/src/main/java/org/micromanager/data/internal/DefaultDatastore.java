@@ -24,6 +24,7 @@ import java.awt.Component;
 import java.beans.PropertyChangeEvent;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -32,8 +33,11 @@ import javax.swing.JFileChooser;
 import javax.swing.ProgressMonitor;
 import javax.swing.filechooser.FileFilter;
 import org.micromanager.Studio;
+import org.micromanager.acquisition.AcquisitionTelemetry;
+import org.micromanager.acquisition.internal.DefaultAcquisitionTelemetry;
 import org.micromanager.data.Annotation;
 import org.micromanager.data.Coords;
+import org.micromanager.data.DataProviderHasNewImageEvent;
 import org.micromanager.data.Datastore;
 import org.micromanager.data.DatastoreFrozenException;
 import org.micromanager.data.DatastoreRewriteException;
@@ -103,7 +107,9 @@ public class DefaultDatastore implements Datastore {
    /**
     * Copy all data from the source Datastore into ourselves. The
     * optional ProgressMonitor can be used to keep callers appraised of our
-    * progress.
+    * progress.  Images are read from the source with several threads, see
+    * DatastoreCopier.  If a previous copy from the same source was cancelled,
+    * calling this again copies the remaining images.
     *
     * @param alt     Source Datastore
     * @param monitor can be used to keep callers appraised of our progress.
@@ -112,21 +118,31 @@ public class DefaultDatastore implements Datastore {
     */
    public void copyFrom(Datastore alt, ProgressMonitor monitor)
          throws IOException, UserCancelledException {
+      boolean resuming = alt == copiedFromStore_ && haveSetSummary_;
       copiedFromStore_ = alt;
-      int imageCount = 0;
       try {
-         setSummaryMetadata(alt.getSummaryMetadata());
-         setName(alt.getName() + " - Copy");
-         for (Coords coords : alt.getUnorderedImageCoords()) {
-            putImage(alt.getImage(coords));
-            imageCount++;
-            if (monitor != null) {
+         if (!resuming) {
+            setSummaryMetadata(alt.getSummaryMetadata());
+            setName(alt.getName() + " - Copy");
+         }
+         List<Coords> coords = new ArrayList<>();
+         for (Coords c : alt.getUnorderedImageCoords()) {
+            coords.add(c);
+         }
+         DatastoreCopier copier = new DatastoreCopier(alt, this, coords, false);
+         // Only skip the images we already have when picking up a cancelled
+         // copy; otherwise copyFrom() overwrites, as it always did.
+         copier.setSkipExisting(resuming);
+         if (monitor != null) {
+            copier.setProgressListener((DatastoreCopier c) -> {
                if (monitor.isCanceled()) {
-                  throw new UserCancelledException();
+                  c.cancel();
                }
-               monitor.setProgress(imageCount);
-            }
+               monitor.setProgress(c.getNumDone());
+            });
          }
+         copier.copy();
+         studio_.logs().logMessage("Copied " + alt.getName() + ": " + copier);
       } catch (DatastoreFrozenException e) {
          studio_.logs().logError("Can't copy from datastore: we're frozen");
       } catch (DatastoreRewriteException e) {
@@ -167,6 +183,44 @@ public class DefaultDatastore implements Datastore {
       bus_.register(obj, priority);
    }
 
+   @Override
+   public void registerForCoalescedImageEvents(Object obj, int maxPending,
+                                               String... distinctAxes) {
+      registerForCoalescedImageEvents(obj, 100, maxPending, distinctAxes);
+   }
+
+   /**
+    * Registers an object for events at the given priority level; new image
+    * events are coalesced as described in
+    * {@link org.micromanager.data.DataProvider#registerForCoalescedImageEvents}.
+    *
+    * @param obj object to be registered.
+    * @param priority lower numbers are notified first.
+    * @param maxPending maximum number of new image events queued for the object.
+    * @param distinctAxes axes for which the latest image of each index is delivered.
+    */
+   public void registerForCoalescedImageEvents(Object obj, int priority, int maxPending,
+                                               final String... distinctAxes) {
+      bus_.registerCoalescing(obj, priority, maxPending, (Object event) -> {
+         if (event instanceof DataProviderHasNewImageEvent) {
+            return ((DataProviderHasNewImageEvent) event).getCoords()
+                  .copyRetainingAxes(distinctAxes);
+         }
+         return null;
+      });
+   }
+
+   /**
+    * Number of new image events that were not delivered to an object
+    * registered with registerForCoalescedImageEvents.
+    *
+    * @param obj registered object.
+    * @return number of events dropped for this object.
+    */
+   public long getDroppedImageEventCount(Object obj) {
+      return bus_.getDroppedEventCount(obj);
+   }
+
    @Override
    public void unregisterForEvents(Object obj) {
       bus_.unregister(obj);
@@ -249,6 +303,7 @@ public class DefaultDatastore implements Datastore {
       if (storage_ != null) {
          storage_.putImage(image);
       }
+      DefaultAcquisitionTelemetry.getInstance().record(AcquisitionTelemetry.STORED, this, coords);
       // Note: the store may be very busy saving data, so consumers of this message
       // should use as few resources as possible.  Note that the bus is asynchronous,
       // so we do not have to wait for processing to finish.
@@ -0,0 +1,294 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     Data API implementation
+//-----------------------------------------------------------------------------
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.data.internal;
+
+import ij.ImagePlus;
+import ij.io.FileInfo;
+import ij.io.FileSaver;
+import ij.io.TiffEncoder;
+import ij.measure.Calibration;
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.micromanager.data.Image;
+import org.micromanager.internal.utils.ThreadFactoryFactory;
+
+/**
+ * Writes the files of a single plane TIFF series on background threads, for
+ * StorageSinglePlaneTiffSeries.
+ *
+ * <p>TIFF files are encoded straight from the pixel buffers of the images by
+ * a small pool of threads.  At most a fixed number of images wait to be
+ * written; once that many are queued, writeImage() blocks, so that a slow disk
+ * slows down the acquisition instead of exhausting the Java heap.  Appends to
+ * the metadata.txt files happen in order on a single thread, and the files are
+ * only flushed once that thread runs out of work, so that a burst of images
+ * results in a single flush.</p>
+ *
+ * <p>The first failure is remembered and thrown by the next call to
+ * writeImage(), appendMetadata(), or flush().</p>
+ */
+final class SinglePlaneTiffWriter {
+   private static final int MIN_CAPACITY = 4;
+   private static final int MAX_CAPACITY = 256;
+   private static final int MAX_WRITERS = 4;
+   private static final int BUFFER_SIZE = 1 << 16;
+
+   private final ThreadPoolExecutor tiffExecutor_;
+   private final ExecutorService metadataExecutor_;
+   private final Semaphore slots_;
+   private final int capacity_;
+   // Only accessed from the metadata thread
+   private final Set<Writer> unflushedStreams_ = new LinkedHashSet<>();
+   // Guarded by this
+   private int pendingTiffs_ = 0;
+   private int pendingMetadata_ = 0;
+   private IOException error_;
+
+   /**
+    * Starts the writing threads.
+    *
+    * @param capacity number of images that can wait to be written, see
+    *                 capacityFor()
+    */
+   SinglePlaneTiffWriter(int capacity) {
+      capacity_ = capacity;
+      slots_ = new Semaphore(capacity);
+      int nrWriters = Math.max(1, Math.min(MAX_WRITERS,
+            Runtime.getRuntime().availableProcessors() / 2));
+      tiffExecutor_ = new ThreadPoolExecutor(nrWriters, nrWriters, 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(),
+            ThreadFactoryFactory.createThreadFactory("Single plane TIFF writer"));
+      metadataExecutor_ = Executors.newSingleThreadExecutor(
+            ThreadFactoryFactory.createThreadFactory("Single plane TIFF metadata writer"));
+   }
+
+   /**
+    * Chooses a queue capacity that uses at most an eighth of the Java heap.
+    *
+    * @param bytesPerImage size of the images in bytes
+    * @return number of images that may wait to be written
+    */
+   static int capacityFor(long bytesPerImage) {
+      long capacity = Runtime.getRuntime().maxMemory() / 8 / Math.max(1, bytesPerImage);
+      return (int) Math.max(MIN_CAPACITY, Math.min(MAX_CAPACITY, capacity));
+   }
+
+   /**
+    * Queues an image to be written to a TIFF file, waiting if too many images
+    * are queued already.
+    *
+    * @param path      full path of the file
+    * @param image     image to write
+    * @param info      text stored as the ImageJ "Info" property (the image
+    *                  metadata in JSON format)
+    * @param calibration spatial and temporal calibration, or null if unknown
+    * @param onWritten run once the file has been written, or failed to be
+    * @throws IOException if writing an earlier file failed, or if interrupted
+    */
+   void writeImage(String path, Image image, String info, Calibration calibration,
+                   Runnable onWritten) throws IOException {
+      checkError();
+      try {
+         slots_.acquire();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new IOException("Interrupted while waiting to write " + path, e);
+      }
+      synchronized (this) {
+         pendingTiffs_++;
+      }
+      tiffExecutor_.execute(() -> {
+         try {
+            writeTiff(path, createFileInfo(image, info, calibration));
+         } catch (IOException | RuntimeException e) {
+            setError(new IOException("Failed to write " + path, e));
+         } finally {
+            slots_.release();
+            onWritten.run();
+            synchronized (this) {
+               pendingTiffs_--;
+               notifyAll();
+            }
+         }
+      });
+   }
+
+   /**
+    * Queues text to be appended to a metadata file.  Appends happen in the
+    * order in which they are queued.
+    *
+    * @param stream metadata file
+    * @param text   text to append
+    * @throws IOException if writing an earlier file failed
+    */
+   void appendMetadata(Writer stream, String text) throws IOException {
+      checkError();
+      synchronized (this) {
+         pendingMetadata_++;
+      }
+      metadataExecutor_.execute(() -> {
+         try {
+            stream.write(text);
+            unflushedStreams_.add(stream);
+         } catch (IOException e) {
+            setError(e);
+         }
+         boolean idle;
+         synchronized (this) {
+            idle = --pendingMetadata_ == 0;
+         }
+         if (idle) {
+            flushMetadataStreams();
+         }
+         synchronized (this) {
+            notifyAll();
+         }
+      });
+   }
+
+   private void flushMetadataStreams() {
+      for (Writer stream : unflushedStreams_) {
+         try {
+            stream.flush();
+         } catch (IOException e) {
+            setError(e);
+         }
+      }
+      unflushedStreams_.clear();
+   }
+
+   /**
+    * Number of images waiting to be written, or being written.
+    *
+    * @return number of queued TIFF files
+    */
+   synchronized int getQueueSize() {
+      return pendingTiffs_;
+   }
+
+   /**
+    * Waits until everything queued so far is on disk.
+    *
+    * @throws IOException if writing failed, or if interrupted
+    */
+   void flush() throws IOException {
+      synchronized (this) {
+         try {
+            while (pendingTiffs_ > 0 || pendingMetadata_ > 0) {
+               wait();
+            }
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for files to be written", e);
+         }
+      }
+      checkError();
+   }
+
+   /**
+    * Stops the writing threads.  Call flush() first to wait for queued files.
+    */
+   void shutdown() {
+      tiffExecutor_.shutdown();
+      metadataExecutor_.shutdown();
+   }
+
+   private synchronized void setError(IOException e) {
+      if (error_ == null) {
+         error_ = e;
+      }
+   }
+
+   private synchronized void checkError() throws IOException {
+      if (error_ != null) {
+         throw error_;
+      }
+   }
+
+   @Override
+   public String toString() {
+      return String.format("%d of %d images waiting to be written",
+            getQueueSize(), capacity_);
+   }
+
+   /**
+    * Describes an image the way ImageJ's FileSaver.saveAsTiff() does, so that
+    * the file can be written with our own, buffered, stream.  The processor
+    * uses the pixel buffer of the image; only RGB images are converted, since
+    * ImageJ stores them as packed ints.
+    */
+   static FileInfo createFileInfo(Image image, String info, Calibration calibration) {
+      int width = image.getWidth();
+      int height = image.getHeight();
+      int bytesPerPixel = image.getBytesPerPixel();
+      int numComponents = image.getNumComponents();
+      ImageProcessor proc;
+      if (numComponents == 3 && bytesPerPixel == 4) {
+         proc = new ColorProcessor(width, height);
+         int[] rgbPixels = new int[width * height];
+         byte[] rawPixels = (byte[]) image.getRawPixels();
+         for (int i = 0; i < width * height; i++) {
+            rgbPixels[i] = (rawPixels[4 * i + 3] << (Byte.SIZE * 3));
+            rgbPixels[i] |= (rawPixels[4 * i + 2] & 0xFF) << (Byte.SIZE * 2);
+            rgbPixels[i] |= (rawPixels[4 * i + 1] & 0xFF) << (Byte.SIZE * 1);
+            rgbPixels[i] |= (rawPixels[4 * i] & 0xFF);
+         }
+         proc.setPixels(rgbPixels);
+      } else if (numComponents == 1 && bytesPerPixel == 1) {
+         proc = new ByteProcessor(width, height);
+         proc.setPixels(image.getRawPixels());
+      } else if (numComponents == 1 && bytesPerPixel == 2) {
+         proc = new ShortProcessor(width, height);
+         proc.setPixels(image.getRawPixels());
+      } else {
+         throw new IllegalArgumentException(String.format(
+               "Unexpected image format with %d bytes per pixel and %d components",
+               bytesPerPixel, numComponents));
+      }
+      ImagePlus imp = new ImagePlus("", proc);
+      if (calibration != null) {
+         imp.setCalibration(calibration);
+      }
+      imp.setProperty("Info", info);
+      FileInfo fi = imp.getFileInfo();
+      fi.info = info;
+      fi.description = new FileSaver(imp).getDescriptionString();
+      return fi;
+   }
+
+   static void writeTiff(String path, FileInfo fi) throws IOException {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(path), BUFFER_SIZE))) {
+         new TiffEncoder(fi).write(out);
+      }
+   }
+}
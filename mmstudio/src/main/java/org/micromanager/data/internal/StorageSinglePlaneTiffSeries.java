@@ -31,8 +31,8 @@ import com.google.gson.JsonParser;
 import com.google.gson.JsonSyntaxException;
 import com.google.gson.stream.JsonReader;
 import ij.ImagePlus;
-import ij.io.FileSaver;
 import ij.io.Opener;
+import ij.measure.Calibration;
 import ij.process.ByteProcessor;
 import ij.process.ColorProcessor;
 import ij.process.ImageProcessor;
@@ -73,11 +73,16 @@ import org.micromanager.internal.utils.TextUtils;
  * This class provides Image storage backed by a file system in which each
  * file contains a single 2D image plane. It descends from the old
  * TaggedImageStorageDiskDefault class.
+ *
+ * <p>Files are written on background threads by a SinglePlaneTiffWriter.
+ * Images that are still waiting to be written are served from memory.</p>
  */
 public final class StorageSinglePlaneTiffSeries implements Storage {
    private static final HashSet<String> ALLOWED_AXES = new HashSet<>(
          Arrays.asList(Coords.CHANNEL, Coords.T, Coords.Z,
                Coords.STAGE_POSITION));
+   private static final Gson GSON = new GsonBuilder().disableHtmlEscaping()
+         .setPrettyPrinting().create();
    private final DefaultDatastore store_;
    private final String dir_;
    private boolean firstElement_;
@@ -86,13 +91,15 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
    private boolean isDatasetWritable_;
    private SummaryMetadata summaryMetadata_ = (new DefaultSummaryMetadata.Builder()).build();
    private final ConcurrentHashMap<Coords, String> coordsToFilename_;
-   private Map<Coords, List<Coords>> coordsIndexedMissingC_;
+   private final CoordsIndex coordsIndex_ = new CoordsIndex();
    private final HashMap<Integer, String> positionIndexToName_;
    private final ArrayList<String> orderedChannelNames_;
    private final Set<String> axesInUse_;
    private Coords maxIndices_;
    private boolean isMultiPosition_;
    private Image firstImage_;
+   private volatile SinglePlaneTiffWriter writer_;
+   private final ConcurrentHashMap<Coords, Image> unwrittenImages_;
 
    /**
     * Implements storing single plane TIff series.
@@ -116,13 +123,13 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
       // can provide images on request.
       store_.registerForEvents(this, 0);
       coordsToFilename_ = new ConcurrentHashMap<>();
+      unwrittenImages_ = new ConcurrentHashMap<>();
       metadataStreams_ = new HashMap<>();
       positionIndexToName_ = new HashMap<>();
       orderedChannelNames_ = new ArrayList<>();
       axesInUse_ = new TreeSet<>();
       maxIndices_ = new DefaultCoords.Builder().build();
       amLoading_ = false;
-      coordsIndexedMissingC_ = new HashMap<>();
       isMultiPosition_ = true;
 
       // Note: this will throw an error if there is no existing data set
@@ -132,7 +139,7 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
    }
 
    @Override
-   public void putImage(Image image) {
+   public void putImage(Image image) throws IOException {
       ImageSizeChecker.checkImageSizeInSummary(summaryMetadata_, image);
       // Require images to only have time/channel/z/position axes.
       for (String axis : image.getCoords().getAxes()) {
@@ -176,6 +183,10 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
          fileName = positionPrefix + create14FileName(image.getCoords());
       }
       if (!amLoading_) {
+         if (writer_ == null) {
+            writer_ = new SinglePlaneTiffWriter(SinglePlaneTiffWriter.capacityFor(
+                  (long) image.getWidth() * image.getHeight() * image.getBytesPerPixel()));
+         }
          int imagePos = Math.max(0, image.getCoords().getStagePosition());
          if (!metadataStreams_.containsKey(imagePos)) {
             // No metadata for image at this location, means we haven't
@@ -208,10 +219,11 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
          NonPropertyMapJSONFormats.metadata().addToGson(jo,
                ((DefaultMetadata) imgMetadata).toPropertyMap());
 
-         Gson gson = new GsonBuilder().disableHtmlEscaping()
-               .setPrettyPrinting().create();
-         String metadataJSON = gson.toJson(jo);
+         String metadataJSON = GSON.toJson(jo);
 
+         // Known before the file is written, as getImage() serves the image
+         // from memory until then.
+         coordsToFilename_.putIfAbsent(image.getCoords(), fileName);
          saveImageFile(image, dir_, fileName, metadataJSON);
          writeFrameMetadata(image, metadataJSON, fileName);
       }
@@ -223,11 +235,7 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
          // isn't?  See the above code that branches based on amLoading_.
          coordsToFilename_.put(coords, fileName);
       }
-      Coords coordsNoC = image.getCoords().copyRemovingAxes(Coords.C);
-      if (!coordsIndexedMissingC_.containsKey(coordsNoC)) {
-         coordsIndexedMissingC_.put(coordsNoC, new ArrayList<>(4));
-      }
-      coordsIndexedMissingC_.get(coordsNoC).add(image.getCoords());
+      coordsIndex_.add(coords);
 
       // Update our tracking of the max index along each axis.
       for (String axis : coords.getAxes()) {
@@ -240,10 +248,39 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
    }
 
    @Override
-   public void freeze() {
-      closeMetadataStreams();
-      isDatasetWritable_ = false;
-      saveComments();
+   public void freeze() throws IOException {
+      try {
+         finishWriting();
+      } finally {
+         closeMetadataStreams();
+         isDatasetWritable_ = false;
+         saveComments();
+      }
+   }
+
+   /**
+    * Waits for the files that are still queued, and stops the writing threads.
+    */
+   private void finishWriting() throws IOException {
+      if (writer_ == null) {
+         return;
+      }
+      try {
+         writer_.flush();
+      } finally {
+         writer_.shutdown();
+         writer_ = null;
+      }
+   }
+
+   /**
+    * Number of images that are waiting to be written to disk.
+    *
+    * @return number of images in the writing queue; 0 before the first image
+    */
+   public int getWritingQueueSize() {
+      SinglePlaneTiffWriter writer = writer_;
+      return writer == null ? 0 : writer.getQueueSize();
    }
 
    private void saveComments() {
@@ -256,6 +293,10 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
 
    @Override
    public Image getImage(Coords coords) {
+      Image unwritten = unwrittenImages_.get(coords);
+      if (unwritten != null) {
+         return unwritten;
+      }
       if (coordsToFilename_.get(coords) == null) {
          // We don't have that image.
          ReportingUtils.logError("Asked for image at " + coords + " that we don't know about");
@@ -329,17 +370,8 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
    @Override
    public List<Image> getImagesMatching(Coords coords) {
       ArrayList<Image> result = new ArrayList<>();
-      for (Coords altCoords : coordsToFilename_.keySet()) {
-         boolean canUse = true;
-         for (String axis : coords.getAxes()) {
-            if (coords.getIndex(axis) != altCoords.getIndex(axis)) {
-               canUse = false;
-               break;
-            }
-         }
-         if (canUse) {
-            result.add(getImage(altCoords));
-         }
+      for (Coords altCoords : coordsIndex_.getMatching(coords)) {
+         result.add(getImage(altCoords));
       }
       return result;
    }
@@ -350,37 +382,9 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
       if (coordsToFilename_ == null) {
          return null;
       }
-      // Optimization: traversing large HashMaps is costly, so avoid that when there is no need
-      // without this, there is noticeable slowdown for one axis data > ~10,000 images.
-      // An alternative optimization approach is to keep collections of coords
-      // for all possible ignoredAxes.  There is more upfront work involved but may be
-      // needed for fast multi-camera imaging.
       List<Image> result = new ArrayList<>();
-      boolean haveIgnoredAxes = false;
-      for (String axis : ignoreTheseAxes) {
-         if (axesInUse_.contains(axis)) {
-            haveIgnoredAxes = true;
-            break;
-         }
-      }
-      if (!haveIgnoredAxes) {
-         result.add(getImage(coords));
-      } else {
-         // special case: if the ignored axis is C, use a special index to find the Coords
-         // otherwise, the search will be very expensive (which will  be the case for other
-         // axes) and result in noticaeble slowodwns with large datasetsz
-         if (ignoreTheseAxes[0].equals(Coords.CHANNEL)) {
-            for (Coords tmpCoords : coordsIndexedMissingC_.get(coords)) {
-               result.add(getImage(tmpCoords));
-            }
-         } else { // brute force it.  This will be slow with large data sets
-            for (Coords altCoords : coordsToFilename_.keySet()) {
-               Coords strippedAltCoords = altCoords.copyRemovingAxes(ignoreTheseAxes);
-               if (coords.equals(strippedAltCoords)) {
-                  result.add(getImage(altCoords));
-               }
-            }
-         }
+      for (Coords altCoords : coordsIndex_.getMatching(coords, ignoreTheseAxes)) {
+         result.add(getImage(altCoords));
       }
       return result;
    }
@@ -487,9 +491,7 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
          JsonObject jo = new JsonObject();
          NonPropertyMapJSONFormats.coords().addToGson(jo,
                ((DefaultCoords) image.getCoords()).toPropertyMap());
-         Gson gson = new GsonBuilder().disableHtmlEscaping()
-               .setPrettyPrinting().create();
-         writeJSONMetadata(pos, gson.toJson(jo), coordsKey);
+         writeJSONMetadata(pos, GSON.toJson(jo), coordsKey);
 
          String mdKey = "Metadata-" + fileName;
          writeJSONMetadata(pos, metadataJSON, mdKey);
@@ -505,12 +507,8 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
             ReportingUtils.logError("Failed to make a stream for location " + pos);
             return;
          }
-         if (!firstElement_) {
-            metadataStream.write(",\n");
-         }
-         metadataStream.write("\"" + title + "\": ");
-         metadataStream.write(json);
-         metadataStream.flush();
+         String text = (firstElement_ ? "" : ",\n") + "\"" + title + "\": " + json;
+         writer_.appendMetadata(metadataStream, text);
          firstElement_ = false;
       } catch (IOException e) {
          ReportingUtils.logError(e);
@@ -519,96 +517,40 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
 
 
    private void saveImageFile(Image image, String path, String tiffFileName,
-                              String metadataJSON) {
+                              String metadataJSON) throws IOException {
       if (firstImage_ == null) {
          firstImage_ = image;
       } else {
          ImageSizeChecker.checkImageSizes(firstImage_, image);
       }
+      Coords coords = image.getCoords();
+      unwrittenImages_.put(coords, image);
       try {
-         int width = image.getWidth();
-         int height = image.getHeight();
-         Object pixels = image.getRawPixels();
-         int bytesPerPixel = image.getBytesPerPixel();
-         int numComponents = image.getNumComponents();
-         ImageProcessor proc;
-         if (numComponents == 3 && bytesPerPixel == 4) {
-            // 32-bit RGB
-            proc = new ColorProcessor(width, height);
-            int[] rgbPixels = new int[width * height];
-            byte[] rawPixels = (byte[]) pixels;
-            for (int i = 0; i < width * height; i++) {
-               rgbPixels[i] = (rawPixels[4 * i + 3] << (Byte.SIZE * 3));
-               rgbPixels[i] |= (rawPixels[4 * i + 2] & 0xFF) << (Byte.SIZE * 2);
-               rgbPixels[i] |= (rawPixels[4 * i + 1] & 0xFF) << (Byte.SIZE * 1);
-               rgbPixels[i] |= (rawPixels[4 * i] & 0xFF);
-            }
-            ((ColorProcessor) proc).setPixels(rgbPixels);
-         } else if (numComponents == 1 && bytesPerPixel == 1) {
-            // Byte
-            proc = new ByteProcessor(width, height);
-            proc.setPixels((byte[]) pixels);
-         } else if (numComponents == 1 && bytesPerPixel == 2) {
-            // Short
-            proc = new ShortProcessor(width, height);
-            proc.setPixels((short[]) pixels);
-         } else {
-            throw new IllegalArgumentException(String.format(
-                  "Unexpected image format with %d bytes per pixel and %d components",
-                  bytesPerPixel, numComponents));
-         }
-         saveImageProcessor(proc, image, path, tiffFileName, metadataJSON);
-      } catch (IllegalArgumentException ex) {
-         ReportingUtils.logError(ex);
-      }
-   }
-
-
-   private void saveImageProcessor(ImageProcessor ip, Image image,
-                                   String path, String tiffFileName, String metadataJSON) {
-      // TODO: why is this check here?
-      if (ip == null) {
-         return;
+         writer_.writeImage(path + "/" + tiffFileName, image, metadataJSON,
+               createCalibration(image.getMetadata()),
+               () -> unwrittenImages_.remove(coords, image));
+      } catch (IOException e) {
+         unwrittenImages_.remove(coords, image);
+         throw e;
       }
-      ImagePlus imp = new ImagePlus(path + "/" + tiffFileName, ip);
-      applyPixelSizeCalibration(imp, image.getMetadata());
-      saveImagePlus(imp, image, path, tiffFileName, metadataJSON);
    }
 
-   private void applyPixelSizeCalibration(final ImagePlus ip,
-                                          Metadata metadata) {
+   private Calibration createCalibration(Metadata metadata) {
       Double pixSizeUm = metadata.getPixelSizeUm();
-      if (pixSizeUm != null && pixSizeUm > 0) {
-         ij.measure.Calibration cal = new ij.measure.Calibration();
-         cal.setUnit("um");
-         cal.pixelWidth = pixSizeUm;
-         cal.pixelHeight = pixSizeUm;
-         if (summaryMetadata_.getWaitInterval() != null) {
-            cal.frameInterval = summaryMetadata_.getWaitInterval() / 1000.0;
-         }
-         if (summaryMetadata_.getZStepUm() != null) {
-            cal.pixelDepth = summaryMetadata_.getZStepUm();
-         }
-         ip.setCalibration(cal);
+      if (pixSizeUm == null || pixSizeUm <= 0) {
+         return null;
       }
-   }
-
-
-   /**
-    * Saves an ImageJ ImagePlus object.
-    *
-    * @param imp          The ImagePlus to be saved.
-    * @param image        Not used
-    * @param path         Location on disk to save to.
-    * @param tiffFileName Temporary name to be sued.
-    * @param metadataJSON Metadata in JSON format
-    */
-   public void saveImagePlus(ImagePlus imp, Image image,
-                             String path, String tiffFileName, String metadataJSON) {
-      imp.setProperty("Info", metadataJSON);
-
-      FileSaver fs = new FileSaver(imp);
-      fs.saveAsTiff(path + "/" + tiffFileName);
+      Calibration cal = new Calibration();
+      cal.setUnit("um");
+      cal.pixelWidth = pixSizeUm;
+      cal.pixelHeight = pixSizeUm;
+      if (summaryMetadata_.getWaitInterval() != null) {
+         cal.frameInterval = summaryMetadata_.getWaitInterval() / 1000.0;
+      }
+      if (summaryMetadata_.getZStepUm() != null) {
+         cal.pixelDepth = summaryMetadata_.getZStepUm();
+      }
+      return cal;
    }
 
    private void openNewDataSet(Image image) throws IOException, Exception {
@@ -632,7 +574,7 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
       Writer metadataStream = new BufferedWriter(new FileWriter(dir_ + "/"
             + posName + "/metadata.txt"));
       metadataStreams_.put(pos, metadataStream);
-      metadataStream.write("{" + "\n");
+      writer_.appendMetadata(metadataStream, "{" + "\n");
       // TODO: this method of extracting the date is extremely hacky and
       // potentially locale-dependent.
       String time = image.getMetadata().getReceivedTime();
@@ -650,8 +592,7 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
       PropertyMap formatPmap = ((DefaultImage) image).formatToPropertyMap();
       PropertyKey.IJ_TYPE.storeInGsonObject(formatPmap, jo);
       PropertyKey.PIXEL_TYPE.storeInGsonObject(formatPmap, jo);
-      Gson gson = new GsonBuilder().disableHtmlEscaping().setPrettyPrinting().create();
-      writeJSONMetadata(pos, gson.toJson(jo), "Summary");
+      writeJSONMetadata(pos, GSON.toJson(jo), "Summary");
    }
 
    private void closeMetadataStreams() {
@@ -850,22 +791,16 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
    @Subscribe
    public void onNewSummaryMetadata(DataProviderHasNewSummaryMetadataEvent event) {
       summaryMetadata_ = event.getSummaryMetadata();
-
-      // setSummaryMetadata must be called before adding images to the store, so use this moment
-      // to smartly initialize several HashMaps
-      Coords dims = summaryMetadata_.getIntendedDimensions();
-      int nrImagesNoC = 1;
-      for (String axis : dims.getAxes()) {
-         if (!axis.equals(Coords.CHANNEL)) {
-            nrImagesNoC *= dims.getIndex(axis);
-         }
-      }
-      coordsIndexedMissingC_ = new HashMap<>(nrImagesNoC);
    }
 
    @Override
    public void close() {
+      try {
+         finishWriting();
+      } catch (IOException e) {
+         ReportingUtils.logError(e, "Failed to write images for " + store_.getName());
+      }
       saveComments();
-      coordsIndexedMissingC_ = null;
+      coordsIndex_.clear();
    }
 }
\ No newline at end of file
@@ -0,0 +1,288 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     Data API implementation
+//-----------------------------------------------------------------------------
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.data.internal.chunked;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Lossless compression in the LZ4 block format, in plain Java.
+ *
+ * <p>The compressor is the simple greedy "fast" variant: a hash table of
+ * 4-byte sequences finds earlier occurrences, and the search skips ahead
+ * faster through data that does not compress.  Output can be decompressed by
+ * any LZ4 block decoder, given the uncompressed length, which this format does
+ * not store.  Pixel data compresses much better after shuffle(), which puts
+ * the low and high bytes of the pixels in separate planes.</p>
+ *
+ * <p>All methods are thread safe.</p>
+ */
+public final class Lz4Codec {
+   private static final int MIN_MATCH = 4;
+   private static final int LAST_LITERALS = 5;
+   private static final int MF_LIMIT = 12;
+   private static final int MAX_DISTANCE = 65535;
+   private static final int HASH_LOG = 14;
+   private static final int SKIP_TRIGGER = 6;
+   private static final int RUN_MASK = 15;
+
+   private Lz4Codec() {
+   }
+
+   /**
+    * Largest possible size of the compressed form of srcLength bytes.
+    *
+    * @param srcLength number of bytes to compress
+    * @return upper bound of the compressed size
+    */
+   public static int maxCompressedLength(int srcLength) {
+      return srcLength + srcLength / 255 + 16;
+   }
+
+   /**
+    * Compresses a byte array.
+    *
+    * @param src data to compress
+    * @return compressed data
+    */
+   public static byte[] compress(byte[] src) {
+      int srcLength = src.length;
+      byte[] dst = new byte[maxCompressedLength(srcLength)];
+      int op = 0;
+      int anchor = 0;
+      if (srcLength > MF_LIMIT) {
+         int[] table = new int[1 << HASH_LOG];
+         Arrays.fill(table, -1);
+         int limit = srcLength - MF_LIMIT;
+         int matchLimit = srcLength - LAST_LITERALS;
+         int ip = 0;
+         int attempts = 1 << SKIP_TRIGGER;
+         while (ip < limit) {
+            int sequence = readInt(src, ip);
+            int h = hash(sequence);
+            int ref = table[h];
+            table[h] = ip;
+            if (ref < 0 || ip - ref > MAX_DISTANCE || readInt(src, ref) != sequence) {
+               ip += attempts++ >>> SKIP_TRIGGER;
+               continue;
+            }
+            attempts = 1 << SKIP_TRIGGER;
+            int matchLength = MIN_MATCH;
+            while (ip > anchor && ref > 0 && src[ip - 1] == src[ref - 1]) {
+               ip--;
+               ref--;
+               matchLength++;
+            }
+            while (ip + matchLength < matchLimit
+                  && src[ip + matchLength] == src[ref + matchLength]) {
+               matchLength++;
+            }
+            op = writeSequence(dst, op, src, anchor, ip - anchor, ip - ref, matchLength);
+            ip += matchLength;
+            anchor = ip;
+            if (ip - 2 < limit) {
+               table[hash(readInt(src, ip - 2))] = ip - 2;
+            }
+         }
+      }
+      op = writeLiterals(dst, op, src, anchor, srcLength - anchor);
+      return Arrays.copyOf(dst, op);
+   }
+
+   /**
+    * Decompresses data produced by compress().
+    *
+    * @param src       compressed data
+    * @param srcOffset start of the compressed data in src
+    * @param srcLength length of the compressed data
+    * @param dst       receives the uncompressed data, must have exactly the
+    *                  uncompressed length
+    * @throws IOException if the data is corrupt
+    */
+   public static void decompress(byte[] src, int srcOffset, int srcLength, byte[] dst)
+         throws IOException {
+      int ip = srcOffset;
+      int end = srcOffset + srcLength;
+      int op = 0;
+      try {
+         while (true) {
+            int token = src[ip++] & 0xFF;
+            int literals = token >>> 4;
+            if (literals == RUN_MASK) {
+               int b;
+               do {
+                  b = src[ip++] & 0xFF;
+                  literals += b;
+               } while (b == 255);
+            }
+            System.arraycopy(src, ip, dst, op, literals);
+            ip += literals;
+            op += literals;
+            if (ip >= end) {
+               break;
+            }
+            int offset = (src[ip] & 0xFF) | ((src[ip + 1] & 0xFF) << 8);
+            ip += 2;
+            if (offset == 0 || offset > op) {
+               throw new IOException("Corrupt LZ4 data: offset " + offset + " at " + op);
+            }
+            int matchLength = token & RUN_MASK;
+            if (matchLength == RUN_MASK) {
+               int b;
+               do {
+                  b = src[ip++] & 0xFF;
+                  matchLength += b;
+               } while (b == 255);
+            }
+            matchLength += MIN_MATCH;
+            int ref = op - offset;
+            if (offset >= matchLength) {
+               System.arraycopy(dst, ref, dst, op, matchLength);
+            } else {
+               // Overlapping copy repeats the last offset bytes
+               for (int i = 0; i < matchLength; i++) {
+                  dst[op + i] = dst[ref + i];
+               }
+            }
+            op += matchLength;
+         }
+      } catch (ArrayIndexOutOfBoundsException e) {
+         throw new IOException("Corrupt LZ4 data", e);
+      }
+      if (op != dst.length) {
+         throw new IOException("Corrupt LZ4 data: " + op + " bytes instead of " + dst.length);
+      }
+   }
+
+   /**
+    * Turns pixels into bytes, with byte i of every component group stored in
+    * plane i, so that the slowly varying high bytes of 16-bit pixels end up
+    * next to each other.
+    *
+    * @param pixels     byte[] or short[] pixels
+    * @param groupSize  bytes per group: 2 for 16-bit, 4 for RGB32, 1 for 8-bit
+    * @return shuffled bytes
+    */
+   public static byte[] shuffle(Object pixels, int groupSize) {
+      if (pixels instanceof short[]) {
+         short[] shorts = (short[]) pixels;
+         int n = shorts.length;
+         byte[] result = new byte[n * 2];
+         for (int i = 0; i < n; i++) {
+            result[i] = (byte) shorts[i];
+            result[n + i] = (byte) (shorts[i] >> 8);
+         }
+         return result;
+      }
+      byte[] bytes = (byte[]) pixels;
+      if (groupSize == 1) {
+         return bytes.clone();
+      }
+      int n = bytes.length / groupSize;
+      byte[] result = new byte[bytes.length];
+      for (int i = 0; i < n; i++) {
+         for (int b = 0; b < groupSize; b++) {
+            result[b * n + i] = bytes[i * groupSize + b];
+         }
+      }
+      return result;
+   }
+
+   /**
+    * Reverses shuffle().
+    *
+    * @param bytes     shuffled bytes
+    * @param groupSize value passed to shuffle()
+    * @param asShorts  whether to return short[] (16-bit pixels) or byte[]
+    * @return pixels
+    */
+   public static Object unshuffle(byte[] bytes, int groupSize, boolean asShorts) {
+      if (asShorts) {
+         int n = bytes.length / 2;
+         short[] result = new short[n];
+         for (int i = 0; i < n; i++) {
+            result[i] = (short) ((bytes[i] & 0xFF) | (bytes[n + i] << 8));
+         }
+         return result;
+      }
+      if (groupSize == 1) {
+         return bytes;
+      }
+      int n = bytes.length / groupSize;
+      byte[] result = new byte[bytes.length];
+      for (int i = 0; i < n; i++) {
+         for (int b = 0; b < groupSize; b++) {
+            result[i * groupSize + b] = bytes[b * n + i];
+         }
+      }
+      return result;
+   }
+
+   private static int hash(int sequence) {
+      return (sequence * -1640531535) >>> (32 - HASH_LOG);
+   }
+
+   private static int readInt(byte[] buf, int i) {
+      return (buf[i] & 0xFF) | ((buf[i + 1] & 0xFF) << 8)
+            | ((buf[i + 2] & 0xFF) << 16) | (buf[i + 3] << 24);
+   }
+
+   private static int writeLength(byte[] dst, int op, int length) {
+      while (length >= 255) {
+         dst[op++] = (byte) 255;
+         length -= 255;
+      }
+      dst[op++] = (byte) length;
+      return op;
+   }
+
+   private static int writeSequence(byte[] dst, int op, byte[] src, int literalStart,
+                                    int literals, int offset, int matchLength) {
+      int tokenPos = op++;
+      int token;
+      if (literals >= RUN_MASK) {
+         token = RUN_MASK << 4;
+         op = writeLength(dst, op, literals - RUN_MASK);
+      } else {
+         token = literals << 4;
+      }
+      System.arraycopy(src, literalStart, dst, op, literals);
+      op += literals;
+      dst[op++] = (byte) offset;
+      dst[op++] = (byte) (offset >>> 8);
+      int extra = matchLength - MIN_MATCH;
+      if (extra >= RUN_MASK) {
+         token |= RUN_MASK;
+         op = writeLength(dst, op, extra - RUN_MASK);
+      } else {
+         token |= extra;
+      }
+      dst[tokenPos] = (byte) token;
+      return op;
+   }
+
+   private static int writeLiterals(byte[] dst, int op, byte[] src, int start, int literals) {
+      if (literals >= RUN_MASK) {
+         dst[op++] = (byte) (RUN_MASK << 4);
+         op = writeLength(dst, op, literals - RUN_MASK);
+      } else {
+         dst[op++] = (byte) (literals << 4);
+      }
+      System.arraycopy(src, start, dst, op, literals);
+      return op + literals;
+   }
+}
@@ -0,0 +1,768 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     Data API implementation
+//-----------------------------------------------------------------------------
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.data.internal.chunked;
+
+import com.google.common.eventbus.Subscribe;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import org.micromanager.PropertyMap;
+import org.micromanager.PropertyMaps;
+import org.micromanager.data.Coords;
+import org.micromanager.data.DataProviderHasNewSummaryMetadataEvent;
+import org.micromanager.data.Datastore;
+import org.micromanager.data.Image;
+import org.micromanager.data.Metadata;
+import org.micromanager.data.Storage;
+import org.micromanager.data.SummaryMetadata;
+import org.micromanager.data.internal.CoordsIndex;
+import org.micromanager.data.internal.DefaultCoords;
+import org.micromanager.data.internal.DefaultDatastore;
+import org.micromanager.data.internal.DefaultImage;
+import org.micromanager.data.internal.DefaultMetadata;
+import org.micromanager.data.internal.DefaultSummaryMetadata;
+import org.micromanager.data.internal.ImageSizeChecker;
+import org.micromanager.data.internal.PixelType;
+import org.micromanager.data.internal.PropertyKey;
+import org.micromanager.internal.propertymap.NonPropertyMapJSONFormats;
+import org.micromanager.internal.utils.ReportingUtils;
+import org.micromanager.internal.utils.ThreadFactoryFactory;
+
+/**
+ * Storage that keeps image planes LZ4-compressed in a single data file, with
+ * a separate index for random access, and downsampled copies of every plane
+ * for fast overviews.
+ *
+ * <p>Each plane is a chunk, addressed by its Coords, so any number of axes is
+ * supported.  Planes are byte-shuffled and compressed by a pool of worker
+ * threads, which write to disjoint regions of the data file at once; putImage()
+ * only waits when more images are queued than fit in the memory budget.  Each
+ * plane is also stored at lower resolution levels, halving width and height
+ * until they would drop below MIN_LEVEL_SIZE.  Images that are still being
+ * written are served from memory.</p>
+ *
+ * <p>A dataset is a directory holding:</p>
+ * <ul>
+ * <li>summary.json: the summary metadata</li>
+ * <li>chunks.bin: the compressed planes, and the image metadata as JSON</li>
+ * <li>chunks.index: one JSON object per line and chunk, with its Coords,
+ * resolution level, image format and location in chunks.bin.  The lines of
+ * an image are appended and flushed once all its chunks were written, so a
+ * dataset that was not closed properly can still be read up to the last
+ * complete line; lines pointing beyond the end of chunks.bin are skipped.
+ * The data file is only forced to disk when the storage is frozen.</li>
+ * </ul>
+ */
+public final class StorageChunked implements Storage {
+   public static final String INDEX_FILE = "chunks.index";
+   static final String DATA_FILE = "chunks.bin";
+   static final String SUMMARY_FILE = "summary.json";
+   static final int MIN_LEVEL_SIZE = 256;
+   static final int MAX_LEVELS = 8;
+   private static final int VERSION = 1;
+   private static final String VERSION_KEY = "ChunkedStorageVersion";
+   private static final String LEVEL_KEY = "ChunkLevel";
+   private static final String OFFSET_KEY = "ChunkOffset";
+   private static final String LENGTH_KEY = "ChunkLength";
+   private static final String METADATA_OFFSET_KEY = "ChunkMetadataOffset";
+   private static final String METADATA_LENGTH_KEY = "ChunkMetadataLength";
+   private static final Gson GSON = new GsonBuilder().disableHtmlEscaping().create();
+
+   private final DefaultDatastore store_;
+   private final String dir_;
+   private volatile boolean isWritable_;
+   private SummaryMetadata summaryMetadata_ = (new DefaultSummaryMetadata.Builder()).build();
+   private final RandomAccessFile dataFile_;
+   private final FileChannel channel_;
+   private final AtomicLong nextOffset_;
+   private final Object indexLock_ = new Object();
+   // Guarded by indexLock_
+   private Writer indexWriter_;
+   // One map per resolution level
+   private final List<Map<Coords, Chunk>> levels_ = new ArrayList<>();
+   private final Map<Coords, Image> pendingImages_ = new ConcurrentHashMap<>();
+   private final Set<Coords> allCoords_ = ConcurrentHashMap.newKeySet();
+   private final CoordsIndex coordsIndex_ = new CoordsIndex();
+   // Guarded by this
+   private final Set<String> axesInUse_ = new TreeSet<>();
+   private Coords maxIndices_ = new DefaultCoords.Builder().build();
+   private Image firstImage_;
+   private ExecutorService workers_;
+   private Semaphore slots_;
+   // Guarded by pendingImages_
+   private int pendingWrites_ = 0;
+   private volatile IOException error_;
+   private final AtomicLong rawBytes_ = new AtomicLong();
+   private final AtomicLong compressedBytes_ = new AtomicLong();
+
+   /**
+    * Location of a compressed plane in the data file.
+    */
+   private static final class Chunk {
+      final long offset;
+      final int length;
+      final long metadataOffset;
+      final int metadataLength;
+      final int width;
+      final int height;
+      final PixelType pixelType;
+
+      Chunk(long offset, int length, long metadataOffset, int metadataLength,
+            int width, int height, PixelType pixelType) {
+         this.offset = offset;
+         this.length = length;
+         this.metadataOffset = metadataOffset;
+         this.metadataLength = metadataLength;
+         this.width = width;
+         this.height = height;
+         this.pixelType = pixelType;
+      }
+   }
+
+   /**
+    * Creates a new dataset, or opens an existing one.
+    *
+    * @param store      Datastore using this storage
+    * @param directory  Directory holding the dataset
+    * @param newDataSet Whether to create a new dataset (true) or to open an
+    *                   existing one (false)
+    * @throws IOException if the directory exists when creating a dataset, or
+    *                     if the files can not be opened
+    */
+   public StorageChunked(Datastore store, String directory, boolean newDataSet)
+         throws IOException {
+      store_ = (DefaultDatastore) store;
+      dir_ = directory;
+      isWritable_ = newDataSet;
+      for (int i = 0; i < MAX_LEVELS; i++) {
+         levels_.add(new ConcurrentHashMap<>());
+      }
+      File dir = new File(dir_);
+      if (newDataSet) {
+         if (dir.exists()) {
+            throw new IOException("Directory at " + dir_ + " already exists");
+         }
+         if (!dir.mkdirs()) {
+            throw new IOException("Unable to create directory " + dir_);
+         }
+      }
+      dataFile_ = new RandomAccessFile(new File(dir, DATA_FILE), newDataSet ? "rw" : "r");
+      channel_ = dataFile_.getChannel();
+      nextOffset_ = new AtomicLong(channel_.size());
+      store_.setSavePath(dir_);
+      store_.setName(dir.getName());
+      // Must be informed of events before traditional consumers, so that we
+      // can provide images on request.
+      store_.registerForEvents(this, 0);
+      if (newDataSet) {
+         indexWriter_ = new BufferedWriter(new OutputStreamWriter(
+               new FileOutputStream(new File(dir, INDEX_FILE)), StandardCharsets.UTF_8));
+      } else {
+         openExistingDataSet();
+      }
+   }
+
+   /**
+    * Checks whether a directory holds a dataset written by this class.
+    *
+    * @param directory directory to check
+    * @return true if the directory has a chunk index
+    */
+   public static boolean isChunkedDataSet(String directory) {
+      return new File(directory, INDEX_FILE).exists();
+   }
+
+   /**
+    * Number of threads compressing and writing planes.
+    */
+   private static int numWorkers() {
+      return Math.max(1, Math.min(8, Runtime.getRuntime().availableProcessors() - 1));
+   }
+
+   @Override
+   public void putImage(Image image) throws IOException {
+      if (!isWritable_) {
+         throw new IOException("Attempted to add an image to a read-only dataset");
+      }
+      IOException error = error_;
+      if (error != null) {
+         throw error;
+      }
+      Coords coords = image.getCoords();
+      synchronized (this) {
+         if (firstImage_ == null) {
+            ImageSizeChecker.checkImageSizeInSummary(summaryMetadata_, image);
+            firstImage_ = image;
+            long bytes = (long) image.getWidth() * image.getHeight() * image.getBytesPerPixel();
+            int capacity = (int) Math.max(4, Math.min(256,
+                  Runtime.getRuntime().maxMemory() / 8 / Math.max(1, bytes)));
+            slots_ = new Semaphore(capacity);
+            workers_ = Executors.newFixedThreadPool(numWorkers(),
+                  ThreadFactoryFactory.createThreadFactory("Chunked storage writer"));
+         } else {
+            ImageSizeChecker.checkImageSizes(firstImage_, image);
+         }
+         addToIndices(coords);
+      }
+      pendingImages_.put(coords, image);
+      try {
+         slots_.acquire();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new IOException("Interrupted while waiting to store " + coords, e);
+      }
+      synchronized (pendingImages_) {
+         pendingWrites_++;
+      }
+      workers_.execute(() -> {
+         try {
+            writeChunks(image);
+         } catch (IOException | RuntimeException e) {
+            ReportingUtils.logError(e, "Failed to store image at " + coords);
+            removeFromIndices(coords);
+            if (error_ == null) {
+               error_ = e instanceof IOException ? (IOException) e : new IOException(e);
+            }
+         } finally {
+            slots_.release();
+            synchronized (pendingImages_) {
+               pendingImages_.remove(coords, image);
+               pendingWrites_--;
+               pendingImages_.notifyAll();
+            }
+         }
+      });
+   }
+
+   private synchronized void addToIndices(Coords coords) {
+      allCoords_.add(coords);
+      coordsIndex_.add(coords);
+      for (String axis : coords.getAxes()) {
+         axesInUse_.add(axis);
+         if (coords.getIndex(axis) > maxIndices_.getIndex(axis)) {
+            maxIndices_ = maxIndices_.copyBuilder().index(axis, coords.getIndex(axis)).build();
+         }
+      }
+   }
+
+   /**
+    * Forgets an image that could not be written.  Its lines were not added
+    * to the index file.
+    */
+   private synchronized void removeFromIndices(Coords coords) {
+      allCoords_.remove(coords);
+      coordsIndex_.remove(coords);
+      for (Map<Coords, Chunk> level : levels_) {
+         level.remove(coords);
+      }
+   }
+
+   /**
+    * Compresses and writes all resolution levels of an image; runs on a
+    * worker thread.
+    */
+   private void writeChunks(Image image) throws IOException {
+      JsonObject jo = new JsonObject();
+      NonPropertyMapJSONFormats.metadata().addToGson(jo,
+            ((DefaultMetadata) image.getMetadata()).toPropertyMap());
+      byte[] metadata = GSON.toJson(jo).getBytes(StandardCharsets.UTF_8);
+      long metadataOffset = write(metadata);
+
+      Object pixels = image.getRawPixels();
+      int width = image.getWidth();
+      int height = image.getHeight();
+      int bytesPerPixel = image.getBytesPerPixel();
+      PixelType pixelType = PixelType.valueFor(bytesPerPixel, image.getBytesPerComponent(),
+            image.getNumComponents());
+      List<String> indexLines = new ArrayList<>(MAX_LEVELS);
+      for (int level = 0; level < MAX_LEVELS; level++) {
+         if (level > 0) {
+            if (Math.min(width, height) / 2 < MIN_LEVEL_SIZE) {
+               break;
+            }
+            pixels = downsample(pixels, width, height, bytesPerPixel);
+            width /= 2;
+            height /= 2;
+         }
+         byte[] raw = Lz4Codec.shuffle(pixels, bytesPerPixel);
+         byte[] compressed = Lz4Codec.compress(raw);
+         long offset = write(compressed);
+         rawBytes_.addAndGet(raw.length);
+         compressedBytes_.addAndGet(compressed.length);
+         Chunk chunk = new Chunk(offset, compressed.length, metadataOffset, metadata.length,
+               width, height, pixelType);
+         indexLines.add(toIndexLine(image.getCoords(), level, chunk));
+         levels_.get(level).put(image.getCoords(), chunk);
+      }
+      appendToIndex(indexLines);
+   }
+
+   private long write(byte[] bytes) throws IOException {
+      long offset = nextOffset_.getAndAdd(bytes.length);
+      ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      long position = offset;
+      while (buffer.hasRemaining()) {
+         position += channel_.write(buffer, position);
+      }
+      return offset;
+   }
+
+   private static String toIndexLine(Coords coords, int level, Chunk chunk) {
+      JsonObject jo = new JsonObject();
+      PropertyMap format = PropertyMaps.builder()
+            .putInteger(PropertyKey.WIDTH.key(), chunk.width)
+            .putInteger(PropertyKey.HEIGHT.key(), chunk.height)
+            .putEnumAsString(PropertyKey.PIXEL_TYPE.key(), chunk.pixelType)
+            .build();
+      NonPropertyMapJSONFormats.imageFormat().addToGson(jo, format);
+      NonPropertyMapJSONFormats.coords().addToGson(jo,
+            ((DefaultCoords) coords).toPropertyMap());
+      jo.addProperty(LEVEL_KEY, level);
+      jo.addProperty(OFFSET_KEY, chunk.offset);
+      jo.addProperty(LENGTH_KEY, chunk.length);
+      jo.addProperty(METADATA_OFFSET_KEY, chunk.metadataOffset);
+      jo.addProperty(METADATA_LENGTH_KEY, chunk.metadataLength);
+      return GSON.toJson(jo);
+   }
+
+   /**
+    * Appends the index lines of an image whose chunks were written.
+    */
+   private void appendToIndex(List<String> lines) throws IOException {
+      synchronized (indexLock_) {
+         for (String line : lines) {
+            indexWriter_.write(line);
+            indexWriter_.write("\n");
+         }
+         indexWriter_.flush();
+      }
+   }
+
+   /**
+    * Halves width and height by averaging blocks of 2x2 pixels.  Averaging is
+    * done per byte for RGB32.
+    */
+   static Object downsample(Object pixels, int width, int height, int bytesPerPixel) {
+      int newWidth = width / 2;
+      int newHeight = height / 2;
+      if (pixels instanceof short[]) {
+         short[] in = (short[]) pixels;
+         short[] out = new short[newWidth * newHeight];
+         for (int y = 0; y < newHeight; y++) {
+            int row = 2 * y * width;
+            for (int x = 0; x < newWidth; x++) {
+               int i = row + 2 * x;
+               int sum = (in[i] & 0xFFFF) + (in[i + 1] & 0xFFFF)
+                     + (in[i + width] & 0xFFFF) + (in[i + width + 1] & 0xFFFF);
+               out[y * newWidth + x] = (short) ((sum + 2) / 4);
+            }
+         }
+         return out;
+      }
+      byte[] in = (byte[]) pixels;
+      int n = bytesPerPixel;
+      byte[] out = new byte[newWidth * newHeight * n];
+      for (int y = 0; y < newHeight; y++) {
+         int row = 2 * y * width;
+         for (int x = 0; x < newWidth; x++) {
+            int i = (row + 2 * x) * n;
+            int below = i + width * n;
+            for (int b = 0; b < n; b++) {
+               int sum = (in[i + b] & 0xFF) + (in[i + n + b] & 0xFF)
+                     + (in[below + b] & 0xFF) + (in[below + n + b] & 0xFF);
+               out[(y * newWidth + x) * n + b] = (byte) ((sum + 2) / 4);
+            }
+         }
+      }
+      return out;
+   }
+
+   @Override
+   public void freeze() throws IOException {
+      if (!isWritable_) {
+         return;
+      }
+      isWritable_ = false;
+      try {
+         waitForPendingWrites();
+      } finally {
+         if (workers_ != null) {
+            workers_.shutdown();
+         }
+         try {
+            channel_.force(false);
+         } catch (IOException e) {
+            if (error_ == null) {
+               error_ = e;
+            }
+         }
+         synchronized (indexLock_) {
+            indexWriter_.close();
+         }
+         writeSummary();
+         ReportingUtils.logMessage("Chunked storage " + dir_ + ": " + toString());
+      }
+      IOException error = error_;
+      if (error != null) {
+         throw error;
+      }
+   }
+
+   private void waitForPendingWrites() throws IOException {
+      synchronized (pendingImages_) {
+         try {
+            while (pendingWrites_ > 0) {
+               pendingImages_.wait();
+            }
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for images to be stored", e);
+         }
+      }
+   }
+
+   private void writeSummary() throws IOException {
+      JsonObject jo = new JsonObject();
+      jo.addProperty(VERSION_KEY, VERSION);
+      NonPropertyMapJSONFormats.summaryMetadata().addToGson(jo,
+            ((DefaultSummaryMetadata) summaryMetadata_).toPropertyMap());
+      try (Writer writer = new OutputStreamWriter(new FileOutputStream(
+            new File(dir_, SUMMARY_FILE)), StandardCharsets.UTF_8)) {
+         new GsonBuilder().disableHtmlEscaping().setPrettyPrinting().create()
+               .toJson(jo, writer);
+      }
+   }
+
+   private void openExistingDataSet() throws IOException {
+      File summaryFile = new File(dir_, SUMMARY_FILE);
+      if (summaryFile.exists()) {
+         try (Reader reader = new InputStreamReader(new FileInputStream(summaryFile),
+               StandardCharsets.UTF_8)) {
+            JsonObject jo = new JsonParser().parse(reader).getAsJsonObject();
+            if (jo.has(PropertyKey.SUMMARY.key())) {
+               summaryMetadata_ = DefaultSummaryMetadata.fromPropertyMap(
+                     NonPropertyMapJSONFormats.summaryMetadata().fromGson(
+                           jo.get(PropertyKey.SUMMARY.key())));
+            }
+         } catch (JsonParseException | IllegalStateException e) {
+            ReportingUtils.logError(e, "Unable to read summary metadata of " + dir_);
+         }
+      } else {
+         ReportingUtils.logError("No summary metadata found in " + dir_);
+      }
+      long dataLength = channel_.size();
+      try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+            new FileInputStream(new File(dir_, INDEX_FILE)), StandardCharsets.UTF_8))) {
+         String line;
+         int lineNr = 0;
+         while ((line = reader.readLine()) != null) {
+            lineNr++;
+            if (line.isEmpty()) {
+               continue;
+            }
+            JsonObject jo;
+            Chunk chunk;
+            Coords coords;
+            int level;
+            try {
+               jo = new JsonParser().parse(line).getAsJsonObject();
+               coords = DefaultCoords.fromPropertyMap(
+                     NonPropertyMapJSONFormats.coords().fromGson(jo));
+               PropertyMap format = NonPropertyMapJSONFormats.imageFormat().fromGson(jo);
+               level = jo.get(LEVEL_KEY).getAsInt();
+               chunk = new Chunk(jo.get(OFFSET_KEY).getAsLong(),
+                     jo.get(LENGTH_KEY).getAsInt(),
+                     jo.get(METADATA_OFFSET_KEY).getAsLong(),
+                     jo.get(METADATA_LENGTH_KEY).getAsInt(),
+                     format.getInteger(PropertyKey.WIDTH.key(), 0),
+                     format.getInteger(PropertyKey.HEIGHT.key(), 0),
+                     format.getStringAsEnum(PropertyKey.PIXEL_TYPE.key(),
+                           PixelType.class, null));
+            } catch (JsonParseException | IllegalStateException | NullPointerException
+                  | IllegalArgumentException e) {
+               // Most likely the last line of a dataset that was not closed
+               ReportingUtils.logError("Skipping unreadable line " + lineNr + " of "
+                     + INDEX_FILE + " in " + dir_);
+               continue;
+            }
+            if (level < 0 || level >= MAX_LEVELS || chunk.pixelType == null
+                  || chunk.offset + chunk.length > dataLength
+                  || chunk.metadataOffset + chunk.metadataLength > dataLength) {
+               ReportingUtils.logError("Skipping chunk beyond the end of " + DATA_FILE
+                     + " at line " + lineNr + " in " + dir_);
+               continue;
+            }
+            levels_.get(level).put(coords, chunk);
+            if (level == 0) {
+               addToIndices(coords);
+            }
+         }
+      }
+   }
+
+   @Override
+   public Image getImage(Coords coords) throws IOException {
+      return getImage(coords, 0);
+   }
+
+   /**
+    * Returns an image at the given resolution level.  Level 0 is the image as
+    * it was stored; every next level halves width and height.
+    *
+    * @param coords Coords of the image
+    * @param level  resolution level, less than getNumResolutionLevels()
+    * @return the image, or null if there is no image at these Coords
+    * @throws IOException if reading fails
+    */
+   public Image getImage(Coords coords, int level) throws IOException {
+      if (level < 0 || level >= MAX_LEVELS) {
+         throw new IllegalArgumentException("Invalid resolution level " + level);
+      }
+      Chunk chunk = levels_.get(level).get(coords);
+      if (chunk == null) {
+         Image pending = pendingImages_.get(coords);
+         if (pending == null) {
+            return null;
+         }
+         if (level == 0) {
+            return pending;
+         }
+         // Not written yet; downsample now
+         Object pixels = pending.getRawPixels();
+         int width = pending.getWidth();
+         int height = pending.getHeight();
+         for (int i = 0; i < level; i++) {
+            pixels = downsample(pixels, width, height, pending.getBytesPerPixel());
+            width /= 2;
+            height /= 2;
+         }
+         return new DefaultImage(pixels, width, height, pending.getBytesPerPixel(),
+               pending.getNumComponents(), coords, scaleMetadata(pending.getMetadata(), level));
+      }
+      int bytesPerPixel = chunk.pixelType.getBytesPerPixel();
+      byte[] compressed = read(chunk.offset, chunk.length);
+      byte[] raw = new byte[chunk.width * chunk.height * bytesPerPixel];
+      Lz4Codec.decompress(compressed, 0, compressed.length, raw);
+      Object pixels = Lz4Codec.unshuffle(raw, bytesPerPixel,
+            chunk.pixelType == PixelType.GRAY16);
+      String json = new String(read(chunk.metadataOffset, chunk.metadataLength),
+            StandardCharsets.UTF_8);
+      Metadata metadata = DefaultMetadata.fromPropertyMap(
+            NonPropertyMapJSONFormats.metadata().fromJSON(json));
+      return new DefaultImage(pixels, chunk.width, chunk.height, bytesPerPixel,
+            chunk.pixelType.getNumberOfComponents(), coords, scaleMetadata(metadata, level));
+   }
+
+   private static Metadata scaleMetadata(Metadata metadata, int level) {
+      Double pixelSizeUm = metadata.getPixelSizeUm();
+      if (level == 0 || pixelSizeUm == null) {
+         return metadata;
+      }
+      return metadata.copyBuilderPreservingUUID()
+            .pixelSizeUm(pixelSizeUm * (1 << level)).build();
+   }
+
+   private byte[] read(long offset, int length) throws IOException {
+      ByteBuffer buffer = ByteBuffer.allocate(length);
+      long position = offset;
+      while (buffer.hasRemaining()) {
+         int n = channel_.read(buffer, position);
+         if (n < 0) {
+            throw new IOException("Unexpected end of " + DATA_FILE + " in " + dir_);
+         }
+         position += n;
+      }
+      return buffer.array();
+   }
+
+   /**
+    * Number of resolution levels stored for the images of this dataset.
+    *
+    * @return number of levels, 1 if only full resolution images are stored
+    */
+   public int getNumResolutionLevels() {
+      Image first = firstImage_;
+      if (first != null) {
+         int levels = 1;
+         int size = Math.min(first.getWidth(), first.getHeight());
+         while (levels < MAX_LEVELS && size / 2 >= MIN_LEVEL_SIZE) {
+            size /= 2;
+            levels++;
+         }
+         return levels;
+      }
+      int levels = 1;
+      while (levels < MAX_LEVELS && !levels_.get(levels).isEmpty()) {
+         levels++;
+      }
+      return levels;
+   }
+
+   /**
+    * Number of images waiting to be compressed and written.
+    *
+    * @return size of the writing queue
+    */
+   public int getWritingQueueSize() {
+      synchronized (pendingImages_) {
+         return pendingWrites_;
+      }
+   }
+
+   /**
+    * Ratio between the uncompressed and the compressed size of the planes
+    * written so far.
+    *
+    * @return compression ratio, or 0 if nothing was written
+    */
+   public double getCompressionRatio() {
+      long compressed = compressedBytes_.get();
+      return compressed == 0 ? 0.0 : (double) rawBytes_.get() / compressed;
+   }
+
+   @Override
+   public Image getAnyImage() {
+      for (Coords coords : allCoords_) {
+         try {
+            return getImage(coords);
+         } catch (IOException e) {
+            ReportingUtils.logError(e, "Failed to read image at " + coords);
+            return null;
+         }
+      }
+      return null;
+   }
+
+   @Override
+   public Iterable<Coords> getUnorderedImageCoords() {
+      return allCoords_;
+   }
+
+   @Override
+   public List<Image> getImagesMatching(Coords coords) throws IOException {
+      return getImages(coordsIndex_.getMatching(coords));
+   }
+
+   @Override
+   public List<Image> getImagesIgnoringAxes(Coords coords, String... ignoreTheseAxes)
+         throws IOException {
+      return getImages(coordsIndex_.getMatching(coords, ignoreTheseAxes));
+   }
+
+   private List<Image> getImages(List<Coords> matches) throws IOException {
+      List<Image> result = new ArrayList<>(matches.size());
+      for (Coords match : matches) {
+         Image image = getImage(match);
+         if (image != null) {
+            result.add(image);
+         }
+      }
+      return result;
+   }
+
+   @Override
+   public boolean hasImage(Coords coords) {
+      return allCoords_.contains(coords);
+   }
+
+   @Override
+   public synchronized int getMaxIndex(String axis) {
+      if (!axesInUse_.contains(axis)) {
+         return -1;
+      }
+      return maxIndices_.getIndex(axis);
+   }
+
+   @Override
+   public List<String> getAxes() {
+      return summaryMetadata_.getOrderedAxes();
+   }
+
+   @Override
+   public synchronized Coords getMaxIndices() {
+      return maxIndices_;
+   }
+
+   @Override
+   public SummaryMetadata getSummaryMetadata() {
+      return summaryMetadata_;
+   }
+
+   @Override
+   public int getNumImages() {
+      return allCoords_.size();
+   }
+
+   /**
+    * Receives the summary metadata, which is set before images are added.
+    *
+    * @param event gives access to the new SummaryMetadata
+    */
+   @Subscribe
+   public void onNewSummaryMetadata(DataProviderHasNewSummaryMetadataEvent event) {
+      summaryMetadata_ = event.getSummaryMetadata();
+      if (isWritable_) {
+         try {
+            writeSummary();
+         } catch (IOException e) {
+            ReportingUtils.logError(e, "Failed to write summary metadata to " + dir_);
+         }
+      }
+   }
+
+   @Override
+   public void close() throws IOException {
+      try {
+         freeze();
+      } finally {
+         channel_.close();
+         dataFile_.close();
+      }
+   }
+
+   @Override
+   public String toString() {
+      return String.format("%d images, %d resolution levels, compression ratio %.2f",
+            allCoords_.size(), getNumResolutionLevels(), getCompressionRatio());
+   }
+}
@@ -73,6 +73,12 @@ public final class MultipageTiffReader {
    private static final char STRIP_OFFSETS = MultipageTiffWriter.STRIP_OFFSETS;
    private static final char STRIP_BYTE_COUNTS = MultipageTiffWriter.STRIP_BYTE_COUNTS;
    private static final char MM_METADATA = MultipageTiffWriter.MM_METADATA;
+   private static final char WIDTH = MultipageTiffWriter.WIDTH;
+   private static final char HEIGHT = MultipageTiffWriter.HEIGHT;
+   private static final char BITS_PER_SAMPLE = MultipageTiffWriter.BITS_PER_SAMPLE;
+   private static final char COMPRESSION = MultipageTiffWriter.COMPRESSION;
+   private static final char SAMPLES_PER_PIXEL = MultipageTiffWriter.SAMPLES_PER_PIXEL;
+   private static final char ROWS_PER_STRIP = MultipageTiffWriter.ROWS_PER_STRIP;
 
    // Note: ordering of axes here matches that in MDUtils.getLabel().
    // If you change this, you will need to track down places where the size of
@@ -455,6 +461,8 @@ public final class MultipageTiffReader {
 
       ByteBuffer entries = readIntoBuffer(byteOffset + 2, numEntries * 12 + 4).order(byteOrder_);
       IFDData data = new IFDData();
+      IFDEntry stripOffsets = null;
+      IFDEntry stripByteCounts = null;
       for (int i = 0; i < numEntries; i++) {
          IFDEntry entry = readDirectoryEntry(i * 12, entries);
          if (entry.tag == MM_METADATA) {
@@ -462,12 +470,32 @@ public final class MultipageTiffReader {
             data.mdLength = entry.count;
          } else if (entry.tag == STRIP_OFFSETS) {
             data.pixelOffset = entry.value;
+            stripOffsets = entry;
          } else if (entry.tag == STRIP_BYTE_COUNTS) {
             data.bytesPerImage = entry.value;
+            stripByteCounts = entry;
+         } else if (entry.tag == COMPRESSION) {
+            data.compression = (int) entry.value;
+         } else if (entry.tag == TiffCompression.PREDICTOR) {
+            data.predictor = (int) entry.value;
+         } else if (entry.tag == WIDTH) {
+            data.width = (int) entry.value;
+         } else if (entry.tag == HEIGHT) {
+            data.height = (int) entry.value;
+         } else if (entry.tag == BITS_PER_SAMPLE && entry.count == 1) {
+            // RGB images have one entry per sample, always 8 bits
+            data.bytesPerSample = (int) entry.value / 8;
+         } else if (entry.tag == SAMPLES_PER_PIXEL) {
+            data.samplesPerPixel = (int) entry.value;
+         } else if (entry.tag == ROWS_PER_STRIP) {
+            data.rowsPerStrip = (int) entry.value;
          }
       }
       data.nextIFD = unsignInt(entries.getInt(numEntries * 12));
       data.nextIFDOffsetLocation = byteOffset + 2 + numEntries * 12;
+      if (data.compression != TiffCompression.COMPRESSION_NONE) {
+         readStrips(data, stripOffsets, stripByteCounts);
+      }
       if (data.pixelOffset == 0 || data.bytesPerImage == 0
             || data.mdOffset == 0 || data.mdLength == 0) {
          throw new IOException("Failed to read image from file at offset "
@@ -477,6 +505,42 @@ public final class MultipageTiffReader {
       return data;
    }
 
+   /**
+    * Fills in the strips of a compressed image, and replaces bytesPerImage by
+    * the size of the uncompressed pixels.
+    */
+   private void readStrips(IFDData data, IFDEntry offsets, IFDEntry byteCounts)
+         throws IOException {
+      if (data.compression != TiffCompression.COMPRESSION_DEFLATE) {
+         throw new IOException("Unsupported TIFF compression " + data.compression);
+      }
+      if (offsets == null || byteCounts == null || offsets.count != byteCounts.count
+            || offsets.count == 0) {
+         throw new IOException("Missing or inconsistent strips in compressed image");
+      }
+      int numStrips = (int) offsets.count;
+      data.stripOffsets = new long[numStrips];
+      data.stripByteCounts = new long[numStrips];
+      if (numStrips == 1) {
+         data.stripOffsets[0] = offsets.value;
+         data.stripByteCounts[0] = byteCounts.value;
+      } else {
+         ByteBuffer offsetTable = readIntoBuffer(offsets.value, 4 * numStrips)
+               .order(byteOrder_);
+         ByteBuffer countTable = readIntoBuffer(byteCounts.value, 4 * numStrips)
+               .order(byteOrder_);
+         for (int i = 0; i < numStrips; i++) {
+            data.stripOffsets[i] = unsignInt(offsetTable.getInt(4 * i));
+            data.stripByteCounts[i] = unsignInt(countTable.getInt(4 * i));
+         }
+      }
+      data.bytesPerImage = (long) data.width * data.height * data.samplesPerPixel
+            * data.bytesPerSample;
+      if (data.rowsPerStrip <= 0 || data.rowsPerStrip > data.height) {
+         data.rowsPerStrip = data.height;
+      }
+   }
+
    private String getString(ByteBuffer buffer) {
       try {
          return new String(buffer.array(), "UTF-8");
@@ -500,16 +564,21 @@ public final class MultipageTiffReader {
          return null;
       }
       long byteOffset = coordsToOffset_.get(coords);
-      if (fileChannel_ == null) {
-         createFileChannel(false);
-      }
+      IFDData data;
+      // Several threads may read at once (see DatastoreCopier), and pause()
+      // may close the channel in between.
+      synchronized (this) {
+         if (fileChannel_ == null) {
+            createFileChannel(false);
+         }
 
-      if (fileChannel_ == null) {
-         ReportingUtils.logError("Attempted to read image on FileChannel that is null");
-         return null;
-      }
+         if (fileChannel_ == null) {
+            ReportingUtils.logError("Attempted to read image on FileChannel that is null");
+            return null;
+         }
 
-      IFDData data = readIFD(byteOffset);
+         data = readIFD(byteOffset);
+      }
       return (DefaultImage) readImage(data);
    }
 
@@ -517,8 +586,22 @@ public final class MultipageTiffReader {
       ByteBuffer pixelBuffer = getLargeBuffer((int) data.bytesPerImage, byteOrder_);
       pixelBuffer.rewind();
       ByteBuffer mdBuffer = ByteBuffer.allocate((int) data.mdLength).order(byteOrder_);
-      fileChannel_.read(pixelBuffer, data.pixelOffset);
-      fileChannel_.read(mdBuffer, data.mdOffset);
+      byte[] compressed = null;
+      synchronized (this) {
+         if (fileChannel_ == null) {
+            createFileChannel(false);
+         }
+         if (data.stripOffsets == null) {
+            fileChannel_.read(pixelBuffer, data.pixelOffset);
+         } else {
+            compressed = readCompressedStrips(data);
+         }
+         fileChannel_.read(mdBuffer, data.mdOffset);
+      }
+      if (compressed != null) {
+         // Outside of the lock, so that several threads can decompress at once
+         decompressStrips(data, compressed, pixelBuffer);
+      }
 
       String mdJSON = getString(mdBuffer);
       String tmp = mdJSON.substring(mdJSON.length() - 3);
@@ -639,6 +722,40 @@ public final class MultipageTiffReader {
    }
 
 
+   private byte[] readCompressedStrips(IFDData data) throws IOException {
+      long total = 0;
+      for (long count : data.stripByteCounts) {
+         total += count;
+      }
+      byte[] compressed = new byte[(int) total];
+      int position = 0;
+      for (int i = 0; i < data.stripOffsets.length; i++) {
+         ByteBuffer strip = ByteBuffer.wrap(compressed, position,
+               (int) data.stripByteCounts[i]);
+         fileChannel_.read(strip, data.stripOffsets[i]);
+         position += (int) data.stripByteCounts[i];
+      }
+      return compressed;
+   }
+
+   private static void decompressStrips(IFDData data, byte[] compressed,
+                                        ByteBuffer pixelBuffer) throws IOException {
+      int rowBytes = data.width * data.samplesPerPixel * data.bytesPerSample;
+      int srcOffset = 0;
+      for (int i = 0; i < data.stripOffsets.length; i++) {
+         int firstRow = i * data.rowsPerStrip;
+         int rows = Math.min(data.rowsPerStrip, data.height - firstRow);
+         if (rows <= 0) {
+            throw new IOException("More strips than rows in compressed image");
+         }
+         TiffCompression.decompressStrip(compressed, srcOffset,
+               (int) data.stripByteCounts[i], pixelBuffer, firstRow * rowBytes,
+               rows * rowBytes, rowBytes, data.bytesPerSample, data.samplesPerPixel,
+               data.predictor);
+         srcOffset += (int) data.stripByteCounts[i];
+      }
+   }
+
    private IFDEntry readDirectoryEntry(int offset, ByteBuffer buffer) throws IOException {
       char tag = buffer.getChar(offset);
       char type = buffer.getChar(offset + 2);
@@ -698,7 +815,7 @@ public final class MultipageTiffReader {
     *
     * @throws IOException Accessing disk can cause these
     */
-   void pause() throws IOException {
+   synchronized void pause() throws IOException {
       if (fileChannel_ != null) {
          fileChannel_.close();
          fileChannel_ = null;
@@ -855,6 +972,16 @@ public final class MultipageTiffReader {
       public long mdLength;
       public long nextIFD;
       public long nextIFDOffsetLocation;
+      public int compression = TiffCompression.COMPRESSION_NONE;
+      public int predictor = TiffCompression.PREDICTOR_NONE;
+      public int width;
+      public int height;
+      public int bytesPerSample = 1;
+      public int samplesPerPixel = 1;
+      public int rowsPerStrip;
+      // Only set for compressed images
+      public long[] stripOffsets;
+      public long[] stripByteCounts;
 
       public IFDData() {
       }
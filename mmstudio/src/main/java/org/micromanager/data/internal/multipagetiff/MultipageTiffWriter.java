@@ -38,10 +38,14 @@ import java.nio.ByteOrder;
 import java.nio.CharBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
 import org.micromanager.PropertyMap;
 import org.micromanager.PropertyMaps;
@@ -74,6 +78,9 @@ public final class MultipageTiffWriter {
 
    private static final long BYTES_PER_GIG = 1073741824;
    private static final long MAX_FILE_SIZE = 4 * BYTES_PER_GIG;
+   // Compression ratio for which the index map reserves room; files of
+   // images that compress better are split when their index map is full
+   private static final int INDEX_MAP_COMPRESSION_RATIO = 4;
    public static final int DISPLAY_SETTINGS_BYTES_PER_CHANNEL = 256;
    //1 MB for now...might have to increase
    public static final long SPACE_FOR_COMMENTS = 1048576;
@@ -111,6 +118,8 @@ public final class MultipageTiffWriter {
    private RandomAccessFile raFile_;
    private FileChannel fileChannel_;
    private final ThreadPoolExecutor writingExecutor_;
+   // Compresses strips of pixels; null when writing uncompressed images
+   private final ExecutorService compressionExecutor_;
    private long filePosition_ = 0;
    //current position of the dynamically written index map
    private long indexMapPosition_;
@@ -128,6 +137,9 @@ public final class MultipageTiffWriter {
    private final int imageWidth_;
    private final int imageHeight_;
    private final int bytesPerImagePixels_;
+   private final int rowsPerStrip_;
+   private final int numStrips_;
+   private long maxImagesInFile_;
    private final long resNumerator_;
    private final long resDenomenator_;
    private final LinkedList<ByteBuffer> buffers_;
@@ -166,6 +178,9 @@ public final class MultipageTiffWriter {
       imageHeight_ = repImage.getHeight();
       byteDepth_ = repImage.getBytesPerPixel() / repImage.getNumComponents();
       bytesPerImagePixels_ = imageHeight_ * imageWidth_ * byteDepth_ * repImage.getNumComponents();
+      rowsPerStrip_ = TiffCompression.rowsPerStrip(bytesPerImagePixels_ / imageHeight_,
+            imageHeight_);
+      numStrips_ = (imageHeight_ + rowsPerStrip_ - 1) / rowsPerStrip_;
       // Tiff resolution tag values
       double cmPerPixel = 0.0001;
       Metadata repMetadata = repImage.getMetadata();
@@ -229,6 +244,7 @@ public final class MultipageTiffWriter {
       }
       fileChannel_ = raFile_.getChannel();
       writingExecutor_ = masterStorage_.getWritingExecutor();
+      compressionExecutor_ = masterStorage_.getCompressionExecutor();
       coordsToOffset_ = new HashMap<>();
       reader_.setFileChannel(fileChannel_);
       reader_.setIndexMap(coordsToOffset_);
@@ -379,6 +395,10 @@ public final class MultipageTiffWriter {
       int mdLength = summaryMDBytes.length;
       // 20 bytes plus 8 header for index map
       long maxImagesInFile = MAX_FILE_SIZE / bytesPerImagePixels_;
+      if (compressionExecutor_ != null) {
+         maxImagesInFile *= INDEX_MAP_COMPRESSION_RATIO;
+      }
+      maxImagesInFile_ = maxImagesInFile;
       long indexMapSpace = 8 + 20 * maxImagesInFile;
 
       ByteBuffer headerBuffer = allocateByteBuffer(40);
@@ -522,6 +542,14 @@ public final class MultipageTiffWriter {
          axis1ImagesLeft = channelsLeft;
          axis2ImagesLeft = slicesLeft;
       }
+      if (compressionExecutor_ != null) {
+         // Predictor tag and strip tables; compressed pixels are never
+         // larger than bytesPerImagePixels_ (see writeIFD())
+         ifdsize += 12 + 8 * numStrips_;
+         if ((indexMapPosition_ - indexMapFirstEntry_) / 20 >= maxImagesInFile_) {
+            return false;
+         }
+      }
       // 5 MB extra padding...just to be safe...
       int extraPadding = 5000000;
       long singleImageBytes = ifdsize + mdLength + bytesPerImagePixels_;
@@ -623,7 +651,19 @@ public final class MultipageTiffWriter {
       fileChannelWrite(buffs);
    }
 
-   private void writeIFD(Image img) {
+   private void writeIFD(Image img) throws IOException {
+      ByteBuffer pixelBuffer = getPixelBuffer(img.getRawPixels());
+      byte[][] strips = compressStrips(pixelBuffer);
+      boolean compressed = strips != null;
+      int numStrips = compressed ? strips.length : 1;
+      int pixelBytes = bytesPerImagePixels_;
+      if (compressed) {
+         pixelBytes = 0;
+         for (byte[] strip : strips) {
+            pixelBytes += strip.length;
+         }
+      }
+
       JsonObject jo = new JsonObject();
       NonPropertyMapJSONFormats.imageFormat().addToGson(jo,
             ((DefaultImage) img).formatToPropertyMap());
@@ -645,7 +685,8 @@ public final class MultipageTiffWriter {
       // 16 bytes for x and y resolution,
       // 1 byte per character of MD string
       // number of bytes for pixels
-      char numEntries = ((firstIFD_ ? ENTRIES_PER_IFD + 4 : ENTRIES_PER_IFD));
+      char numEntries = (char) ((firstIFD_ ? ENTRIES_PER_IFD + 4 : ENTRIES_PER_IFD)
+            + (compressed ? 1 : 0));
       int ifDandBitDepthBytes = 2 + numEntries * 12 + 4 + (rgb_ ? 6 : 0);
 
       ByteBuffer ifdBuffer = allocateByteBuffer(ifDandBitDepthBytes);
@@ -664,7 +705,16 @@ public final class MultipageTiffWriter {
       if (rgb_) {
          tagDataOffset += 6;
       }
-      writeIFDEntry(ifdBuffer, charView, COMPRESSION, (char) 3, 1, 1);
+      // Tables of strip offsets and byte counts go between the IFD and the
+      // pixels when there is more than one strip
+      long stripTablesOffset = tagDataOffset;
+      if (numStrips > 1) {
+         tagDataOffset += 8L * numStrips;
+      }
+      long pixelOffset = tagDataOffset;
+      tagDataOffset += pixelBytes;
+      writeIFDEntry(ifdBuffer, charView, COMPRESSION, (char) 3, 1,
+            compressed ? TiffCompression.COMPRESSION_DEFLATE : TiffCompression.COMPRESSION_NONE);
       writeIFDEntry(ifdBuffer, charView, PHOTOMETRIC_INTERPRETATION, (char) 3, 1, rgb_ ? 2 : 1);
 
       if (firstIFD_) {
@@ -674,16 +724,22 @@ public final class MultipageTiffWriter {
          writeIFDEntry(ifdBuffer, charView, IMAGE_DESCRIPTION, (char) 2, 0, 0);
       }
 
-      writeIFDEntry(ifdBuffer, charView, STRIP_OFFSETS, (char) 4, 1, tagDataOffset);
-      tagDataOffset += bytesPerImagePixels_;
+      writeIFDEntry(ifdBuffer, charView, STRIP_OFFSETS, (char) 4, numStrips,
+            numStrips > 1 ? stripTablesOffset : pixelOffset);
       writeIFDEntry(ifdBuffer, charView, SAMPLES_PER_PIXEL, (char) 3, 1, (rgb_ ? 3 : 1));
-      writeIFDEntry(ifdBuffer, charView, ROWS_PER_STRIP, (char) 3, 1, imageHeight_);
-      writeIFDEntry(ifdBuffer, charView, STRIP_BYTE_COUNTS, (char) 4, 1, bytesPerImagePixels_);
+      writeIFDEntry(ifdBuffer, charView, ROWS_PER_STRIP, (char) 3, 1,
+            compressed ? rowsPerStrip_ : imageHeight_);
+      writeIFDEntry(ifdBuffer, charView, STRIP_BYTE_COUNTS, (char) 4, numStrips,
+            numStrips > 1 ? stripTablesOffset + 4L * numStrips : pixelBytes);
       writeIFDEntry(ifdBuffer, charView, X_RESOLUTION, (char) 5, 1, tagDataOffset);
       tagDataOffset += 8;
       writeIFDEntry(ifdBuffer, charView, Y_RESOLUTION, (char) 5, 1, tagDataOffset);
       tagDataOffset += 8;
       writeIFDEntry(ifdBuffer, charView, RESOLUTION_UNIT, (char) 3, 1, 3);
+      if (compressed) {
+         writeIFDEntry(ifdBuffer, charView, TiffCompression.PREDICTOR, (char) 3, 1,
+               TiffCompression.PREDICTOR_HORIZONTAL);
+      }
       if (firstIFD_) {
          ijMetadataCountsTagPosition_ = filePosition_ + bufferPosition_;
          writeIFDEntry(ifdBuffer, charView, IJ_METADATA_BYTE_COUNTS, (char) 4, 0, 0);
@@ -702,16 +758,69 @@ public final class MultipageTiffWriter {
          charView.put(bufferPosition_ / 2 + 2, (char) (byteDepth_ * 8));
       }
       buffers_.add(ifdBuffer);
-      buffers_.add(getPixelBuffer(img.getRawPixels()));
+      if (compressed) {
+         if (numStrips > 1) {
+            ByteBuffer stripTables = allocateByteBuffer(8 * numStrips);
+            long stripOffset = pixelOffset;
+            for (int i = 0; i < numStrips; i++) {
+               stripTables.putInt(4 * i, (int) stripOffset);
+               stripTables.putInt(4 * (numStrips + i), strips[i].length);
+               stripOffset += strips[i].length;
+            }
+            buffers_.add(stripTables);
+         }
+         for (byte[] strip : strips) {
+            buffers_.add(ByteBuffer.wrap(strip));
+         }
+         tryRecycleLargeBuffer(pixelBuffer);
+      } else {
+         buffers_.add(pixelBuffer);
+      }
       buffers_.add(getResolutionValuesBuffer());
       buffers_.add(ByteBuffer.wrap(mdBytes));
 
-      int totalBytes = 2 + numEntries * 12 + 4 + (rgb_ ? 6 : 0) + 16 + mdBytes.length
-            + bytesPerImagePixels_;
-      filePosition_ += totalBytes;
+      filePosition_ = tagDataOffset;
       firstIFD_ = false;
    }
 
+   /**
+    * Compresses the pixels as strips of rowsPerStrip_ rows, in parallel on the
+    * compression executor.
+    *
+    * @return compressed strips, or null if compression is off, or if it did
+    *     not make the image smaller (noise does not compress), in which case
+    *     the image is written uncompressed
+    */
+   private byte[][] compressStrips(ByteBuffer pixelBuffer) throws IOException {
+      if (compressionExecutor_ == null) {
+         return null;
+      }
+      int rowBytes = bytesPerImagePixels_ / imageHeight_;
+      int samplesPerPixel = rgb_ ? 3 : 1;
+      List<Future<byte[]>> futures = new ArrayList<>(numStrips_);
+      for (int i = 0; i < numStrips_; i++) {
+         final int offset = i * rowsPerStrip_ * rowBytes;
+         final int length = Math.min(rowsPerStrip_, imageHeight_ - i * rowsPerStrip_)
+               * rowBytes;
+         futures.add(compressionExecutor_.submit(() -> TiffCompression.compressStrip(
+               pixelBuffer, offset, length, rowBytes, byteDepth_, samplesPerPixel)));
+      }
+      byte[][] strips = new byte[numStrips_][];
+      long compressedBytes = 0;
+      try {
+         for (int i = 0; i < numStrips_; i++) {
+            strips[i] = futures.get(i).get();
+            compressedBytes += strips[i].length;
+         }
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new IOException("Interrupted while compressing image", e);
+      } catch (ExecutionException e) {
+         throw new IOException("Failed to compress image", e.getCause());
+      }
+      return compressedBytes < bytesPerImagePixels_ ? strips : null;
+   }
+
    private void writeIFDEntry(ByteBuffer buffer,
                               CharBuffer cBuffer,
                               char tag,
@@ -28,7 +28,6 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.ConcurrentModificationException;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -39,6 +38,8 @@ import java.util.TreeSet;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -52,6 +53,7 @@ import org.micromanager.data.Datastore;
 import org.micromanager.data.Image;
 import org.micromanager.data.Storage;
 import org.micromanager.data.SummaryMetadata;
+import org.micromanager.data.internal.CoordsIndex;
 import org.micromanager.data.internal.DefaultCoords;
 import org.micromanager.data.internal.DefaultDatastore;
 import org.micromanager.data.internal.DefaultImage;
@@ -79,6 +81,8 @@ public final class StorageMultipageTiff implements Storage {
          "generate a metadata file when saving datasets as multipage TIFF files";
    private static final String SHOULD_USE_SEPARATE_FILES_FOR_POSITIONS =
          "generate a separate multipage TIFF file for each stage position";
+   private static final String SHOULD_COMPRESS =
+         "compress multipage TIFF files losslessly";
    private static final HashSet<String> ALLOWED_AXES = new HashSet<>(
          Arrays.asList(Coords.CHANNEL, Coords.T, Coords.Z,
                Coords.STAGE_POSITION));
@@ -98,6 +102,10 @@ public final class StorageMultipageTiff implements Storage {
    private int lastFrame_ = 0;
    private int lastAcquiredPosition_ = 0;
    private ThreadPoolExecutor writingExecutor_;
+   // Compresses the pixels of images before they are queued for writing;
+   // null unless compression is switched on
+   private ExecutorService compressionExecutor_;
+   private boolean compress_ = false;
    private Image firstImage_;
 
    // Images that are currently being written. We keep them around until
@@ -112,8 +120,9 @@ public final class StorageMultipageTiff implements Storage {
 
    // Map of image Coords to files
    private Map<Coords, MultipageTiffReader> coordsToReader_;
-   private MultipageTiffReader lastReader_;
-   private Map<Coords, List<Coords>> coordsIndexedMissingC_;
+   // Last reader used by each thread, which closes its file when it moves on
+   private final ThreadLocal<MultipageTiffReader> lastReader_ = new ThreadLocal<>();
+   private final CoordsIndex coordsIndex_ = new CoordsIndex();
    // Cache the axes that are in use
    private final Set<String> axesInUse_;
    // Keeps track of our maximum extent along each axis.
@@ -125,6 +134,7 @@ public final class StorageMultipageTiff implements Storage {
          throws IOException {
       this(parent, store, dir, amInWriteMode, getShouldGenerateMetadataFile(),
             getShouldSplitPositions());
+      compress_ = getShouldCompress();
    }
 
    /**
@@ -196,6 +206,41 @@ public final class StorageMultipageTiff implements Storage {
       return writingExecutor_;
    }
 
+   /**
+    * Switches lossless compression of the pixel data (deflate with horizontal
+    * differencing) on or off.  Compression trades CPU time for disk space and
+    * bandwidth, typically 2-3 fold for 16-bit images.  Only has effect when
+    * called before the first image is written.
+    *
+    * @param compress whether to compress the pixels of the images
+    */
+   public void setCompression(boolean compress) {
+      compress_ = compress;
+   }
+
+   public boolean getCompression() {
+      return compress_;
+   }
+
+   /**
+    * Executor that compresses image strips, for the MultipageTiffWriters.
+    *
+    * @return compression executor, or null if compression is switched off
+    */
+   ExecutorService getCompressionExecutor() {
+      return compressionExecutor_;
+   }
+
+   /**
+    * Number of writing tasks waiting to be run.
+    *
+    * @return size of the writing queue; 0 before the first image is written
+    */
+   public int getWritingQueueSize() {
+      ThreadPoolExecutor executor = writingExecutor_;
+      return executor == null ? 0 : executor.getQueue().size();
+   }
+
    /**
     * Indicator of Acquisition order.  This function is difficult to name.
     * "First" means that the axis comes before another axis in the ordered axes
@@ -307,15 +352,10 @@ public final class StorageMultipageTiff implements Storage {
          }
          Set<Coords> readerCoords = reader.getIndexKeys();
          if (readerCoords != null) {
-            coordsIndexedMissingC_ = new HashMap<>();
             for (Coords coords : readerCoords) {
                coordsToReader_.put(coords, reader);
                axesInUse_.addAll(coords.getAxes());
-               final Coords coordsNoC = coords.copyRemovingAxes(Coords.C);
-               if (!coordsIndexedMissingC_.containsKey(coordsNoC)) {
-                  coordsIndexedMissingC_.put(coordsNoC, new ArrayList<>(ALLOWED_AXES.size()));
-               }
-               coordsIndexedMissingC_.get(coordsNoC).add(coords);
+               coordsIndex_.add(coords);
                lastFrameOpenedDataSet_ = Math.max(coords.getT(),
                      lastFrameOpenedDataSet_);
                if (firstImage_ == null) {
@@ -354,12 +394,7 @@ public final class StorageMultipageTiff implements Storage {
       } catch (MMException | InterruptedException | ExecutionException | IOException e) {
          ReportingUtils.showError(e, "Failed to write image at " + image.getCoords());
       }
-      // index the coords
-      Coords coordsNoC = image.getCoords().copyRemovingAxes(Coords.C);
-      if (!coordsIndexedMissingC_.containsKey(coordsNoC)) {
-         coordsIndexedMissingC_.put(coordsNoC, new ArrayList<>(ALLOWED_AXES.size()));
-      }
-      coordsIndexedMissingC_.get(coordsNoC).add(image.getCoords());
+      coordsIndex_.add(image.getCoords());
    }
 
    @Override
@@ -429,6 +464,12 @@ public final class StorageMultipageTiff implements Storage {
                new LinkedBlockingQueue<>(),
                ThreadFactoryFactory.createThreadFactory("StorageMultiPageTiff"));
       }
+      if (compress_ && compressionExecutor_ == null) {
+         // Leave a core for the acquisition and the writing thread
+         compressionExecutor_ = Executors.newFixedThreadPool(
+               Math.max(1, Runtime.getRuntime().availableProcessors() - 1),
+               ThreadFactoryFactory.createThreadFactory("StorageMultiPageTiff compression"));
+      }
       int fileSetIndex = 0;
       if (splitByXYPosition_) {
          fileSetIndex = image.getCoords().getStagePosition();
@@ -571,6 +612,9 @@ public final class StorageMultipageTiff implements Storage {
                Thread.interrupted();
             }
          }
+         if (compressionExecutor_ != null) {
+            compressionExecutor_.shutdown();
+         }
       } catch (IOException ex) {
          ReportingUtils.logError(ex);
       } finally {
@@ -599,17 +643,6 @@ public final class StorageMultipageTiff implements Storage {
       summaryMetadataString_ = NonPropertyMapJSONFormats.summaryMetadata()
             .toJSON(summary.toPropertyMap());
 
-      // setSummaryMetadata must be called before adding images to the store, so use this moment
-      // to smartly initialize several HashMaps
-      Coords dims = summaryMetadata_.getIntendedDimensions();
-      int nrImagesNoC = 1;
-      for (String axis : dims.getAxes()) {
-         if (!axis.equals(Coords.CHANNEL)) {
-            nrImagesNoC *= dims.getIndex(axis);
-         }
-      }
-      coordsIndexedMissingC_ = new HashMap<>(nrImagesNoC);
-
       // TODO: under what circumstances can coordsToReader_ already contain data?
       Map<Coords, MultipageTiffReader> oldImageMap = coordsToReader_;
       coordsToReader_ = new HashMap<>();
@@ -939,58 +972,15 @@ public final class StorageMultipageTiff implements Storage {
    @Override
    public List<Image> getImagesIgnoringAxes(Coords coords, String... ignoreTheseAxes)
          throws IOException {
-      HashSet<Image> result = new HashSet<>();
-      synchronized (coordsToPendingImage_) {
-         for (Coords imageCoords : coordsToPendingImage_.keySet()) {
-            if (coords.equals(imageCoords.copyRemovingAxes(ignoreTheseAxes))) {
-               result.add(coordsToPendingImage_.get(imageCoords));
-            }
+      // getImage() also finds images that are still being written
+      List<Image> result = new ArrayList<>();
+      for (Coords match : coordsIndex_.getMatching(coords, ignoreTheseAxes)) {
+         Image image = getImage(match);
+         if (image != null) {
+            result.add(image);
          }
       }
-      // Optimization: traversing large HashMaps is costly, so avoid that when there is no need
-      // without this, there is noticeable slowdown for one axis data > ~10,000 images.
-      // An alternative optimization approach is to keep collections of coords
-      // for all possible ignoredAxes.  There is more upfront work involved but may be
-      // needed for fast multi-camera imaging.
-      boolean haveIgnoredAxes = false;
-      for (String axis : ignoreTheseAxes) {
-         if (axesInUse_.contains(axis)) {
-            haveIgnoredAxes = true;
-            break;
-         }
-      }
-      if (!haveIgnoredAxes) {
-         result.add(coordsToReader_.get(coords).readImage(coords));
-      } else {
-         // special case: if the ignored axis is C, use a special index to find the Coords
-         // otherwise, the search will be very expensive (which will  be the case for other
-         // axes) and result in noticaeble slowodwns with large datasetsz
-         if (ignoreTheseAxes[0].equals(Coords.CHANNEL)
-               && coordsIndexedMissingC_.containsKey(coords)) {
-            for (Coords tmpCoords : coordsIndexedMissingC_.get(coords)) {
-               result.add(coordsToReader_.get(tmpCoords).readImage(tmpCoords));
-            }
-         } else {
-            // Brute force it.  This will be slow with large data sets
-            // Note that coordsToReader_ can be modified at the same time,
-            // catch ConcurrentModificationException rather than incur the cost
-            // of a lock that could slow down insertions
-            try {
-               for (Coords imageCoords : coordsToReader_.keySet()) {
-                  if (coords.equals(imageCoords.copyRemovingAxes(ignoreTheseAxes))) {
-                     try {
-                        result.add(coordsToReader_.get(imageCoords).readImage(imageCoords));
-                     } catch (IOException ex) {
-                        ReportingUtils.logError("Failed to read image at " + imageCoords);
-                     }
-                  }
-               }
-            } catch (ConcurrentModificationException cme) {
-               ReportingUtils.logError(cme, "coordsToReader_ was modified while iterating");
-            }
-         }
-      }
-      return new ArrayList<>(result);
+      return result;
    }
 
 
@@ -1007,11 +997,12 @@ public final class StorageMultipageTiff implements Storage {
       }
       try {
          MultipageTiffReader mptReader = coordsToReader_.get(coords);
-         if (!amInWriteMode_ && lastReader_ != null && mptReader != lastReader_) {
+         MultipageTiffReader lastReader = lastReader_.get();
+         if (!amInWriteMode_ && lastReader != null && mptReader != lastReader) {
             // this could be optional.  Not doing it can result in large memory leaks.
-            lastReader_.pause();
+            lastReader.pause();
          }
-         lastReader_ = mptReader;
+         lastReader_.set(mptReader);
          return mptReader.readImage(coords);
       } catch (IOException ex) {
          ReportingUtils.logError(ex, "Failed to read image at " + coords);
@@ -1081,4 +1072,14 @@ public final class StorageMultipageTiff implements Storage {
       MMStudio.getInstance().profile().getSettings(StorageMultipageTiff.class)
             .putBoolean(SHOULD_USE_SEPARATE_FILES_FOR_POSITIONS, shouldSplit);
    }
+
+   public static boolean getShouldCompress() {
+      return MMStudio.getInstance().profile().getSettings(StorageMultipageTiff.class)
+            .getBoolean(SHOULD_COMPRESS, false);
+   }
+
+   public static void setShouldCompress(boolean shouldCompress) {
+      MMStudio.getInstance().profile().getSettings(StorageMultipageTiff.class)
+            .putBoolean(SHOULD_COMPRESS, shouldCompress);
+   }
 }
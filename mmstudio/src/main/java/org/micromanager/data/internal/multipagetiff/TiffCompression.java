@@ -0,0 +1,186 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     Data API implementation
+//-----------------------------------------------------------------------------
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.data.internal.multipagetiff;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Lossless TIFF strip compression: Adobe deflate (compression 8) with
+ * horizontal differencing (predictor 2), as read by ImageJ, Fiji, and
+ * Bio-Formats.
+ *
+ * <p>Differencing replaces each sample by its difference to the same sample
+ * of the pixel to its left, which turns the smooth backgrounds of microscopy
+ * images into runs of small numbers that deflate well.  Each strip is
+ * compressed independently, so that the strips of one image can be compressed
+ * on several threads at once.</p>
+ */
+final class TiffCompression {
+   static final char PREDICTOR = 317;
+   static final char COMPRESSION_NONE = 1;
+   static final char COMPRESSION_DEFLATE = 8;
+   static final char PREDICTOR_NONE = 1;
+   static final char PREDICTOR_HORIZONTAL = 2;
+
+   // Strips of about this size keep all cores busy on typical camera images
+   private static final int TARGET_STRIP_BYTES = 1 << 17;
+
+   private static final ThreadLocal<Deflater> DEFLATERS =
+         ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+   private static final ThreadLocal<Inflater> INFLATERS =
+         ThreadLocal.withInitial(Inflater::new);
+
+   private TiffCompression() {
+   }
+
+   /**
+    * Chooses the number of rows per strip.
+    *
+    * @param rowBytes bytes in one row of pixels
+    * @param height   number of rows in the image
+    * @return rows per strip, at least 1
+    */
+   static int rowsPerStrip(int rowBytes, int height) {
+      return Math.max(1, Math.min(height, TARGET_STRIP_BYTES / Math.max(1, rowBytes)));
+   }
+
+   /**
+    * Compresses one strip.
+    *
+    * @param pixels          uncompressed pixels of the whole image, in file byte
+    *                        order; not modified
+    * @param offset          first byte of the strip in pixels
+    * @param length          number of bytes in the strip, a multiple of rowBytes
+    * @param rowBytes        bytes in one row of pixels
+    * @param bytesPerSample  1 or 2
+    * @param samplesPerPixel 1, or 3 for RGB
+    * @return compressed strip
+    */
+   static byte[] compressStrip(ByteBuffer pixels, int offset, int length, int rowBytes,
+                               int bytesPerSample, int samplesPerPixel) {
+      byte[] strip = new byte[length];
+      ByteBuffer source = pixels.duplicate();
+      source.position(offset);
+      source.get(strip);
+      difference(ByteBuffer.wrap(strip).order(pixels.order()), rowBytes, bytesPerSample,
+            samplesPerPixel);
+
+      Deflater deflater = DEFLATERS.get();
+      deflater.reset();
+      deflater.setInput(strip);
+      deflater.finish();
+      ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2 + 64);
+      byte[] chunk = new byte[Math.min(length + 64, 1 << 16)];
+      while (!deflater.finished()) {
+         int n = deflater.deflate(chunk);
+         out.write(chunk, 0, n);
+      }
+      return out.toByteArray();
+   }
+
+   /**
+    * Decompresses one strip into the pixel buffer of the image.
+    *
+    * @param src             compressed data
+    * @param srcOffset       start of the strip in src
+    * @param srcLength       number of compressed bytes
+    * @param dst             receives the pixels, in file byte order
+    * @param dstOffset       first byte of the strip in dst
+    * @param dstLength       number of uncompressed bytes in the strip
+    * @param rowBytes        bytes in one row of pixels
+    * @param bytesPerSample  1 or 2
+    * @param samplesPerPixel 1, or 3 for RGB
+    * @param predictor       PREDICTOR_NONE or PREDICTOR_HORIZONTAL
+    * @throws IOException if the data is corrupt
+    */
+   static void decompressStrip(byte[] src, int srcOffset, int srcLength, ByteBuffer dst,
+                               int dstOffset, int dstLength, int rowBytes, int bytesPerSample,
+                               int samplesPerPixel, int predictor) throws IOException {
+      byte[] strip = new byte[dstLength];
+      Inflater inflater = INFLATERS.get();
+      inflater.reset();
+      inflater.setInput(src, srcOffset, srcLength);
+      try {
+         int done = 0;
+         while (done < dstLength) {
+            int n = inflater.inflate(strip, done, dstLength - done);
+            if (n == 0 && (inflater.finished() || inflater.needsInput()
+                  || inflater.needsDictionary())) {
+               throw new IOException("Compressed strip ends after " + done + " of "
+                     + dstLength + " bytes");
+            }
+            done += n;
+         }
+      } catch (DataFormatException e) {
+         throw new IOException("Corrupt compressed strip", e);
+      }
+      ByteBuffer stripBuffer = ByteBuffer.wrap(strip).order(dst.order());
+      if (predictor == PREDICTOR_HORIZONTAL) {
+         accumulate(stripBuffer, rowBytes, bytesPerSample, samplesPerPixel);
+      } else if (predictor != PREDICTOR_NONE) {
+         throw new IOException("Unsupported TIFF predictor " + predictor);
+      }
+      ByteBuffer target = dst.duplicate();
+      target.position(dstOffset);
+      target.put(strip);
+   }
+
+   private static void difference(ByteBuffer strip, int rowBytes, int bytesPerSample,
+                                  int samplesPerPixel) {
+      int length = strip.capacity();
+      if (bytesPerSample == 1) {
+         byte[] b = strip.array();
+         for (int row = 0; row < length; row += rowBytes) {
+            for (int i = row + rowBytes - 1; i >= row + samplesPerPixel; i--) {
+               b[i] -= b[i - samplesPerPixel];
+            }
+         }
+      } else {
+         int stride = 2 * samplesPerPixel;
+         for (int row = 0; row < length; row += rowBytes) {
+            for (int i = row + rowBytes - 2; i >= row + stride; i -= 2) {
+               strip.putShort(i, (short) (strip.getShort(i) - strip.getShort(i - stride)));
+            }
+         }
+      }
+   }
+
+   private static void accumulate(ByteBuffer strip, int rowBytes, int bytesPerSample,
+                                  int samplesPerPixel) {
+      int length = strip.capacity();
+      if (bytesPerSample == 1) {
+         byte[] b = strip.array();
+         for (int row = 0; row < length; row += rowBytes) {
+            for (int i = row + samplesPerPixel; i < row + rowBytes; i++) {
+               b[i] += b[i - samplesPerPixel];
+            }
+         }
+      } else {
+         int stride = 2 * samplesPerPixel;
+         for (int row = 0; row < length; row += rowBytes) {
+            for (int i = row + stride; i < row + rowBytes; i += 2) {
+               strip.putShort(i, (short) (strip.getShort(i) + strip.getShort(i - stride)));
+            }
+         }
+      }
+   }
+}
@@ -9,7 +9,6 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Stream;
@@ -24,6 +23,7 @@ import org.micromanager.data.Image;
 import org.micromanager.data.Metadata;
 import org.micromanager.data.Storage;
 import org.micromanager.data.SummaryMetadata;
+import org.micromanager.data.internal.CoordsIndex;
 import org.micromanager.data.internal.DefaultDatastore;
 import org.micromanager.data.internal.DefaultImage;
 import org.micromanager.data.internal.DefaultMetadata;
@@ -50,12 +50,9 @@ public class NDTiffAdapter implements Storage {
    private NDTiffAPI storage_;
    private DefaultDatastore store_;
    private SummaryMetadata summaryMetadata_ = (new DefaultSummaryMetadata.Builder()).build();
-   // ShadowList of Coords in the datastore.  In read mode derived from the storage, in write mode
-   // added whenever an image is added
-   private final List<Coords> coords_;
-   // ShadowList of Coords indexed by Coords missing channel.
+   // Shadow index of the Coords in the datastore, for getImagesIgnoringAxes().
    // In read mode derived from the storage, in write mode added whenever an image is added
-   private final Map<Coords, List<Coords>> coordsIndexedMissingC_;
+   private final CoordsIndex coordsIndex_ = new CoordsIndex();
 
    /**
     * Constructor of NDTiffAdapter.
@@ -74,25 +71,14 @@ public class NDTiffAdapter implements Storage {
 
       store_.setSavePath(dir);
       store_.setName(new File(dir).getName());
-      coords_ = new ArrayList<>();
-      coordsIndexedMissingC_ = new HashMap<>();
 
       // If not writing, wait until summary metadata set to create storage
       if (!amInWriteMode) {
          storage_ = new NDTiffStorage(dir);
-         getUnorderedImageCoords().forEach(this::addCoordsToIndex);
+         getUnorderedImageCoords().forEach(coordsIndex_::add);
       }
    }
 
-   private void addCoordsToIndex(Coords coords) {
-      coords_.add(coords);
-      Coords coordMissingC = coords.copyRemovingAxes(Coords.C);
-      if (!coordsIndexedMissingC_.containsKey(coordMissingC)) {
-         coordsIndexedMissingC_.put(coordMissingC, new LinkedList<>());
-      }
-      coordsIndexedMissingC_.get(coordMissingC).add(coords);
-   }
-
    public static boolean isNDTiffDataSet(String dir) {
       return new File(dir + (dir.endsWith(File.separator)
               ? "" : File.separator) + "NDTiff.index").exists();
@@ -163,6 +149,16 @@ public class NDTiffAdapter implements Storage {
       }
    }
 
+   /**
+    * Number of images waiting to be written.
+    *
+    * @return size of the writing queue; 0 before the first image is written
+    */
+   public int getWritingQueueSize() {
+      NDTiffAPI storage = storage_;
+      return storage == null ? 0 : storage.getWritingQueueTaskSize();
+   }
+
    @Override
    public void freeze() throws IOException {
       storage_.finishedWriting();
@@ -197,7 +193,7 @@ public class NDTiffAdapter implements Storage {
       int bitDepth = image.getBytesPerPixel() * 8;
       storage_.putImage(image.getRawPixels(), json, axes, rgb, bitDepth,
               image.getHeight(), image.getWidth());
-      addCoordsToIndex(image.getCoords());
+      coordsIndex_.add(image.getCoords());
    }
 
    @Override
@@ -240,8 +236,8 @@ public class NDTiffAdapter implements Storage {
    }
 
    /**
-    * This implementation only check for an exact match. It does not actually return a list
-    * of all images that match the given coordinates, as I am not quite sure how to implement that.
+    * Returns the image at exactly the given coordinates if there is one, and
+    * otherwise all images that match the given coordinates on the axes it has.
     *
     * @param coords Coordinates specifying images to match
     * @return List of images matching the coordinates
@@ -259,6 +255,10 @@ public class NDTiffAdapter implements Storage {
          Image img = new DefaultImage(ti, hashMapToCoords(ndTiffCoords),
                  studioMetadataFromJSON(ti.tags));
          imageList.add(img);
+         return imageList;
+      }
+      for (Coords match : coordsIndex_.getMatching(coords)) {
+         imageList.add(getImage(match));
       }
       return imageList;
    }
@@ -266,36 +266,15 @@ public class NDTiffAdapter implements Storage {
    @Override
    public List<Image> getImagesIgnoringAxes(
            Coords coords, String... ignoreTheseAxes) throws IOException {
-      // This is obviously wrong, but not quite sure what to do at this point....
       if (ignoreTheseAxes.length == 0) {
          return getImagesMatching(coords);
-      } else if (ignoreTheseAxes.length == 1 && ignoreTheseAxes[0].equals(Coords.C)) {
-         Coords matchCoord = coords.copyRemovingAxes(Coords.C);
-         List<Coords> coords1 = coordsIndexedMissingC_.get(matchCoord);
-         final List<Image> result = new ArrayList<>();
-         coords1.forEach(coords2 -> {
-            try {
-               result.add(getImagesMatching(coords2).get(0));
-            } catch (IOException e) {
-               throw new RuntimeException(e);
-            }
-         });
-         return result;
-      } else {
-         Coords matchCoord = coords.copyRemovingAxes(ignoreTheseAxes);
-         final List<Image> result = new ArrayList<>();
-         getUnorderedImageCoords().iterator().forEachRemaining(
-               coords1 -> {
-                  if (coords1.copyRemovingAxes(ignoreTheseAxes).equals(matchCoord)) {
-                     try {
-                        result.add(getImage(coords1));
-                     } catch (IOException e) {
-                        throw new RuntimeException(e);
-                     }
-                  }
-               });
-         return result;
       }
+      Coords matchCoord = coords.copyRemovingAxes(ignoreTheseAxes);
+      final List<Image> result = new ArrayList<>();
+      for (Coords match : coordsIndex_.getMatching(matchCoord, ignoreTheseAxes)) {
+         result.add(getImage(match));
+      }
+      return result;
    }
 
    @Override
@@ -22,6 +22,8 @@ package org.micromanager.data.internal.pipeline;
 
 import java.io.IOException;
 import java.util.concurrent.CountDownLatch;
+import org.micromanager.acquisition.AcquisitionTelemetry;
+import org.micromanager.acquisition.internal.DefaultAcquisitionTelemetry;
 import org.micromanager.data.Datastore;
 import org.micromanager.data.Image;
 import org.micromanager.data.Processor;
@@ -35,12 +37,15 @@ public abstract class BaseContext implements ProcessorContext {
    protected Datastore store_;
    protected DefaultPipeline parent_;
    protected CountDownLatch flushLatch_;
+   private final String telemetryStage_;
 
    public BaseContext(Processor processor, Datastore store,
                       DefaultPipeline parent) {
       processor_ = processor;
       store_ = store;
       parent_ = parent;
+      telemetryStage_ = AcquisitionTelemetry.PROCESSOR_PREFIX
+            + processor.getClass().getSimpleName();
    }
 
    /**
@@ -49,6 +54,8 @@ public abstract class BaseContext implements ProcessorContext {
     */
    @Override
    public void outputImage(Image image) {
+      DefaultAcquisitionTelemetry.getInstance().record(telemetryStage_, store_,
+            image.getCoords());
       if (sink_ == null) {
          // Send the image to the Datastore.
          try {
@@ -511,7 +511,8 @@ public class IntensityInspectorPanelController
       detachDataViewer();
       viewer_ = viewer;
       viewer.registerForEvents(this);
-      viewer.getDataProvider().registerForEvents(this);
+      // We only need to know which channels exist, not see every image.
+      viewer.getDataProvider().registerForCoalescedImageEvents(this, 8, Coords.CHANNEL);
       SwingUtilities.invokeLater(() -> {
          if (viewer_ == null) {
             return;
@@ -35,6 +35,8 @@ import java.util.concurrent.RunnableFuture;
 import java.util.concurrent.atomic.AtomicInteger;
 import javax.swing.SwingUtilities;
 import org.micromanager.Studio;
+import org.micromanager.acquisition.AcquisitionTelemetry;
+import org.micromanager.acquisition.internal.DefaultAcquisitionTelemetry;
 import org.micromanager.data.Coordinates;
 import org.micromanager.data.Coords;
 import org.micromanager.data.DataProvider;
@@ -425,6 +427,13 @@ public final class DisplayController extends DisplayWindowAPIAdapter
                uiController_.setImageInfoLabel(images);
             }
 
+            if (imagesDiffer) {
+               for (Image image : images.getRequest().getImages()) {
+                  DefaultAcquisitionTelemetry.getInstance().record(
+                        AcquisitionTelemetry.DISPLAYED, dataProvider_, image.getCoords());
+               }
+            }
+
             postEvent(DefaultDisplayDidShowImageEvent.create(
                   DisplayController.this,
                   images.getRequest().getImages(),
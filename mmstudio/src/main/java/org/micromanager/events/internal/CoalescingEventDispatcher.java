@@ -0,0 +1,161 @@
+package org.micromanager.events.internal;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import javax.swing.SwingUtilities;
+
+/**
+ * Delivers events on the EDT in batches, keeping only the latest event for
+ * each key within a time window.
+ *
+ * <p>Devices that stream stage positions or change properties rapidly can
+ * send many more notifications than the UI can show.  Events posted with a
+ * key replace a pending event with the same key (for instance the position
+ * of the same stage), so that subscribers only see the latest value.  Events
+ * posted without a key are never dropped.  Events are delivered in the order
+ * in which their key was first posted in the window, and events posted
+ * without a key are delivered after all events posted before them.</p>
+ */
+public final class CoalescingEventDispatcher {
+   private final Consumer<Object> deliverer_;
+   private final Executor edt_;
+   private final ScheduledExecutorService scheduler_ =
+         Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "Core event dispatcher");
+            thread.setDaemon(true);
+            return thread;
+         });
+   private final Object lock_ = new Object();
+   // Guarded by lock_
+   private Map<Object, Object> pending_ = new LinkedHashMap<>();
+   private boolean flushScheduled_ = false;
+   private volatile long windowMs_;
+   private final AtomicLong received_ = new AtomicLong();
+   private final AtomicLong delivered_ = new AtomicLong();
+
+   /**
+    * Creates a dispatcher that delivers on the EDT.
+    *
+    * @param deliverer Called on the EDT with each event, normally posts it
+    *                  on the Studio event bus
+    * @param windowMs Time in ms during which events with the same key are
+    *                 coalesced; 0 delivers every event
+    */
+   public CoalescingEventDispatcher(Consumer<Object> deliverer, long windowMs) {
+      this(deliverer, SwingUtilities::invokeLater, windowMs);
+   }
+
+   CoalescingEventDispatcher(Consumer<Object> deliverer, Executor edt, long windowMs) {
+      deliverer_ = deliverer;
+      edt_ = edt;
+      windowMs_ = windowMs;
+   }
+
+   /**
+    * Posts an event that replaces any pending event with the same key.
+    *
+    * @param key Identifies what the event is about, e.g. a device and property;
+    *            must implement equals and hashCode
+    * @param event The event
+    */
+   public void post(Object key, Object event) {
+      received_.incrementAndGet();
+      if (windowMs_ <= 0) {
+         edt_.execute(() -> deliver(event));
+         return;
+      }
+      synchronized (lock_) {
+         pending_.put(key, event);
+         if (!flushScheduled_) {
+            flushScheduled_ = true;
+            scheduler_.schedule(() -> edt_.execute(this::flush), windowMs_,
+                  TimeUnit.MILLISECONDS);
+         }
+      }
+   }
+
+   /**
+    * Posts an event that is never coalesced.  Events that are pending are
+    * delivered first.
+    *
+    * @param event The event
+    */
+   public void post(Object event) {
+      received_.incrementAndGet();
+      boolean hasPending;
+      synchronized (lock_) {
+         hasPending = !pending_.isEmpty();
+         if (hasPending) {
+            // Unique key, delivered along with (and after) the pending events
+            pending_.put(new Object(), event);
+         }
+      }
+      if (hasPending) {
+         edt_.execute(this::flush);
+      } else {
+         edt_.execute(() -> deliver(event));
+      }
+   }
+
+   /**
+    * Delivers all pending events; must be called on the thread events are
+    * delivered on.
+    */
+   void flush() {
+      Map<Object, Object> batch;
+      synchronized (lock_) {
+         if (pending_.isEmpty()) {
+            flushScheduled_ = false;
+            return;
+         }
+         batch = pending_;
+         pending_ = new LinkedHashMap<>();
+         flushScheduled_ = false;
+      }
+      for (Object event : batch.values()) {
+         deliver(event);
+      }
+   }
+
+   private void deliver(Object event) {
+      delivered_.incrementAndGet();
+      deliverer_.accept(event);
+   }
+
+   /**
+    * @param windowMs Time in ms during which events with the same key are
+    *                 coalesced; 0 delivers every event
+    */
+   public void setWindowMs(long windowMs) {
+      windowMs_ = windowMs;
+   }
+
+   public long getWindowMs() {
+      return windowMs_;
+   }
+
+   /**
+    * @return Number of events posted
+    */
+   public long getReceivedCount() {
+      return received_.get();
+   }
+
+   /**
+    * @return Number of events delivered; the difference with the number
+    *         received is the number replaced by newer ones, or still pending
+    */
+   public long getDeliveredCount() {
+      return delivered_.get();
+   }
+
+   public void shutdown() {
+      scheduler_.shutdownNow();
+   }
+}
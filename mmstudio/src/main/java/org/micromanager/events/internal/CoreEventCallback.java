@@ -22,7 +22,7 @@
 package org.micromanager.events.internal;
 
 import java.awt.geom.AffineTransform;
-import javax.swing.SwingUtilities;
+import java.util.Arrays;
 import mmcorej.CMMCore;
 import mmcorej.MMEventCallback;
 import org.micromanager.Studio;
@@ -31,14 +31,20 @@ import org.micromanager.acquisition.AcquisitionManager;
 /**
  * Callback to update Java layer when a change happens in the MMCore. This
  * posts events on the EventManager's event bus.
- * Callbacks are all issued on the EDT to avoid deadlock
+ * Callbacks are all issued on the EDT to avoid deadlock.  Stage position,
+ * property and exposure changes of the same device arriving within a short
+ * window are coalesced into the latest one.
  */
 public final class CoreEventCallback extends MMEventCallback {
+   // About one display refresh
+   private static final long DEFAULT_COALESCING_WINDOW_MS = 20;
 
    private final CMMCore core_;
    private final Studio studio_;
    private final AcquisitionManager acquisitionManager_;
    private volatile boolean ignoreCoreEvents_;
+   // Delivers events on the EDT, coalescing chatty stages and properties
+   private final CoalescingEventDispatcher dispatcher_;
 
    /**
     * Receives Callbacks from the core and translates them into events posted
@@ -54,6 +60,8 @@ public final class CoreEventCallback extends MMEventCallback {
       studio_ = studio;
       core_ = studio.core();
       acquisitionManager_ = acquisitionManager;
+      dispatcher_ = new CoalescingEventDispatcher(studio_.events()::post,
+            DEFAULT_COALESCING_WINDOW_MS);
       core_.registerCallback(this);
    }
 
@@ -68,15 +76,16 @@ public final class CoreEventCallback extends MMEventCallback {
          core_.logMessage("Notification from MMCore!", true);
          core_.updateSystemStateCache();
          // see OnPropertyChanged for reasons to run this on the EDT
-         SwingUtilities.invokeLater(() -> studio_.events().post(
-               new DefaultPropertiesChangedEvent()));
+         dispatcher_.post(new DefaultPropertiesChangedEvent());
       }
    }
 
    @Override
    public void onPropertyChanged(String deviceName, String propName, String propValue) {
-      core_.logMessage("Notification for Device: " + deviceName + " Property: "
-            + propName + " changed to value: " + propValue, true);
+      if (core_.debugLogEnabled()) {
+         core_.logMessage("Notification for Device: " + deviceName + " Property: "
+               + propName + " changed to value: " + propValue, true);
+      }
       // Not running this on the EDT causes rare deadlocks, for instance:
       // user stops or starts live mode while a callback is received will
       // result in deadlock.  Hopefully, always running this on the EDT
@@ -84,11 +93,12 @@ public final class CoreEventCallback extends MMEventCallback {
       // To avoid a callback on the EDT calling back into the Core, resulting
       // in further callbacks, always run this through invokeLater,
       // (see https://github.com/micro-manager/micro-manager/issues/498)
+      // Changes of the same property are coalesced, see CoalescingEventDispatcher.
       if (ignoreCoreEvents_) {
          core_.logMessage("Notification from MMCore ignored", true);
       } else {
-         SwingUtilities.invokeLater(() -> studio_.events().post(
-               new DefaultPropertyChangedEvent(deviceName, propName, propValue)));
+         dispatcher_.post(Arrays.asList("Property", deviceName, propName),
+               new DefaultPropertyChangedEvent(deviceName, propName, propValue));
       }
    }
 
@@ -97,8 +107,7 @@ public final class CoreEventCallback extends MMEventCallback {
       if (ignoreCoreEvents_) {
          core_.logMessage("Notification from MMCore ignored", true);
       } else {
-         SwingUtilities.invokeLater(() -> studio_.events().post(
-               new DefaultChannelGroupChangedEvent(newChannelGroupName)));
+         dispatcher_.post(new DefaultChannelGroupChangedEvent(newChannelGroupName));
       }
    }
 
@@ -108,8 +117,7 @@ public final class CoreEventCallback extends MMEventCallback {
          core_.logMessage("Notification from MMCore ignored", true);
       } else {
          // see OnPropertyChanged for reasons to run this on the EDT
-         SwingUtilities.invokeLater(() -> studio_.events().post(
-               new DefaultConfigGroupChangedEvent(studio_, groupName, newConfig)));
+         dispatcher_.post(new DefaultConfigGroupChangedEvent(studio_, groupName, newConfig));
       }
    }
 
@@ -119,8 +127,7 @@ public final class CoreEventCallback extends MMEventCallback {
          core_.logMessage("Notification from MMCore ignored", true);
       } else {
          // see OnPropertyChanged for reasons to run this on the EDT
-         SwingUtilities.invokeLater(() -> studio_.events().post(
-               new DefaultSystemConfigurationLoadedEvent()));
+         dispatcher_.post(new DefaultSystemConfigurationLoadedEvent());
       }
    }
 
@@ -130,8 +137,7 @@ public final class CoreEventCallback extends MMEventCallback {
          core_.logMessage("Notification from MMCore ignored", true);
       } else {
          // see OnPropertyChanged for reasons to run this on the EDT
-         SwingUtilities.invokeLater(() -> studio_.events().post(
-               new DefaultPixelSizeChangedEvent(newPixelSizeUm)));
+         dispatcher_.post(new DefaultPixelSizeChangedEvent(newPixelSizeUm));
       }
    }
 
@@ -144,8 +150,7 @@ public final class CoreEventCallback extends MMEventCallback {
          double[] flatMatrix = {npa0, npa1, npa2, npa3, npa4, npa5};
          AffineTransform newPixelSizeAffine = new AffineTransform(flatMatrix);
          // see OnPropertyChanged for reasons to run this on the EDT
-         SwingUtilities.invokeLater(() -> studio_.events().post(
-               new DefaultPixelSizeAffineChangedEvent(newPixelSizeAffine)));
+         dispatcher_.post(new DefaultPixelSizeAffineChangedEvent(newPixelSizeAffine));
       }
    }
 
@@ -155,8 +160,8 @@ public final class CoreEventCallback extends MMEventCallback {
          core_.logMessage("Notification from MMCore ignored", true);
       } else {
          // see OnPropertyChanged for reasons to run this on the EDT
-         SwingUtilities.invokeLater(() -> studio_.events().post(
-               new DefaultStagePositionChangedEvent(deviceName, pos)));
+         dispatcher_.post(Arrays.asList("Stage", deviceName),
+               new DefaultStagePositionChangedEvent(deviceName, pos));
       }
    }
 
@@ -166,8 +171,8 @@ public final class CoreEventCallback extends MMEventCallback {
          core_.logMessage("Notification from MMCore ignored", true);
       } else {
          // see OnPropertyChanged for reasons to run this on the EDT
-         SwingUtilities.invokeLater(() -> studio_.events().post(
-               new DefaultXYStagePositionChangedEvent(deviceName, xPos, yPos)));
+         dispatcher_.post(Arrays.asList("XYStage", deviceName),
+               new DefaultXYStagePositionChangedEvent(deviceName, xPos, yPos));
       }
    }
 
@@ -177,8 +182,8 @@ public final class CoreEventCallback extends MMEventCallback {
          core_.logMessage("Notification from MMCore ignored", true);
       } else {
          // see OnPropertyChanged for reasons to run this on the EDT
-         SwingUtilities.invokeLater(() -> studio_.events().post(
-               new DefaultExposureChangedEvent(deviceName, exposure)));
+         dispatcher_.post(Arrays.asList("Exposure", deviceName),
+               new DefaultExposureChangedEvent(deviceName, exposure));
       }
    }
 
@@ -188,12 +193,22 @@ public final class CoreEventCallback extends MMEventCallback {
          core_.logMessage("Notification from MMCore ignored", true);
       } else {
          // see OnPropertyChanged for reasons to run this on the EDT
-         SwingUtilities.invokeLater(() -> studio_.events().post(
-               new DefaultSLMExposureChangedEvent(deviceName, exposure)));
+         dispatcher_.post(Arrays.asList("SLMExposure", deviceName),
+               new DefaultSLMExposureChangedEvent(deviceName, exposure));
       }
    }
 
    public void setIgnoring(boolean isIgnoring) {
       ignoreCoreEvents_ = isIgnoring;
    }
+
+   /**
+    * Gives access to the window in which notifications are coalesced, and to
+    * the numbers of notifications received and delivered.
+    *
+    * @return The dispatcher delivering our events
+    */
+   public CoalescingEventDispatcher getDispatcher() {
+      return dispatcher_;
+   }
 }
\ No newline at end of file
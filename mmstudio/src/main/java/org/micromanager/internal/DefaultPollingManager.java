@@ -0,0 +1,504 @@
+package org.micromanager.internal;
+
+import com.google.common.eventbus.Subscribe;
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import mmcorej.CMMCore;
+import org.micromanager.PollingManager;
+import org.micromanager.events.PropertyChangedEvent;
+import org.micromanager.events.StagePositionChangedEvent;
+import org.micromanager.events.XYStagePositionChangedEvent;
+import org.micromanager.internal.utils.ReportingUtils;
+
+/**
+ * Default implementation of the PollingManager API.
+ *
+ * <p>A single thread reads all items.  Each item is read at the highest rate
+ * requested by its subscribers; items that become due within a quarter of
+ * their period are read in the same pass, so that items with similar rates
+ * line up instead of waking the thread separately.  Values that arrive
+ * through Core notifications are cached like polled values, and postpone the
+ * next read of the item.</p>
+ */
+public final class DefaultPollingManager implements PollingManager {
+   private static final long BATCH_SLACK_DIVISOR = 4;
+
+   /**
+    * Reads values from the devices; replaced in tests.
+    */
+   interface DeviceReader {
+      String readProperty(String device, String property) throws Exception;
+
+      double readPosition(String stage) throws Exception;
+
+      double[] readXYPosition(String xyStage) throws Exception;
+   }
+
+   private enum Kind {
+      PROPERTY, STAGE, XY_STAGE
+   }
+
+   private final DeviceReader reader_;
+   private final boolean useThread_;
+   private final Object lock_ = new Object();
+   // Guarded by lock_
+   private final Map<Key, Item> items_ = new HashMap<>();
+   private Thread thread_;
+   private boolean woken_ = false;
+   private boolean shutdown_ = false;
+
+   /**
+    * Creates a polling manager that reads from the given Core.
+    *
+    * @param core The Core
+    */
+   public DefaultPollingManager(final CMMCore core) {
+      this(new DeviceReader() {
+         @Override
+         public String readProperty(String device, String property) throws Exception {
+            return core.getProperty(device, property);
+         }
+
+         @Override
+         public double readPosition(String stage) throws Exception {
+            return core.getPosition(stage);
+         }
+
+         @Override
+         public double[] readXYPosition(String xyStage) throws Exception {
+            Point2D.Double xy = core.getXYStagePosition(xyStage);
+            return new double[] {xy.x, xy.y};
+         }
+      }, true);
+   }
+
+   // Tests pass useThread = false, and call pollDue() themselves
+   DefaultPollingManager(DeviceReader reader, boolean useThread) {
+      reader_ = reader;
+      useThread_ = useThread;
+   }
+
+   @Override
+   public Subscription subscribeProperty(String device, String property, double maxRateHz,
+                                         Listener listener) {
+      return subscribe(new Key(Kind.PROPERTY, device, property), maxRateHz, listener);
+   }
+
+   @Override
+   public Subscription subscribeStagePosition(String stage, double maxRateHz,
+                                              Listener listener) {
+      return subscribe(new Key(Kind.STAGE, stage, null), maxRateHz, listener);
+   }
+
+   @Override
+   public Subscription subscribeXYStagePosition(String xyStage, double maxRateHz,
+                                                Listener listener) {
+      return subscribe(new Key(Kind.XY_STAGE, xyStage, null), maxRateHz, listener);
+   }
+
+   @Override
+   public Value getLatestProperty(String device, String property) {
+      return getLatest(new Key(Kind.PROPERTY, device, property));
+   }
+
+   @Override
+   public Value getLatestStagePosition(String stage) {
+      return getLatest(new Key(Kind.STAGE, stage, null));
+   }
+
+   @Override
+   public Value getLatestXYStagePosition(String xyStage) {
+      return getLatest(new Key(Kind.XY_STAGE, xyStage, null));
+   }
+
+   private Value getLatest(Key key) {
+      synchronized (lock_) {
+         Item item = items_.get(key);
+         return item == null ? null : item.latest_;
+      }
+   }
+
+   private Subscription subscribe(Key key, double maxRateHz, Listener listener) {
+      if (!(maxRateHz > 0.0)) {
+         throw new IllegalArgumentException("Invalid polling rate: " + maxRateHz);
+      }
+      if (listener == null) {
+         throw new NullPointerException("Listener is null");
+      }
+      DefaultSubscription subscription = new DefaultSubscription(key,
+            Math.max(1L, (long) (1e9 / maxRateHz)), listener);
+      Value latest;
+      synchronized (lock_) {
+         if (shutdown_) {
+            throw new IllegalStateException("Polling has been shut down");
+         }
+         Item item = items_.get(key);
+         if (item == null) {
+            item = new Item(key);
+            items_.put(key, item);
+         }
+         item.subscriptions_.add(subscription);
+         long oldPeriod = item.periodNs_;
+         item.updatePeriod();
+         if (item.latest_ == null || item.periodNs_ < oldPeriod) {
+            // Read soon, instead of waiting for the rest of a longer period
+            item.nextDueNs_ = System.nanoTime();
+         }
+         latest = item.latest_;
+         startThreadIfNeeded();
+         wake();
+      }
+      if (latest != null) {
+         notifyListener(listener, latest);
+      }
+      return subscription;
+   }
+
+   private void startThreadIfNeeded() {
+      if (useThread_ && thread_ == null) {
+         thread_ = new Thread(this::pollLoop, "Device polling thread");
+         thread_.setDaemon(true);
+         thread_.start();
+      }
+   }
+
+   private void wake() {
+      woken_ = true;
+      lock_.notifyAll();
+   }
+
+   private void pollLoop() {
+      try {
+         while (true) {
+            long nextDueNs = pollDue(System.nanoTime());
+            synchronized (lock_) {
+               if (shutdown_) {
+                  return;
+               }
+               if (!woken_) {
+                  if (nextDueNs == Long.MAX_VALUE) {
+                     lock_.wait();
+                  } else {
+                     long waitNs = nextDueNs - System.nanoTime();
+                     if (waitNs > 0) {
+                        TimeUnit.NANOSECONDS.timedWait(lock_, waitNs);
+                     }
+                  }
+               }
+               woken_ = false;
+            }
+         }
+      } catch (InterruptedException e) {
+         // Shutting down
+      }
+   }
+
+   /**
+    * Reads all items that are due, or nearly due.
+    *
+    * @param nowNs Current time, as in System.nanoTime()
+    * @return Time at which the next item is due, or Long.MAX_VALUE if nothing
+    *         is polled
+    */
+   long pollDue(long nowNs) {
+      List<Item> due = new ArrayList<>();
+      synchronized (lock_) {
+         for (Item item : items_.values()) {
+            if (item.nextDueNs_ - nowNs <= item.periodNs_ / BATCH_SLACK_DIVISOR) {
+               due.add(item);
+               item.readsStarted_++;
+               item.nextDueNs_ = nowNs + item.periodNs_;
+            }
+         }
+      }
+      for (Item item : due) {
+         read(item);
+         synchronized (lock_) {
+            item.readsDone_++;
+            lock_.notifyAll();
+         }
+      }
+      synchronized (lock_) {
+         long next = Long.MAX_VALUE;
+         for (Item item : items_.values()) {
+            next = Math.min(next, item.nextDueNs_);
+         }
+         return next;
+      }
+   }
+
+   private void read(Item item) {
+      Key key = item.key_;
+      DefaultValue value;
+      try {
+         switch (key.kind_) {
+            case PROPERTY:
+               value = new DefaultValue(key, reader_.readProperty(key.device_, key.property_),
+                     null);
+               break;
+            case STAGE:
+               value = new DefaultValue(key, null,
+                     new double[] {reader_.readPosition(key.device_)});
+               break;
+            default:
+               value = new DefaultValue(key, null, reader_.readXYPosition(key.device_));
+               break;
+         }
+      } catch (Exception e) {
+         // Log failures once, not at every poll
+         if (!item.failing_) {
+            item.failing_ = true;
+            ReportingUtils.logError(e, "Failed to poll " + key);
+         }
+         for (DefaultSubscription subscription : item.subscriptions_) {
+            try {
+               subscription.listener_.onReadFailed(key.device_, e);
+            } catch (RuntimeException listenerError) {
+               ReportingUtils.logError(listenerError, "Polling listener failed");
+            }
+         }
+         return;
+      }
+      item.failing_ = false;
+      publish(item, value);
+   }
+
+   private void publish(Item item, DefaultValue value) {
+      // Serializes notifications from the polling thread and from Core callbacks
+      synchronized (item) {
+         DefaultValue previous = item.latest_;
+         item.latest_ = value;
+         if (previous != null && previous.sameAs(value)) {
+            return;
+         }
+         for (DefaultSubscription subscription : item.subscriptions_) {
+            notifyListener(subscription.listener_, value);
+         }
+      }
+   }
+
+   private static void notifyListener(Listener listener, Value value) {
+      try {
+         listener.onValueChanged(value);
+      } catch (RuntimeException e) {
+         ReportingUtils.logError(e, "Polling listener failed");
+      }
+   }
+
+   /**
+    * Uses a value reported by the Core, and postpones the next read of the item.
+    */
+   private void onNotified(Key key, String text, double[] position) {
+      Item item;
+      synchronized (lock_) {
+         item = items_.get(key);
+         if (item == null) {
+            return;
+         }
+         item.nextDueNs_ = System.nanoTime() + item.periodNs_;
+      }
+      publish(item, new DefaultValue(key, text, position));
+   }
+
+   @Subscribe
+   public void onPropertyChanged(PropertyChangedEvent event) {
+      onNotified(new Key(Kind.PROPERTY, event.getDevice(), event.getProperty()),
+            event.getValue(), null);
+   }
+
+   @Subscribe
+   public void onStagePositionChanged(StagePositionChangedEvent event) {
+      onNotified(new Key(Kind.STAGE, event.getDeviceName(), null), null,
+            new double[] {event.getPos()});
+   }
+
+   @Subscribe
+   public void onXYStagePositionChanged(XYStagePositionChangedEvent event) {
+      onNotified(new Key(Kind.XY_STAGE, event.getDeviceName(), null), null,
+            new double[] {event.getXPos(), event.getYPos()});
+   }
+
+   /**
+    * Stops polling; called when the application shuts down.
+    */
+   public void shutdown() {
+      Thread thread;
+      synchronized (lock_) {
+         shutdown_ = true;
+         items_.clear();
+         thread = thread_;
+         wake();
+      }
+      if (thread != null) {
+         thread.interrupt();
+      }
+   }
+
+   private static final class Key {
+      private final Kind kind_;
+      private final String device_;
+      private final String property_;
+
+      Key(Kind kind, String device, String property) {
+         kind_ = kind;
+         device_ = device;
+         property_ = property;
+      }
+
+      @Override
+      public boolean equals(Object other) {
+         if (!(other instanceof Key)) {
+            return false;
+         }
+         Key key = (Key) other;
+         return kind_ == key.kind_ && Objects.equals(device_, key.device_)
+               && Objects.equals(property_, key.property_);
+      }
+
+      @Override
+      public int hashCode() {
+         return Objects.hash(kind_, device_, property_);
+      }
+
+      @Override
+      public String toString() {
+         return property_ == null ? device_ + " position" : device_ + "-" + property_;
+      }
+   }
+
+   private static final class Item {
+      private final Key key_;
+      private final List<DefaultSubscription> subscriptions_ = new CopyOnWriteArrayList<>();
+      // Guarded by lock_
+      private long periodNs_ = Long.MAX_VALUE;
+      private long nextDueNs_;
+      // Reads started by pollDue(), and reads finished
+      private long readsStarted_ = 0;
+      private long readsDone_ = 0;
+      // Only accessed from the polling thread
+      private boolean failing_ = false;
+      private volatile DefaultValue latest_;
+
+      Item(Key key) {
+         key_ = key;
+      }
+
+      void updatePeriod() {
+         long period = Long.MAX_VALUE;
+         for (DefaultSubscription subscription : subscriptions_) {
+            period = Math.min(period, subscription.periodNs_);
+         }
+         periodNs_ = period;
+      }
+   }
+
+   private final class DefaultSubscription implements Subscription {
+      private final Key key_;
+      private final long periodNs_;
+      private final Listener listener_;
+
+      DefaultSubscription(Key key, long periodNs, Listener listener) {
+         key_ = key;
+         periodNs_ = periodNs;
+         listener_ = listener;
+      }
+
+      @Override
+      public void cancel() {
+         synchronized (lock_) {
+            Item item = items_.get(key_);
+            if (item == null || !item.subscriptions_.remove(this)) {
+               return;
+            }
+            if (item.subscriptions_.isEmpty()) {
+               items_.remove(key_);
+            } else {
+               item.updatePeriod();
+            }
+            // Release readNow() callers waiting for an item that is gone
+            lock_.notifyAll();
+         }
+      }
+
+      @Override
+      public boolean readNow(long timeoutMs) throws InterruptedException {
+         long deadlineNs = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+         synchronized (lock_) {
+            Item item = items_.get(key_);
+            if (item == null || !item.subscriptions_.contains(this)) {
+               return false;
+            }
+            // A read that is under way may have started before this call
+            long needed = item.readsStarted_ + 1;
+            item.nextDueNs_ = System.nanoTime();
+            wake();
+            while (item.readsDone_ < needed) {
+               if (shutdown_ || items_.get(key_) != item) {
+                  return false;
+               }
+               long waitNs = deadlineNs - System.nanoTime();
+               if (waitNs <= 0) {
+                  return false;
+               }
+               TimeUnit.NANOSECONDS.timedWait(lock_, waitNs);
+            }
+            return true;
+         }
+      }
+   }
+
+   private static final class DefaultValue implements Value {
+      private final Key key_;
+      private final String value_;
+      private final double[] position_;
+      private final long timestampMs_ = System.currentTimeMillis();
+
+      DefaultValue(Key key, String value, double[] position) {
+         key_ = key;
+         value_ = value;
+         position_ = position;
+      }
+
+      boolean sameAs(DefaultValue other) {
+         return Objects.equals(value_, other.value_)
+               && Arrays.equals(position_, other.position_);
+      }
+
+      @Override
+      public String getDevice() {
+         return key_.device_;
+      }
+
+      @Override
+      public String getProperty() {
+         return key_.property_;
+      }
+
+      @Override
+      public String getValue() {
+         return value_;
+      }
+
+      @Override
+      public double[] getPosition() {
+         return position_ == null ? null : position_.clone();
+      }
+
+      @Override
+      public long getTimestampMs() {
+         return timestampMs_;
+      }
+
+      @Override
+      public String toString() {
+         return key_ + " = " + (value_ != null ? value_ : Arrays.toString(position_));
+      }
+   }
+}
@@ -51,6 +51,7 @@ import org.micromanager.AutofocusManager;
 import org.micromanager.CompatibilityInterface;
 import org.micromanager.LogManager;
 import org.micromanager.PluginManager;
+import org.micromanager.PollingManager;
 import org.micromanager.PositionListManager;
 import org.micromanager.PropertyManager;
 import org.micromanager.ScriptController;
@@ -139,6 +140,7 @@ public final class MMStudio implements Studio {
    private final DefaultApplication defaultApplication_;
    private final DefaultCompatibilityInterface compatibility_;
    private final PropertyManager propertyManager_;
+   private final DefaultPollingManager pollingManager_;
 
    // Local Classes
    private final MMSettings settings_ = new MMSettings();
@@ -316,6 +318,9 @@ public final class MMStudio implements Studio {
 
       propertyManager_ = new DefaultPropertyManager();
 
+      pollingManager_ = new DefaultPollingManager(core_);
+      events().registerForEvents(pollingManager_);
+
       initializeLogging(core_); // Tell Core to start logging
 
       // We need to be subscribed to the global event bus for plugin loading
@@ -759,6 +764,10 @@ public final class MMStudio implements Studio {
          // Currently there is no shutdown method for AcqEngJ
       }
 
+      if (pollingManager_ != null) {
+         pollingManager_.shutdown();
+      }
+
       synchronized (shutdownLock_) {
          EDTHangLogger.stopDefault();
 
@@ -1211,6 +1220,16 @@ public final class MMStudio implements Studio {
       return propertyManager_;
    }
 
+   @Override
+   public PollingManager polling() {
+      return pollingManager_;
+   }
+
+   @Override
+   public PollingManager getPollingManager() {
+      return polling();
+   }
+
    public UiMovesStageManager getUiMovesStageManager() {
       return uiMovesStageManager_;
    }
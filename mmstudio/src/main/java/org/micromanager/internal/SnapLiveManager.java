@@ -22,18 +22,18 @@ import java.awt.Dimension;
 import java.awt.Insets;
 import java.awt.event.ActionEvent;
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.swing.JButton;
 import javax.swing.JComponent;
 import javax.swing.SwingUtilities;
@@ -41,6 +41,7 @@ import mmcorej.CMMCore;
 import mmcorej.TaggedImage;
 import mmcorej.org.json.JSONException;
 import mmcorej.org.json.JSONObject;
+import org.micromanager.acquisition.internal.DefaultAcquisitionTelemetry;
 import org.micromanager.data.Coordinates;
 import org.micromanager.data.Coords;
 import org.micromanager.data.DatastoreFrozenException;
@@ -51,7 +52,9 @@ import org.micromanager.data.NewPipelineEvent;
 import org.micromanager.data.Pipeline;
 import org.micromanager.data.PipelineErrorException;
 import org.micromanager.data.internal.DefaultImage;
+import org.micromanager.data.internal.DefaultMetadata;
 import org.micromanager.data.internal.DefaultRewritableDatastore;
+import org.micromanager.data.internal.PixelType;
 import org.micromanager.data.internal.PropertyKey;
 import org.micromanager.data.internal.StorageRAM;
 import org.micromanager.display.ChannelDisplaySettings;
@@ -128,9 +131,31 @@ public final class SnapLiveManager extends DataViewerListener
 
    private final PerformanceMonitor perfMon_ =
          PerformanceMonitor.createWithTimeConstantMs(1000.0);
+
+   // Live frames waiting for the EDT, by channel; newer frames replace older ones
+   private final Map<Integer, LiveFrame> pendingFrames_ = new ConcurrentHashMap<>();
+   private final AtomicBoolean displayScheduled_ = new AtomicBoolean(false);
+   // Only used by the grab thread
+   private final mmcorej.Metadata liveTags_ = new mmcorej.Metadata();
+   private volatile boolean fullLiveMetadata_ = false;
    private DisplayInfo displayInfo_;
    private final Object displayInfoLock_;
 
+   private static final class LiveFrame {
+      private final Image image_;
+      private final int channel_;
+      private final long grabbedNs_;
+      // How long before grabbing the Core received the image, or -1 when unknown
+      private final long coreAgeNs_;
+
+      private LiveFrame(Image image, int channel, long grabbedNs, long coreAgeNs) {
+         image_ = image;
+         channel_ = channel;
+         grabbedNs_ = grabbedNs;
+         coreAgeNs_ = coreAgeNs;
+      }
+   }
+
    private static class DisplayInfo {
       private int width_;
       private int height_;
@@ -393,8 +418,9 @@ public final class SnapLiveManager extends DataViewerListener
    }
 
    /**
-    * This method takes images out of the Core and inserts them into our
-    * pipeline.
+    * This method takes images out of the Core and hands them to the display.
+    * It does not wait for the display: frames wait in pendingFrames_, where a
+    * newer frame replaces one of the same channel that was not displayed yet.
     */
    private void grabAndAddImages(String camName, final long liveModeCount) {
       try {
@@ -404,58 +430,27 @@ public final class SnapLiveManager extends DataViewerListener
          // but it's what we've historically used.
          HashSet<Integer> channelsSet = new HashSet<>();
          for (int c = 0; c < 6 * numCameraChannels_; ++c) {
-            TaggedImage tagged;
+            LiveFrame frame;
             try {
-               tagged = core_.getNBeforeLastTaggedImage(c);
-               perfMon_.sampleTimeInterval("getNBeforeLastTaggedImage");
+               frame = fullLiveMetadata_ ? grabTaggedFrame(c, camName)
+                     : grabFrame(c, camName);
+               perfMon_.sampleTimeInterval("getNBeforeLastImage");
                perfMon_.sample("No image in sequence buffer (%)", 0.0);
+            } catch (JSONException e) {
+               throw e;
             } catch (Exception e) {
                // No image in the sequence buffer.
                perfMon_.sample("No image in sequence buffer (%)", 100.0);
                continue;
             }
-            JSONObject tags = tagged.tags;
-            int imageChannel = c;
-            if ((numCameraChannels_ > 1) && tags.has(camName + "-CameraChannelIndex")) {
-               imageChannel = tags.getInt(camName + "-CameraChannelIndex");
-            }
-            if (channelsSet.contains(imageChannel)) {
+            if (channelsSet.contains(frame.channel_)) {
                // Already provided a more recent version of this channel.
                continue;
             }
-            DefaultImage image = new DefaultImage(tagged);
-            final Long seqNr = image.getMetadata().getImageNumber();
             perfMon_.sample("Image missing ImageNumber (%)",
-                  seqNr == null ? 100.0 : 0.0);
-            Coords newCoords = image.getCoords().copyBuilder()
-                  .t(0)
-                  .c(imageChannel).build();
-            // Generate a new UUID for the image, so that our histogram
-            // update code realizes this is a new image.
-            Metadata newMetadata = image.getMetadata().copyBuilderWithNewUUID()
-                  .build();
-            final Image newImage = image.copyWith(newCoords, newMetadata);
-
-            try {
-               SwingUtilities.invokeAndWait(() -> {
-                  synchronized (SnapLiveManager.this) {
-                     if (scheduledGrab_ == null
-                           || liveModeStartCount_ != liveModeCount) {
-                        throw new CancellationException();
-                     }
-                  }
-                  displayImage(newImage);
-               });
-
-            } catch (InterruptedException unexpected) {
-               Thread.currentThread().interrupt();
-            } catch (InvocationTargetException e) {
-               if (e.getCause() instanceof CancellationException) {
-                  return;
-               }
-               throw new RuntimeException(e.getCause());
-            }
-            channelsSet.add(imageChannel);
+                  frame.image_.getMetadata().getImageNumber() == null ? 100.0 : 0.0);
+            publishFrame(frame, liveModeCount);
+            channelsSet.add(frame.channel_);
             if (channelsSet.size() == numCameraChannels_) {
                // Got every channel.
                break;
@@ -466,6 +461,128 @@ public final class SnapLiveManager extends DataViewerListener
       }
    }
 
+   /**
+    * Fetches an image with all its tags, and converts them to metadata.
+    */
+   private LiveFrame grabTaggedFrame(int n, String camName) throws Exception {
+      TaggedImage tagged = core_.getNBeforeLastTaggedImage(n);
+      long grabbedNs = System.nanoTime();
+      JSONObject tags = tagged.tags;
+      int imageChannel = n;
+      if ((numCameraChannels_ > 1) && tags.has(camName + "-CameraChannelIndex")) {
+         imageChannel = tags.getInt(camName + "-CameraChannelIndex");
+      }
+      long coreAgeNs = DefaultAcquisitionTelemetry.coreTimeAgeNs(
+            tags.optString(DefaultAcquisitionTelemetry.CORE_TIME_KEY));
+      DefaultImage image = new DefaultImage(tagged);
+      Coords newCoords = image.getCoords().copyBuilder()
+            .t(0)
+            .c(imageChannel).build();
+      // A new UUID is generated when the image is displayed, so that our
+      // histogram update code realizes this is a new image.
+      return new LiveFrame(image.copyAtCoords(newCoords), imageChannel, grabbedNs, coreAgeNs);
+   }
+
+   /**
+    * Fetches an image, and reads only the few tags live mode needs, without
+    * converting the tags to JSON and back.  The pixels from the Core are
+    * used as they are; they are never copied.
+    */
+   private LiveFrame grabFrame(int n, String camName) throws Exception {
+      Object pixels = core_.getNBeforeLastImageMD(n, liveTags_);
+      long grabbedNs = System.nanoTime();
+      try {
+         PixelType pixelType = PixelType.valueOf(liveTag(PropertyKey.PIXEL_TYPE.key()));
+         int imageChannel = n;
+         String channelIndex = numCameraChannels_ > 1
+               ? liveTag(camName + "-CameraChannelIndex") : null;
+         if (channelIndex != null) {
+            imageChannel = Integer.parseInt(channelIndex);
+         }
+         String width = liveTag(PropertyKey.WIDTH.key());
+         String height = liveTag(PropertyKey.HEIGHT.key());
+         String imageNumber = liveTag(PropertyKey.IMAGE_NUMBER.key());
+         String elapsed = liveTag(PropertyKey.ELAPSED_TIME_MS.key());
+         String camera = liveTag(PropertyKey.CAMERA.key());
+         String coreTime = liveTag(DefaultAcquisitionTelemetry.CORE_TIME_KEY);
+         Metadata metadata = new DefaultMetadata.Builder()
+               .camera(camera == null ? camName : camera)
+               .imageNumber(imageNumber == null ? null : Long.valueOf(imageNumber))
+               .elapsedTimeMs(elapsed == null ? null : Double.valueOf(elapsed))
+               .build();
+         Image image = new DefaultImage(pixels,
+               width == null ? (int) core_.getImageWidth() : Integer.parseInt(width),
+               height == null ? (int) core_.getImageHeight() : Integer.parseInt(height),
+               pixelType.getBytesPerPixel(), pixelType.getNumberOfComponents(),
+               Coordinates.builder().t(0).c(imageChannel).build(), metadata);
+         return new LiveFrame(image, imageChannel, grabbedNs,
+               coreTime == null ? -1 : DefaultAcquisitionTelemetry.coreTimeAgeNs(coreTime));
+      } catch (IllegalArgumentException | NullPointerException e) {
+         // Pixel type or tags that we can not handle without the full tags
+         return grabTaggedFrame(n, camName);
+      }
+   }
+
+   private String liveTag(String key) {
+      if (!liveTags_.HasTag(key)) {
+         return null;
+      }
+      return liveTags_.GetSingleTag(key).GetValue();
+   }
+
+   /**
+    * Hands a frame to the display, replacing a frame of the same channel that
+    * was not displayed yet.  Never waits for the EDT.
+    */
+   private void publishFrame(LiveFrame frame, final long liveModeCount) {
+      LiveFrame superseded = pendingFrames_.put(frame.channel_, frame);
+      perfMon_.sample("Live frames replaced before display (%)",
+            superseded == null ? 0.0 : 100.0);
+      if (displayScheduled_.compareAndSet(false, true)) {
+         SwingUtilities.invokeLater(() -> displayPendingFrames(liveModeCount));
+      }
+   }
+
+   @MustCallOnEDT
+   private void displayPendingFrames(long liveModeCount) {
+      displayScheduled_.set(false);
+      synchronized (this) {
+         if (scheduledGrab_ == null || liveModeStartCount_ != liveModeCount) {
+            pendingFrames_.clear();
+            return;
+         }
+      }
+      for (Integer channel : pendingFrames_.keySet()) {
+         LiveFrame frame = pendingFrames_.remove(channel);
+         if (frame == null) {
+            continue;
+         }
+         displayImage(frame.image_);
+         long waitedNs = System.nanoTime() - frame.grabbedNs_;
+         perfMon_.sample("Live grab to display (ms)", waitedNs / 1.0e6);
+         if (frame.coreAgeNs_ >= 0) {
+            perfMon_.sample("Live camera to display (ms)",
+                  (frame.coreAgeNs_ + waitedNs) / 1.0e6);
+         }
+      }
+   }
+
+   /**
+    * When true, live mode reads all tags of every image and converts them to
+    * metadata, instead of only the few tags it needs.  This is slower, and
+    * off by default.  The hardware state (from the Core's system state
+    * cache) is added to live images either way.
+    *
+    * @param full true to give live images all their tags as metadata
+    */
+   public void setFullLiveMetadata(boolean full) {
+      fullLiveMetadata_ = full;
+   }
+
+   public boolean isFullLiveMetadata() {
+      return fullLiveMetadata_;
+   }
+
    @Override
    public boolean isLiveModeOn() {
       return isLiveOn_;
@@ -247,6 +247,12 @@ public final class OptionsDlg extends JDialog {
             StorageMultipageTiff.setShouldSplitPositions(
                   separateFilesForPositionsMPTiffCheckBox.isSelected()));
 
+      final JCheckBox compressMPTiffCheckBox = new JCheckBox();
+      compressMPTiffCheckBox.setText("Compress Image Stack Files (lossless, uses more CPU)");
+      compressMPTiffCheckBox.setSelected(StorageMultipageTiff.getShouldCompress());
+      compressMPTiffCheckBox.addActionListener((ActionEvent arg0) ->
+            StorageMultipageTiff.setShouldCompress(compressMPTiffCheckBox.isSelected()));
+
       final JCheckBox syncExposureMainAndMDA = new JCheckBox();
       syncExposureMainAndMDA.setText("Sync exposure between Main and MDA windows");
       syncExposureMainAndMDA.setSelected(AcqControlDlg.getShouldSyncExposure());
@@ -316,6 +322,7 @@ public final class OptionsDlg extends JDialog {
 
       super.add(metadataFileWithMultipageTiffCheckBox, "wrap");
       super.add(separateFilesForPositionsMPTiffCheckBox, "wrap");
+      super.add(compressMPTiffCheckBox, "wrap");
 
       super.add(new JSeparator(), "wrap");
 
@@ -33,9 +33,12 @@ import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
@@ -43,6 +46,7 @@ import javax.swing.JScrollPane;
 import javax.swing.JTable;
 import javax.swing.ListSelectionModel;
 import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 import javax.swing.table.TableCellRenderer;
@@ -62,6 +66,7 @@ import org.micromanager.display.internal.event.DataViewerWillCloseEvent;
 import org.micromanager.events.StagePositionChangedEvent;
 import org.micromanager.events.XYStagePositionChangedEvent;
 import org.micromanager.internal.MMStudio;
+import org.micromanager.internal.positionlist.utils.PositionOrderOptimizer;
 import org.micromanager.internal.utils.DaytimeNighttime;
 import org.micromanager.internal.utils.EventBusExceptionLogger;
 import org.micromanager.internal.utils.FileDialogs;
@@ -304,6 +309,15 @@ public class PositionListDlg extends JFrame implements MouseListener, ChangeList
       offsetButton.setToolTipText("Add an offset to the selected positions.");
       add(offsetButton);
 
+      final JButton optimizeButton = posListButton(buttonSize, arialSmallFont_);
+      optimizeButton.addActionListener(arg0 -> optimizePositionOrder(optimizeButton));
+      optimizeButton.setIcon(new ImageIcon(MMStudio.class.getResource(
+            "/org/micromanager/icons/empty.png")));
+      optimizeButton.setText("Optimize Order");
+      optimizeButton.setToolTipText(
+            "Re-orders the positions to reduce stage travel during acquisition");
+      add(optimizeButton);
+
       final JButton removeAllButton = posListButton(buttonSize, arialSmallFont_);
       removeAllButton.addActionListener(arg0 -> {
          int ret = JOptionPane.showConfirmDialog(PositionListDlg.this,
@@ -1171,6 +1185,67 @@ public class PositionListDlg extends JFrame implements MouseListener, ChangeList
       new OffsetPositionsDialog(this, core_);
    }
 
+   /**
+    * Re-orders the positions so that the stages travel less, after asking the
+    * user whether positions in the same well should be kept together.  The
+    * optimization can take seconds, so it runs on a copy of the positions in
+    * the background; the new order is only applied if the positions were not
+    * changed in the meantime.
+    *
+    * @param optimizeButton button that started the optimization, disabled
+    *                       while it runs
+    */
+   private void optimizePositionOrder(JButton optimizeButton) {
+      final PositionList positions = getPositionList();
+      if (positions.getNumberOfPositions() < 3) {
+         return;
+      }
+      JCheckBox groupByWell = new JCheckBox("Keep positions in the same well together");
+      int ret = JOptionPane.showConfirmDialog(this,
+            new Object[] {"Re-order the positions to reduce stage travel?", groupByWell},
+            "Optimize position order", JOptionPane.OK_CANCEL_OPTION);
+      if (ret != JOptionPane.OK_OPTION) {
+         return;
+      }
+      final PositionList snapshot = PositionList.newInstance(positions);
+      final boolean byWell = groupByWell.isSelected();
+      optimizeButton.setEnabled(false);
+      new SwingWorker<PositionOrderOptimizer.Result, Object>() {
+         @Override
+         public PositionOrderOptimizer.Result doInBackground() {
+            return PositionOrderOptimizer.optimize(snapshot,
+                  byWell ? PositionOrderOptimizer.wellGrouping() : null);
+         }
+
+         @Override
+         public void done() {
+            optimizeButton.setEnabled(true);
+            PositionOrderOptimizer.Result result;
+            try {
+               result = get();
+            } catch (InterruptedException | ExecutionException e) {
+               ReportingUtils.showError(e, "Failed to optimize the position order",
+                     PositionListDlg.this);
+               return;
+            }
+            if (!Arrays.equals(snapshot.getPositions(), positions.getPositions())) {
+               studio_.logs().showMessage("The positions were changed while the order "
+                     + "was being optimized; their order was not changed.",
+                     PositionListDlg.this);
+               return;
+            }
+            positions.setPositions(result.getPositionList().getPositions());
+            updatePositionData();
+            double original = result.getOriginalTravelUm();
+            studio_.logs().showMessage(String.format(
+                  "Estimated stage travel went from %.0f to %.0f \u00B5m (%.0f%% less).",
+                  original, result.getOptimizedTravelUm(),
+                  original > 0 ? 100.0 * result.getSavedTravelUm() / original : 0.0),
+                  PositionListDlg.this);
+         }
+      }.execute();
+   }
+
    /**
     * Given a device (either a StageDevice or XYStageDevice) and a Vector
     * of floats, apply the given offsets to all selected positions for that
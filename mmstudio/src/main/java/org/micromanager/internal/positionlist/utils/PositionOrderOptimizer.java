@@ -0,0 +1,328 @@
+package org.micromanager.internal.positionlist.utils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import org.micromanager.MultiStagePosition;
+import org.micromanager.PositionList;
+import org.micromanager.StagePosition;
+
+/**
+ * Re-orders the positions of a PositionList to reduce the distance the stages
+ * travel during a multi-position acquisition.
+ *
+ * <p>The order is built with a nearest neighbour tour, which is then improved
+ * with 2-opt moves.  The tour starts at the first position of the list, and
+ * does not return to it.  The travel between two positions is the sum of
+ * the distances moved by each stage they have in common: Euclidean for XY
+ * stages, absolute for focus (Z) stages.
+ *
+ * <p>Positions can be grouped (for instance by well): the groups are visited
+ * one after the other, in an order that is optimized in the same way, and
+ * the positions within each group are ordered starting from the one closest
+ * to where the previous group ended.
+ */
+public final class PositionOrderOptimizer {
+   // 2-opt is O(n^2) per pass; stop improving when this time has been used.
+   private static final long MAX_OPTIMIZATION_MS = 3000;
+
+   private PositionOrderOptimizer() {
+   }
+
+   /**
+    * Outcome of an optimization.
+    */
+   public static final class Result {
+      private final PositionList positionList_;
+      private final double originalTravelUm_;
+      private final double optimizedTravelUm_;
+
+      private Result(PositionList positionList, double originalTravelUm,
+                     double optimizedTravelUm) {
+         positionList_ = positionList;
+         originalTravelUm_ = originalTravelUm;
+         optimizedTravelUm_ = optimizedTravelUm;
+      }
+
+      /**
+       * Copy of the input positions, in the optimized order.
+       *
+       * @return re-ordered position list
+       */
+      public PositionList getPositionList() {
+         return positionList_;
+      }
+
+      /**
+       * Estimated stage travel when visiting the positions in the original order.
+       *
+       * @return travel distance in microns
+       */
+      public double getOriginalTravelUm() {
+         return originalTravelUm_;
+      }
+
+      /**
+       * Estimated stage travel when visiting the positions in the optimized order.
+       *
+       * @return travel distance in microns
+       */
+      public double getOptimizedTravelUm() {
+         return optimizedTravelUm_;
+      }
+
+      /**
+       * Estimated reduction in stage travel.
+       *
+       * @return saved travel distance in microns
+       */
+      public double getSavedTravelUm() {
+         return originalTravelUm_ - optimizedTravelUm_;
+      }
+   }
+
+   /**
+    * Groups positions by well, using the labels generated by the HCS site
+    * generator ("well-site", e.g. "A1-Site_0").  Positions without such a
+    * label each form their own group.
+    *
+    * @return function mapping a position to its well label
+    */
+   public static Function<MultiStagePosition, String> wellGrouping() {
+      return msp -> {
+         String label = msp.getLabel();
+         int dash = label == null ? -1 : label.indexOf('-');
+         return dash > 0 ? label.substring(0, dash) : label;
+      };
+   }
+
+   /**
+    * Determines a visiting order with less stage travel.  The input is not
+    * changed.  When no shorter order is found, the original order is kept.
+    *
+    * @param positions Positions to order
+    * @param grouping Maps each position to the group it belongs to, or null to
+    *                 order all positions freely
+    * @return the re-ordered positions and the estimated travel distances
+    */
+   public static Result optimize(PositionList positions,
+                                 Function<MultiStagePosition, String> grouping) {
+      MultiStagePosition[] msps = positions.getPositions();
+      final int n = msps.length;
+
+      Map<String, List<Integer>> groups = new LinkedHashMap<>();
+      for (int i = 0; i < n; i++) {
+         String key = grouping == null ? "" : String.valueOf(grouping.apply(msps[i]));
+         groups.computeIfAbsent(key, k -> new ArrayList<>()).add(i);
+      }
+      List<int[]> members = new ArrayList<>();
+      for (List<Integer> group : groups.values()) {
+         members.add(group.stream().mapToInt(Integer::intValue).toArray());
+      }
+      Travel travel = new Travel(msps, members);
+      long deadline = System.currentTimeMillis() + MAX_OPTIMIZATION_MS;
+
+      // Order the groups by their centroids, starting with the group of the first position
+      int[] groupOrder = new int[members.size()];
+      for (int g = 0; g < groupOrder.length; g++) {
+         groupOrder[g] = n + g;
+      }
+      groupOrder = nearestNeighbour(groupOrder, travel);
+      twoOpt(groupOrder, travel, deadline);
+
+      int[] order = new int[n];
+      int count = 0;
+      for (int centroid : groupOrder) {
+         int[] group = members.get(centroid - n).clone();
+         if (count > 0) {
+            // Start with the position closest to where the previous group ended
+            int closest = 0;
+            for (int i = 1; i < group.length; i++) {
+               if (travel.distance(order[count - 1], group[i])
+                     < travel.distance(order[count - 1], group[closest])) {
+                  closest = i;
+               }
+            }
+            int tmp = group[0];
+            group[0] = group[closest];
+            group[closest] = tmp;
+         }
+         group = nearestNeighbour(group, travel);
+         twoOpt(group, travel, deadline);
+         System.arraycopy(group, 0, order, count, group.length);
+         count += group.length;
+      }
+
+      int[] original = new int[n];
+      for (int i = 0; i < n; i++) {
+         original[i] = i;
+      }
+      double originalTravel = travel.length(original);
+      double optimizedTravel = travel.length(order);
+      if (optimizedTravel >= originalTravel) {
+         order = original;
+         optimizedTravel = originalTravel;
+      }
+
+      MultiStagePosition[] ordered = new MultiStagePosition[n];
+      for (int i = 0; i < n; i++) {
+         ordered[i] = MultiStagePosition.newInstance(msps[order[i]]);
+      }
+      PositionList result = new PositionList();
+      result.setPositions(ordered);
+      return new Result(result, originalTravel, optimizedTravel);
+   }
+
+   /**
+    * Greedy tour through the nodes, starting at the first one.
+    */
+   private static int[] nearestNeighbour(int[] nodes, Travel travel) {
+      int[] tour = nodes.clone();
+      for (int i = 1; i < tour.length; i++) {
+         int best = i;
+         double bestDistance = travel.distance(tour[i - 1], tour[i]);
+         for (int j = i + 1; j < tour.length; j++) {
+            double d = travel.distance(tour[i - 1], tour[j]);
+            if (d < bestDistance) {
+               best = j;
+               bestDistance = d;
+            }
+         }
+         int tmp = tour[i];
+         tour[i] = tour[best];
+         tour[best] = tmp;
+      }
+      return tour;
+   }
+
+   /**
+    * Improves an open tour in place by reversing segments, as long as that
+    * shortens it.  The first node stays in place.
+    */
+   private static void twoOpt(int[] tour, Travel travel, long deadline) {
+      final int n = tour.length;
+      boolean improved = true;
+      while (improved && System.currentTimeMillis() < deadline) {
+         improved = false;
+         for (int i = 0; i < n - 2; i++) {
+            int a = tour[i];
+            for (int j = i + 2; j < n; j++) {
+               int b = tour[i + 1];
+               int c = tour[j];
+               // Replace edges a-b and c-d by a-c and b-d (no d at the end of the tour)
+               double delta = travel.distance(a, c) - travel.distance(a, b);
+               if (j + 1 < n) {
+                  int d = tour[j + 1];
+                  delta += travel.distance(b, d) - travel.distance(c, d);
+               }
+               if (delta < -1.0e-9) {
+                  reverse(tour, i + 1, j);
+                  improved = true;
+               }
+            }
+            if (System.currentTimeMillis() >= deadline) {
+               return;
+            }
+         }
+      }
+   }
+
+   private static void reverse(int[] tour, int from, int to) {
+      while (from < to) {
+         int tmp = tour[from];
+         tour[from++] = tour[to];
+         tour[to--] = tmp;
+      }
+   }
+
+   /**
+    * Stage coordinates of all positions (followed by the centroids of the
+    * groups), laid out per stage so that distances are cheap to compute.
+    */
+   private static final class Travel {
+      private final List<String> stages_ = new ArrayList<>();
+      private final boolean[] is2D_;
+      // [stage][node]; y is only used for XY stages
+      private final double[][] x_;
+      private final double[][] y_;
+      private final boolean[][] present_;
+
+      Travel(MultiStagePosition[] msps, List<int[]> groups) {
+         List<Boolean> is2D = new ArrayList<>();
+         for (MultiStagePosition msp : msps) {
+            for (int k = 0; k < msp.size(); k++) {
+               StagePosition sp = msp.get(k);
+               if (!stages_.contains(sp.getStageDeviceLabel())) {
+                  stages_.add(sp.getStageDeviceLabel());
+                  is2D.add(sp.is2DStagePosition());
+               }
+            }
+         }
+         is2D_ = new boolean[is2D.size()];
+         for (int s = 0; s < is2D_.length; s++) {
+            is2D_[s] = is2D.get(s);
+         }
+         int nrNodes = msps.length + groups.size();
+         x_ = new double[stages_.size()][nrNodes];
+         y_ = new double[stages_.size()][nrNodes];
+         present_ = new boolean[stages_.size()][nrNodes];
+         for (int i = 0; i < msps.length; i++) {
+            for (int k = 0; k < msps[i].size(); k++) {
+               StagePosition sp = msps[i].get(k);
+               int s = stages_.indexOf(sp.getStageDeviceLabel());
+               if (sp.is2DStagePosition()) {
+                  x_[s][i] = sp.get2DPositionX();
+                  y_[s][i] = sp.get2DPositionY();
+               } else {
+                  x_[s][i] = sp.get1DPosition();
+               }
+               present_[s][i] = true;
+            }
+         }
+         for (int g = 0; g < groups.size(); g++) {
+            int node = msps.length + g;
+            for (int s = 0; s < stages_.size(); s++) {
+               int nr = 0;
+               for (int i : groups.get(g)) {
+                  if (present_[s][i]) {
+                     x_[s][node] += x_[s][i];
+                     y_[s][node] += y_[s][i];
+                     nr++;
+                  }
+               }
+               if (nr > 0) {
+                  x_[s][node] /= nr;
+                  y_[s][node] /= nr;
+                  present_[s][node] = true;
+               }
+            }
+         }
+      }
+
+      double distance(int a, int b) {
+         double sum = 0.0;
+         for (int s = 0; s < x_.length; s++) {
+            if (present_[s][a] && present_[s][b]) {
+               double dx = x_[s][a] - x_[s][b];
+               if (is2D_[s]) {
+                  double dy = y_[s][a] - y_[s][b];
+                  sum += Math.sqrt(dx * dx + dy * dy);
+               } else {
+                  sum += Math.abs(dx);
+               }
+            }
+         }
+         return sum;
+      }
+
+      double length(int[] tour) {
+         double sum = 0.0;
+         for (int i = 1; i < tour.length; i++) {
+            sum += distance(tour[i - 1], tour[i]);
+         }
+         return sum;
+      }
+   }
+}
@@ -90,22 +90,14 @@ public final class TileCreator {
          }
       }
 
-      ZGenerator zGen = null;
+      ZGeneratorSurface zGen = null;
       if (zStages == null) {
          zStages = new StrVector();
       }
       if (zStages.size() > 0) {
          PositionList posList = new PositionList();
          posList.setPositions(endPoints);
-         switch (zType) {
-            case SHEPINTERPOLATE:
-               zGen = new ZGeneratorShepard(posList);
-               break;
-            case AVERAGE:
-            default:
-               zGen = new ZGeneratorAverage(posList);
-               break;
-         }
+         zGen = new ZGeneratorSurface(posList, zType);
       }
 
 
@@ -157,6 +149,12 @@ public final class TileCreator {
       double offsetXUm = (totalSizeXUm - boundingXUm) / 2;
       double offsetYUm = (totalSizeYUm - boundingYUm) / 2;
 
+      if (zGen != null) {
+         // Interpolate at all tile positions at once; look-ups below are then cheap
+         zGen.precompute(minX - offsetXUm, minY - offsetYUm, tileSizeXUm, tileSizeYUm,
+               nrImagesX, nrImagesY);
+      }
+
       PositionList posList = new PositionList();
       // todo handle mirrorX mirrorY
       for (int y = 0; y < nrImagesY; y++) {
@@ -258,15 +256,7 @@ public final class TileCreator {
       if (!zStages.isEmpty()) {
          PositionList posList = new PositionList();
          posList.setPositions(endPoints);
-         switch (zType) {
-            case SHEPINTERPOLATE:
-               zGen = new ZGeneratorShepard(posList);
-               break;
-            case AVERAGE:
-            default:
-               zGen = new ZGeneratorAverage(posList);
-               break;
-         }
+         zGen = new ZGeneratorSurface(posList, zType);
       }
 
       // Calculate a bounding rectangle around the defaultXYStage positions
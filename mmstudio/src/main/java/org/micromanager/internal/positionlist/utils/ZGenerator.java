@@ -29,7 +29,8 @@ package org.micromanager.internal.positionlist.utils;
 public interface ZGenerator {
    enum Type {
       SHEPINTERPOLATE("Weighted Interpolation"),
-      AVERAGE("Average");
+      AVERAGE("Average"),
+      TRIANGULATE("Triangulated Interpolation");
       public final String description_;
 
       Type(String description) {
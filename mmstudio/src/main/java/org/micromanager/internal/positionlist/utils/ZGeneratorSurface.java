@@ -0,0 +1,76 @@
+package org.micromanager.internal.positionlist.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.micromanager.MultiStagePosition;
+import org.micromanager.PositionList;
+import org.micromanager.StagePosition;
+
+/**
+ * Generates Z positions from a ZSurface for each single axis stage in a
+ * position list.  After calling precompute, positions on the given grid are
+ * looked up instead of interpolated.
+ */
+class ZGeneratorSurface implements ZGenerator {
+   private final ZGenerator.Type type_;
+   private final Map<String, ZSurface> surfaces_ = new HashMap<>(5);
+   private final Map<String, ZSurface.Grid> grids_ = new HashMap<>(5);
+
+   /**
+    * Constructor.
+    *
+    * @param positionList Calibration positions; the single axis stages of the
+    *                     first position are used
+    * @param type How to interpolate between the calibration positions
+    */
+   public ZGeneratorSurface(PositionList positionList, ZGenerator.Type type) {
+      type_ = type;
+      final int nPositions = positionList.getNumberOfPositions();
+      double[] x = new double[nPositions];
+      double[] y = new double[nPositions];
+      for (int p = 0; p < nPositions; p++) {
+         MultiStagePosition msp = positionList.getPosition(p);
+         x[p] = msp.getX();
+         y[p] = msp.getY();
+      }
+      MultiStagePosition msp0 = positionList.getPosition(0);
+      for (int a = 0; a < msp0.size(); a++) {
+         StagePosition sp = msp0.get(a);
+         if (sp.is1DStagePosition()) {
+            double[] z = new double[nPositions];
+            for (int p = 0; p < nPositions; p++) {
+               z[p] = positionList.getPosition(p).get(a).get1DPosition();
+            }
+            surfaces_.put(sp.getStageDeviceLabel(), new ZSurface(x, y, z, type));
+         }
+      }
+   }
+
+   /**
+    * Evaluates the surfaces of all stages on a regular grid, so that later
+    * calls to getZ cost constant time.
+    *
+    * @see ZSurface#sample
+    */
+   public void precompute(double originX, double originY, double stepX, double stepY,
+                          int nrX, int nrY) {
+      for (Map.Entry<String, ZSurface> entry : surfaces_.entrySet()) {
+         grids_.put(entry.getKey(),
+               entry.getValue().sample(originX, originY, stepX, stepY, nrX, nrY));
+      }
+   }
+
+   @Override
+   public double getZ(double x, double y, String zDevice) {
+      ZSurface.Grid grid = grids_.get(zDevice);
+      if (grid != null) {
+         return grid.getZ(x, y);
+      }
+      return surfaces_.get(zDevice).getZ(x, y);
+   }
+
+   @Override
+   public String getDescription() {
+      return type_.toString();
+   }
+}
@@ -0,0 +1,580 @@
+package org.micromanager.internal.positionlist.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+/**
+ * Focus surface through a set of calibration points (x, y, z), that can be
+ * queried for the z position at any (x, y).
+ *
+ * <p>Three modes are supported (see {@link ZGenerator.Type}):
+ * <ul>
+ * <li>SHEPINTERPOLATE: Shepard (inverse distance weighted) interpolation using
+ * all calibration points.</li>
+ * <li>AVERAGE: the average z of all calibration points.</li>
+ * <li>TRIANGULATE: linear interpolation in the Delaunay triangulation (TIN) of
+ * the calibration points, i.e., the z position is taken from the plane through
+ * the three calibration points surrounding (x, y).  Outside of the convex hull
+ * of the points, and when the points do not span a plane, Shepard
+ * interpolation is used.</li>
+ * </ul>
+ *
+ * <p>Direct queries cost O(n) in the number of calibration points for Shepard
+ * interpolation, and are constant time (on average) for the other modes.  When
+ * the surface needs to be known at many positions, for instance at each tile
+ * of a large mosaic, use {@link #sample} to evaluate it once on a regular grid
+ * (in parallel), after which look-ups are constant time.
+ *
+ * <p>Instances are immutable and can be used from multiple threads.
+ */
+public final class ZSurface {
+   private static final double DEFAULT_EXPONENT = 2.0;
+   // Distance (in um) within which a query returns the z of a calibration point
+   private static final double EPSILON = 0.001;
+
+   private final ZGenerator.Type type_;
+   private final double[] x_;
+   private final double[] y_;
+   private final double[] z_;
+   private final double exponent_;
+   private final double average_;
+   private final Triangulation triangulation_;
+
+   /**
+    * Creates a surface using an exponent of 2 for Shepard interpolation.
+    *
+    * @param x x positions of the calibration points
+    * @param y y positions of the calibration points
+    * @param z z positions of the calibration points
+    * @param type How to interpolate between the calibration points
+    */
+   public ZSurface(double[] x, double[] y, double[] z, ZGenerator.Type type) {
+      this(x, y, z, type, DEFAULT_EXPONENT);
+   }
+
+   /**
+    * Creates a surface.
+    *
+    * @param x x positions of the calibration points
+    * @param y y positions of the calibration points
+    * @param z z positions of the calibration points
+    * @param type How to interpolate between the calibration points
+    * @param exponent Radial weighting exponent used in Shepard interpolation
+    */
+   public ZSurface(double[] x, double[] y, double[] z, ZGenerator.Type type,
+                   double exponent) {
+      if (x.length != y.length || x.length != z.length) {
+         throw new IllegalArgumentException("x, y and z should have the same length");
+      }
+      if (x.length == 0) {
+         throw new IllegalArgumentException("At least one calibration point is needed");
+      }
+      type_ = type;
+      x_ = x.clone();
+      y_ = y.clone();
+      z_ = z.clone();
+      exponent_ = exponent;
+      double sum = 0.0;
+      for (double zi : z_) {
+         sum += zi;
+      }
+      average_ = sum / z_.length;
+      Triangulation triangulation = null;
+      if (type_ == ZGenerator.Type.TRIANGULATE) {
+         triangulation = Triangulation.create(x_, y_, z_);
+      }
+      triangulation_ = triangulation;
+   }
+
+   public ZGenerator.Type getType() {
+      return type_;
+   }
+
+   public int getNumberOfPoints() {
+      return x_.length;
+   }
+
+   /**
+    * Calculates the z position of the surface at the given position.
+    *
+    * @param x x position
+    * @param y y position
+    * @return z position of the surface
+    */
+   public double getZ(double x, double y) {
+      switch (type_) {
+         case AVERAGE:
+            return average_;
+         case TRIANGULATE:
+            if (triangulation_ != null) {
+               double z = triangulation_.interpolate(x, y);
+               if (!Double.isNaN(z)) {
+                  return z;
+               }
+            }
+            return shepard(x, y);
+         case SHEPINTERPOLATE:
+         default:
+            return shepard(x, y);
+      }
+   }
+
+   /**
+    * Angle between the normal of the surface and the vertical.  Only known for
+    * triangulated surfaces, within the triangulation.
+    *
+    * @param x x position
+    * @param y y position
+    * @return angle in degrees, between 0 and 90, or 0 when unknown
+    */
+   public double getNormalAngle(double x, double y) {
+      if (triangulation_ == null) {
+         return 0.0;
+      }
+      double[] plane = triangulation_.findPlane(x, y);
+      if (plane == null) {
+         return 0.0;
+      }
+      return Math.toDegrees(Math.atan(Math.hypot(plane[0], plane[1])));
+   }
+
+   /**
+    * Determines where this surface differs from another one, for instance one
+    * made before a calibration point was added or removed.  Only precomputed
+    * values within this area need to be updated.
+    *
+    * <p>For triangulated surfaces this is the area of the triangles that
+    * differ, and is only valid within the triangulations (inside the convex
+    * hull of the calibration points).  For the other modes any change of the
+    * calibration points affects the whole surface.
+    *
+    * @param other Surface to compare with
+    * @return {minX, minY, maxX, maxY} of the area that differs, or null when
+    *          the surfaces are the same
+    */
+   public double[] getChangedRegion(ZSurface other) {
+      if (type_ == other.type_ && exponent_ == other.exponent_ && Arrays.equals(x_, other.x_)
+            && Arrays.equals(y_, other.y_) && Arrays.equals(z_, other.z_)) {
+         return null;
+      }
+      if (triangulation_ != null && other.triangulation_ != null) {
+         return triangulation_.changedRegion(other.triangulation_);
+      }
+      return new double[] {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY,
+            Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+   }
+
+   /**
+    * Evaluates the surface on a regular grid, using all available processors.
+    * The grid nodes are at (originX + col * stepX, originY + row * stepY).
+    *
+    * @param originX x position of the first grid node
+    * @param originY y position of the first grid node
+    * @param stepX distance between grid nodes in x
+    * @param stepY distance between grid nodes in y
+    * @param nrX number of grid nodes in x
+    * @param nrY number of grid nodes in y
+    * @return Grid holding the z position of the surface at each node
+    */
+   public Grid sample(double originX, double originY, double stepX, double stepY,
+                      int nrX, int nrY) {
+      if (nrX < 1 || nrY < 1) {
+         throw new IllegalArgumentException("Grid should have at least one node");
+      }
+      final double[] values = new double[nrX * nrY];
+      IntStream.range(0, nrY).parallel().forEach(row -> {
+         double y = originY + row * stepY;
+         for (int col = 0; col < nrX; col++) {
+            values[row * nrX + col] = getZ(originX + col * stepX, y);
+         }
+      });
+      return new Grid(originX, originY, stepX, stepY, nrX, nrY, values);
+   }
+
+   private double shepard(double xi, double yi) {
+      double numerator = 0.0;
+      double denominator = 0.0;
+      for (int i = 0; i < x_.length; i++) {
+         double dx = x_[i] - xi;
+         double dy = y_[i] - yi;
+         double d2 = dx * dx + dy * dy;
+         if (d2 < EPSILON * EPSILON) {
+            // On top of a point; the weight would be infinite
+            return z_[i];
+         }
+         // Work with squared distances, which avoids Math.pow for the default exponent
+         double weight = exponent_ == 2.0 ? 1.0 / d2 : Math.pow(d2, -0.5 * exponent_);
+         numerator += z_[i] * weight;
+         denominator += weight;
+      }
+      return numerator / denominator;
+   }
+
+   /**
+    * Values of a surface on a regular grid.  Look-ups between nodes use
+    * bilinear interpolation, and are exact at the nodes.  Outside of the grid
+    * the value at the nearest edge is used.
+    */
+   public static final class Grid {
+      private final double originX_;
+      private final double originY_;
+      private final double stepX_;
+      private final double stepY_;
+      private final int nrX_;
+      private final int nrY_;
+      private final double[] values_;
+
+      private Grid(double originX, double originY, double stepX, double stepY,
+                   int nrX, int nrY, double[] values) {
+         originX_ = originX;
+         originY_ = originY;
+         stepX_ = stepX;
+         stepY_ = stepY;
+         nrX_ = nrX;
+         nrY_ = nrY;
+         values_ = values;
+      }
+
+      public int getNrX() {
+         return nrX_;
+      }
+
+      public int getNrY() {
+         return nrY_;
+      }
+
+      /**
+       * @param col column of the grid node
+       * @param row row of the grid node
+       * @return z position of the surface at the given node
+       */
+      public double getNodeZ(int col, int row) {
+         return values_[row * nrX_ + col];
+      }
+
+      /**
+       * @param x x position
+       * @param y y position
+       * @return z position of the surface at the given position
+       */
+      public double getZ(double x, double y) {
+         double fx = fraction(x, originX_, stepX_, nrX_);
+         double fy = fraction(y, originY_, stepY_, nrY_);
+         int col = Math.min((int) fx, Math.max(0, nrX_ - 2));
+         int row = Math.min((int) fy, Math.max(0, nrY_ - 2));
+         double tx = fx - col;
+         double ty = fy - row;
+         int col1 = Math.min(col + 1, nrX_ - 1);
+         int row1 = Math.min(row + 1, nrY_ - 1);
+         double top = (1 - tx) * getNodeZ(col, row) + tx * getNodeZ(col1, row);
+         double bottom = (1 - tx) * getNodeZ(col, row1) + tx * getNodeZ(col1, row1);
+         return (1 - ty) * top + ty * bottom;
+      }
+
+      // Position in grid units, clamped to the grid
+      private static double fraction(double v, double origin, double step, int nr) {
+         if (nr == 1 || step == 0.0) {
+            return 0.0;
+         }
+         double f = (v - origin) / step;
+         return Math.max(0.0, Math.min(nr - 1, f));
+      }
+   }
+
+   /**
+    * Delaunay triangulation of the calibration points, with a bucket index
+    * to find the triangle containing a position in constant time.
+    */
+   private static final class Triangulation {
+      private static final double TOLERANCE = 1.0e-9;
+
+      // Per triangle: vertex coordinates, their z, and the plane z = a * x + b * y + c
+      private final double[][] vertices_;
+      private final double[][] heights_;
+      private final double[][] planes_;
+      private final double minX_;
+      private final double minY_;
+      private final double cellWidth_;
+      private final double cellHeight_;
+      private final int nrCellsX_;
+      private final int nrCellsY_;
+      private final int[][] cells_;
+
+      /**
+       * Triangulates the points with the Bowyer-Watson algorithm.
+       *
+       * @return the triangulation, or null when the points do not span a plane
+       */
+      static Triangulation create(double[] x, double[] y, double[] z) {
+         // Leave out duplicate points; they can not be triangulated
+         List<Integer> unique = new ArrayList<>();
+         for (int i = 0; i < x.length; i++) {
+            boolean duplicate = false;
+            for (int j : unique) {
+               if (Math.abs(x[i] - x[j]) < EPSILON && Math.abs(y[i] - y[j]) < EPSILON) {
+                  duplicate = true;
+                  break;
+               }
+            }
+            if (!duplicate) {
+               unique.add(i);
+            }
+         }
+         final int n = unique.size();
+         if (n < 3) {
+            return null;
+         }
+         // The points, followed by the three corners of a triangle enclosing them all.
+         // It is made large, since triangles along the convex hull can go missing
+         // when its corners are close to the points.
+         double[] px = new double[n + 3];
+         double[] py = new double[n + 3];
+         double minX = Double.MAX_VALUE;
+         double minY = Double.MAX_VALUE;
+         double maxX = -Double.MAX_VALUE;
+         double maxY = -Double.MAX_VALUE;
+         for (int i = 0; i < n; i++) {
+            px[i] = x[unique.get(i)];
+            py[i] = y[unique.get(i)];
+            minX = Math.min(minX, px[i]);
+            minY = Math.min(minY, py[i]);
+            maxX = Math.max(maxX, px[i]);
+            maxY = Math.max(maxY, py[i]);
+         }
+         double size = Math.max(maxX - minX, maxY - minY);
+         double midX = (minX + maxX) / 2;
+         double midY = (minY + maxY) / 2;
+         px[n] = midX - 1000 * size;
+         py[n] = midY - size;
+         px[n + 1] = midX;
+         py[n + 1] = midY + 1000 * size;
+         px[n + 2] = midX + 1000 * size;
+         py[n + 2] = midY - size;
+
+         List<int[]> triangles = new ArrayList<>();
+         triangles.add(new int[] {n, n + 1, n + 2});
+         for (int p = 0; p < n; p++) {
+            // Remove the triangles whose circumcircle contains the point, and
+            // connect the point to the boundary of the resulting hole
+            List<int[]> edges = new ArrayList<>();
+            for (int t = triangles.size() - 1; t >= 0; t--) {
+               int[] tri = triangles.get(t);
+               if (inCircumcircle(px, py, tri, px[p], py[p])) {
+                  for (int e = 0; e < 3; e++) {
+                     int a = tri[e];
+                     int b = tri[(e + 1) % 3];
+                     boolean shared = false;
+                     for (int k = 0; k < edges.size(); k++) {
+                        int[] edge = edges.get(k);
+                        if (edge[0] == b && edge[1] == a) {
+                           edges.remove(k);
+                           shared = true;
+                           break;
+                        }
+                     }
+                     if (!shared) {
+                        edges.add(new int[] {a, b});
+                     }
+                  }
+                  triangles.remove(t);
+               }
+            }
+            for (int[] edge : edges) {
+               triangles.add(new int[] {edge[0], edge[1], p});
+            }
+         }
+
+         List<double[]> vertices = new ArrayList<>();
+         List<double[]> heights = new ArrayList<>();
+         List<double[]> planes = new ArrayList<>();
+         for (int[] tri : triangles) {
+            if (tri[0] >= n || tri[1] >= n || tri[2] >= n) {
+               continue;
+            }
+            double[] v = new double[6];
+            double[] vz = new double[3];
+            for (int k = 0; k < 3; k++) {
+               v[2 * k] = px[tri[k]];
+               v[2 * k + 1] = py[tri[k]];
+               vz[k] = z[unique.get(tri[k])];
+            }
+            double det = cross(v);
+            if (Math.abs(det) < TOLERANCE) {
+               continue;
+            }
+            double a = ((vz[1] - vz[0]) * (v[5] - v[1]) - (vz[2] - vz[0]) * (v[3] - v[1])) / det;
+            double b = ((v[2] - v[0]) * (vz[2] - vz[0]) - (v[4] - v[0]) * (vz[1] - vz[0])) / det;
+            vertices.add(v);
+            heights.add(vz);
+            planes.add(new double[] {a, b, vz[0] - a * v[0] - b * v[1]});
+         }
+         if (vertices.isEmpty()) {
+            return null;
+         }
+         return new Triangulation(vertices.toArray(new double[0][]),
+               heights.toArray(new double[0][]), planes.toArray(new double[0][]),
+               minX, minY, maxX, maxY);
+      }
+
+      private Triangulation(double[][] vertices, double[][] heights, double[][] planes,
+                            double minX, double minY, double maxX, double maxY) {
+         vertices_ = vertices;
+         heights_ = heights;
+         planes_ = planes;
+         minX_ = minX;
+         minY_ = minY;
+         // About one triangle per cell
+         int nrCells = Math.max(1, (int) Math.ceil(Math.sqrt(vertices.length)));
+         nrCellsX_ = nrCells;
+         nrCellsY_ = nrCells;
+         cellWidth_ = Math.max(maxX - minX, EPSILON) / nrCellsX_;
+         cellHeight_ = Math.max(maxY - minY, EPSILON) / nrCellsY_;
+         List<List<Integer>> cells = new ArrayList<>();
+         for (int c = 0; c < nrCellsX_ * nrCellsY_; c++) {
+            cells.add(new ArrayList<>());
+         }
+         for (int t = 0; t < vertices.length; t++) {
+            double[] v = vertices[t];
+            int c0 = cellX(Math.min(v[0], Math.min(v[2], v[4])));
+            int c1 = cellX(Math.max(v[0], Math.max(v[2], v[4])));
+            int r0 = cellY(Math.min(v[1], Math.min(v[3], v[5])));
+            int r1 = cellY(Math.max(v[1], Math.max(v[3], v[5])));
+            for (int r = r0; r <= r1; r++) {
+               for (int c = c0; c <= c1; c++) {
+                  cells.get(r * nrCellsX_ + c).add(t);
+               }
+            }
+         }
+         cells_ = new int[cells.size()][];
+         for (int c = 0; c < cells_.length; c++) {
+            cells_[c] = cells.get(c).stream().mapToInt(Integer::intValue).toArray();
+         }
+      }
+
+      /**
+       * @return z position in the plane of the triangle containing (x, y),
+       *          or NaN when (x, y) lies outside of the triangulation
+       */
+      double interpolate(double x, double y) {
+         double[] plane = findPlane(x, y);
+         if (plane == null) {
+            return Double.NaN;
+         }
+         return plane[0] * x + plane[1] * y + plane[2];
+      }
+
+      /**
+       * @return coefficients of the plane of the triangle containing (x, y),
+       *          or null when (x, y) lies outside of the triangulation
+       */
+      double[] findPlane(double x, double y) {
+         double cx = (x - minX_) / cellWidth_;
+         double cy = (y - minY_) / cellHeight_;
+         if (cx < -TOLERANCE || cy < -TOLERANCE
+               || cx > nrCellsX_ + TOLERANCE || cy > nrCellsY_ + TOLERANCE) {
+            return null;
+         }
+         for (int t : cells_[cellY(y) * nrCellsX_ + cellX(x)]) {
+            if (contains(vertices_[t], x, y)) {
+               return planes_[t];
+            }
+         }
+         return null;
+      }
+
+      /**
+       * @return bounding box of the triangles found in only one of the two
+       *          triangulations, or null when they have the same triangles
+       */
+      double[] changedRegion(Triangulation other) {
+         Set<List<Double>> mine = triangleKeys();
+         Set<List<Double>> theirs = other.triangleKeys();
+         double[] region = addChanged(null, mine, theirs);
+         return addChanged(region, theirs, mine);
+      }
+
+      private static double[] addChanged(double[] region, Set<List<Double>> keys,
+                                         Set<List<Double>> others) {
+         for (List<Double> key : keys) {
+            if (!others.contains(key)) {
+               if (region == null) {
+                  region = new double[] {Double.MAX_VALUE, Double.MAX_VALUE,
+                        -Double.MAX_VALUE, -Double.MAX_VALUE};
+               }
+               for (int k = 0; k < 3; k++) {
+                  region[0] = Math.min(region[0], key.get(3 * k));
+                  region[1] = Math.min(region[1], key.get(3 * k + 1));
+                  region[2] = Math.max(region[2], key.get(3 * k));
+                  region[3] = Math.max(region[3], key.get(3 * k + 1));
+               }
+            }
+         }
+         return region;
+      }
+
+      /**
+       * Describes each triangle by its vertices (x, y, z), in a fixed order,
+       * so that the same triangle can be found in another triangulation.
+       */
+      private Set<List<Double>> triangleKeys() {
+         Set<List<Double>> keys = new HashSet<>();
+         for (int t = 0; t < vertices_.length; t++) {
+            double[] v = vertices_[t];
+            double[] vz = heights_[t];
+            Integer[] order = {0, 1, 2};
+            Arrays.sort(order, (a, b) -> v[2 * a] != v[2 * b]
+                  ? Double.compare(v[2 * a], v[2 * b])
+                  : Double.compare(v[2 * a + 1], v[2 * b + 1]));
+            List<Double> key = new ArrayList<>(9);
+            for (int k : order) {
+               key.add(v[2 * k]);
+               key.add(v[2 * k + 1]);
+               key.add(vz[k]);
+            }
+            keys.add(key);
+         }
+         return keys;
+      }
+
+      private int cellX(double x) {
+         return Math.max(0, Math.min(nrCellsX_ - 1, (int) ((x - minX_) / cellWidth_)));
+      }
+
+      private int cellY(double y) {
+         return Math.max(0, Math.min(nrCellsY_ - 1, (int) ((y - minY_) / cellHeight_)));
+      }
+
+      private static boolean contains(double[] v, double x, double y) {
+         double det = cross(v);
+         double l1 = ((v[3] - v[5]) * (x - v[4]) + (v[4] - v[2]) * (y - v[5])) / det;
+         double l2 = ((v[5] - v[1]) * (x - v[4]) + (v[0] - v[4]) * (y - v[5])) / det;
+         return l1 >= -TOLERANCE && l2 >= -TOLERANCE && l1 + l2 <= 1 + TOLERANCE;
+      }
+
+      // Twice the signed area of the triangle with vertices (v0, v1), (v2, v3), (v4, v5)
+      private static double cross(double[] v) {
+         return (v[2] - v[0]) * (v[5] - v[1]) - (v[4] - v[0]) * (v[3] - v[1]);
+      }
+
+      private static boolean inCircumcircle(double[] px, double[] py, int[] tri,
+                                            double x, double y) {
+         double ax = px[tri[0]] - x;
+         double ay = py[tri[0]] - y;
+         double bx = px[tri[1]] - x;
+         double by = py[tri[1]] - y;
+         double cx = px[tri[2]] - x;
+         double cy = py[tri[2]] - y;
+         double det = (ax * ax + ay * ay) * (bx * cy - cx * by)
+               - (bx * bx + by * by) * (ax * cy - cx * ay)
+               + (cx * cx + cy * cy) * (ax * by - bx * ay);
+         // The sign of the determinant depends on the orientation of the triangle
+         double orientation = (px[tri[1]] - px[tri[0]]) * (py[tri[2]] - py[tri[0]])
+               - (px[tri[2]] - px[tri[0]]) * (py[tri[1]] - py[tri[0]]);
+         return orientation > 0 ? det > 0 : det < 0;
+      }
+   }
+}
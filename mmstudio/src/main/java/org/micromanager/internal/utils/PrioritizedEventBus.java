@@ -7,12 +7,28 @@ import com.google.common.eventbus.EventBus;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
 
 /**
  * The PrioritizedEventBus allows registrants to provide a priority value; when
  * dispatching events to registrants, those with lower priority numbers are
  * notified first.
+ *
+ * <p>Registrants that do not need to see every event (typically viewers that
+ * only show the most recent image) can register as coalescing subscribers.
+ * Events for which a coalescing key is given replace pending events with the
+ * same key, and at most a fixed number of such events is queued per
+ * subscriber; older ones are dropped and counted.  Other events are never
+ * coalesced or dropped, and all events reach a subscriber in the order in
+ * which they were posted.  Coalescing subscribers are notified after the
+ * regular subscribers, in order of priority.
  */
 public final class PrioritizedEventBus {
    // Priority at which to register objects when no priority is specified.
@@ -24,6 +40,8 @@ public final class PrioritizedEventBus {
    private boolean async_ = false;
    private boolean shutDown_ = false;
    private ExecutorService executorService_;
+   private final List<CoalescingSubscriber> coalescingSubscribers_ =
+         new CopyOnWriteArrayList<>();
 
    public PrioritizedEventBus(boolean async) {
       prioritizedBuses_ = new HashMap<>();
@@ -58,10 +76,60 @@ public final class PrioritizedEventBus {
       subBus.register(o);
    }
 
+   /**
+    * Registers an object that can miss some events, as long as it sees the
+    * latest one for each coalescing key.
+    *
+    * @param o Object to be registered, with Guava @Subscribe methods
+    * @param priority Lower numbers are notified first
+    * @param maxPending Maximum number of coalescable events queued for this
+    *                   subscriber.  When full, the oldest one is dropped.
+    * @param coalescingKey Gives the key for an event; pending events with an
+    *                      equal key are replaced by the newer event.  Returns
+    *                      null for events that must always be delivered.
+    */
+   public void registerCoalescing(Object o, int priority, int maxPending,
+                                  Function<Object, Object> coalescingKey) {
+      if (shutDown_) {
+         return;
+      }
+      CoalescingSubscriber subscriber = new CoalescingSubscriber(o, priority,
+            Math.max(1, maxPending), coalescingKey);
+      int index = 0;
+      while (index < coalescingSubscribers_.size()
+            && coalescingSubscribers_.get(index).priority_ <= priority) {
+         index++;
+      }
+      coalescingSubscribers_.add(index, subscriber);
+   }
+
+   /**
+    * Number of events that a coalescing subscriber did not receive, because
+    * they were replaced by newer events or dropped from its queue.
+    *
+    * @param o Object registered with registerCoalescing
+    * @return Number of events not delivered to this subscriber, or 0 if it is
+    *     not registered as coalescing subscriber
+    */
+   public long getDroppedEventCount(Object o) {
+      for (CoalescingSubscriber subscriber : coalescingSubscribers_) {
+         if (subscriber.target_ == o) {
+            return subscriber.getDroppedCount();
+         }
+      }
+      return 0;
+   }
+
    public void unregister(Object o) {
       if (shutDown_) {
          return; // TODO: should this be reported/logged?
       }
+      for (CoalescingSubscriber subscriber : coalescingSubscribers_) {
+         if (subscriber.target_ == o) {
+            subscriber.unregister();
+            coalescingSubscribers_.remove(subscriber);
+         }
+      }
       for (Integer priority : prioritizedBuses_.keySet()) {
          EventBus subBus = prioritizedBuses_.get(priority);
          // TODO: I can't find any way to test if a given EventBus has a given
@@ -85,6 +153,9 @@ public final class PrioritizedEventBus {
          EventBus subBus = prioritizedBuses_.get(priority);
          subBus.post(event);
       }
+      for (CoalescingSubscriber subscriber : coalescingSubscribers_) {
+         subscriber.offer(event);
+      }
    }
 
    public void shutDown() {
@@ -93,4 +164,133 @@ public final class PrioritizedEventBus {
          executorService_.shutdown();
       }
    }
+
+   /**
+    * Keeps the pending events of one coalescing subscriber, and delivers them
+    * to it (on the executor in async mode) through a private, synchronous
+    * EventBus.
+    */
+   private final class CoalescingSubscriber {
+      private final Object target_;
+      private final int priority_;
+      private final int maxPending_;
+      private final Function<Object, Object> coalescingKey_;
+      private final EventBus bus_ = new EventBus(EventBusExceptionLogger.getInstance());
+      // Key is the coalescing key, or a unique EventKey for events that are
+      // not coalesced.  Guarded by this.
+      private final LinkedHashMap<Object, Object> pending_ = new LinkedHashMap<>();
+      private int nrCoalescable_ = 0;
+      private long dropped_ = 0;
+      private boolean drainScheduled_ = false;
+      private boolean unregistered_ = false;
+
+      CoalescingSubscriber(Object target, int priority, int maxPending,
+                           Function<Object, Object> coalescingKey) {
+         target_ = target;
+         priority_ = priority;
+         maxPending_ = maxPending;
+         coalescingKey_ = coalescingKey;
+         bus_.register(target);
+      }
+
+      void offer(Object event) {
+         Object key = coalescingKey_.apply(event);
+         synchronized (this) {
+            if (unregistered_) {
+               return;
+            }
+            if (key == null) {
+               pending_.put(new EventKey(), event);
+            } else {
+               // Remove first, so that the new event is queued after the
+               // events that were posted before it.
+               if (pending_.remove(key) != null) {
+                  dropped_++;
+               } else {
+                  nrCoalescable_++;
+               }
+               pending_.put(key, event);
+               if (nrCoalescable_ > maxPending_) {
+                  dropOldestCoalescable();
+               }
+            }
+            if (drainScheduled_) {
+               return;
+            }
+            drainScheduled_ = true;
+         }
+         schedule();
+      }
+
+      private void schedule() {
+         if (!async_) {
+            drain();
+            return;
+         }
+         try {
+            executorService_.execute(this::drain);
+         } catch (RejectedExecutionException ree) {
+            // Shut down; nobody is interested anymore
+            synchronized (this) {
+               drainScheduled_ = false;
+            }
+         }
+      }
+
+      private void dropOldestCoalescable() {
+         Iterator<Map.Entry<Object, Object>> it = pending_.entrySet().iterator();
+         while (it.hasNext()) {
+            if (!(it.next().getKey() instanceof EventKey)) {
+               it.remove();
+               nrCoalescable_--;
+               dropped_++;
+               return;
+            }
+         }
+      }
+
+      /**
+       * Delivers the events pending at this time.  Events that arrive in the
+       * meantime are delivered by a new task, queued behind the events for
+       * the regular subscribers, so that those are not held up.
+       */
+      private void drain() {
+         List<Object> events;
+         synchronized (this) {
+            if (pending_.isEmpty() || unregistered_) {
+               drainScheduled_ = false;
+               return;
+            }
+            events = new ArrayList<>(pending_.values());
+            pending_.clear();
+            nrCoalescable_ = 0;
+         }
+         for (Object event : events) {
+            bus_.post(event);
+         }
+         synchronized (this) {
+            if (pending_.isEmpty() || unregistered_) {
+               drainScheduled_ = false;
+               return;
+            }
+         }
+         schedule();
+      }
+
+      synchronized long getDroppedCount() {
+         return dropped_;
+      }
+
+      synchronized void unregister() {
+         unregistered_ = true;
+         pending_.clear();
+         nrCoalescable_ = 0;
+      }
+   }
+
+   /**
+    * Identity key for pending events that are not coalesced.
+    */
+   private static final class EventKey {
+   }
 }
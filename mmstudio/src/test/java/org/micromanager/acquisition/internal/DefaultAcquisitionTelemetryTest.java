@@ -0,0 +1,61 @@
+package org.micromanager.acquisition.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import org.junit.Test;
+import org.micromanager.acquisition.AcquisitionTelemetry;
+import org.micromanager.data.Coordinates;
+import org.micromanager.data.Coords;
+
+public class DefaultAcquisitionTelemetryTest {
+   private static final long MS = 1000000L;
+
+   private static Coords frame(int t) {
+      return Coordinates.builder().t(t).c(0).build();
+   }
+
+   @Test
+   public void testLatencyAndBacklog() {
+      DefaultAcquisitionTelemetry telemetry = new DefaultAcquisitionTelemetry(1024);
+      telemetry.setEnabled(true);
+      for (int t = 0; t < 10; t++) {
+         long start = t * 100 * MS;
+         telemetry.record(AcquisitionTelemetry.SINK, null, frame(t), start);
+         // Stored t + 1 ms later; the last two frames are not stored yet
+         if (t < 8) {
+            telemetry.record(AcquisitionTelemetry.STORED, null, frame(t), start + (t + 1) * MS);
+         }
+      }
+
+      assertEquals(Arrays.asList(AcquisitionTelemetry.SINK, AcquisitionTelemetry.STORED),
+            telemetry.getStages());
+      assertEquals(4.0, telemetry.getLatencyPercentileMs(AcquisitionTelemetry.STORED, 50), 1e-9);
+      assertEquals(8.0, telemetry.getLatencyPercentileMs(AcquisitionTelemetry.STORED, 100), 1e-9);
+      assertEquals(0.0, telemetry.getLatencyPercentileMs(AcquisitionTelemetry.SINK, 99), 1e-9);
+      assertEquals(2, telemetry.getBacklog(AcquisitionTelemetry.SINK,
+            AcquisitionTelemetry.STORED));
+      assertTrue(Double.isNaN(telemetry.getLatencyPercentileMs("unknown", 50)));
+
+      telemetry.clear();
+      assertEquals(0, telemetry.getBacklog(AcquisitionTelemetry.SINK,
+            AcquisitionTelemetry.STORED));
+   }
+
+   @Test
+   public void testRingBufferKeepsMostRecentEvents() {
+      DefaultAcquisitionTelemetry telemetry = new DefaultAcquisitionTelemetry(16);
+      telemetry.setEnabled(true);
+      for (int t = 0; t < 100; t++) {
+         telemetry.record(AcquisitionTelemetry.SINK, null, frame(t), t * MS);
+      }
+      assertEquals(16, telemetry.getBacklog(AcquisitionTelemetry.SINK,
+            AcquisitionTelemetry.STORED));
+
+      telemetry.setEnabled(false);
+      telemetry.record(AcquisitionTelemetry.STORED, null, frame(99), 200 * MS);
+      assertEquals(16, telemetry.getBacklog(AcquisitionTelemetry.SINK,
+            AcquisitionTelemetry.STORED));
+   }
+}
@@ -0,0 +1,81 @@
+package org.micromanager.acquisition.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import mmcorej.TaggedImage;
+import org.junit.Test;
+
+public class TaggedImageRingBufferTest {
+
+   private static TaggedImage image(int i) {
+      return new TaggedImage(i, null);
+   }
+
+   @Test
+   public void testBoundedFifo() throws InterruptedException {
+      TaggedImageRingBuffer queue = new TaggedImageRingBuffer(10);
+      assertEquals(16, queue.getCapacity());
+      for (int i = 0; i < 16; i++) {
+         assertTrue(queue.offer(image(i)));
+      }
+      assertFalse(queue.offer(image(16)));
+      assertFalse(queue.offer(image(16), 1, TimeUnit.MILLISECONDS));
+      assertEquals(1, queue.getFullCount());
+      assertEquals(1.0, queue.getOccupancy(), 1e-9);
+      assertEquals(0, queue.peek().pix);
+
+      List<TaggedImage> batch = new ArrayList<>();
+      assertEquals(5, queue.drainTo(batch, 5));
+      for (int i = 0; i < 5; i++) {
+         assertEquals(i, batch.get(i).pix);
+      }
+      assertEquals(11, queue.size());
+      assertEquals(5, queue.poll().pix);
+      queue.clear();
+      assertNull(queue.poll(1, TimeUnit.MILLISECONDS));
+      assertEquals(16, queue.getPeakSize());
+      assertEquals(16, queue.getTransferredCount());
+   }
+
+   @Test
+   public void testHandOffBetweenThreads() throws Exception {
+      final int n = 200000;
+      final TaggedImageRingBuffer queue = new TaggedImageRingBuffer(16);
+      Thread producer = new Thread(() -> {
+         try {
+            for (int i = 0; i < n; i++) {
+               queue.put(image(i));
+            }
+            queue.put(TaggedImageQueue.POISON);
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+      });
+      producer.start();
+
+      int expected = 0;
+      List<TaggedImage> batch = new ArrayList<>();
+      receive:
+      while (true) {
+         if (queue.drainTo(batch, 8) == 0) {
+            batch.add(queue.take());
+         }
+         for (TaggedImage tagged : batch) {
+            if (TaggedImageQueue.isPoison(tagged)) {
+               break receive;
+            }
+            assertEquals(expected++, tagged.pix);
+         }
+         batch.clear();
+      }
+      producer.join();
+      assertEquals(n, expected);
+      assertEquals(0, queue.size());
+   }
+}
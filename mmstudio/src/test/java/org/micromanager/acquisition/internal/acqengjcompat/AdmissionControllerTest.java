@@ -0,0 +1,116 @@
+package org.micromanager.acquisition.internal.acqengjcompat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.micromanager.acquisition.AcquisitionAdmissionEvent;
+import org.micromanager.acquisition.AcquisitionAdmissionEvent.Action;
+import org.micromanager.acquisition.ChannelSpec;
+import org.micromanager.acquisition.SequenceSettings;
+
+public class AdmissionControllerTest {
+   private static final long S = 1000000000L;
+   private static final long MB = 1000000L;
+
+   @Test
+   public void testEstimate() {
+      ArrayList<ChannelSpec> channels = new ArrayList<>();
+      channels.add(new ChannelSpec.Builder().config("DAPI").exposure(10).build());
+      channels.add(new ChannelSpec.Builder().config("GFP").exposure(30).build());
+      channels.add(new ChannelSpec.Builder().config("Cy5").exposure(100)
+            .useChannel(false).build());
+      SequenceSettings settings = new SequenceSettings.Builder().useChannels(true)
+            .channels(channels).useSlices(true).usePositionList(true).build();
+      // 2 channels x 5 slices x 3 positions: 30 images in 15 x 40 ms
+      assertEquals(50 * MB,
+            AdmissionController.estimateBytesPerSecond(settings, 5, 3, MB, 20), 1e-3);
+
+      // Without channels, the given exposure is used; the interval slows things down
+      settings = new SequenceSettings.Builder().useFrames(true).numFrames(10)
+            .intervalMs(1000).build();
+      assertEquals(MB, AdmissionController.estimateBytesPerSecond(settings, 5, 3, MB, 20),
+            1e-3);
+      settings = settings.copyBuilder().intervalMs(0).build();
+      assertEquals(50 * MB, AdmissionController.estimateBytesPerSecond(settings, 5, 3, MB, 20),
+            1e-3);
+   }
+
+   @Test
+   public void testThrottleAndResume() {
+      List<AcquisitionAdmissionEvent> events = new ArrayList<>();
+      List<Boolean> pauses = new ArrayList<>();
+      AdmissionController controller = new AdmissionController(
+            AdmissionController.Policy.THROTTLE, MB, 10 * MB, events::add, pauses::add);
+
+      assertNull(controller.update(0, 0, 0.0, false));
+      assertNull(controller.update(S, 10, 0.1, false));
+      assertEquals(10 * MB, controller.getMeasuredBytesPerSecond(), 1e-3);
+      assertEquals(Action.THROTTLED, controller.update(2 * S, 15, 0.9, false));
+      assertNull(controller.update(3 * S, 20, 0.6, true));
+      assertEquals(Action.RESUMED, controller.update(4 * S, 25, 0.3, true));
+      assertEquals(2, events.size());
+      assertEquals(Action.THROTTLED, events.get(0).getAction());
+      assertEquals(10 * MB, events.get(0).getRequiredBytesPerSecond(), 1e-3);
+      assertEquals(2, pauses.size());
+      assertTrue(pauses.get(0));
+      assertTrue(!pauses.get(1));
+   }
+
+   @Test
+   public void testThrottleEndsAfterTimeout() {
+      List<AcquisitionAdmissionEvent> events = new ArrayList<>();
+      List<Boolean> pauses = new ArrayList<>();
+      AdmissionController controller = new AdmissionController(
+            AdmissionController.Policy.THROTTLE, MB, 10 * MB, events::add, pauses::add);
+
+      controller.update(0, 0, 0.0, false);
+      controller.update(S, 10, 0.1, false);
+      assertEquals(Action.THROTTLED, controller.update(2 * S, 15, 0.9, false));
+      double measured = controller.getMeasuredBytesPerSecond();
+      // Rates measured while throttled are not used
+      assertNull(controller.update(3 * S, 15, 0.9, true));
+      assertEquals(measured, controller.getMeasuredBytesPerSecond(), 1e-3);
+      assertEquals(Action.RESUMED, controller.update(
+            2 * S + AdmissionController.MAX_THROTTLE_NS, 15, 0.9, true));
+      assertEquals(2, pauses.size());
+   }
+
+   @Test
+   public void testDoesNotResumeUserPause() {
+      List<AcquisitionAdmissionEvent> events = new ArrayList<>();
+      List<Boolean> pauses = new ArrayList<>();
+      AdmissionController controller = new AdmissionController(
+            AdmissionController.Policy.THROTTLE, MB, 10 * MB, events::add, pauses::add);
+
+      controller.update(0, 0, 0.0, false);
+      assertEquals(Action.THROTTLED, controller.update(S, 10, 0.9, false));
+      // The user resumes and pauses again; that pause is theirs
+      controller.pauseChanged();
+      assertNull(controller.update(2 * S, 20, 0.1, true));
+      assertEquals(1, pauses.size());
+   }
+
+   @Test
+   public void testWarnsWhenStorageIsTooSlow() {
+      List<AcquisitionAdmissionEvent> events = new ArrayList<>();
+      List<Boolean> pauses = new ArrayList<>();
+      AdmissionController controller = new AdmissionController(
+            AdmissionController.Policy.WARN, MB, 10 * MB, events::add, pauses::add);
+
+      controller.update(0, 0, 0.0, false);
+      Action last = null;
+      for (int s = 1; s <= AdmissionController.RATE_SAMPLES; s++) {
+         last = controller.update(s * S, 5 * s, 0.5, false);
+      }
+      assertEquals(Action.WARNING, last);
+      assertEquals(5 * MB, events.get(0).getMeasuredBytesPerSecond(), 1e-3);
+      // Full buffers are only reported, once
+      assertEquals(Action.WARNING, controller.update(10 * S, 50, 0.95, false));
+      assertNull(controller.update(11 * S, 55, 0.95, false));
+      assertTrue(pauses.isEmpty());
+   }
+}
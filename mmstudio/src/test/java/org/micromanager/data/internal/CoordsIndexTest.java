@@ -0,0 +1,55 @@
+package org.micromanager.data.internal;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Assert;
+import org.junit.Test;
+import org.micromanager.data.Coords;
+
+public class CoordsIndexTest {
+
+   private static Coords coords(int t, int z, int c) {
+      return new DefaultCoords.Builder().t(t).z(z).c(c).build();
+   }
+
+   @Test
+   public void testMatchesBruteForce() {
+      CoordsIndex index = new CoordsIndex();
+      for (int t = 0; t < 3; t++) {
+         for (int z = 0; z < 4; z++) {
+            for (int c = 0; c < 2; c++) {
+               Assert.assertTrue(index.add(coords(t, z, c)));
+            }
+         }
+      }
+      Assert.assertFalse(index.add(coords(0, 0, 0)));
+      Assert.assertEquals(24, index.size());
+
+      Coords noC = new DefaultCoords.Builder().t(1).z(2).build();
+      Assert.assertEquals(Arrays.asList(coords(1, 2, 0), coords(1, 2, 1)),
+            index.getMatching(noC, Coords.C));
+      Coords onlyZ = new DefaultCoords.Builder().z(3).build();
+      Assert.assertEquals(6, index.getMatching(onlyZ, Coords.C, Coords.T).size());
+      Assert.assertEquals(6, index.getMatching(onlyZ, Coords.T, Coords.C).size());
+      Assert.assertEquals(6, index.getMatching(onlyZ).size());
+
+      // Projections that were already built are kept up to date
+      index.add(coords(3, 3, 0));
+      Assert.assertEquals(7, index.getMatching(onlyZ, Coords.C, Coords.T).size());
+      Assert.assertTrue(index.remove(coords(1, 2, 0)));
+      Assert.assertEquals(Collections.singletonList(coords(1, 2, 1)),
+            index.getMatching(noC, Coords.C));
+      Assert.assertFalse(index.remove(coords(1, 2, 0)));
+   }
+
+   @Test
+   public void testUnusedAxesAreIgnored() {
+      CoordsIndex index = new CoordsIndex();
+      index.add(coords(0, 1, 0));
+      Assert.assertEquals(Collections.singletonList(coords(0, 1, 0)),
+            index.getMatching(coords(0, 1, 0), Coords.STAGE_POSITION));
+      Assert.assertTrue(index.getMatching(coords(0, 2, 0), Coords.STAGE_POSITION).isEmpty());
+      index.clear();
+      Assert.assertTrue(index.getMatching(coords(0, 1, 0)).isEmpty());
+   }
+}
@@ -0,0 +1,63 @@
+package org.micromanager.data.internal.chunked;
+
+import java.io.IOException;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class Lz4CodecTest {
+
+   private static void assertRoundTrip(byte[] data) throws IOException {
+      byte[] compressed = Lz4Codec.compress(data);
+      Assert.assertTrue(compressed.length <= Lz4Codec.maxCompressedLength(data.length));
+      byte[] result = new byte[data.length];
+      Lz4Codec.decompress(compressed, 0, compressed.length, result);
+      Assert.assertArrayEquals(data, result);
+   }
+
+   @Test
+   public void testRoundTrip() throws IOException {
+      Random random = new Random(42);
+      for (int length = 0; length < 40; length++) {
+         byte[] data = new byte[length];
+         random.nextBytes(data);
+         assertRoundTrip(data);
+         assertRoundTrip(new byte[length]);
+      }
+      byte[] noise = new byte[100000];
+      random.nextBytes(noise);
+      assertRoundTrip(noise);
+      // Repeats at short and long distances, and long runs
+      byte[] pattern = new byte[300000];
+      for (int i = 0; i < pattern.length; i++) {
+         pattern[i] = (byte) ((i % 7) * (i / 1000 % 3) + (i > 200000 ? 0 : i / 70000));
+      }
+      assertRoundTrip(pattern);
+   }
+
+   @Test
+   public void testShuffledPixelsCompress() throws IOException {
+      short[] pixels = new short[512 * 512];
+      Random random = new Random(7);
+      for (int i = 0; i < pixels.length; i++) {
+         pixels[i] = (short) (1000 + (i % 512) + random.nextInt(4));
+      }
+      byte[] shuffled = Lz4Codec.shuffle(pixels, 2);
+      byte[] compressed = Lz4Codec.compress(shuffled);
+      Assert.assertTrue(compressed.length < shuffled.length / 2);
+      byte[] bytes = new byte[shuffled.length];
+      Lz4Codec.decompress(compressed, 0, compressed.length, bytes);
+      Assert.assertArrayEquals(pixels, (short[]) Lz4Codec.unshuffle(bytes, 2, true));
+
+      byte[] rgb = new byte[4 * 1000];
+      random.nextBytes(rgb);
+      Assert.assertArrayEquals(rgb,
+            (byte[]) Lz4Codec.unshuffle(Lz4Codec.shuffle(rgb, 4), 4, false));
+   }
+
+   @Test(expected = IOException.class)
+   public void testCorruptDataIsRejected() throws IOException {
+      byte[] compressed = Lz4Codec.compress(new byte[1000]);
+      Lz4Codec.decompress(compressed, 0, compressed.length, new byte[999]);
+   }
+}
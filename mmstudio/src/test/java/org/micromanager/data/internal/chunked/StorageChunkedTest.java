@@ -0,0 +1,85 @@
+package org.micromanager.data.internal.chunked;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.micromanager.data.Coords;
+import org.micromanager.data.Image;
+import org.micromanager.data.internal.DefaultCoords;
+import org.micromanager.data.internal.DefaultDatastore;
+import org.micromanager.data.internal.DefaultImage;
+import org.micromanager.data.internal.DefaultMetadata;
+
+public class StorageChunkedTest {
+   private static final int WIDTH = 600;
+   private static final int HEIGHT = 520;
+
+   private File tempDir_;
+
+   @Before
+   public void setUp() throws IOException {
+      tempDir_ = Files.createTempDirectory("chunked").toFile();
+   }
+
+   @After
+   public void tearDown() {
+      File[] files = tempDir_.listFiles();
+      if (files != null) {
+         for (File dir : files) {
+            File[] contents = dir.listFiles();
+            if (contents != null) {
+               for (File file : contents) {
+                  file.delete();
+               }
+            }
+            dir.delete();
+         }
+      }
+      tempDir_.delete();
+   }
+
+   private static short[] pixels(int seed) {
+      short[] result = new short[WIDTH * HEIGHT];
+      for (int i = 0; i < result.length; i++) {
+         result[i] = (short) (seed * 1000 + (i % WIDTH) * 3 + (i / WIDTH));
+      }
+      return result;
+   }
+
+   @Test
+   public void testReopenWithResolutionLevels() throws IOException {
+      String location = new File(tempDir_, "data").getAbsolutePath();
+      StorageChunked storage = new StorageChunked(new DefaultDatastore(null), location, true);
+      for (int t = 0; t < 2; t++) {
+         Coords coords = new DefaultCoords.Builder().t(t).build();
+         storage.putImage(new DefaultImage(pixels(t), WIDTH, HEIGHT, 2, 1, coords,
+               new DefaultMetadata.Builder().build()));
+      }
+      storage.close();
+
+      StorageChunked reopened = new StorageChunked(new DefaultDatastore(null), location, false);
+      try {
+         Assert.assertEquals(2, reopened.getNumImages());
+         Assert.assertEquals(2, reopened.getNumResolutionLevels());
+         for (int t = 0; t < 2; t++) {
+            Coords coords = new DefaultCoords.Builder().t(t).build();
+            Assert.assertTrue(reopened.hasImage(coords));
+            Image full = reopened.getImage(coords);
+            Assert.assertEquals(WIDTH, full.getWidth());
+            Assert.assertArrayEquals(pixels(t), (short[]) full.getRawPixels());
+
+            Image half = reopened.getImage(coords, 1);
+            Assert.assertEquals(WIDTH / 2, half.getWidth());
+            Assert.assertEquals(HEIGHT / 2, half.getHeight());
+            Assert.assertArrayEquals((short[]) StorageChunked.downsample(pixels(t), WIDTH,
+                  HEIGHT, 2), (short[]) half.getRawPixels());
+         }
+      } finally {
+         reopened.close();
+      }
+   }
+}
@@ -0,0 +1,83 @@
+package org.micromanager.data.internal.multipagetiff;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TiffCompressionTest {
+
+   private static ByteBuffer roundTrip(ByteBuffer pixels, int width, int height,
+                                       int bytesPerSample, int samplesPerPixel)
+         throws IOException {
+      int rowBytes = width * bytesPerSample * samplesPerPixel;
+      int rowsPerStrip = 7;
+      ByteBuffer result = ByteBuffer.allocateDirect(pixels.capacity()).order(pixels.order());
+      for (int row = 0; row < height; row += rowsPerStrip) {
+         int length = Math.min(rowsPerStrip, height - row) * rowBytes;
+         byte[] strip = TiffCompression.compressStrip(pixels, row * rowBytes, length,
+               rowBytes, bytesPerSample, samplesPerPixel);
+         TiffCompression.decompressStrip(strip, 0, strip.length, result, row * rowBytes,
+               length, rowBytes, bytesPerSample, samplesPerPixel,
+               TiffCompression.PREDICTOR_HORIZONTAL);
+      }
+      return result;
+   }
+
+   @Test
+   public void testGray16RoundTrip() throws IOException {
+      int width = 300;
+      int height = 45;
+      Random random = new Random(3);
+      for (ByteOrder order : new ByteOrder[] {ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+         ByteBuffer pixels = ByteBuffer.allocateDirect(width * height * 2).order(order);
+         for (int i = 0; i < width * height; i++) {
+            pixels.putShort(2 * i, (short) (60000 + (i % width) * 3 + random.nextInt(8)));
+         }
+         ByteBuffer result = roundTrip(pixels, width, height, 2, 1);
+         for (int i = 0; i < width * height; i++) {
+            Assert.assertEquals(pixels.getShort(2 * i), result.getShort(2 * i));
+         }
+         Assert.assertEquals(0, pixels.position());
+      }
+   }
+
+   @Test
+   public void testGray8AndRgbRoundTrip() throws IOException {
+      Random random = new Random(5);
+      byte[] gray = new byte[64 * 20];
+      random.nextBytes(gray);
+      ByteBuffer result = roundTrip(ByteBuffer.wrap(gray), 64, 20, 1, 1);
+      for (int i = 0; i < gray.length; i++) {
+         Assert.assertEquals(gray[i], result.get(i));
+      }
+      byte[] rgb = new byte[3 * 33 * 9];
+      random.nextBytes(rgb);
+      result = roundTrip(ByteBuffer.wrap(rgb), 33, 9, 1, 3);
+      for (int i = 0; i < rgb.length; i++) {
+         Assert.assertEquals(rgb[i], result.get(i));
+      }
+   }
+
+   @Test
+   public void testSmoothImageCompresses() {
+      int width = 512;
+      ByteBuffer pixels = ByteBuffer.allocate(width * width * 2).order(ByteOrder.LITTLE_ENDIAN);
+      for (int i = 0; i < width * width; i++) {
+         pixels.putShort(2 * i, (short) (100 + i % width + i / width));
+      }
+      byte[] strip = TiffCompression.compressStrip(pixels, 0, pixels.capacity(), 2 * width,
+            2, 1);
+      Assert.assertTrue(strip.length < pixels.capacity() / 10);
+   }
+
+   @Test(expected = IOException.class)
+   public void testTruncatedStripIsRejected() throws IOException {
+      ByteBuffer pixels = ByteBuffer.allocate(1000);
+      byte[] strip = TiffCompression.compressStrip(pixels, 0, 1000, 100, 1, 1);
+      TiffCompression.decompressStrip(strip, 0, strip.length / 2, ByteBuffer.allocate(1000),
+            0, 1000, 100, 1, 1, TiffCompression.PREDICTOR_HORIZONTAL);
+   }
+}
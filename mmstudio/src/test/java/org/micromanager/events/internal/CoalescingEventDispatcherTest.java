@@ -0,0 +1,52 @@
+package org.micromanager.events.internal;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+public class CoalescingEventDispatcherTest {
+
+   @Test
+   public void testCoalescesPerKey() {
+      List<Object> delivered = new ArrayList<>();
+      List<Runnable> edt = new ArrayList<>();
+      // Long window, so that only our explicit flushes deliver
+      CoalescingEventDispatcher dispatcher =
+            new CoalescingEventDispatcher(delivered::add, edt::add, 60000);
+      for (int i = 0; i < 100; i++) {
+         dispatcher.post(Arrays.asList("Stage", "Z"), "Z" + i);
+         dispatcher.post(Arrays.asList("XYStage", "XY"), "XY" + i);
+      }
+      assertEquals(0, edt.size());
+      dispatcher.flush();
+      assertEquals(Arrays.asList("Z99", "XY99"), delivered);
+
+      // Events without a key come after the pending ones
+      dispatcher.post(Arrays.asList("Stage", "Z"), "Z100");
+      dispatcher.post("config");
+      dispatcher.post("loaded");
+      for (Runnable r : edt) {
+         r.run();
+      }
+      assertEquals(Arrays.asList("Z99", "XY99", "Z100", "config", "loaded"), delivered);
+      assertEquals(203, dispatcher.getReceivedCount());
+      assertEquals(5, dispatcher.getDeliveredCount());
+      dispatcher.shutdown();
+   }
+
+   @Test
+   public void testZeroWindowDeliversEverything() {
+      List<Object> delivered = new ArrayList<>();
+      CoalescingEventDispatcher dispatcher =
+            new CoalescingEventDispatcher(delivered::add, Runnable::run, 0);
+      for (int i = 0; i < 10; i++) {
+         dispatcher.post("key", i);
+      }
+      assertEquals(10, delivered.size());
+      assertEquals(10, dispatcher.getDeliveredCount());
+      dispatcher.shutdown();
+   }
+}
@@ -0,0 +1,165 @@
+package org.micromanager.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+import org.micromanager.PollingManager;
+import org.micromanager.events.internal.DefaultStagePositionChangedEvent;
+
+public class DefaultPollingManagerTest {
+
+   private static final class FakeReader implements DefaultPollingManager.DeviceReader {
+      int reads = 0;
+      boolean fail = false;
+      String state = "Idle";
+      double z = 0.0;
+
+      @Override
+      public String readProperty(String device, String property) {
+         reads++;
+         return state;
+      }
+
+      @Override
+      public double readPosition(String stage) throws Exception {
+         reads++;
+         if (fail) {
+            throw new Exception("Stage not responding");
+         }
+         return z;
+      }
+
+      @Override
+      public double[] readXYPosition(String xyStage) {
+         reads++;
+         return new double[] {0.0, 0.0};
+      }
+   }
+
+   @Test
+   public void testSharesReadsAndReportsChanges() {
+      FakeReader reader = new FakeReader();
+      DefaultPollingManager manager = new DefaultPollingManager(reader, false);
+      List<String> first = new ArrayList<>();
+      List<String> second = new ArrayList<>();
+      PollingManager.Subscription slow = manager.subscribeProperty("CRISP", "State", 2.0,
+            v -> first.add(v.getValue()));
+      manager.subscribeProperty("CRISP", "State", 10.0, v -> second.add(v.getValue()));
+
+      long now = System.nanoTime();
+      long next = manager.pollDue(now);
+      // One read for both subscribers, at the faster rate
+      assertEquals(1, reader.reads);
+      assertEquals(now + 100000000L, next);
+      manager.pollDue(next);
+      assertEquals(2, reader.reads);
+      assertEquals(1, first.size());
+      assertEquals(1, second.size());
+
+      reader.state = "In Focus";
+      manager.pollDue(next + 100000000L);
+      assertEquals("In Focus", first.get(1));
+      assertEquals("In Focus", second.get(1));
+      assertEquals("In Focus", manager.getLatestProperty("CRISP", "State").getValue());
+
+      slow.cancel();
+      reader.state = "Idle";
+      manager.pollDue(next + 200000000L);
+      assertEquals(2, first.size());
+      assertEquals(3, second.size());
+   }
+
+   @Test
+   public void testNotificationsPostponeReads() {
+      FakeReader reader = new FakeReader();
+      DefaultPollingManager manager = new DefaultPollingManager(reader, false);
+      List<Double> positions = new ArrayList<>();
+      PollingManager.Subscription subscription = manager.subscribeStagePosition("Z", 1.0,
+            v -> positions.add(v.getPosition()[0]));
+      manager.pollDue(System.nanoTime());
+      assertEquals(1, reader.reads);
+
+      manager.onStagePositionChanged(new DefaultStagePositionChangedEvent("Z", 5.0));
+      assertEquals(5.0, positions.get(1), 0.0);
+      // The notification counts as a fresh read
+      manager.pollDue(System.nanoTime() + 500000000L);
+      assertEquals(1, reader.reads);
+
+      subscription.cancel();
+      assertNull(manager.getLatestStagePosition("Z"));
+      assertEquals(Long.MAX_VALUE, manager.pollDue(System.nanoTime()));
+   }
+
+   @Test
+   public void testReportsFailedReads() {
+      FakeReader reader = new FakeReader();
+      reader.fail = true;
+      DefaultPollingManager manager = new DefaultPollingManager(reader, false);
+      List<String> errors = new ArrayList<>();
+      List<Double> positions = new ArrayList<>();
+      manager.subscribeStagePosition("Z", 10.0, new PollingManager.Listener() {
+         @Override
+         public void onValueChanged(PollingManager.Value value) {
+            positions.add(value.getPosition()[0]);
+         }
+
+         @Override
+         public void onReadFailed(String device, Exception error) {
+            errors.add(device + ": " + error.getMessage());
+         }
+      });
+      long now = System.nanoTime();
+      manager.pollDue(now);
+      manager.pollDue(now + 100000000L);
+      // Every failure is reported, and no value is published
+      assertEquals(2, errors.size());
+      assertEquals("Z: Stage not responding", errors.get(0));
+      assertNull(manager.getLatestStagePosition("Z"));
+
+      reader.fail = false;
+      manager.pollDue(now + 200000000L);
+      assertEquals(2, errors.size());
+      assertEquals(1, positions.size());
+   }
+
+   @Test
+   public void testReadNow() throws InterruptedException {
+      FakeReader reader = new FakeReader();
+      DefaultPollingManager manager = new DefaultPollingManager(reader, false);
+      List<Double> positions = new ArrayList<>();
+      PollingManager.Subscription subscription = manager.subscribeStagePosition("Z", 1.0,
+            v -> positions.add(v.getPosition()[0]));
+      manager.pollDue(System.nanoTime());
+      assertEquals(1, reader.reads);
+
+      // Not due for another second, but read as soon as asked
+      reader.z = 3.0;
+      AtomicBoolean read = new AtomicBoolean(false);
+      Thread waiter = new Thread(() -> {
+         try {
+            read.set(subscription.readNow(10000));
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+      });
+      waiter.start();
+      while (reader.reads < 2) {
+         manager.pollDue(System.nanoTime());
+         Thread.sleep(1);
+      }
+      waiter.join(10000);
+      assertTrue(read.get());
+      assertEquals(3.0, positions.get(1), 0.0);
+
+      // Nobody polls: times out
+      assertFalse(subscription.readNow(10));
+      subscription.cancel();
+      assertFalse(subscription.readNow(10));
+   }
+}
@@ -0,0 +1,58 @@
+package org.micromanager.internal.positionlist.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.micromanager.MultiStagePosition;
+import org.micromanager.PositionList;
+
+public class PositionOrderOptimizerTest {
+
+   private static MultiStagePosition position(String label, double x, double y) {
+      MultiStagePosition msp = new MultiStagePosition("XY", x, y, "Z", 0.0);
+      msp.setLabel(label);
+      return msp;
+   }
+
+   @Test
+   public void testZigZagIsUntangled() {
+      // Positions on a line, listed in an order that jumps back and forth
+      PositionList pl = new PositionList();
+      double[] xs = {0, 400, 100, 300, 200, 500};
+      for (int i = 0; i < xs.length; i++) {
+         pl.addPosition(position("Pos" + i, xs[i], 0));
+      }
+
+      PositionOrderOptimizer.Result result = PositionOrderOptimizer.optimize(pl, null);
+
+      assertEquals(400 + 300 + 200 + 100 + 300, result.getOriginalTravelUm(), 1e-9);
+      assertEquals(500, result.getOptimizedTravelUm(), 1e-9);
+      MultiStagePosition[] ordered = result.getPositionList().getPositions();
+      for (int i = 0; i < ordered.length; i++) {
+         assertEquals(100.0 * i, ordered[i].getX(), 1e-9);
+      }
+      // The input is left alone
+      assertEquals("Pos1", pl.getPosition(1).getLabel());
+   }
+
+   @Test
+   public void testWellsAreKeptTogether() {
+      // Two wells whose sites interleave along x
+      PositionList pl = new PositionList();
+      for (int site = 0; site < 3; site++) {
+         pl.addPosition(position("A1-Site_" + site, 200 * site, 0));
+         pl.addPosition(position("A2-Site_" + site, 200 * site + 100, 1000));
+      }
+
+      PositionOrderOptimizer.Result result = PositionOrderOptimizer.optimize(pl,
+            PositionOrderOptimizer.wellGrouping());
+
+      MultiStagePosition[] ordered = result.getPositionList().getPositions();
+      assertEquals("A1-Site_0", ordered[0].getLabel());
+      for (int i = 0; i < ordered.length; i++) {
+         assertTrue(ordered[i].getLabel().startsWith(i < 3 ? "A1-" : "A2-"));
+      }
+      assertTrue(result.getSavedTravelUm() > 0);
+   }
+}
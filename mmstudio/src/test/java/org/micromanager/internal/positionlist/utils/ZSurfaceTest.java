@@ -0,0 +1,111 @@
+package org.micromanager.internal.positionlist.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.junit.Test;
+
+public class ZSurfaceTest {
+
+   private static double tilted(double x, double y) {
+      return 0.01 * x - 0.02 * y + 5.0;
+   }
+
+   @Test
+   public void testTriangulationReproducesPlane() {
+      Random random = new Random(42);
+      int n = 50;
+      double[] x = new double[n];
+      double[] y = new double[n];
+      double[] z = new double[n];
+      for (int i = 0; i < n; i++) {
+         x[i] = random.nextDouble() * 1000;
+         y[i] = random.nextDouble() * 1000;
+         z[i] = tilted(x[i], y[i]);
+      }
+      // Make sure the corners are covered by the convex hull
+      x[0] = 0;
+      y[0] = 0;
+      x[1] = 1000;
+      y[1] = 0;
+      x[2] = 0;
+      y[2] = 1000;
+      x[3] = 1000;
+      y[3] = 1000;
+      for (int i = 0; i < 4; i++) {
+         z[i] = tilted(x[i], y[i]);
+      }
+
+      ZSurface surface = new ZSurface(x, y, z, ZGenerator.Type.TRIANGULATE);
+      for (int i = 0; i < 1000; i++) {
+         double xi = random.nextDouble() * 1000;
+         double yi = random.nextDouble() * 1000;
+         assertEquals(tilted(xi, yi), surface.getZ(xi, yi), 1e-6);
+      }
+   }
+
+   @Test
+   public void testModesAtCalibrationPoints() {
+      double[] x = {0, 100, 0, 100};
+      double[] y = {0, 0, 100, 100};
+      double[] z = {1, 2, 3, 6};
+
+      ZSurface shepard = new ZSurface(x, y, z, ZGenerator.Type.SHEPINTERPOLATE);
+      ZSurface average = new ZSurface(x, y, z, ZGenerator.Type.AVERAGE);
+      for (int i = 0; i < x.length; i++) {
+         assertEquals(z[i], shepard.getZ(x[i], y[i]), 1e-9);
+         assertEquals(3.0, average.getZ(x[i], y[i]), 1e-9);
+      }
+      // Equidistant from all points
+      assertEquals(3.0, shepard.getZ(50, 50), 1e-9);
+
+      // Two points do not span a plane; falls back to Shepard interpolation
+      ZSurface line = new ZSurface(new double[] {0, 100}, new double[] {0, 0},
+            new double[] {1, 3}, ZGenerator.Type.TRIANGULATE);
+      assertEquals(2.0, line.getZ(50, 0), 1e-9);
+   }
+
+   @Test
+   public void testGridMatchesSurfaceAtNodes() {
+      double[] x = {0, 300, 50, 250, 150};
+      double[] y = {0, 20, 200, 180, 90};
+      double[] z = {10, 12, 15, 11, 20};
+      ZSurface surface = new ZSurface(x, y, z, ZGenerator.Type.SHEPINTERPOLATE);
+
+      ZSurface.Grid grid = surface.sample(-10, -20, 30, 25, 12, 10);
+      for (int row = 0; row < 10; row++) {
+         for (int col = 0; col < 12; col++) {
+            double xi = -10 + col * 30;
+            double yi = -20 + row * 25;
+            assertEquals(surface.getZ(xi, yi), grid.getZ(xi, yi), 1e-9);
+            assertEquals(surface.getZ(xi, yi), grid.getNodeZ(col, row), 1e-9);
+         }
+      }
+      // Half way between nodes, and clamped outside of the grid
+      double mid = (grid.getNodeZ(0, 0) + grid.getNodeZ(1, 0)) / 2;
+      assertEquals(mid, grid.getZ(5, -20), 1e-9);
+      assertEquals(grid.getNodeZ(0, 0), grid.getZ(-1000, -1000), 1e-9);
+   }
+
+   @Test
+   public void testChangedRegionOfAddedPoint() {
+      double[] x = {0, 1000, 0, 1000, 100, 900};
+      double[] y = {0, 0, 1000, 1000, 100, 900};
+      double[] z = {1, 1, 1, 1, 1, 1};
+      ZSurface before = new ZSurface(x, y, z, ZGenerator.Type.TRIANGULATE);
+      assertNull(before.getChangedRegion(new ZSurface(x, y, z, ZGenerator.Type.TRIANGULATE)));
+
+      double[] x2 = {0, 1000, 0, 1000, 100, 900, 150};
+      double[] y2 = {0, 0, 1000, 1000, 100, 900, 120};
+      double[] z2 = {1, 1, 1, 1, 1, 1, 5};
+      ZSurface after = new ZSurface(x2, y2, z2, ZGenerator.Type.TRIANGULATE);
+      double[] region = after.getChangedRegion(before);
+      // The new point is covered
+      assertTrue(region[0] <= 150 && region[2] >= 150 && region[1] <= 120 && region[3] >= 120);
+      // Everywhere else the surface is unchanged
+      assertEquals(before.getZ(950, 990), after.getZ(950, 990), 1e-9);
+      assertEquals(0.0, before.getNormalAngle(500, 500), 1e-9);
+   }
+}
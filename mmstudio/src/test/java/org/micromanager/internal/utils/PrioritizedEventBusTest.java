@@ -0,0 +1,112 @@
+package org.micromanager.internal.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.eventbus.Subscribe;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class PrioritizedEventBusTest {
+   private static final class ImageEvent {
+      final int channel;
+      final int frame;
+
+      ImageEvent(int channel, int frame) {
+         this.channel = channel;
+         this.frame = frame;
+      }
+
+      @Override
+      public String toString() {
+         return "c" + channel + "t" + frame;
+      }
+   }
+
+   private static class Recorder {
+      final List<String> received = new ArrayList<>();
+
+      @Subscribe
+      public void onImage(ImageEvent e) {
+         received.add(e.toString());
+      }
+
+      @Subscribe
+      public void onString(String s) {
+         received.add(s);
+      }
+   }
+
+   /**
+    * Blocks the (single) delivery thread until released, so that events pile up.
+    */
+   private static final class Blocker {
+      final CountDownLatch blocked = new CountDownLatch(1);
+      final CountDownLatch release = new CountDownLatch(1);
+
+      @Subscribe
+      public void onString(String s) throws InterruptedException {
+         if (s.equals("block")) {
+            blocked.countDown();
+            release.await();
+         }
+      }
+   }
+
+   private static Object channelKey(Object event) {
+      return event instanceof ImageEvent ? ((ImageEvent) event).channel : null;
+   }
+
+   @Test
+   public void testCoalescingKeepsLatestPerKeyInOrder() throws Exception {
+      PrioritizedEventBus bus = new PrioritizedEventBus(true);
+      Blocker blocker = new Blocker();
+      Recorder all = new Recorder();
+      Recorder latest = new Recorder();
+      bus.register(blocker);
+      bus.register(all);
+      bus.registerCoalescing(latest, PrioritizedEventBus.DEFAULT_PRIORITY, 10,
+            PrioritizedEventBusTest::channelKey);
+
+      bus.post("block");
+      blocker.blocked.await(5, TimeUnit.SECONDS);
+      for (int frame = 0; frame < 3; frame++) {
+         bus.post(new ImageEvent(0, frame));
+         bus.post(new ImageEvent(1, frame));
+      }
+      bus.post("frozen");
+      blocker.release.countDown();
+      Thread.sleep(200);
+      bus.shutDown();
+
+      assertEquals(Arrays.asList("block", "c0t0", "c1t0", "c0t1", "c1t1", "c0t2", "c1t2",
+            "frozen"), all.received);
+      assertEquals(Arrays.asList("block", "c0t2", "c1t2", "frozen"), latest.received);
+      assertEquals(4, bus.getDroppedEventCount(latest));
+   }
+
+   @Test
+   public void testCoalescingQueueIsBounded() {
+      final PrioritizedEventBus bus = new PrioritizedEventBus(false);
+      // Posts more events while handling the first one, so that they queue up
+      Recorder latest = new Recorder() {
+         @Subscribe
+         @Override
+         public void onString(String s) {
+            super.onString(s);
+            for (int channel = 0; channel < 5; channel++) {
+               bus.post(new ImageEvent(channel, 0));
+            }
+         }
+      };
+      bus.registerCoalescing(latest, PrioritizedEventBus.DEFAULT_PRIORITY, 2,
+            PrioritizedEventBusTest::channelKey);
+      bus.post("start");
+
+      assertEquals(Arrays.asList("start", "c3t0", "c4t0"), latest.received);
+      assertEquals(3, bus.getDroppedEventCount(latest));
+   }
+}
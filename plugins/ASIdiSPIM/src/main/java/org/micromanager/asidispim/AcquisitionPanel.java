@@ -35,6 +35,7 @@ import org.micromanager.asidispim.utils.DevicesListenerInterface;
 import org.micromanager.asidispim.utils.ListeningJPanel;
 import org.micromanager.asidispim.utils.MyDialogUtils;
 import org.micromanager.asidispim.utils.MyNumberUtils;
+import org.micromanager.asidispim.utils.ImageStorer;
 import org.micromanager.asidispim.utils.PanelUtils;
 import org.micromanager.asidispim.utils.SliceTiming;
 import org.micromanager.asidispim.utils.StagePositionUpdater;
@@ -66,8 +67,6 @@ import javax.swing.text.DefaultFormatter;
 
 import net.miginfocom.swing.MigLayout;
 
-import mmcorej.org.json.JSONException;
-
 import mmcorej.CMMCore;
 import mmcorej.StrVector;
 import mmcorej.TaggedImage;
@@ -96,14 +95,10 @@ import org.micromanager.PropertyMap;
 import org.micromanager.PropertyMaps;
 import org.micromanager.acquisition.SequenceSettings;
 import org.micromanager.Studio;
-import org.micromanager.data.Coords;
-import org.micromanager.data.Coords.CoordsBuilder;
 import org.micromanager.data.Coordinates;
 import org.micromanager.data.Datastore;
 import org.micromanager.data.DatastoreFrozenException;
 import org.micromanager.data.DatastoreRewriteException;
-import org.micromanager.data.Image;
-import org.micromanager.data.Metadata;
 import org.micromanager.data.SummaryMetadata;
 import org.micromanager.display.DisplayWindow;
 import org.micromanager.display.ChannelDisplaySettings;
@@ -173,6 +168,7 @@ public class AcquisitionPanel extends ListeningJPanel implements DevicesListener
     private final JFormattedTextField prefixField_;
     private final JLabel acquisitionStatusLabel_;
     private int numTimePointsDone_;
+    private volatile ImageStorer imageStorer_ = null;  // stores images of the running acquisition
     private final AtomicBoolean cancelAcquisition_ = new AtomicBoolean(false);  // true if we should stop acquisition
     private final AtomicBoolean acquisitionRequested_ = new AtomicBoolean(false);  // true if acquisition has been requested to start or is underway
     private final AtomicBoolean acquisitionRunning_ = new AtomicBoolean(false);   // true if the acquisition is actually underway
@@ -1631,6 +1627,11 @@ public class AcquisitionPanel extends ListeningJPanel implements DevicesListener
                         + NumberUtils.intToDisplayString(numTimePointsDone_)
                         + " of "
                         + NumberUtils.intToDisplayString(getNumTimepoints());
+                final ImageStorer storer = imageStorer_;
+                if (storer != null && storer.getBacklog() > 0) {
+                    text += " (" + NumberUtils.intToDisplayString(storer.getBacklog())
+                            + " images waiting to be saved)";
+                }
                 // TODO make sure the number of timepoints can't change during an acquisition
                 // (or maybe we make a hidden feature where the acquisition can be terminated by changing)
                 break;
@@ -2538,6 +2539,12 @@ public class AcquisitionPanel extends ListeningJPanel implements DevicesListener
                     ReportingUtils.logError("error waiting for system");
                 }
 
+                // images are put into the datastore on a separate thread so that
+                //   the circular buffer is drained as fast as the cameras fill it
+                imageStorer_ = new ImageStorer(gui_, store,
+                        PanelUtils.getSpinnerFloatValue(stepSize_),
+                        ImageStorer.capacityFor(core_.getImageBufferSize()));
+
                 // Loop over all the times we trigger the controller's acquisition
                 //  (although if multi-channel with volume switching is selected there
                 //   is inner loop to trigger once per channel)
@@ -2732,7 +2739,9 @@ public class AcquisitionPanel extends ListeningJPanel implements DevicesListener
                                             || (twoSided && core_.isSequenceRunning(secondCamera)))
                                             && !done) {
                                         now = System.currentTimeMillis();
-                                        if (core_.getRemainingImageCount() > 0) {  // we have an image to grab
+                                        final int remaining = core_.getRemainingImageCount();
+                                        if (remaining > 0) {  // we have an image to grab
+                                            imageStorer_.noteCameraBacklog(remaining);
                                             TaggedImage timg = core_.popNextTaggedImage();
 
                                             if (checkForSkips && imagesToSkip != 0) {
@@ -2785,13 +2794,12 @@ public class AcquisitionPanel extends ListeningJPanel implements DevicesListener
                                             if (spimMode == AcquisitionModes.Keys.NO_SCAN && !acqSettings.separateTimepoints) {
                                                 // create time series for no scan
 
-                                                addImageToAcquisition(store,
+                                                imageStorer_.submit(timg,
                                                         frNumber[channelIndex], channelIndex, timePoint,
-                                                        positionNum, now - acqStart, timg);
+                                                        positionNum);
                                             } else { // standard, create Z-stacks
-                                                addImageToAcquisition(store, timePoint, channelIndex,
-                                                        frNumber[channelIndex], positionNum,
-                                                        now - acqStart, timg);
+                                                imageStorer_.submit(timg, timePoint, channelIndex,
+                                                        frNumber[channelIndex], positionNum);
                                             }
 
                                             // update our counters to be ready for next image
@@ -2943,6 +2951,16 @@ public class AcquisitionPanel extends ListeningJPanel implements DevicesListener
             } finally {  // end of this acquisition (could be about to restart if separate viewers)
                 try {
 
+                    // wait for the images still on their way to the datastore
+                    if (imageStorer_ != null) {
+                        try {
+                            imageStorer_.finish();
+                        } catch (Exception ex) {
+                            MyDialogUtils.showError(ex, "Problem while saving images");
+                        }
+                        imageStorer_ = null;
+                    }
+
                     if (store != null) {
                         store.freeze();
                     }
@@ -3151,93 +3169,6 @@ public class AcquisitionPanel extends ListeningJPanel implements DevicesListener
         }
     }
 
-    /**
-     * The basic method for adding images to an existing data set. If the
-     * acquisition was not previously initialized, it will attempt to initialize
-     * it from the available image data. This version uses a blocking queue and
-     * is much faster than the one currently implemented in the ScriptInterface
-     * Eventually, this function should be replaced by the ScriptInterface
-     * version of the same.
-     *
-     * @param store - Datastore in which the image will be inserted
-     * @param frame - frame nr at which to insert the image
-     * @param channel - channel at which to insert image
-     * @param slice - (z) slice at which to insert image
-     * @param position - position at which to insert image
-     * @param ms - Time stamp to be added to the image metadata
-     * @param taggedImg - image + metadata to be added
-     * @throws mmcorej.org.json.JSONException
-     * @throws org.micromanager.data.DatastoreFrozenException
-     * @throws org.micromanager.data.DatastoreRewriteException
-     */
-    private void addImageToAcquisition(Datastore store, int frame, int channel,
-            int slice, int position, long ms, TaggedImage taggedImg) throws
-            JSONException, DatastoreFrozenException,
-            DatastoreRewriteException, Exception {
-
-        CoordsBuilder cb = Coordinates.builder();
-
-        Coords coord = cb.time(frame).channel(channel).z(slice).stagePosition(position).build();
-        Image img = gui_.data().convertTaggedImage(taggedImg);
-        Metadata md = img.getMetadata();
-        Metadata.Builder mdb = md.copyBuilderWithNewUUID();
-        PropertyMap ud = md.getUserData();
-        ud = ud.copyBuilder().putDouble("Z-Step-um",
-                (double) PanelUtils.getSpinnerFloatValue(stepSize_)).build();
-        String posName = "Pos-0";
-        PositionList pl = gui_.positions().getPositionList();
-        if (pl != null) {
-            MultiStagePosition pos = pl.getPosition(position);
-            if (pos != null) {
-                posName = pos.getLabel();
-                mdb = mdb.xPositionUm(pos.getX()).yPositionUm(pos.getY());
-            }
-        }
-
-        md = mdb.positionName(posName).userData(ud).build();
-        img = img.copyWith(coord, md);
-
-        store.putImage(img);
-
-        /*
-      // create required coordinate tags
-      try {
-         MDUtils.setFrameIndex(tags, frame);
-         tags.put(MMTags.Image.FRAME, frame);
-         MDUtils.setChannelIndex(tags, channel);
-         MDUtils.setChannelName(tags, channelNames_[channel]);
-         MDUtils.setSliceIndex(tags, slice);
-         MDUtils.setPositionIndex(tags, position);
-         MDUtils.setElapsedTimeMs(tags, ms);
-         MDUtils.setImageTime(tags, MDUtils.getCurrentTime());
-         MDUtils.setZStepUm(tags, PanelUtils.getSpinnerFloatValue(stepSize_));
-         
-         if (!tags.has(MMTags.Summary.SLICES_FIRST) && !tags.has(MMTags.Summary.TIME_FIRST)) {
-            // add default setting
-            tags.put(MMTags.Summary.SLICES_FIRST, true);
-            tags.put(MMTags.Summary.TIME_FIRST, false);
-         }
-
-         if (acq.getPositions() > 1) {
-            // if no position name is defined we need to insert a default one
-            if (tags.has(MMTags.Image.POS_NAME)) {
-               tags.put(MMTags.Image.POS_NAME, "Pos" + position);
-            }
-         }
-
-         // update frames if necessary
-         if (acq.getFrames() <= frame) {
-            acq.setProperty(MMTags.Summary.FRAMES, Integer.toString(frame + 1));
-         }
-
-      } catch (JSONException e) {
-         throw new Exception(e);
-      }
-
-      bq.put(taggedImg);
-         */
-    }
-
     /**
      * *************** API  ******************
      */
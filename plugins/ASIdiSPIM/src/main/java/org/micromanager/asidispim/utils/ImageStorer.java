@@ -0,0 +1,251 @@
+///////////////////////////////////////////////////////////////////////////////
+//FILE:          ImageStorer.java
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     ASIdiSPIM plugin
+//-----------------------------------------------------------------------------
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.asidispim.utils;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import mmcorej.TaggedImage;
+
+import org.micromanager.MultiStagePosition;
+import org.micromanager.PositionList;
+import org.micromanager.PropertyMap;
+import org.micromanager.Studio;
+import org.micromanager.data.Coordinates;
+import org.micromanager.data.Datastore;
+import org.micromanager.data.Image;
+import org.micromanager.data.Metadata;
+import org.micromanager.internal.utils.ReportingUtils;
+
+/**
+ * Inserts acquired images into a Datastore on its own thread, so that the
+ * acquisition thread only has to pop images from the Core's circular buffer.
+ *
+ * Images are handed over through a bounded queue; when storage cannot keep
+ * up the queue fills and submit() blocks, so that images wait in the
+ * circular buffer rather than exhausting the Java heap.  Everything that is
+ * the same for all images of an acquisition (Z step, position names and
+ * coordinates) is resolved once when the storer is created.
+ */
+public class ImageStorer {
+
+    private static final Entry END = new Entry(null, 0, 0, 0, 0);
+    private static final int MIN_CAPACITY = 16;
+    private static final int MAX_CAPACITY = 4096;
+
+    private final Studio gui_;
+    private final Datastore store_;
+    private final double zStepUm_;
+    private final String[] positionNames_;
+    private final double[][] positionsXY_;
+    private final BlockingQueue<Entry> queue_;
+    private final Thread thread_;
+    private final int capacity_;
+    private final AtomicInteger peakBacklog_ = new AtomicInteger();
+    private final AtomicInteger peakCameraBacklog_ = new AtomicInteger();
+    private final AtomicLong storedCount_ = new AtomicLong();
+    private final AtomicLong storeTimeNs_ = new AtomicLong();
+    private volatile Exception error_ = null;
+
+    private static final class Entry {
+        final TaggedImage image;
+        final int frame;
+        final int channel;
+        final int slice;
+        final int position;
+
+        Entry(TaggedImage image, int frame, int channel, int slice, int position) {
+            this.image = image;
+            this.frame = frame;
+            this.channel = channel;
+            this.slice = slice;
+            this.position = position;
+        }
+    }
+
+    /**
+     * Starts the storage thread.
+     *
+     * @param gui - Studio instance
+     * @param store - Datastore to put the images in
+     * @param zStepUm - Z step to record in the user data of each image
+     * @param capacity - number of images that can wait to be stored,
+     *   see capacityFor()
+     */
+    public ImageStorer(Studio gui, Datastore store, double zStepUm, int capacity) {
+        gui_ = gui;
+        store_ = store;
+        zStepUm_ = zStepUm;
+        PositionList pl = gui.positions().getPositionList();
+        int nrPositions = (pl == null) ? 0 : pl.getNumberOfPositions();
+        positionNames_ = new String[nrPositions];
+        positionsXY_ = new double[nrPositions][];
+        for (int i = 0; i < nrPositions; i++) {
+            MultiStagePosition pos = pl.getPosition(i);
+            if (pos != null) {
+                positionNames_[i] = pos.getLabel();
+                positionsXY_[i] = new double[] {pos.getX(), pos.getY()};
+            }
+        }
+        capacity_ = capacity;
+        queue_ = new ArrayBlockingQueue<Entry>(capacity);
+        thread_ = new Thread("diSPIM image storage") {
+            @Override
+            public void run() {
+                storeLoop();
+            }
+        };
+        thread_.start();
+    }
+
+    /**
+     * Chooses a queue capacity that uses at most a quarter of the Java heap.
+     *
+     * @param bytesPerImage - size of the images in bytes
+     * @return number of images the queue should hold
+     */
+    public static int capacityFor(long bytesPerImage) {
+        long capacity = Runtime.getRuntime().maxMemory() / 4 / Math.max(1, bytesPerImage);
+        return (int) Math.max(MIN_CAPACITY, Math.min(MAX_CAPACITY, capacity));
+    }
+
+    /**
+     * Queues an image for storage, waiting if the queue is full.
+     *
+     * @param taggedImg - image + metadata to be added
+     * @param frame - frame nr at which to insert the image
+     * @param channel - channel at which to insert image
+     * @param slice - (z) slice at which to insert image
+     * @param position - position at which to insert image
+     * @throws Exception if storing an earlier image failed
+     */
+    public void submit(TaggedImage taggedImg, int frame, int channel,
+            int slice, int position) throws Exception {
+        checkError();
+        queue_.put(new Entry(taggedImg, frame, channel, slice, position));
+        int backlog = queue_.size();
+        if (backlog > peakBacklog_.get()) {
+            peakBacklog_.set(backlog);  // only the acquisition thread writes
+        }
+    }
+
+    /**
+     * Waits until all queued images are stored and stops the storage thread.
+     *
+     * @throws Exception if storing an image failed
+     */
+    public void finish() throws Exception {
+        queue_.put(END);
+        thread_.join();
+        ReportingUtils.logMessage("diSPIM image storage: " + toString());
+        checkError();
+    }
+
+    /**
+     * Records how many images were waiting in the Core's circular buffer, for
+     * the statistics logged at the end.
+     *
+     * @param remaining - value of core.getRemainingImageCount()
+     */
+    public void noteCameraBacklog(int remaining) {
+        if (remaining > peakCameraBacklog_.get()) {
+            peakCameraBacklog_.set(remaining);  // only the acquisition thread writes
+        }
+    }
+
+    /**
+     * @return number of images waiting to be stored
+     */
+    public int getBacklog() {
+        return queue_.size();
+    }
+
+    /**
+     * @return highest number of images that were waiting to be stored
+     */
+    public int getPeakBacklog() {
+        return peakBacklog_.get();
+    }
+
+    /**
+     * @return number of images stored so far
+     */
+    public long getStoredCount() {
+        return storedCount_.get();
+    }
+
+    @Override
+    public String toString() {
+        long stored = storedCount_.get();
+        return String.format("%d images stored, %.2f ms per image, %d waiting, peak %d of %d"
+                + ", peak %d in circular buffer",
+                stored, stored == 0 ? 0.0 : storeTimeNs_.get() / 1e6 / stored,
+                queue_.size(), peakBacklog_.get(), capacity_, peakCameraBacklog_.get());
+    }
+
+    private void checkError() throws Exception {
+        Exception error = error_;
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private void storeLoop() {
+        try {
+            while (true) {
+                Entry entry = queue_.take();
+                if (entry == END) {
+                    return;
+                }
+                if (error_ != null) {
+                    continue;  // keep draining so that submit() does not block
+                }
+                long start = System.nanoTime();
+                try {
+                    store(entry);
+                    storeTimeNs_.addAndGet(System.nanoTime() - start);
+                    storedCount_.incrementAndGet();
+                } catch (Exception ex) {
+                    ReportingUtils.logError(ex, "Failed to store image");
+                    error_ = ex;
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void store(Entry entry) throws Exception {
+        Image img = gui_.data().convertTaggedImage(entry.image);
+        Metadata md = img.getMetadata();
+        Metadata.Builder mdb = md.copyBuilderWithNewUUID();
+        PropertyMap ud = md.getUserData().copyBuilder().putDouble("Z-Step-um", zStepUm_).build();
+        String posName = "Pos-0";
+        if (entry.position < positionNames_.length && positionNames_[entry.position] != null) {
+            posName = positionNames_[entry.position];
+            double[] xy = positionsXY_[entry.position];
+            mdb = mdb.xPositionUm(xy[0]).yPositionUm(xy[1]);
+        }
+        md = mdb.positionName(posName).userData(ud).build();
+        img = img.copyWith(Coordinates.builder().time(entry.frame).channel(entry.channel)
+                .z(entry.slice).stagePosition(entry.position).build(), md);
+        store_.putImage(img);
+    }
+}
@@ -90,7 +90,7 @@ public class PlatePanel extends JPanel {
       public boolean active;
 
       private DrawingParams params_;
-      private final PositionList sites_;
+      private PositionList sites_;
 
       public WellBox(PositionList pl) {
          label = "undef";
@@ -211,6 +211,9 @@ public class PlatePanel extends JPanel {
       super.addMouseListener(new MouseAdapter() {
          @Override
          public void mouseClicked(final MouseEvent e) {
+            if (!isEnabled()) {
+               return;
+            }
             try {
                onMouseClicked(e);
             } catch (HCSException e1) {
@@ -220,12 +223,16 @@ public class PlatePanel extends JPanel {
 
          @Override
          public void mousePressed(final MouseEvent e) {
-            onMousePressed(e);
+            if (isEnabled()) {
+               onMousePressed(e);
+            }
          }
 
          @Override
          public void mouseReleased(final MouseEvent e) {
-            onMouseReleased(e);
+            if (isEnabled()) {
+               onMouseReleased(e);
+            }
          }
       });
 
@@ -237,7 +244,9 @@ public class PlatePanel extends JPanel {
 
          @Override
          public void mouseDragged(final MouseEvent e) {
-            onMouseDragged(e);
+            if (isEnabled()) {
+               onMouseDragged(e);
+            }
          }
       });
       
@@ -672,16 +681,39 @@ public class PlatePanel extends JPanel {
     * @throws HCSException happens
     */
    public void refreshImagingSites(PositionList sites) throws HCSException {
+      setWellPositions(plate_.generatePositions(SBSPlate.DEFAULT_XYSTAGE_NAME, sites));
+   }
+
+   /**
+    * Updates display of image sites, using wells generated elsewhere (for
+    * instance on a background thread by SBSPlate.generatePositions).
+    * When the wells are laid out the same as the current ones (i.e. only the
+    * sites within the wells changed), existing well boxes are reused and the
+    * well selection is kept.
+    *
+    * @param wells Wells with their sites, for the current plate
+    * @throws HCSException thrown when the stage position cannot be retrieved.
+    */
+   public void setWellPositions(WellPositionList[] wells) throws HCSException {
       updateCameraFieldOfView();
       rescale();
-      
-      wells_ = plate_.generatePositions(SBSPlate.DEFAULT_XYSTAGE_NAME, sites);
 
-      wellBoxes_ = new WellBox[wells_.length];
-      wellMap_.clear();
-      for (int i = 0; i < wellBoxes_.length; i++) {
-         wellBoxes_[i] = new WellBox(wells_[i].getSitePositions());
-         wellMap_.put(getWellKey(wells_[i].getRow(), wells_[i].getColumn()), i);
+      if (hasSameLayout(wells)) {
+         for (int i = 0; i < wells.length; i++) {
+            wellBoxes_[i].sites_ = wells[i].getSitePositions();
+         }
+         wells_ = wells;
+      } else {
+         // Build the new boxes and map first, and replace the old ones together
+         WellBox[] wellBoxes = new WellBox[wells.length];
+         Hashtable<String, Integer> wellMap = new Hashtable<>();
+         for (int i = 0; i < wellBoxes.length; i++) {
+            wellBoxes[i] = new WellBox(wells[i].getSitePositions());
+            wellMap.put(getWellKey(wells[i].getRow(), wells[i].getColumn()), i);
+         }
+         wells_ = wells;
+         wellBoxes_ = wellBoxes;
+         wellMap_ = wellMap;
       }
 
       double wellX = plate_.getWellSpacingX() * drawingParams_.xFactor;
@@ -716,6 +748,21 @@ public class PlatePanel extends JPanel {
       refreshStagePosition();
    }
 
+   private boolean hasSameLayout(WellPositionList[] wells) {
+      if (wells_ == null || wellBoxes_ == null || wells.length != wells_.length
+            || wellBoxes_.length != wells.length) {
+         return false;
+      }
+      for (int i = 0; i < wells.length; i++) {
+         if (wells[i].getRow() != wells_[i].getRow()
+               || wells[i].getColumn() != wells_[i].getColumn()
+               || !wells[i].getLabel().equals(wells_[i].getLabel())) {
+            return false;
+         }
+      }
+      return true;
+   }
+
    WellPositionList[] getWellPositions() {
       return wells_;
    }
@@ -747,7 +794,11 @@ public class PlatePanel extends JPanel {
    }
    
    void selectWell(int row, int col, boolean sel) {
-      int index = wellMap_.get(getWellKey(row, col));
+      // The well may be gone when the plate is being re-initialized
+      Integer index = wellMap_.get(getWellKey(row, col));
+      if (index == null) {
+         return;
+      }
       wellBoxes_[index].selected = sel;
       Graphics2D g = (Graphics2D) getGraphics();
       wellBoxes_[index].draw(g);
@@ -761,7 +812,10 @@ public class PlatePanel extends JPanel {
    }
 
    void activateWell(int row, int col, boolean act) {
-      int index = wellMap_.get(getWellKey(row, col));
+      Integer index = wellMap_.get(getWellKey(row, col));
+      if (index == null) {
+         return;
+      }
       wellBoxes_[index].active = act;
       Graphics2D g = (Graphics2D) getGraphics();
       wellBoxes_[index].draw(g);
@@ -27,6 +27,7 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.stream.IntStream;
 import mmcorej.org.json.JSONException;
 import mmcorej.org.json.JSONObject;
 import org.micromanager.MultiStagePosition;
@@ -98,6 +99,32 @@ public class SBSPlate {
       initialize(SBS_96_WELL);
    }
 
+   /**
+    * Copies a plate.  The copy does not change when the original is
+    * re-initialized, so it can be handed to a background thread.
+    *
+    * @param plate Plate to copy
+    */
+   SBSPlate(SBSPlate plate) {
+      numColumns_ = plate.numColumns_;
+      numRows_ = plate.numRows_;
+      wellSpacingX_ = plate.wellSpacingX_;
+      wellSpacingY_ = plate.wellSpacingY_;
+      sizeXUm_ = plate.sizeXUm_;
+      sizeYUm_ = plate.sizeYUm_;
+      firstWellX_ = plate.firstWellX_;
+      firstWellY_ = plate.firstWellY_;
+      wellSizeX_ = plate.wellSizeX_;
+      wellSizeY_ = plate.wellSizeY_;
+      circular_ = plate.circular_;
+      id_ = plate.id_;
+      description_ = plate.description_;
+      // generateWells() replaces Wells rather than changing them
+      wellMap_ = new HashMap<>(plate.wellMap_);
+      prevMode_ = plate.prevMode_;
+      wasLastModeCustom_ = plate.wasLastModeCustom_;
+   }
+
    @Override
    public String toString() {
       return id_;
@@ -352,6 +379,8 @@ public class SBSPlate {
     * Generate a list of well positions using 'snake' pattern.
     * Takes a list of sites and merges them into the well list.
     * Site XY coordinates are assumed to be relative to the well center.
+    * Wells are generated in parallel; the order of the returned array does
+    * not depend on this.
     *
     * @param xyStageName Name of the (default) XY stage
     * @param sites
@@ -359,49 +388,55 @@ public class SBSPlate {
     */
    public WellPositionList[] generatePositions(final String xyStageName,
                                                final PositionList sites) {
-      WellPositionList[] posListArray = new WellPositionList[numRows_ * numColumns_];
-      boolean direction = true;
-      int wellCount = 0;
-
-      for (int i = 0; i < numRows_; i++) {
-         for (int j = 0; j < numColumns_; j++) {
-            WellPositionList wpl = new WellPositionList();
-            String wellLabel;
-            int colIndex;
-            if (direction) {
-               colIndex = j + 1; // forward
-            } else {
-               colIndex = numColumns_ - j; // reverse
-            }
-            wellLabel = getWellLabel(i + 1, colIndex);
+      // Take a snapshot of the plate geometry and the sites, so that the
+      // wells can be generated on other threads.
+      final int numRows = numRows_;
+      final int numColumns = numColumns_;
+      final double firstWellX = firstWellX_;
+      final double firstWellY = firstWellY_;
+      final double wellSpacingX = wellSpacingX_;
+      final double wellSpacingY = wellSpacingY_;
+      final int numSites = sites.getNumberOfPositions();
+      final double[] siteX = new double[numSites];
+      final double[] siteY = new double[numSites];
+      for (int k = 0; k < numSites; k++) {
+         // TODO: make sure we get the right XY stage not just the first one
+         StagePosition sp = sites.getPosition(k).get(0);
+         siteX[k] = sp.x;
+         siteY[k] = sp.y;
+      }
 
-            try {
-               double wellX = getWellXUm(wellLabel);
-               double wellY = getWellYUm(wellLabel);
-               PositionList absSites = new PositionList();
-               for (int k = 0; k < sites.getNumberOfPositions(); k++) {
-                  final MultiStagePosition mps = sites.getPosition(k);
-                  final MultiStagePosition absMps = new MultiStagePosition();
-                  absMps.setLabel(METADATA_SITE_PREFIX + "_" + k);
-                  wpl.setGridCoordinates(i, colIndex - 1);
-                  absMps.setDefaultXYStage(xyStageName);
-                  // TODO: make sure we get the right XY stage not just the first one
-                  StagePosition sp = mps.get(0);
-                  StagePosition absSp = StagePosition.create2D(xyStageName,
-                        wellX + sp.x, wellY + sp.y);
-                  absMps.add(absSp);
-                  absSites.addPosition(absMps);
-               }
-               wpl.setSitePositions(absSites);
-               wpl.setLabel(wellLabel);
-               posListArray[wellCount++] = wpl;
-            } catch (HCSException e) {
-               // TODO Auto-generated catch block
-               ReportingUtils.logError(e);
-            }
+      final WellPositionList[] posListArray = new WellPositionList[numRows * numColumns];
+      IntStream.range(0, posListArray.length).parallel().forEach(wellIndex -> {
+         int row = wellIndex / numColumns;
+         int j = wellIndex % numColumns;
+         int colIndex;
+         if (row % 2 == 0) {
+            colIndex = j + 1; // forward
+         } else {
+            colIndex = numColumns - j; // reverse
          }
-         direction = !direction; // reverse direction
-      }
+         // same well centers as in generateWells()
+         double wellX = firstWellX + wellSpacingX * (colIndex - 1);
+         double wellY = firstWellY + wellSpacingY * row;
+         // Site labels are unique, so skip the label checks of addPosition
+         final MultiStagePosition[] absMpsArray = new MultiStagePosition[numSites];
+         for (int k = 0; k < numSites; k++) {
+            final MultiStagePosition absMps = new MultiStagePosition();
+            absMps.setLabel(METADATA_SITE_PREFIX + "_" + k);
+            absMps.setDefaultXYStage(xyStageName);
+            absMps.add(StagePosition.create2D(xyStageName,
+                  wellX + siteX[k], wellY + siteY[k]));
+            absMpsArray[k] = absMps;
+         }
+         PositionList absSites = new PositionList();
+         absSites.setPositions(absMpsArray);
+         WellPositionList wpl = new WellPositionList();
+         wpl.setGridCoordinates(row, colIndex - 1);
+         wpl.setSitePositions(absSites);
+         wpl.setLabel(getWellLabel(row + 1, colIndex));
+         posListArray[wellIndex] = wpl;
+      });
       return posListArray;
    }
 
@@ -0,0 +1,181 @@
+package org.micromanager.hcs;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import javax.swing.SwingUtilities;
+import org.micromanager.MultiStagePosition;
+import org.micromanager.PositionList;
+import org.micromanager.StagePosition;
+
+/**
+ * Generates site positions for all wells of a plate, and the position list
+ * for the selected wells, on a background thread.
+ *
+ * <p>Wells are processed in parallel.  Results are handed back on the Event
+ * Dispatch Thread.  A request to generate the wells supersedes earlier ones:
+ * when settings change faster than the wells can be generated, only the
+ * result of the latest request is delivered.
+ */
+class SiteGenerationEngine {
+   private final ExecutorService executor_;
+   private final AtomicLong generation_ = new AtomicLong(0);
+
+   SiteGenerationEngine() {
+      // The thread goes away when idle, so the engine does not need to be shut down.
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), r -> {
+               Thread t = new Thread(r, "HCS site generation");
+               t.setDaemon(true);
+               return t;
+            });
+      executor.allowCoreThreadTimeOut(true);
+      executor_ = executor;
+   }
+
+   /**
+    * Generates the site positions of all wells of the plate.
+    *
+    * @param plate Plate, which must not be changed anymore (pass a copy of a
+    *              plate that is still in use on the EDT)
+    * @param xyStageName Name of the XY stage used in the site positions
+    * @param sites Sites relative to the well center
+    * @param onDone Called on the EDT with the wells, unless a newer request was made
+    * @param onError Called on the EDT when generation fails, unless a newer
+    *                request was made
+    */
+   void generateWells(final SBSPlate plate, final String xyStageName,
+                      final PositionList sites, final Consumer<WellPositionList[]> onDone,
+                      final Consumer<Exception> onError) {
+      final long generation = generation_.incrementAndGet();
+      executor_.submit(() -> {
+         if (generation != generation_.get()) {
+            return;
+         }
+         try {
+            final WellPositionList[] wells = plate.generatePositions(xyStageName, sites);
+            SwingUtilities.invokeLater(() -> {
+               if (generation == generation_.get()) {
+                  onDone.accept(wells);
+               }
+            });
+         } catch (RuntimeException e) {
+            SwingUtilities.invokeLater(() -> {
+               if (generation == generation_.get()) {
+                  onError.accept(e);
+               }
+            });
+         }
+      });
+   }
+
+   /**
+    * Builds a position list with the sites of the given wells.
+    *
+    * @param wells Wells to visit, in order
+    * @param existing Positions to put in front of the new ones, or null
+    * @param xyStageName XY stage to use, or null to keep the stage of the sites
+    * @param offset XY offset added to all site positions
+    * @param focusPlane When not null, Z positions are added from this plane
+    * @param onDone Called on the EDT with the new position list
+    * @param onError Called on the EDT when building the list fails
+    */
+   void buildPositionList(final List<WellPositionList> wells,
+                          final MultiStagePosition[] existing, final String xyStageName,
+                          final Point2D.Double offset, final AFPlane focusPlane,
+                          final Consumer<PositionList> onDone,
+                          final Consumer<Exception> onError) {
+      executor_.submit(() -> {
+         try {
+            final PositionList pl = createPositionList(wells, existing, xyStageName,
+                  offset, focusPlane);
+            SwingUtilities.invokeLater(() -> onDone.accept(pl));
+         } catch (RuntimeException e) {
+            SwingUtilities.invokeLater(() -> onError.accept(e));
+         }
+      });
+   }
+
+   /**
+    * Creates the positions of each well in parallel, and puts them in a
+    * single list in one go.  Position labels are "well-site"; labels that
+    * clash with existing ones are replaced like PositionList.addPosition does.
+    */
+   static PositionList createPositionList(List<WellPositionList> wells,
+                                          MultiStagePosition[] existing,
+                                          String xyStageName, Point2D.Double offset,
+                                          AFPlane focusPlane) {
+      final MultiStagePosition[][] wellPositions = new MultiStagePosition[wells.size()][];
+      IntStream.range(0, wells.size()).parallel().forEach(w ->
+            wellPositions[w] = createWellPositions(wells.get(w), xyStageName, offset,
+                  focusPlane));
+
+      List<MultiStagePosition> positions = new ArrayList<>();
+      Set<String> labels = new HashSet<>();
+      if (existing != null) {
+         positions.addAll(Arrays.asList(existing));
+         for (MultiStagePosition msp : existing) {
+            labels.add(msp.getLabel());
+         }
+      }
+      for (MultiStagePosition[] mspArray : wellPositions) {
+         for (MultiStagePosition msp : mspArray) {
+            if (!labels.add(msp.getLabel())) {
+               String proposal = msp.getLabel();
+               int i = 0;
+               String label;
+               do {
+                  label = proposal + (positions.size() + i++);
+               } while (!labels.add(label));
+               msp.setLabel(label);
+            }
+            positions.add(msp);
+         }
+      }
+      PositionList pl = new PositionList();
+      pl.setPositions(positions.toArray(new MultiStagePosition[0]));
+      return pl;
+   }
+
+   private static MultiStagePosition[] createWellPositions(WellPositionList wpl,
+                                                           String xyStageName,
+                                                           Point2D.Double offset,
+                                                           AFPlane focusPlane) {
+      PositionList sites = wpl.getSitePositions();
+      MultiStagePosition[] result = new MultiStagePosition[sites.getNumberOfPositions()];
+      for (int j = 0; j < result.length; j++) {
+         MultiStagePosition msp = MultiStagePosition.newInstance(sites.getPosition(j));
+         // make label unique
+         msp.setLabel(wpl.getLabel() + "-" + msp.getLabel());
+         if (xyStageName != null) {
+            msp.setDefaultXYStage(xyStageName);
+         }
+         // set the proper XYstage name
+         for (int k = 0; k < msp.size(); k++) {
+            StagePosition sp = msp.get(k);
+            if (sp.is2DStagePosition()) {
+               sp.set2DPosition(msp.getDefaultXYStage(), sp.get2DPositionX() + offset.getX(),
+                     sp.get2DPositionY() + offset.getY());
+            }
+         }
+         // add z position from the 3-point plane estimate
+         if (focusPlane != null) {
+            msp.setDefaultZStage(focusPlane.getZStage());
+            msp.add(StagePosition.create1D(focusPlane.getZStage(),
+                  focusPlane.getZPos(msp.getX(), msp.getY())));
+         }
+         result[j] = msp;
+      }
+      return result;
+   }
+}
@@ -97,6 +97,8 @@ public class SiteGenerator extends JFrame implements ParentPlateGUI {
    private final JComboBox<String> visitOrderInWell_;
    private final JComboBox<String> visitOrderBetweenWells_;
 
+   private final SiteGenerationEngine siteEngine_ = new SiteGenerationEngine();
+
    private double xSpacing_ = 0.0;
    private double ySpacing_ = 0.0;
    
@@ -208,15 +210,7 @@ public class SiteGenerator extends JFrame implements ParentPlateGUI {
          }
          plate_.initialize((String) plateIDCombo_.getSelectedItem());
          updateXySpacing();
-         PositionList sites = generateSitesInWell();
-         try {
-            platePanel_.refreshImagingSites(sites);
-         } catch (HCSException e1) {
-            if (studio_ != null) {
-               studio_.logs().logError(e1);
-            }
-         }
-         platePanel_.repaint();
+         refreshImagingSites(generateSitesInWell());
       });
 
       final FocusListener regeneratePlateOnLossOfFocus = new FocusListener() {
@@ -474,61 +468,41 @@ public class SiteGenerator extends JFrame implements ParentPlateGUI {
          }
       }
 
-      PositionList platePl;
-      if (replaceList) {
-         platePl = new PositionList();
-      } else {
-         platePl = studio_.positions().getPositionList();
-      }
-      for (WellPositionList wpl1 : wpl) {
-         PositionList pl = PositionList.newInstance(wpl1.getSitePositions());
-         for (int j = 0; j < pl.getNumberOfPositions(); j++) {
-            MultiStagePosition msp = pl.getPosition(j);
-            // make label unique
-            msp.setLabel(wpl1.getLabel() + "-" + msp.getLabel());
-            if (studio_ != null) {
-               msp.setDefaultXYStage(studio_.getCMMCore().getXYStageDevice());
-            }
-            // set the proper XYstage name
-            for (int k = 0; k < msp.size(); k++) {
-               StagePosition sp = msp.get(k);
-               if (sp.is2DStagePosition()) {
-                  sp.set2DPosition(msp.getDefaultXYStage(), sp.get2DPositionX() + offset_.getX(), 
-                          sp.get2DPositionY() + offset_.getY());
-               }
-            }
-            // add Z position if 3-point focus is enabled
-            if (useThreePtAF()) {
-               if (focusPlane_ == null) {
-                  displayError("3-point AF is selected but 3 points are not defined.");
-                  return;
-               }
-               if (!focusPlane_.isValid()) {
-                  displayError("3-point AF is selected, but 3 point list is invalid");
-                  return;
-               }
-               msp.setDefaultZStage(focusPlane_.getZStage());
-               // add z position from the 3-point plane estimate
-               StagePosition sp = StagePosition.create1D(focusPlane_.getZStage(), 
-                       focusPlane_.getZPos(msp.getX(), msp.getY()));
-               msp.add(sp);
-            }
-            platePl.addPosition(pl.getPosition(j));
+      AFPlane focusPlane = null;
+      if (useThreePtAF()) {
+         if (focusPlane_ == null) {
+            displayError("3-point AF is selected but 3 points are not defined.");
+            return;
          }
-      }
-
-      try {
-         if (studio_ != null) {
-            if (platePl.getNumberOfPositions() == 0) {
-               studio_.logs().showMessage("No sites selected");
-            }
-            studio_.positions().setPositionList(platePl);
-            studio_.app().showPositionList();
+         if (!focusPlane_.isValid()) {
+            displayError("3-point AF is selected, but 3 point list is invalid");
+            return;
          }
-      } catch (Exception e) {
-         displayError(e.getMessage());
+         focusPlane = focusPlane_;
       }
-
+      MultiStagePosition[] existing = null;
+      if (!replaceList && studio_ != null) {
+         existing = studio_.positions().getPositionList().getPositions();
+      }
+      String xyStage = studio_ == null ? null : studio_.getCMMCore().getXYStageDevice();
+
+      // Positions are generated on a background thread; the list is handed
+      // to Micro-Manager in one go once complete.
+      siteEngine_.buildPositionList(wpl, existing, xyStage, getOffset(), focusPlane,
+            (PositionList platePl) -> {
+               try {
+                  if (studio_ != null) {
+                     if (platePl.getNumberOfPositions() == 0) {
+                        studio_.logs().showMessage("No sites selected");
+                     }
+                     studio_.positions().setPositionList(platePl);
+                     studio_.app().showPositionList();
+                  }
+               } catch (Exception e) {
+                  displayError(e.getMessage());
+               }
+            },
+            (Exception e) -> displayError(e.getMessage()));
    }
 
    private void updateXySpacing() {
@@ -823,21 +797,37 @@ public class SiteGenerator extends JFrame implements ParentPlateGUI {
    private void regenerate() {
       updateXySpacing();
       PositionList sites = generateSitesInWell();
-      List<WellPositionList> selectedWells = null;
-      if (plate_.getID().equals(plateIDCombo_.getSelectedItem())) {
-         selectedWells = platePanel_.getSelectedWellPositions();
-      }
       plate_.initialize((String) plateIDCombo_.getSelectedItem());
-      try {
-         platePanel_.refreshImagingSites(sites);
-      } catch (HCSException e) {
-         displayError(e.getMessage());
-      }
+      // When the plate did not change, the plate panel keeps the well selection.
+      refreshImagingSites(sites);
+   }
 
-      if (selectedWells != null) {
-         platePanel_.setSelectedWells(selectedWells);
-      }
-      platePanel_.repaint();
+   /**
+    * Generates the sites in all wells of the plate on a background thread, and
+    * shows them in the plate panel when done.  Only the latest request is shown
+    * when settings change while generating.  The plate panel does not respond
+    * to the mouse until then, as its wells do not match the plate yet.
+    *
+    * @param sites Sites relative to the well center
+    */
+   private void refreshImagingSites(PositionList sites) {
+      // The background thread works on a copy, as plate_ may be re-initialized
+      // before it is done.
+      platePanel_.setEnabled(false);
+      siteEngine_.generateWells(new SBSPlate(plate_), SBSPlate.DEFAULT_XYSTAGE_NAME, sites,
+            (WellPositionList[] wells) -> {
+               try {
+                  platePanel_.setWellPositions(wells);
+               } catch (HCSException e) {
+                  displayError(e.getMessage());
+               }
+               platePanel_.setEnabled(true);
+               platePanel_.repaint();
+            },
+            (Exception e) -> {
+               platePanel_.setEnabled(true);
+               displayError(e.getMessage());
+            });
    }
 
    public void configurationChanged() {
@@ -870,18 +860,10 @@ public class SiteGenerator extends JFrame implements ParentPlateGUI {
     */
    public void loadCustom(File target) {
       plate_.initialize(target.getAbsolutePath());
-      PositionList sites = generateSitesInWell();
-      try {
-         platePanel_.refreshImagingSites(sites);
-      } catch (HCSException e1) {
-         if (studio_ != null) {
-            studio_.logs().logError(e1);
-         }
-      }
+      refreshImagingSites(generateSitesInWell());
       shouldIgnoreFormatEvent_ = true;
       plateIDCombo_.setSelectedItem(SBSPlate.LOAD_CUSTOM);
       shouldIgnoreFormatEvent_ = false;
-      platePanel_.repaint();
    }
    
    @Override
@@ -25,7 +25,9 @@ import java.util.Arrays;
 import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -74,6 +76,7 @@ public abstract class SurfaceInterpolator extends XYFootprint {
    private ExecutorService executor_;
    protected volatile SingleResolutionInterpolation currentInterpolation_;
    private volatile Future currentInterpolationTask_;
+   private volatile SurfaceRangeCache surfaceRangeCache_;
    //Objects for wait/notify sync of calcualtions
    protected Object xyPositionLock_ = new Object();
    protected Object interpolationLock_ = new Object();
@@ -250,27 +253,48 @@ public abstract class SurfaceInterpolator extends XYFootprint {
                + "Configuration Wizard");
          throw new RuntimeException();
       }
-      //First check position corners before going into a more detailed set of test points
+      float[] range = getSurfaceRange(positionCorners, surface, extrapolate);
+      if (towardsSampleIsPositive == (mode == ABOVE_SURFACE)) {
+         return zPos < range[0];
+      }
+      return zPos > range[1];
+   }
+
+   /**
+    * Lowest and highest surface z at the test points of a position, cached
+    * per position for the current interpolation, so that testing each slice
+    * of a position does not sample the surface again.
+    */
+   private float[] getSurfaceRange(Point2D.Double[] positionCorners,
+                                   SurfaceInterpolator surface, boolean extrapolate) {
+      SingleResolutionInterpolation interpolation = surface.getCurentInterpolation();
+      if (surface != this) {
+         return calculateSurfaceRange(positionCorners, surface, interpolation, extrapolate);
+      }
+      SurfaceRangeCache cache = surfaceRangeCache_;
+      if (cache == null || cache.interpolation_ != interpolation) {
+         cache = new SurfaceRangeCache(interpolation);
+         surfaceRangeCache_ = cache;
+      }
+      Map<List<Point2D.Double>, float[]> ranges = extrapolate ? cache.extrapolated_
+            : cache.interpolated_;
+      List<Point2D.Double> key = new ArrayList<Point2D.Double>(positionCorners.length);
+      for (Point2D.Double corner : positionCorners) {
+         key.add(new Point2D.Double(corner.x, corner.y));
+      }
+      return ranges.computeIfAbsent(key,
+            k -> calculateSurfaceRange(positionCorners, surface, interpolation, extrapolate));
+   }
+
+   private float[] calculateSurfaceRange(Point2D.Double[] positionCorners,
+                                         SurfaceInterpolator surface,
+                                         SingleResolutionInterpolation interpolation,
+                                         boolean extrapolate) {
+      float[] range = {Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY};
+      // position corners, followed by a 9x9 square of points spanning the entire position
       for (Point2D.Double point : positionCorners) {
-         float interpVal;
-         if (!surface.getCurentInterpolation().isInterpDefined(point.x, point.y)) {
-            if (extrapolate) {
-               interpVal = surface.getExtrapolatedValue(point.x, point.y);
-            } else {
-               continue;
-            }
-         } else {
-            interpVal = surface.getCurentInterpolation().getInterpolatedValue(point.x, point.y);
-         }
-         if ((towardsSampleIsPositive && mode == ABOVE_SURFACE && zPos >= interpVal)
-                 || (towardsSampleIsPositive && mode == BELOW_SURFACE && zPos <= interpVal)
-                 || (!towardsSampleIsPositive && mode == ABOVE_SURFACE && zPos <= interpVal)
-                 || (!towardsSampleIsPositive && mode == BELOW_SURFACE) && zPos >= interpVal) {
-            return false;
-         }
+         addToSurfaceRange(range, point.x, point.y, surface, interpolation, extrapolate);
       }
-      // then check a grid of points spanning entire position
-      // 9x9 square of points to check for each position
       // square is aligned with axes in pixel space, so convert to pixel space to generate
       // test points
       double xSpan = positionCorners[2].getX() - positionCorners[0].getX();
@@ -282,39 +306,57 @@ public abstract class SurfaceInterpolator extends XYFootprint {
       } catch (NoninvertibleTransformException ex) {
          Log.log("Problem inverting affine transform");
       }
-      outerloop:
+      //convert these abritray pixel coordinates back to stage coordinates
+      double[] transformMaxtrix = new double[6];
+      transform.getMatrix(transformMaxtrix);
+      transformMaxtrix[4] = positionCorners[0].getX();
+      transformMaxtrix[5] = positionCorners[0].getY();
+      //create new transform with translation applied
+      transform = new AffineTransform(transformMaxtrix);
       for (double x = 0; x <= pixelSpan.x; x += pixelSpan.x / (double) NUM_XY_TEST_POINTS) {
          for (double y = 0; y <= pixelSpan.y; y += pixelSpan.y / (double) NUM_XY_TEST_POINTS) {
-            //convert these abritray pixel coordinates back to stage coordinates
-            double[] transformMaxtrix = new double[6];
-            transform.getMatrix(transformMaxtrix);
-            transformMaxtrix[4] = positionCorners[0].getX();
-            transformMaxtrix[5] = positionCorners[0].getY();
-            //create new transform with translation applied
-            transform = new AffineTransform(transformMaxtrix);
             Point2D.Double stageCoords = new Point2D.Double();
             transform.transform(new Point2D.Double(x, y), stageCoords);
-            //test point for inclusion of position
-            float interpVal;
-            if (!surface.getCurentInterpolation().isInterpDefined(stageCoords.x, stageCoords.y)) {
-               if (extrapolate) {
-                  interpVal = surface.getExtrapolatedValue(stageCoords.x, stageCoords.y);
-               } else {
-                  continue;
-               }
-            } else {
-               interpVal = surface.getCurentInterpolation().getInterpolatedValue(stageCoords.x,
-                     stageCoords.y);
-            }
-            if ((towardsSampleIsPositive && mode == ABOVE_SURFACE && zPos >= interpVal)
-                    || (towardsSampleIsPositive && mode == BELOW_SURFACE && zPos <= interpVal)
-                    || (!towardsSampleIsPositive && mode == ABOVE_SURFACE && zPos <= interpVal)
-                    || (!towardsSampleIsPositive && mode == BELOW_SURFACE) && zPos >= interpVal) {
-               return false;
-            }
+            addToSurfaceRange(range, stageCoords.x, stageCoords.y, surface, interpolation,
+                  extrapolate);
          }
       }
-      return true;
+      return range;
+   }
+
+   private static void addToSurfaceRange(float[] range, double x, double y,
+                                         SurfaceInterpolator surface,
+                                         SingleResolutionInterpolation interpolation,
+                                         boolean extrapolate) {
+      float interpVal;
+      if (!interpolation.isInterpDefined(x, y)) {
+         if (extrapolate) {
+            interpVal = surface.getExtrapolatedValue(x, y);
+         } else {
+            return;
+         }
+      } else {
+         interpVal = interpolation.getInterpolatedValue(x, y);
+      }
+      if (!Float.isNaN(interpVal)) {
+         range[0] = Math.min(range[0], interpVal);
+         range[1] = Math.max(range[1], interpVal);
+      }
+   }
+
+   /**
+    * Surface ranges of positions, valid for one interpolation.
+    */
+   private static final class SurfaceRangeCache {
+      private final SingleResolutionInterpolation interpolation_;
+      private final Map<List<Point2D.Double>, float[]> interpolated_ =
+            new ConcurrentHashMap<>();
+      private final Map<List<Point2D.Double>, float[]> extrapolated_ =
+            new ConcurrentHashMap<>();
+
+      SurfaceRangeCache(SingleResolutionInterpolation interpolation) {
+         interpolation_ = interpolation;
+      }
    }
 
    private void calculateConvexHullBounds() {
@@ -17,28 +17,36 @@
 
 package org.micromanager.magellan.internal.surfacesandregions;
 
-import delaunay_triangulation.Delaunay_Triangulation;
-import delaunay_triangulation.Point_dt;
-import delaunay_triangulation.Triangle_dt;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.LinkedList;
+import java.util.stream.IntStream;
 import org.apache.commons.math3.geometry.euclidean.threed.Line;
 import org.apache.commons.math3.geometry.euclidean.threed.Plane;
 import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+import org.apache.commons.math3.geometry.euclidean.twod.Euclidean2D;
 import org.apache.commons.math3.geometry.euclidean.twod.Vector2D;
 import org.apache.commons.math3.geometry.partitioning.Region;
+import org.micromanager.internal.positionlist.utils.ZGenerator;
+import org.micromanager.internal.positionlist.utils.ZSurface;
 import org.micromanager.magellan.internal.main.Magellan;
 
 /**
  * Subclass that implements a particular interpolation method This one creates a
  * plane based on the 3 closest points in XY space using the delaunay
  * triangulation and calculates specific z values in that plane
+ *
+ * <p>Grid points are calculated in parallel.  When points are added or removed
+ * without changing the bounds of the surface, only the part of the finest
+ * interpolation where the triangulation changed is recalculated.
  */
 public class SurfaceInterpolatorSimple extends SurfaceInterpolator {
 
    private static final double TOLERANCE = 0.01;
 
+   // Finest interpolation calculated so far, used to update only what changed
+   private volatile InterpolationGrid lastGrid_;
+
    public SurfaceInterpolatorSimple(String xyName, String zName) {
       super(xyName, zName);
    }
@@ -50,11 +58,15 @@ public class SurfaceInterpolatorSimple extends SurfaceInterpolator {
          throw new RuntimeException("Pixel size is 0");
       }
       //provide interpolator with current list of data points
-      Point_dt[] triangulationPoints = new Point_dt[points.size()];
+      double[] xs = new double[points.size()];
+      double[] ys = new double[points.size()];
+      double[] zs = new double[points.size()];
       for (int i = 0; i < points.size(); i++) {
-         triangulationPoints[i] = new Point_dt(points.get(i).x, points.get(i).y, points.get(i).z);
+         xs[i] = points.get(i).x;
+         ys[i] = points.get(i).y;
+         zs[i] = points.get(i).z;
       }
-      Delaunay_Triangulation dTri = new Delaunay_Triangulation(triangulationPoints);
+      ZSurface surface = new ZSurface(xs, ys, zs, ZGenerator.Type.TRIANGULATE);
 
       int maxPixelDimension = (int) (Math.max(boundXMax_ - boundXMin_, boundYMax_ - boundYMin_)
             / pixSize);
@@ -72,60 +84,94 @@ public class SurfaceInterpolatorSimple extends SurfaceInterpolator {
       double pixelRes = pixelWidth * pixelHeight;
       double maxPixels = 0.2 * 1024 * 1024 * 1024 / 4.0; //200 MB worth of floats
       minPixelsPerInterpPoint_ = Math.max(2, (int) (pixelRes / maxPixels));
-      
+
+      InterpolationGrid previous = lastGrid_;
+      if (previous != null && previous.hasBounds(pixSize, boundXMin_, boundXMax_,
+            boundYMin_, boundYMax_)) {
+         // Same grid as before, so only recalculate where the surface changed
+         InterpolationGrid grid = previous.copy(surface);
+         double[] region = surface.getChangedRegion(previous.surface_);
+         if (region != null) {
+            calculate(grid, region);
+         }
+         lastGrid_ = grid;
+         publish(grid);
+         return;
+      }
+
       while (pixelsPerInterpPoint >= minPixelsPerInterpPoint_) {
          int numInterpPointsX = (int) (((boundXMax_ - boundXMin_) / pixSize)
                / pixelsPerInterpPoint);
          int numInterpPointsY = (int) (((boundYMax_ - boundYMin_) / pixSize)
                / pixelsPerInterpPoint);
-         double dx = (boundXMax_ - boundXMin_) / (numInterpPointsX - 1);
-         double dy = (boundYMax_ - boundYMin_) / (numInterpPointsY - 1);
-
-         float[][] interpVals = new float[numInterpPointsY][numInterpPointsX];
-         float[][] interpNormals = new float[numInterpPointsY][numInterpPointsX];
-         boolean[][] interpDefined = new boolean[numInterpPointsY][numInterpPointsX];
-         for (int yInd = 0; yInd < interpVals.length; yInd++) {
-            for (int xInd = 0; xInd < interpVals[0].length; xInd++) {
-               if (Thread.interrupted()) {
-                  throw new InterruptedException();
-               }
-               double xVal = boundXMin_ + dx * xInd;
-               double yVal = boundYMin_ + dy * yInd;
-               boolean inHull = convexHullRegion_.checkPoint(new Vector2D(xVal, yVal))
-                     == Region.Location.INSIDE;
-               if (inHull) {
-                  Triangle_dt tri = dTri.find(new Point_dt(xVal, yVal));
-                  //convert to apache commons coordinates to make a plane
-                  Vector3D v1 = new Vector3D(tri.p1().x(), tri.p1().y(), tri.p1().z());
-                  Vector3D v2 = new Vector3D(tri.p2().x(), tri.p2().y(), tri.p2().z());
-                  Vector3D v3 = new Vector3D(tri.p3().x(), tri.p3().y(), tri.p3().z());
-                  Plane plane = new Plane(v1, v2, v3, TOLERANCE);
-                  //intersetion of vertical line at these x+y values with plane gives point in plane
-                  Vector3D pointInPlane = plane.intersection(new Line(
-                        new Vector3D(xVal, yVal, 0), new Vector3D(xVal, yVal, 1), TOLERANCE));
-                  float zVal = (float) pointInPlane.getZ();
-                  interpVals[yInd][xInd] = zVal;
-                  float angle = (float) (Vector3D.angle(plane.getNormal(),
-                        new Vector3D(0, 0, 1)) / Math.PI * 180.0);
-                  interpNormals[yInd][xInd] = angle;
-                  interpDefined[yInd][xInd] = true;
-               } else {
-                  interpDefined[yInd][xInd] = false;
-               }
-            }
+         InterpolationGrid grid = new InterpolationGrid(surface, pixSize, pixelsPerInterpPoint,
+               boundXMin_, boundXMax_, boundYMin_, boundYMax_,
+               numInterpPointsX, numInterpPointsY);
+         calculate(grid, null);
+         if (pixelsPerInterpPoint / 2 < minPixelsPerInterpPoint_) {
+            lastGrid_ = grid;
          }
-         if (Thread.interrupted()) {
-            throw new InterruptedException();
+         publish(grid);
+         pixelsPerInterpPoint /= 2;
+      }
+   }
+
+   /**
+    * Calculates the grid points within the given region, or all of them when
+    * the region is null, using all processors.
+    */
+   private void calculate(InterpolationGrid grid, double[] region)
+         throws InterruptedException {
+      final Region<Euclidean2D> convexHullRegion = convexHullRegion_;
+      final int numInterpPointsX = grid.values_[0].length;
+      final int numInterpPointsY = grid.values_.length;
+      final double dx = (grid.maxX_ - grid.minX_) / (numInterpPointsX - 1);
+      final double dy = (grid.maxY_ - grid.minY_) / (numInterpPointsY - 1);
+      int xStart = 0;
+      int xEnd = numInterpPointsX - 1;
+      int yStart = 0;
+      int yEnd = numInterpPointsY - 1;
+      if (region != null) {
+         xStart = Math.max(xStart, (int) Math.floor((region[0] - grid.minX_) / dx));
+         xEnd = Math.min(xEnd, (int) Math.ceil((region[2] - grid.minX_) / dx));
+         yStart = Math.max(yStart, (int) Math.floor((region[1] - grid.minY_) / dy));
+         yEnd = Math.min(yEnd, (int) Math.ceil((region[3] - grid.minY_) / dy));
+      }
+      final int firstX = xStart;
+      final int lastX = xEnd;
+      // Worker threads can not see our interrupted flag, so check it explicitly
+      final Thread calculationThread = Thread.currentThread();
+      IntStream.rangeClosed(yStart, yEnd).parallel().forEach(yInd -> {
+         if (calculationThread.isInterrupted()) {
+            return;
          }
-         synchronized (interpolationLock_) {
-            currentInterpolation_ = new SingleResolutionInterpolation(pixelsPerInterpPoint,
-                  interpDefined, interpVals, interpNormals,
-                    boundXMin_, boundXMax_, boundYMin_, boundYMax_,
-                    convexHullRegion_, convexHullVertices_);
-            interpolationLock_.notifyAll();
-            manager_.surfaceInterpolationUpdated(this);
+         double yVal = grid.minY_ + dy * yInd;
+         for (int xInd = firstX; xInd <= lastX; xInd++) {
+            double xVal = grid.minX_ + dx * xInd;
+            boolean inHull = convexHullRegion.checkPoint(new Vector2D(xVal, yVal))
+                  == Region.Location.INSIDE;
+            if (inHull) {
+               grid.values_[yInd][xInd] = (float) grid.surface_.getZ(xVal, yVal);
+               grid.normals_[yInd][xInd] = (float) grid.surface_.getNormalAngle(xVal, yVal);
+               grid.defined_[yInd][xInd] = true;
+            } else {
+               grid.defined_[yInd][xInd] = false;
+            }
          }
-         pixelsPerInterpPoint /= 2;
+      });
+      if (Thread.interrupted()) {
+         throw new InterruptedException();
+      }
+   }
+
+   private void publish(InterpolationGrid grid) {
+      synchronized (interpolationLock_) {
+         currentInterpolation_ = new SingleResolutionInterpolation(grid.pixelsPerInterpPoint_,
+               grid.defined_, grid.values_, grid.normals_,
+               grid.minX_, grid.maxX_, grid.minY_, grid.maxY_,
+               convexHullRegion_, convexHullVertices_);
+         interpolationLock_.notifyAll();
+         manager_.surfaceInterpolationUpdated(this);
       }
    }
 
@@ -181,6 +227,65 @@ public class SurfaceInterpolatorSimple extends SurfaceInterpolator {
       return zVal;
    }
 
-   
-   
+   /**
+    * Interpolated values at one resolution, with the surface they came from.
+    */
+   private static final class InterpolationGrid {
+      private final ZSurface surface_;
+      private final double pixSize_;
+      private final int pixelsPerInterpPoint_;
+      private final double minX_;
+      private final double maxX_;
+      private final double minY_;
+      private final double maxY_;
+      private final float[][] values_;
+      private final float[][] normals_;
+      private final boolean[][] defined_;
+
+      InterpolationGrid(ZSurface surface, double pixSize, int pixelsPerInterpPoint,
+                        double minX, double maxX, double minY, double maxY,
+                        int numInterpPointsX, int numInterpPointsY) {
+         this(surface, pixSize, pixelsPerInterpPoint, minX, maxX, minY, maxY,
+               new float[numInterpPointsY][numInterpPointsX],
+               new float[numInterpPointsY][numInterpPointsX],
+               new boolean[numInterpPointsY][numInterpPointsX]);
+      }
+
+      private InterpolationGrid(ZSurface surface, double pixSize, int pixelsPerInterpPoint,
+                                double minX, double maxX, double minY, double maxY,
+                                float[][] values, float[][] normals, boolean[][] defined) {
+         surface_ = surface;
+         pixSize_ = pixSize;
+         pixelsPerInterpPoint_ = pixelsPerInterpPoint;
+         minX_ = minX;
+         maxX_ = maxX;
+         minY_ = minY;
+         maxY_ = maxY;
+         values_ = values;
+         normals_ = normals;
+         defined_ = defined;
+      }
+
+      boolean hasBounds(double pixSize, double minX, double maxX, double minY, double maxY) {
+         return pixSize == pixSize_ && minX == minX_ && maxX == maxX_
+               && minY == minY_ && maxY == maxY_;
+      }
+
+      /**
+       * Copies the values, which are published and should not change, to be
+       * updated for another surface.
+       */
+      InterpolationGrid copy(ZSurface surface) {
+         float[][] values = new float[values_.length][];
+         float[][] normals = new float[normals_.length][];
+         boolean[][] defined = new boolean[defined_.length][];
+         for (int i = 0; i < values_.length; i++) {
+            values[i] = values_[i].clone();
+            normals[i] = normals_[i].clone();
+            defined[i] = defined_[i].clone();
+         }
+         return new InterpolationGrid(surface, pixSize_, pixelsPerInterpPoint_,
+               minX_, maxX_, minY_, maxY_, values, normals, defined);
+      }
+   }
 }
@@ -0,0 +1,238 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     mmstudio
+//-----------------------------------------------------------------------------
+//
+// COPYRIGHT:    University of California, San Francisco, 2015
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.pipelinesaver;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.micromanager.data.Image;
+import org.micromanager.internal.utils.ReportingUtils;
+
+/**
+ * Wraps a SaveTarget with a bounded queue and a dedicated writer thread, so
+ * that a slow disk only holds up the pipeline for at most the configured
+ * budget.  Images that can not be queued within the budget are dropped
+ * (for this target only) and counted.  Without a budget, the pipeline waits
+ * for space in the queue, and images are only dropped when the writer
+ * thread is gone.
+ */
+final class AsyncSaveTarget {
+   private static final class Entry {
+      final Image image;
+      final long enqueuedNs;
+
+      Entry(Image image, long enqueuedNs) {
+         this.image = image;
+         this.enqueuedNs = enqueuedNs;
+      }
+   }
+
+   private static final Entry END_OF_STREAM = new Entry(null, 0);
+   // How often a waiting caller checks that the writer thread is still running
+   private static final long ALIVE_CHECK_MS = 100;
+
+   private final SaveTarget target_;
+   private final BlockingQueue<Entry> queue_;
+   private final Thread writerThread_;
+
+   private final AtomicLong numQueued_ = new AtomicLong(0);
+   private final AtomicLong numWritten_ = new AtomicLong(0);
+   private final AtomicLong numFailed_ = new AtomicLong(0);
+   private final AtomicLong numDropped_ = new AtomicLong(0);
+   private final AtomicLong bytesWritten_ = new AtomicLong(0);
+   private final AtomicLong lastLagNs_ = new AtomicLong(0);
+   private final AtomicLong maxLagNs_ = new AtomicLong(0);
+   private final AtomicLong firstWriteNs_ = new AtomicLong(0);
+   private final AtomicLong lastWriteNs_ = new AtomicLong(0);
+   private volatile int peakQueueSize_ = 0;
+
+   AsyncSaveTarget(SaveTarget target, int queueCapacity) {
+      target_ = target;
+      queue_ = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+      writerThread_ = new Thread(new Runnable() {
+         @Override
+         public void run() {
+            writeLoop();
+         }
+      }, "Pipeline saver: " + target.getDescription());
+      writerThread_.setDaemon(true);
+      writerThread_.start();
+   }
+
+   /**
+    * Queue an image for writing, waiting at most budgetMs for space in the
+    * queue.
+    *
+    * @param budgetMs maximum wait; 0 or less to wait as long as the writer
+    *                 thread runs
+    * @return false if the image was dropped because the queue stayed full.
+    */
+   boolean offer(Image image, long budgetMs) throws InterruptedException {
+      Entry entry = new Entry(image, System.nanoTime());
+      boolean queued;
+      if (budgetMs > 0) {
+         queued = queue_.offer(entry, budgetMs, TimeUnit.MILLISECONDS);
+      } else {
+         do {
+            queued = queue_.offer(entry, ALIVE_CHECK_MS, TimeUnit.MILLISECONDS);
+         } while (!queued && writerThread_.isAlive());
+      }
+      if (!queued) {
+         numDropped_.incrementAndGet();
+         return false;
+      }
+      numQueued_.incrementAndGet();
+      int size = queue_.size();
+      if (size > peakQueueSize_) {
+         peakQueueSize_ = size;
+      }
+      return true;
+   }
+
+   /**
+    * Wait for all queued images to be written, then finalize the Datastore.
+    * Images that are still queued when the writer thread is gone are counted
+    * as dropped.
+    */
+   void finish() throws InterruptedException {
+      while (!queue_.offer(END_OF_STREAM, ALIVE_CHECK_MS, TimeUnit.MILLISECONDS)) {
+         if (!writerThread_.isAlive()) {
+            break;
+         }
+      }
+      writerThread_.join();
+      Entry entry = queue_.poll();
+      while (entry != null) {
+         if (entry != END_OF_STREAM) {
+            numDropped_.incrementAndGet();
+         }
+         entry = queue_.poll();
+      }
+      target_.finish();
+   }
+
+   SaveTarget getTarget() {
+      return target_;
+   }
+
+   Statistics getStatistics() {
+      return new Statistics(this);
+   }
+
+   long getNumDropped() {
+      return numDropped_.get();
+   }
+
+   private void writeLoop() {
+      boolean interrupted = false;
+      while (true) {
+         Entry entry;
+         if (interrupted) {
+            // Write what is already queued rather than losing it
+            entry = queue_.poll();
+            if (entry == null) {
+               return;
+            }
+         } else {
+            try {
+               entry = queue_.take();
+            } catch (InterruptedException e) {
+               interrupted = true;
+               continue;
+            }
+         }
+         if (entry == END_OF_STREAM) {
+            return;
+         }
+         write(entry);
+      }
+   }
+
+   private void write(Entry entry) {
+      Image image = entry.image;
+      boolean written;
+      try {
+         written = target_.putImage(image);
+      } catch (RuntimeException e) {
+         // Keep the writer thread alive for the images that follow
+         ReportingUtils.logError(e, "Pipeline saver failed to save image at "
+               + image.getCoords() + " to " + target_.getDescription());
+         written = false;
+      }
+      if (written) {
+         long now = System.nanoTime();
+         firstWriteNs_.compareAndSet(0, now);
+         lastWriteNs_.set(now);
+         numWritten_.incrementAndGet();
+         bytesWritten_.addAndGet((long) image.getWidth() * image.getHeight()
+               * image.getBytesPerPixel());
+         long lag = now - entry.enqueuedNs;
+         lastLagNs_.set(lag);
+         if (lag > maxLagNs_.get()) {
+            maxLagNs_.set(lag);
+         }
+      } else {
+         numFailed_.incrementAndGet();
+      }
+   }
+
+   /**
+    * Snapshot of the progress of one target.
+    */
+   static final class Statistics {
+      final String description;
+      final long queued;
+      final long written;
+      final long failed;
+      final long dropped;
+      final int pending;
+      final int peakPending;
+      final double megabytesPerSecond;
+      final double imagesPerSecond;
+      final double lastLagMs;
+      final double maxLagMs;
+
+      private Statistics(AsyncSaveTarget t) {
+         description = t.target_.getDescription();
+         queued = t.numQueued_.get();
+         written = t.numWritten_.get();
+         failed = t.numFailed_.get();
+         dropped = t.numDropped_.get();
+         pending = t.queue_.size();
+         peakPending = t.peakQueueSize_;
+         long first = t.firstWriteNs_.get();
+         double seconds = first == 0 ? 0.0 : (t.lastWriteNs_.get() - first) / 1e9;
+         megabytesPerSecond = seconds > 0.0
+               ? t.bytesWritten_.get() / seconds / (1024.0 * 1024.0) : 0.0;
+         imagesPerSecond = seconds > 0.0 ? (written - 1) / seconds : 0.0;
+         lastLagMs = t.lastLagNs_.get() / 1e6;
+         maxLagMs = t.maxLagNs_.get() / 1e6;
+      }
+
+      @Override
+      public String toString() {
+         return String.format("%s: %d written, %d failed, %d dropped, "
+                     + "%d pending (peak %d), %.1f images/s, %.1f MB/s, "
+                     + "lag %.1f ms (max %.1f ms)",
+               description, written, failed, dropped, pending, peakPending,
+               imagesPerSecond, megabytesPerSecond, lastLagMs, maxLagMs);
+      }
+   }
+}
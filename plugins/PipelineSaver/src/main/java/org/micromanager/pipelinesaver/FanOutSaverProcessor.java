@@ -0,0 +1,149 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     mmstudio
+//-----------------------------------------------------------------------------
+//
+// COPYRIGHT:    University of California, San Francisco, 2015
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.pipelinesaver;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.swing.SwingUtilities;
+import org.micromanager.Studio;
+import org.micromanager.alerts.UpdatableAlert;
+import org.micromanager.data.Image;
+import org.micromanager.data.Processor;
+import org.micromanager.data.ProcessorContext;
+
+/**
+ * Saves the same stream of images to several targets (for example a
+ * multipage TIFF on a fast local disk plus an NDTiff copy on bulk storage).
+ * Every target has its own bounded queue and writer thread, so a slow target
+ * neither slows down the others nor blocks the pipeline for longer than the
+ * configured budget.  Per-target throughput and lag are logged periodically
+ * and when the acquisition ends.  Images that were not saved are counted in
+ * an alert, per target.
+ */
+public class FanOutSaverProcessor implements Processor {
+   private static final long REPORT_INTERVAL_NS = 10L * 1000 * 1000 * 1000;
+
+   private final Studio studio_;
+   private final List<AsyncSaveTarget> targets_ = new ArrayList<>();
+   private final long budgetMs_;
+   private long lastReportNs_;
+   // Only accessed on the EDT
+   private final Map<AsyncSaveTarget, UpdatableAlert> dropAlerts_ = new HashMap<>();
+
+   /**
+    * @param studio        the Studio
+    * @param targets       where to save images; the targets are owned by this
+    *                      processor from now on.
+    * @param queueCapacity maximum number of images waiting per target.
+    * @param budgetMs      maximum time, per target, that processImage may wait
+    *                      for space in that target's queue before the image is
+    *                      dropped for that target; 0 to wait without limit, so
+    *                      that no images are dropped.
+    */
+   public FanOutSaverProcessor(Studio studio, List<SaveTarget> targets,
+                               int queueCapacity, long budgetMs) {
+      studio_ = studio;
+      budgetMs_ = budgetMs;
+      for (SaveTarget target : targets) {
+         targets_.add(new AsyncSaveTarget(target, queueCapacity));
+      }
+      lastReportNs_ = System.nanoTime();
+   }
+
+   @Override
+   public void processImage(Image image, ProcessorContext context) {
+      // Images are immutable, so all targets can share the same instance.
+      for (AsyncSaveTarget target : targets_) {
+         try {
+            if (!target.offer(image, budgetMs_)) {
+               if (target.getNumDropped() == 1) {
+                  studio_.logs().logError("Pipeline saver dropped image at "
+                        + image.getCoords() + " for "
+                        + target.getTarget().getDescription()
+                        + ", as saving did not keep up");
+               }
+               reportDrops(target);
+            }
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            break;
+         }
+      }
+      context.outputImage(image);
+
+      long now = System.nanoTime();
+      if (now - lastReportNs_ > REPORT_INTERVAL_NS) {
+         lastReportNs_ = now;
+         logStatistics("Pipeline saver progress");
+      }
+   }
+
+   @Override
+   public void cleanup(ProcessorContext context) {
+      for (AsyncSaveTarget target : targets_) {
+         try {
+            target.finish();
+         } catch (InterruptedException e) {
+            studio_.logs().logError(e, "Interrupted while finishing "
+                  + target.getTarget().getDescription());
+            Thread.currentThread().interrupt();
+         }
+         if (target.getNumDropped() > 0) {
+            reportDrops(target);
+         }
+      }
+      logStatistics("Pipeline saver finished");
+   }
+
+   /**
+    * @return a snapshot of the progress of each target, in the order the
+    *     targets were given to the constructor.
+    */
+   List<AsyncSaveTarget.Statistics> getStatistics() {
+      List<AsyncSaveTarget.Statistics> result = new ArrayList<>();
+      for (AsyncSaveTarget target : targets_) {
+         result.add(target.getStatistics());
+      }
+      return result;
+   }
+
+   private void reportDrops(final AsyncSaveTarget target) {
+      final String text = target.getNumDropped() + " images were not saved to "
+            + target.getTarget().getDescription() + ", as saving did not keep up";
+      SwingUtilities.invokeLater(() -> {
+         UpdatableAlert alert = dropAlerts_.get(target);
+         if (alert == null) {
+            dropAlerts_.put(target, studio_.alerts().postUpdatableAlert(
+                  "Pipeline saver", text));
+         } else {
+            alert.setText(text);
+         }
+      });
+   }
+
+   private void logStatistics(String header) {
+      StringBuilder sb = new StringBuilder(header).append(':');
+      for (AsyncSaveTarget.Statistics stats : getStatistics()) {
+         sb.append("\n   ").append(stats);
+      }
+      studio_.logs().logMessage(sb.toString());
+   }
+}
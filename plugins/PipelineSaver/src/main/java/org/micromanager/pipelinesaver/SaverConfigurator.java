@@ -30,7 +30,9 @@ import javax.swing.JComboBox;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.JSpinner;
 import javax.swing.JTextField;
+import javax.swing.SpinnerNumberModel;
 import net.miginfocom.swing.MigLayout;
 import org.micromanager.PropertyMap;
 import org.micromanager.PropertyMaps;
@@ -45,12 +47,30 @@ public class SaverConfigurator extends JFrame implements ProcessorConfigurator {
    private static final String SHOULD_DISPLAY_PIPELINE_DATA =
          "whether or not to display mid-pipeline datasets";
    private static final String SAVE_PATH = "default save path for saving mid-pipeline datasets";
+   private static final String SPLIT_POSITIONS =
+         "whether or not to split positions into separate files for mid-pipeline datasets";
+   private static final String SECONDARY_FORMAT =
+         "secondary format for saving mid-pipeline datasets";
+   private static final String SECONDARY_SAVE_PATH =
+         "secondary save path for saving mid-pipeline datasets";
+   private static final String ASYNC = "whether or not to save mid-pipeline datasets in background";
+   private static final String QUEUE_CAPACITY =
+         "number of images queued per target when saving mid-pipeline datasets";
+   private static final String BLOCKING_BUDGET =
+         "maximum time in ms the pipeline waits for a saving queue, 0 for no limit";
 
    private final Studio studio_;
    private final JCheckBox shouldDisplay_;
    private final JComboBox saveFormat_;
    private JTextField savePath_;
    private final JButton browseButton_;
+   private final JCheckBox splitPositions_;
+   private final JComboBox secondaryFormat_;
+   private final JTextField secondarySavePath_;
+   private final JButton secondaryBrowseButton_;
+   private final JCheckBox async_;
+   private final JSpinner queueCapacity_;
+   private final JSpinner blockingBudget_;
 
    public SaverConfigurator(PropertyMap settings, Studio studio) {
       studio_ = studio;
@@ -61,7 +81,8 @@ public class SaverConfigurator extends JFrame implements ProcessorConfigurator {
 
       panel.add(new JLabel("Save format: "), "split 2");
       String[] formats = new String[] {SaverPlugin.RAM,
-            SaverPlugin.MULTIPAGE_TIFF, SaverPlugin.SINGLEPLANE_TIFF_SERIES};
+            SaverPlugin.MULTIPAGE_TIFF, SaverPlugin.SINGLEPLANE_TIFF_SERIES,
+            SaverPlugin.NDTIFF};
       saveFormat_ = new JComboBox(formats);
       saveFormat_.setSelectedItem(
             settings.getString("format", getPreferredSaveFormat()));
@@ -78,6 +99,11 @@ public class SaverConfigurator extends JFrame implements ProcessorConfigurator {
             settings.getBoolean("shouldDisplay", getShouldDisplay()));
       panel.add(shouldDisplay_, "wrap");
 
+      splitPositions_ = new JCheckBox("Save each position in a separate file");
+      splitPositions_.setSelected(
+            settings.getBoolean("splitPositions", getSplitPositions()));
+      panel.add(splitPositions_, "wrap");
+
       panel.add(new JLabel("Save path: "), "wrap");
       savePath_ = new JTextField(30);
       savePath_.setText(settings.getString("savePath", getSavePath()));
@@ -96,6 +122,57 @@ public class SaverConfigurator extends JFrame implements ProcessorConfigurator {
          }
       });
       panel.add(browseButton_, "wrap");
+
+      panel.add(new JLabel("Also save to: "), "split 2");
+      String[] secondaryFormats = new String[] {SaverPlugin.NONE,
+            SaverPlugin.MULTIPAGE_TIFF, SaverPlugin.SINGLEPLANE_TIFF_SERIES,
+            SaverPlugin.NDTIFF};
+      secondaryFormat_ = new JComboBox(secondaryFormats);
+      secondaryFormat_.setSelectedItem(
+            settings.getString("secondaryFormat", getSecondaryFormat()));
+      secondaryFormat_.addActionListener(new ActionListener() {
+         @Override
+         public void actionPerformed(ActionEvent e) {
+            updateControls();
+         }
+      });
+      panel.add(secondaryFormat_, "wrap");
+      secondarySavePath_ = new JTextField(30);
+      secondarySavePath_.setText(settings.getString("secondarySavePath",
+            getSecondarySavePath()));
+      panel.add(secondarySavePath_, "split 2, span");
+      secondaryBrowseButton_ = new JButton("...");
+      secondaryBrowseButton_.addActionListener(new ActionListener() {
+         @Override
+         public void actionPerformed(ActionEvent e) {
+            File path = FileDialogs.save(SaverConfigurator.this,
+                     "Please choose a directory to save to",
+                     FileDialogs.MM_DATA_SET);
+            if (path != null) {
+               secondarySavePath_.setText(path.getAbsolutePath());
+            }
+         }
+      });
+      panel.add(secondaryBrowseButton_, "wrap");
+
+      async_ = new JCheckBox("Save in background (always on with a second target)");
+      async_.setSelected(settings.getBoolean("async", getAsync()));
+      async_.addActionListener(new ActionListener() {
+         @Override
+         public void actionPerformed(ActionEvent e) {
+            updateControls();
+         }
+      });
+      panel.add(async_, "wrap");
+      panel.add(new JLabel("Images queued per target: "), "split 2");
+      queueCapacity_ = new JSpinner(new SpinnerNumberModel(
+            settings.getInteger("queueCapacity", getQueueCapacity()), 1, 100000, 10));
+      panel.add(queueCapacity_, "wrap");
+      panel.add(new JLabel("Maximum wait for a full queue (ms, 0: never drop images): "),
+            "split 2");
+      blockingBudget_ = new JSpinner(new SpinnerNumberModel(
+            settings.getInteger("blockingBudgetMs", getBlockingBudget()), 0, 60000, 1));
+      panel.add(blockingBudget_, "wrap");
       super.add(panel);
       updateControls();
 
@@ -115,6 +192,14 @@ public class SaverConfigurator extends JFrame implements ProcessorConfigurator {
       shouldDisplay_.setEnabled(!isRAM);
       savePath_.setEnabled(!isRAM);
       browseButton_.setEnabled(!isRAM);
+      splitPositions_.setEnabled(
+            saveFormat_.getSelectedItem().equals(SaverPlugin.MULTIPAGE_TIFF));
+      boolean hasSecondary = !secondaryFormat_.getSelectedItem().equals(SaverPlugin.NONE);
+      secondarySavePath_.setEnabled(hasSecondary);
+      secondaryBrowseButton_.setEnabled(hasSecondary);
+      boolean isAsync = hasSecondary || async_.isSelected();
+      queueCapacity_.setEnabled(isAsync);
+      blockingBudget_.setEnabled(isAsync);
    }
 
    @Override
@@ -130,10 +215,25 @@ public class SaverConfigurator extends JFrame implements ProcessorConfigurator {
       setPreferredSaveFormat(format);
       setShouldDisplay(shouldDisplay_.isSelected());
       setSavePath(savePath_.getText());
+      String secondaryFormat = (String) secondaryFormat_.getSelectedItem();
+      int queueCapacity = (Integer) queueCapacity_.getValue();
+      int blockingBudget = (Integer) blockingBudget_.getValue();
+      setSplitPositions(splitPositions_.isSelected());
+      setSecondaryFormat(secondaryFormat);
+      setSecondarySavePath(secondarySavePath_.getText());
+      setAsync(async_.isSelected());
+      setQueueCapacity(queueCapacity);
+      setBlockingBudget(blockingBudget);
       PropertyMap.Builder builder = PropertyMaps.builder();
       builder.putString("format", format);
       builder.putBoolean("shouldDisplay", shouldDisplay_.isSelected());
       builder.putString("savePath", savePath_.getText());
+      builder.putBoolean("splitPositions", splitPositions_.isSelected());
+      builder.putString("secondaryFormat", secondaryFormat);
+      builder.putString("secondarySavePath", secondarySavePath_.getText());
+      builder.putBoolean("async", async_.isSelected());
+      builder.putInteger("queueCapacity", queueCapacity);
+      builder.putInteger("blockingBudgetMs", blockingBudget);
       return builder.build();
    }
 
@@ -171,4 +271,64 @@ public class SaverConfigurator extends JFrame implements ProcessorConfigurator {
       studio_.profile().getSettings(SaverConfigurator.class).putString(
             SAVE_PATH, path);
    }
+
+   private boolean getSplitPositions() {
+      return studio_.profile().getSettings(SaverConfigurator.class).getBoolean(
+            SPLIT_POSITIONS, true);
+   }
+
+   private void setSplitPositions(boolean split) {
+      studio_.profile().getSettings(SaverConfigurator.class).putBoolean(
+            SPLIT_POSITIONS, split);
+   }
+
+   private String getSecondaryFormat() {
+      return studio_.profile().getSettings(SaverConfigurator.class).getString(
+            SECONDARY_FORMAT, SaverPlugin.NONE);
+   }
+
+   private void setSecondaryFormat(String format) {
+      studio_.profile().getSettings(SaverConfigurator.class).putString(
+            SECONDARY_FORMAT, format);
+   }
+
+   private String getSecondarySavePath() {
+      return studio_.profile().getSettings(SaverConfigurator.class).getString(
+            SECONDARY_SAVE_PATH, "");
+   }
+
+   private void setSecondarySavePath(String path) {
+      studio_.profile().getSettings(SaverConfigurator.class).putString(
+            SECONDARY_SAVE_PATH, path);
+   }
+
+   private boolean getAsync() {
+      return studio_.profile().getSettings(SaverConfigurator.class).getBoolean(
+            ASYNC, false);
+   }
+
+   private void setAsync(boolean async) {
+      studio_.profile().getSettings(SaverConfigurator.class).putBoolean(
+            ASYNC, async);
+   }
+
+   private int getQueueCapacity() {
+      return studio_.profile().getSettings(SaverConfigurator.class).getInteger(
+            QUEUE_CAPACITY, 100);
+   }
+
+   private void setQueueCapacity(int capacity) {
+      studio_.profile().getSettings(SaverConfigurator.class).putInteger(
+            QUEUE_CAPACITY, capacity);
+   }
+
+   private int getBlockingBudget() {
+      return studio_.profile().getSettings(SaverConfigurator.class).getInteger(
+            BLOCKING_BUDGET, 0);
+   }
+
+   private void setBlockingBudget(int budgetMs) {
+      studio_.profile().getSettings(SaverConfigurator.class).putInteger(
+            BLOCKING_BUDGET, budgetMs);
+   }
 }
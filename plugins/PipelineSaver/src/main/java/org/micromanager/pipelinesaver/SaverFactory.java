@@ -20,6 +20,8 @@
 
 package org.micromanager.pipelinesaver;
 
+import java.util.ArrayList;
+import java.util.List;
 import org.micromanager.PropertyMap;
 import org.micromanager.Studio;
 import org.micromanager.data.Processor;
@@ -36,9 +38,29 @@ public class SaverFactory implements ProcessorFactory {
 
    @Override
    public Processor createProcessor() {
-      return new SaverProcessor(studio_,
-            settings_.getString("format", SaverPlugin.MULTIPAGE_TIFF),
-            settings_.getString("savePath", null),
-            settings_.getBoolean("shouldDisplay", true));
+      String format = settings_.getString("format", SaverPlugin.MULTIPAGE_TIFF);
+      String savePath = settings_.getString("savePath", null);
+      boolean shouldSplitPositions = settings_.getBoolean("splitPositions", true);
+      boolean shouldDisplay = settings_.getBoolean("shouldDisplay", true);
+      String secondaryFormat = settings_.getString("secondaryFormat", SaverPlugin.NONE);
+      boolean isAsync = settings_.getBoolean("async", false);
+
+      boolean hasSecondary = !secondaryFormat.equals(SaverPlugin.NONE);
+      if (!isAsync && !hasSecondary) {
+         return new SaverProcessor(studio_, format, savePath,
+               shouldSplitPositions, shouldDisplay);
+      }
+
+      List<SaveTarget> targets = new ArrayList<>();
+      targets.add(new SaveTarget(studio_, format, savePath,
+            shouldSplitPositions, shouldDisplay));
+      if (hasSecondary) {
+         targets.add(new SaveTarget(studio_, secondaryFormat,
+               settings_.getString("secondarySavePath", null),
+               shouldSplitPositions, false));
+      }
+      return new FanOutSaverProcessor(studio_, targets,
+            settings_.getInteger("queueCapacity", 100),
+            settings_.getInteger("blockingBudgetMs", 0));
    }
 }
@@ -38,6 +38,8 @@ public class SaverPlugin implements ProcessorPlugin, SciJavaPlugin {
    public static String SINGLEPLANE_TIFF_SERIES = "Separate Image Files";
    public static String MULTIPAGE_TIFF = "Image Stack File";
    public static String RAM = "RAM only";
+   public static String NDTIFF = "NDTiff";
+   public static String NONE = "None";
 
    @Override
    public void setContext(Studio studio) {
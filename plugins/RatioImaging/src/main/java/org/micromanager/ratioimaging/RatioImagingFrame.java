@@ -76,6 +76,8 @@ public class RatioImagingFrame extends JFrame implements ProcessorConfigurator {
    static final String BACKGROUND1CONSTANT = "Background1Constant";
    static final String BACKGROUND2CONSTANT = "Background2Constant";
    static final String FACTOR = "Factor";
+   static final String THRESHOLD1 = "Threshold1";
+   static final String THRESHOLD2 = "Threshold2";
    private static final String[] IMAGESUFFIXES = {"tif", "tiff", "jpg", "png"};
 
    private final Studio studio_;
@@ -130,6 +132,18 @@ public class RatioImagingFrame extends JFrame implements ProcessorConfigurator {
               new TextFieldUpdater(bc2TextField, BACKGROUND2CONSTANT, settings_));
       settings_.putString(BACKGROUND2CONSTANT, bc2TextField.getText());
       
+      final JTextField threshold1TextField = new JTextField(5);
+      threshold1TextField.setText(settings_.getString(THRESHOLD1, "0"));
+      threshold1TextField.getDocument().addDocumentListener(
+              new TextFieldUpdater(threshold1TextField, THRESHOLD1, settings_));
+      settings_.putString(THRESHOLD1, threshold1TextField.getText());
+
+      final JTextField threshold2TextField = new JTextField(5);
+      threshold2TextField.setText(settings_.getString(THRESHOLD2, "0"));
+      threshold2TextField.getDocument().addDocumentListener(
+              new TextFieldUpdater(threshold2TextField, THRESHOLD2, settings_));
+      settings_.putString(THRESHOLD2, threshold2TextField.getText());
+      
       final int maxValue = 2 << core_.getImageBitDepth();
       final JTextField factorTextField = new JTextField(5);
       factorTextField.setText(settings_.getString(FACTOR, 
@@ -139,23 +153,28 @@ public class RatioImagingFrame extends JFrame implements ProcessorConfigurator {
       settings_.putString(FACTOR, factorTextField.getText());
 
       super.add(darkImageLabel, "skip 2, center");
-      super.add(new JLabel("constant"), "skip 1, center, gap 20:push, wrap");
+      super.add(new JLabel("constant"), "skip 1, center, gap 20:push");
+      super.add(new JLabel("threshold"), "center, gap 20:push, wrap");
       
       super.add(new JLabel("Ch. 1"));
       super.add(ch1Combo_);
       super.add(background1TextField_,  "gap 20:push");
       super.add(background1Button_);
-      super.add(bc1TextField, "gap 20:push, wrap");
+      super.add(bc1TextField, "gap 20:push");
+      super.add(threshold1TextField, "gap 20:push, wrap");
       
       super.add(new JLabel("Ch. 2"));
       super.add(ch2Combo_);
       super.add(background2TextField_, "gap 20:push");
       super.add(background2Button_);
-      super.add(bc2TextField, "gap 20:push, wrap");
+      super.add(bc2TextField, "gap 20:push");
+      super.add(threshold2TextField, "gap 20:push, wrap");
       
       super.add(new JLabel("(Ch1 - (background + constant)) / (Ch2 - (background + constant) *"), 
-              "gapy 20:push, span 5, split 2");
+              "gapy 20:push, span 6, split 2");
       super.add(factorTextField, "wrap");
+      super.add(new JLabel("Pixels below the threshold (after background correction) "
+              + "in either channel are set to 0.  Use 0 to disable."), "span 6, wrap");
       
       super.pack();
 
@@ -194,6 +213,8 @@ public class RatioImagingFrame extends JFrame implements ProcessorConfigurator {
       settings.putString(BACKGROUND2CONSTANT, 
               configuratorSettings.getString(BACKGROUND2CONSTANT, ""));
       settings.putString(FACTOR, configuratorSettings.getString(FACTOR, ""));
+      settings.putString(THRESHOLD1, configuratorSettings.getString(THRESHOLD1, ""));
+      settings.putString(THRESHOLD2, configuratorSettings.getString(THRESHOLD2, ""));
    }
 
    private JComboBox<String> createChannelCombo(
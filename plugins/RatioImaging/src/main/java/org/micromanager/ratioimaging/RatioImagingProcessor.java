@@ -24,15 +24,16 @@
 package org.micromanager.ratioimaging;
 
 import ij.ImagePlus;
-import ij.process.Blitter;
 import ij.process.ByteProcessor;
-import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
 import ij.process.ShortProcessor;
 import java.awt.Rectangle;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import org.micromanager.PropertyMap;
 import org.micromanager.Studio;
 import org.micromanager.data.Coords;
@@ -59,6 +60,8 @@ public class RatioImagingProcessor implements Processor {
    private final int factor_;
    private final int bc1Constant_;
    private final int bc2Constant_;
+   private final int threshold1_;
+   private final int threshold2_;
    private final String bc1Path_;
    private final String bc2Path_;
    private ImagePlus bc1_;
@@ -68,6 +71,8 @@ public class RatioImagingProcessor implements Processor {
    private int ch1Index_;
    private int ch2Index_;
    private int ratioIndex_;
+   private ExecutorService executor_;
+   private RatioKernel kernel_;
 
    /**
     * Constructor of the Processor doing the heavy lifting.
@@ -106,6 +111,8 @@ public class RatioImagingProcessor implements Processor {
       } catch (ParseException pe) {
          studio_.logs().logError(pe);
       }
+      threshold1_ = parseSetting(RatioImagingFrame.THRESHOLD1, 0);
+      threshold2_ = parseSetting(RatioImagingFrame.THRESHOLD2, 0);
       bc1Path_ = settings_.getString(RatioImagingFrame.BACKGROUND1, "");
       bc2Path_ = settings_.getString(RatioImagingFrame.BACKGROUND2, "");
       factor_ = factor;
@@ -113,6 +120,17 @@ public class RatioImagingProcessor implements Processor {
       bc2Constant_ = bc2Constant;
    }
 
+   private int parseSetting(String key, int defaultValue) {
+      if (settings_.containsString(key)) {
+         try {
+            return NumberUtils.displayStringToInt(settings_.getString(key, ""));
+         } catch (ParseException pe) {
+            studio_.logs().logError(pe);
+         }
+      }
+      return defaultValue;
+   }
+
    @Override
    public SummaryMetadata processSummaryMetadata(SummaryMetadata summary) {
       
@@ -276,70 +294,98 @@ public class RatioImagingProcessor implements Processor {
    private void process(Image ch1Image, Image ch2Image, ProcessorContext context) {
       
       final Coords ratioCoords = ch1Image.getCoords().copyBuilder().c(ratioIndex_).build();
-      
-      ImageProcessor ch1Proc = studio_.data().ij().createProcessor(ch1Image);
-      ImageProcessor ch2Proc = studio_.data().ij().createProcessor(ch2Image);
-      if (bc1_ != null) {
-         ch1Proc = subtractImageProcessors(ch1Proc, bc1_.getProcessor());
-      }
-      if (bc2_ != null) {
-         ch2Proc = subtractImageProcessors(ch2Proc, bc2_.getProcessor());
-      }
-      ch1Proc = ch1Proc.convertToFloat();
-      ch2Proc = ch2Proc.convertToFloat();
-      ch1Proc.subtract(bc1Constant_);
-      ch2Proc.subtract(bc2Constant_);
-      ImageProcessor ch3Proc = ch1Proc.createProcessor(ch1Proc.getWidth(), 
-              ch1Proc.getHeight());
-      ch3Proc.insert(ch1Proc, 0, 0);
-      ch3Proc.copyBits(ch2Proc, 0, 0, Blitter.DIVIDE);
-      ch3Proc.multiply(factor_);
-      
-      if (ch1Image.getBytesPerPixel() == 1) {
-         // check this actually works....
-         ch3Proc = ch3Proc.convertToByteProcessor();
-      } else if (ch1Image.getBytesPerPixel() == 2) {
-         // ImageJ method seems to be broken. Copied code from ImageJ1 here
-         ch3Proc = convertFloatToShort((FloatProcessor) ch3Proc);
-      }
-      int max = (int) ch3Proc.getMax();
+
+      if (ch1Image.getWidth() != ch2Image.getWidth()
+              || ch1Image.getHeight() != ch2Image.getHeight()
+              || ch1Image.getBytesPerPixel() != ch2Image.getBytesPerPixel()) {
+         studio_.logs().logError("Ratio Imaging: channels differ in size or pixel type");
+         return;
+      }
+      RatioKernel kernel = getKernel(ch1Image);
+      Object ratioPixels = kernel.compute(ch1Image.getRawPixels(), ch2Image.getRawPixels());
+
+      int max = kernel.getMaxValue();
       int bitDepth = 1;
       while ((1 << bitDepth) < max && bitDepth <= ch1Image.getBytesPerPixel() * 8) {
          bitDepth += 1;
       }
       
-      Image ratioImage = studio_.data().ij().createImage(ch3Proc, ratioCoords, 
+      Image ratioImage = studio_.data().wrapImage(ratioPixels, kernel.getWidth(),
+              kernel.getHeight(), kernel.getBytesPerPixel(), 1, ratioCoords,
               ch1Image.getMetadata().copyBuilderWithNewUUID().bitDepth(bitDepth)
                           .build());
       
       context.outputImage(ratioImage);
    }
-   
+
    /**
-    * Copied from https://github.com/imagej/imagej1/blob/master/ij/process/TypeConverter.java.
-    *
-    * <p>The call to chrProc.convertToShortProcess results in pixel values of -1
-    * Not sure why (but in included ImageJ version?) 
-    * Copying the relevant code from the ImageJ1 source fixes it
-    *
-    * @param ip FloatProcessor to be converted
-    * @return Shortprocessor
+    * Returns the kernel for images like the given one, creating a new one when
+    * the image geometry changed.
+    */
+   private RatioKernel getKernel(Image image) {
+      if (kernel_ != null && kernel_.getWidth() == image.getWidth()
+              && kernel_.getHeight() == image.getHeight()
+              && kernel_.getBytesPerPixel() == image.getBytesPerPixel()) {
+         return kernel_;
+      }
+      final int nrThreads = Runtime.getRuntime().availableProcessors();
+      if (executor_ == null && nrThreads > 1) {
+         executor_ = Executors.newFixedThreadPool(nrThreads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+               Thread t = new Thread(r, "Ratio Imaging");
+               t.setDaemon(true);
+               return t;
+            }
+         });
+      }
+      kernel_ = new RatioKernel(image.getWidth(), image.getHeight(),
+              image.getBytesPerPixel(),
+              backgroundPixels(bc1_, image), backgroundPixels(bc2_, image),
+              bc1Constant_, bc2Constant_, factor_, threshold1_, threshold2_,
+              executor_, nrThreads);
+      return kernel_;
+   }
+
+   /**
+    * Returns the unsigned pixel values of the background, or null if there is
+    * no (usable) background.
     */
-   ShortProcessor convertFloatToShort(FloatProcessor ip) {
-      float[] pixels32 = (float[]) ip.getPixels();
-      short[] pixels16 = new short[ip.getWidth() * ip.getHeight()];
-      double value;
-      for (int i = 0, j = 0; i < (ip.getWidth() * ip.getHeight()); i++) {
-         value = pixels32[i];
-         if (value < 0.0) {
-            value = 0.0;
+   private int[] backgroundPixels(ImagePlus background, Image image) {
+      if (background == null) {
+         return null;
+      }
+      ImageProcessor proc = background.getProcessor();
+      if (proc.getWidth() != image.getWidth() || proc.getHeight() != image.getHeight()) {
+         studio_.logs().logError("Ratio Imaging: background image size does not "
+                 + "match image size, ignoring background");
+         return null;
+      }
+      Object pixels = proc.getPixels();
+      int[] result = new int[image.getWidth() * image.getHeight()];
+      if (pixels instanceof byte[]) {
+         byte[] bytes = (byte[]) pixels;
+         for (int i = 0; i < result.length; i++) {
+            result[i] = unsignedValue(bytes[i]);
          }
-         if (value > 65535.0) {
-            value = 65535.0;
+      } else if (pixels instanceof short[]) {
+         short[] shorts = (short[]) pixels;
+         for (int i = 0; i < result.length; i++) {
+            result[i] = unsignedValue(shorts[i]);
          }
-         pixels16[i] = (short) (value + 0.5);
+      } else {
+         return null;
+      }
+      return result;
+   }
+
+   @Override
+   public void cleanup(ProcessorContext context) {
+      if (executor_ != null) {
+         executor_.shutdown();
+         executor_ = null;
       }
-      return new ShortProcessor(ip.getWidth(), ip.getHeight(), pixels16, ip.getColorModel());
+      kernel_ = null;
    }
    
    private static ByteProcessor subtractByteProcessors(ByteProcessor proc1, ByteProcessor proc2) {
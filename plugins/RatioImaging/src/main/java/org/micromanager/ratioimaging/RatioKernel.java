@@ -0,0 +1,322 @@
+///////////////////////////////////////////////////////////////////////////////
+//FILE:          RatioKernel.java
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     mmstudio
+//-----------------------------------------------------------------------------
+//
+// COPYRIGHT:    University of California, San Francisco, 2018
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.ratioimaging;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Calculates ratio images directly from the raw pixel arrays.
+ *
+ * <p>Background subtraction (image and constant), thresholding, division,
+ * scaling and conversion back to integer pixels all happen in a single pass
+ * over the pixels, using no temporary images.  The image is divided into
+ * tiles of rows that are processed in parallel when an executor is given.
+ *
+ * <p>The ratio is calculated as
+ * ((ch1 - background1) - constant1) / ((ch2 - background2) - constant2) * factor,
+ * where image background subtraction is clipped at zero.  16-bit results are
+ * clipped to [0, 65535], exactly like the ImageJ-based calculation used
+ * before.  8-bit results are scaled between the minimum and maximum finite
+ * ratio (the ImageJ-based calculation used the stale display range of
+ * channel 1 instead).
+ * A pixel whose corrected value is below the threshold of its channel
+ * (when that threshold is larger than zero) is set to zero.
+ *
+ * <p>Instances are not thread safe: one kernel should be used by one
+ * processor.  The float buffer holding the ratio is reused between calls.
+ */
+final class RatioKernel {
+   // Do not bother splitting images that are smaller than this.
+   private static final int MIN_PIXELS_PER_TILE = 64 * 1024;
+
+   private final int width_;
+   private final int height_;
+   private final int bytesPerPixel_;
+   private final int[] background1_;
+   private final int[] background2_;
+   private final float constant1_;
+   private final float constant2_;
+   private final float factor_;
+   private final float threshold1_;
+   private final float threshold2_;
+   private final ExecutorService executor_;
+   private final int nrTiles_;
+   private final float[] ratio_;
+   private int maxValue_;
+
+   /**
+    * Creates a kernel for images of the given geometry.
+    *
+    * @param width Width of the images, in pixels
+    * @param height Height of the images, in pixels
+    * @param bytesPerPixel 1 or 2
+    * @param background1 Unsigned background for channel 1, or null
+    * @param background2 Unsigned background for channel 2, or null
+    * @param constant1 Constant subtracted from channel 1
+    * @param constant2 Constant subtracted from channel 2
+    * @param factor Ratio is multiplied by this factor
+    * @param threshold1 Minimum corrected channel 1 value, ignored when <= 0
+    * @param threshold2 Minimum corrected channel 2 value, ignored when <= 0
+    * @param executor Executor used to process tiles in parallel, or null to
+    *                 do all work on the calling thread
+    * @param nrThreads Number of tiles to divide the image in
+    */
+   RatioKernel(int width, int height, int bytesPerPixel,
+               int[] background1, int[] background2,
+               int constant1, int constant2, int factor,
+               int threshold1, int threshold2,
+               ExecutorService executor, int nrThreads) {
+      if (bytesPerPixel != 1 && bytesPerPixel != 2) {
+         throw new IllegalArgumentException("Only 8 and 16 bit images are supported");
+      }
+      int nrPixels = width * height;
+      if ((background1 != null && background1.length != nrPixels)
+            || (background2 != null && background2.length != nrPixels)) {
+         throw new IllegalArgumentException("Background size does not match image size");
+      }
+      width_ = width;
+      height_ = height;
+      bytesPerPixel_ = bytesPerPixel;
+      background1_ = background1;
+      background2_ = background2;
+      constant1_ = constant1;
+      constant2_ = constant2;
+      factor_ = factor;
+      threshold1_ = threshold1;
+      threshold2_ = threshold2;
+      executor_ = executor;
+      int nrTiles = executor == null ? 1 : Math.max(1, nrThreads);
+      nrTiles = Math.min(nrTiles, Math.max(1, nrPixels / MIN_PIXELS_PER_TILE));
+      nrTiles_ = Math.min(nrTiles, Math.max(1, height));
+      ratio_ = new float[nrPixels];
+   }
+
+   int getWidth() {
+      return width_;
+   }
+
+   int getHeight() {
+      return height_;
+   }
+
+   int getBytesPerPixel() {
+      return bytesPerPixel_;
+   }
+
+   /**
+    * Returns the buffer holding the (float) ratio values of the last call
+    * to compute.  Its content will be overwritten by the next call.
+    */
+   float[] getRatioBuffer() {
+      return ratio_;
+   }
+
+   /**
+    * @return Highest pixel value in the image returned by the last call to
+    *     compute.
+    */
+   int getMaxValue() {
+      return maxValue_;
+   }
+
+   /**
+    * Calculates the ratio image.
+    *
+    * @param ch1Pixels byte[] or short[] with the raw channel 1 pixels
+    * @param ch2Pixels byte[] or short[] with the raw channel 2 pixels
+    * @return newly allocated byte[] or short[] (matching the input) with the
+    *     ratio image
+    */
+   Object compute(final Object ch1Pixels, final Object ch2Pixels) {
+      final int nrPixels = width_ * height_;
+      final Object output = bytesPerPixel_ == 1 ? new byte[nrPixels] : new short[nrPixels];
+      // Per tile: minimum and maximum ratio (8 bit), maximum output value (16 bit)
+      final float[] tileMin = new float[nrTiles_];
+      final float[] tileMax = new float[nrTiles_];
+      final int[] tileMaxValue = new int[nrTiles_];
+
+      runTiles(new TileTask() {
+         @Override
+         public void run(int tile, int start, int end) {
+            if (bytesPerPixel_ == 2) {
+               tileMaxValue[tile] = ratioToShort((short[]) ch1Pixels,
+                     (short[]) ch2Pixels, (short[]) output, start, end);
+            } else {
+               float[] minMax = ratioToFloat((byte[]) ch1Pixels, (byte[]) ch2Pixels,
+                     start, end);
+               tileMin[tile] = minMax[0];
+               tileMax[tile] = minMax[1];
+            }
+         }
+      });
+
+      if (bytesPerPixel_ == 2) {
+         int max = 0;
+         for (int v : tileMaxValue) {
+            max = Math.max(max, v);
+         }
+         maxValue_ = max;
+         return output;
+      }
+
+      // 8 bit output is scaled between min and max of the ratio, which
+      // requires a second pass.
+      float min = Float.MAX_VALUE;
+      float max = -Float.MAX_VALUE;
+      for (int t = 0; t < nrTiles_; t++) {
+         min = Math.min(min, tileMin[t]);
+         max = Math.max(max, tileMax[t]);
+      }
+      if (min > max) {
+         // No finite values at all
+         min = 0.0f;
+         max = 0.0f;
+      }
+      final float fMin = min;
+      final float scale = 255.0f / (max - min);
+      runTiles(new TileTask() {
+         @Override
+         public void run(int tile, int start, int end) {
+            tileMaxValue[tile] = floatToByte((byte[]) output, fMin, scale, start, end);
+         }
+      });
+      int maxValue = 0;
+      for (int v : tileMaxValue) {
+         maxValue = Math.max(maxValue, v);
+      }
+      maxValue_ = maxValue;
+      return output;
+   }
+
+   private float ratio(int raw1, int raw2, int i) {
+      if (background1_ != null) {
+         raw1 = Math.max(0, raw1 - background1_[i]);
+      }
+      if (background2_ != null) {
+         raw2 = Math.max(0, raw2 - background2_[i]);
+      }
+      float v1 = raw1 - constant1_;
+      float v2 = raw2 - constant2_;
+      if ((threshold1_ > 0.0f && v1 < threshold1_)
+            || (threshold2_ > 0.0f && v2 < threshold2_)) {
+         return 0.0f;
+      }
+      return v1 / v2 * factor_;
+   }
+
+   private int ratioToShort(short[] ch1, short[] ch2, short[] out, int start, int end) {
+      int max = 0;
+      for (int i = start; i < end; i++) {
+         float r = ratio(ch1[i] & 0xffff, ch2[i] & 0xffff, i);
+         ratio_[i] = r;
+         double value = r;
+         if (value < 0.0) {
+            value = 0.0;
+         }
+         if (value > 65535.0) {
+            value = 65535.0;
+         }
+         int v = (int) (value + 0.5);
+         out[i] = (short) v;
+         if (v > max) {
+            max = v;
+         }
+      }
+      return max;
+   }
+
+   private float[] ratioToFloat(byte[] ch1, byte[] ch2, int start, int end) {
+      float min = Float.MAX_VALUE;
+      float max = -Float.MAX_VALUE;
+      for (int i = start; i < end; i++) {
+         float r = ratio(ch1[i] & 0xff, ch2[i] & 0xff, i);
+         ratio_[i] = r;
+         // Like ImageJ, ignore infinite values when determining the range
+         if (!Float.isInfinite(r)) {
+            if (r < min) {
+               min = r;
+            }
+            if (r > max) {
+               max = r;
+            }
+         }
+      }
+      return new float[] {min, max};
+   }
+
+   private int floatToByte(byte[] out, float min, float scale, int start, int end) {
+      int max = 0;
+      for (int i = start; i < end; i++) {
+         float value = ratio_[i] - min;
+         if (value < 0.0f) {
+            value = 0.0f;
+         }
+         int v = (int) (value * scale + 0.5f);
+         if (v > 255) {
+            v = 255;
+         }
+         out[i] = (byte) v;
+         if (v > max) {
+            max = v;
+         }
+      }
+      return max;
+   }
+
+   private interface TileTask {
+      void run(int tile, int start, int end);
+   }
+
+   private void runTiles(final TileTask task) {
+      if (nrTiles_ == 1) {
+         task.run(0, 0, width_ * height_);
+         return;
+      }
+      int rowsPerTile = (height_ + nrTiles_ - 1) / nrTiles_;
+      List<Future<Void>> futures = new ArrayList<>(nrTiles_);
+      for (int t = 0; t < nrTiles_; t++) {
+         final int tile = t;
+         final int start = Math.min(height_, t * rowsPerTile) * width_;
+         final int end = Math.min(height_, (t + 1) * rowsPerTile) * width_;
+         futures.add(executor_.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+               task.run(tile, start, end);
+               return null;
+            }
+         }));
+      }
+      try {
+         for (Future<Void> future : futures) {
+            future.get();
+         }
+      } catch (InterruptedException ie) {
+         Thread.currentThread().interrupt();
+         throw new RuntimeException(ie);
+      } catch (ExecutionException ee) {
+         throw new RuntimeException(ee.getCause());
+      }
+   }
+}
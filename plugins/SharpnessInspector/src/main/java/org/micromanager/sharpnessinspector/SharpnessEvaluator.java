@@ -46,6 +46,11 @@ public class SharpnessEvaluator {
    }
     
    public double evaluate(Image img, Rectangle r) {
+      if (img.getNumComponents() == 1
+            && (img.getBytesPerPixel() == 1 || img.getBytesPerPixel() == 2)) {
+         // Score the ROI in place, without copying it into a new processor.
+         return anl.compute(img.getRawPixels(), img.getWidth(), img.getHeight(), r);
+      }
       ImageProcessor proc = MMStudio.getInstance().data().getImageJConverter().createProcessor(img);
       proc.setRoi(r);
       proc = proc.crop();
@@ -45,6 +45,7 @@ import java.util.Map;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import mmcorej.CMMCore;
+import org.micromanager.PollingManager;
 import org.micromanager.PropertyMap;
 import org.micromanager.PropertyMaps;
 import org.micromanager.Studio;
@@ -65,7 +66,8 @@ import org.micromanager.propertymap.MutablePropertyMapView;
  * snaps.
  *
  * <p>Monitored items (typically stage positions) can be updated either by
- * notifications from the Core, or by polling.
+ * notifications from the Core, or by polling. Polling is done by the Studio
+ * polling service, which shares reads with other plugins.
  */
 class MainController {
    private final Studio studio_;
@@ -94,6 +96,13 @@ class MainController {
    private final LinkedBlockingQueue<Map.Entry<MonitoredItem, MonitoredValue>>
          eventQueue_ = new LinkedBlockingQueue<>();
 
+   // Subscriptions to the polling service for items that require polling.
+   // Only accessed from monitoring thread.
+   private final List<PollingManager.Subscription> pollingSubscriptions_ =
+         new ArrayList<>();
+   // Polling interval of pollingSubscriptions_; only accessed from monitoring thread.
+   private long subscribedIntervalMs_;
+
    // The monitoring thread; null when stopped or paused
    private Thread monitorThread_;
 
@@ -111,6 +120,7 @@ class MainController {
    }
 
    private static final String WARNING_TITLE = "Snap-on-Live Error";
+   private static final long READ_NOW_TIMEOUT_MS = 1000L;
 
    private static final String PROFILE_KEY_POLLING_INTERVAL_MS =
          "Polling interval in milliseconds";
@@ -273,9 +283,11 @@ class MainController {
    private void monitorLoop() {
       try {
          initializeMonitoredValues();
+         subscribeToPolledItems();
          statusAlert_ = studio_.alerts().postUpdatableAlert("Snap-on-Move",
                String.format("Monitoring %d item(s)...", changeCriteria_.size()));
          for (; ; ) {
+            readPolledItemsNow();
             lastSnapValues_.clear();
             synchronized (latestValues_) {
                lastSnapValues_.putAll(latestValues_);
@@ -297,14 +309,57 @@ class MainController {
             statusAlert_.dismiss();
             statusAlert_ = null;
          }
+      } finally {
+         cancelPollingSubscriptions();
+      }
+   }
+
+   private void cancelPollingSubscriptions() {
+      for (PollingManager.Subscription subscription : pollingSubscriptions_) {
+         subscription.cancel();
+      }
+      pollingSubscriptions_.clear();
+   }
+
+   /**
+    * Have the polling service poll the items that require polling, at the
+    * current polling interval. Polled values are queued like the ones from
+    * Core notifications; failed reads are posted as alerts.
+    */
+   private void subscribeToPolledItems() {
+      cancelPollingSubscriptions();
+      subscribedIntervalMs_ = getPollingIntervalMs();
+      double maxRateHz = 1000.0 / Math.max(1L, subscribedIntervalMs_);
+      for (ChangeCriterion cc : changeCriteria_) {
+         if (!cc.requiresPolling()) {
+            continue;
+         }
+         final MonitoredItem item = cc.getMonitoredItem();
+         pollingSubscriptions_.add(item.subscribe(studio_.polling(), maxRateHz,
+               value -> queueValue(item, value),
+               message -> studio_.alerts().postAlert(WARNING_TITLE, WarningAlertTag.class,
+                     "Device error: " + message)));
+      }
+   }
+
+   /**
+    * Bring the polled items up to date, so that the values recorded for a
+    * snap are current and the next poll is not mistaken for a change.
+    *
+    * @throws InterruptedException if current thread is interrupted
+    */
+   private void readPolledItemsNow() throws InterruptedException {
+      long timeoutMs = Math.max(READ_NOW_TIMEOUT_MS, getPollingIntervalMs());
+      for (PollingManager.Subscription subscription : pollingSubscriptions_) {
+         subscription.readNow(timeoutMs);
       }
    }
 
    /**
     * Wait for at least the polling interval, or until a change is detected.
     *
-    * <p>Ensures that latestValues_ reflect just-polled values, which can be
-    * considered the "current" values for an immediately following snap.
+    * <p>Polled items reach the event queue through the polling service, so
+    * changes of polled and notified items are detected the same way.
     *
     * @throws InterruptedException if current thread is interrupted
     */
@@ -313,21 +368,11 @@ class MainController {
          throw new InterruptedException();
       }
       Thread.sleep(getPollingIntervalMs());
-      long pollingDeadlineMs = 0; // The first poll should happen immediately
-      for (; ; ) {
-         if (waitForEvents(pollingDeadlineMs)) {
-            // We have detected a change based on an event.
-            // Bring the polled items up to date:
-            pollDevices();
-            return;
-         }
-         // Polling deadline passed without any change detected by events.
-         // See if any of the polled items have changed:
-         if (pollDevices()) {
-            return;
+      do {
+         if (getPollingIntervalMs() != subscribedIntervalMs_) {
+            subscribeToPolledItems();
          }
-         pollingDeadlineMs = System.currentTimeMillis() + getPollingIntervalMs();
-      }
+      } while (!waitForEvents(System.currentTimeMillis() + getPollingIntervalMs()));
    }
 
    /**
@@ -376,43 +421,6 @@ class MainController {
       return false;
    }
 
-   private boolean pollDevices() throws InterruptedException {
-      CMMCore core = getCore();
-      if (core == null) {
-         studio_.alerts().postAlert(WARNING_TITLE, WarningAlertTag.class,
-               "Cannot access devices");
-         return false;
-      }
-
-      boolean changeDetected = false;
-      for (ChangeCriterion cc : changeCriteria_) {
-         if (!cc.requiresPolling()) {
-            continue;
-         }
-
-         MonitoredItem item = cc.getMonitoredItem();
-         MonitoredValue value = null;
-         try {
-            value = item.poll(core);
-         } catch (MonitoredItem.DeviceError err) {
-            studio_.alerts().postAlert(WARNING_TITLE, WarningAlertTag.class,
-                  "Device error: " + err.getMessage());
-         }
-         if (value != null) {
-            synchronized (latestValues_) {
-               latestValues_.put(item, value);
-            }
-            if (cc.testForChange(lastSnapValues_.get(item), value)) {
-               changeDetected = true;
-            }
-         }
-         if (Thread.interrupted()) {
-            throw new InterruptedException();
-         }
-      }
-      return changeDetected;
-   }
-
    /**
     * Retrieve the initial values for all monitored items.
     */
@@ -454,15 +462,7 @@ class MainController {
          return;
       }
 
-      MonitoredValue value = MonitoredValue.createFloatValue(e.getPos());
-      try {
-         synchronized (latestValues_) {
-            latestValues_.put(item, value);
-         }
-         eventQueue_.put(new AbstractMap.SimpleEntry<>(item, value));
-      } catch (InterruptedException unexpected) {
-         Thread.currentThread().interrupt();
-      }
+      queueValue(item, MonitoredValue.createFloatValue(e.getPos()));
    }
 
    @Subscribe
@@ -478,7 +478,10 @@ class MainController {
          return;
       }
 
-      MonitoredValue value = MonitoredValue.createXYValue(e.getXPos(), e.getYPos());
+      queueValue(item, MonitoredValue.createXYValue(e.getXPos(), e.getYPos()));
+   }
+
+   private void queueValue(MonitoredItem item, MonitoredValue value) {
       try {
          synchronized (latestValues_) {
             latestValues_.put(item, value);
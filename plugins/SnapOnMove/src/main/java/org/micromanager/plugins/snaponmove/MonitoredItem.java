@@ -33,7 +33,10 @@
 package org.micromanager.plugins.snaponmove;
 
 import java.awt.geom.Point2D;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import mmcorej.CMMCore;
+import org.micromanager.PollingManager;
 import org.micromanager.plugins.snaponmove.MonitoredValue.MonitoredFloatValue;
 import org.micromanager.plugins.snaponmove.MonitoredValue.MonitoredXYValue;
 
@@ -94,6 +97,38 @@ abstract class MonitoredItem {
     */
    abstract MonitoredValue poll(CMMCore core) throws DeviceError;
 
+   /**
+    * Have the Studio polling service poll this item.
+    *
+    * @param polling the polling service
+    * @param maxRateHz how often the item needs to be read
+    * @param consumer receives the values when they change
+    * @param errorHandler receives the message of each failed read
+    * @return the subscription, to be cancelled when monitoring stops
+    */
+   abstract PollingManager.Subscription subscribe(PollingManager polling, double maxRateHz,
+                                                  Consumer<MonitoredValue> consumer,
+                                                  Consumer<String> errorHandler);
+
+   /**
+    * Listener that converts polled values, and passes on read failures.
+    */
+   private static PollingManager.Listener createListener(
+         Function<PollingManager.Value, MonitoredValue> converter,
+         Consumer<MonitoredValue> consumer, Consumer<String> errorHandler) {
+      return new PollingManager.Listener() {
+         @Override
+         public void onValueChanged(PollingManager.Value value) {
+            consumer.accept(converter.apply(value));
+         }
+
+         @Override
+         public void onReadFailed(String device, Exception error) {
+            errorHandler.accept(error.getMessage());
+         }
+      };
+   }
+
    static MonitoredItem createZItem(String label) {
       return new ZMonitoredItem(label);
    }
@@ -145,6 +180,15 @@ abstract class MonitoredItem {
             throw new DeviceError(deviceError.getMessage());
          }
       }
+
+      @Override
+      PollingManager.Subscription subscribe(PollingManager polling, double maxRateHz,
+                                            Consumer<MonitoredValue> consumer,
+                                            Consumer<String> errorHandler) {
+         return polling.subscribeStagePosition(getDeviceLabel(), maxRateHz, createListener(
+               value -> new MonitoredFloatValue(value.getPosition()[0]),
+               consumer, errorHandler));
+      }
    }
 
    static class XYMonitoredItem extends MonitoredItem {
@@ -166,5 +210,14 @@ abstract class MonitoredItem {
             throw new DeviceError(deviceError.getMessage());
          }
       }
+
+      @Override
+      PollingManager.Subscription subscribe(PollingManager polling, double maxRateHz,
+                                            Consumer<MonitoredValue> consumer,
+                                            Consumer<String> errorHandler) {
+         return polling.subscribeXYStagePosition(getDeviceLabel(), maxRateHz, createListener(
+               value -> new MonitoredXYValue(value.getPosition()[0], value.getPosition()[1]),
+               consumer, errorHandler));
+      }
    }
 }